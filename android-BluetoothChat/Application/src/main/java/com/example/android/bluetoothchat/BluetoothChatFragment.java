@@ -17,10 +17,16 @@
 package com.example.android.bluetoothchat;
 
 import android.app.ActionBar;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
+import android.support.v7.widget.RecyclerView;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -29,42 +35,54 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.EditorInfo;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
+import android.widget.SearchView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.bluetoothchat.conversation.ConversationController;
+import com.example.android.bluetoothchat.history.HistoryRecorder;
+import com.example.android.bluetoothchat.history.MessageStore;
+import com.example.android.bluetoothchat.search.SearchController;
 import com.example.android.common.logger.Log;
 
-import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageInstance;
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageHostService;
 import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService;
 import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothAdapterListener;
 import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothDeviceListener;
-import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothMessageListener;
 import br.com.kanamobi.wrappedbluetoothmessage.exceptions.BluetoothNotAvailableException;
 
 /**
  * This fragment controls Bluetooth to communicate with other devices.
  */
 public class BluetoothChatFragment extends Fragment
-        implements BluetoothAdapterListener, BluetoothDeviceListener, BluetoothMessageListener {
+        implements BluetoothAdapterListener, BluetoothDeviceListener {
 
     private static final String TAG = "BluetoothChatFragment";
 
     // Layout Views
-    private ListView mConversationView;
+    private RecyclerView mConversationView;
+    private RecyclerView mSearchResultsView;
     private EditText mOutEditText;
     private Button mSendButton;
 
     /**
-     * Array adapter for the conversation thread
+     * Shows the conversation thread from the message store
      */
-    private ArrayAdapter<String> mConversationArrayAdapter;
+    private ConversationController mConversation;
+
+    /**
+     * Shows the results of a history search, in place of the conversation
+     */
+    private SearchController mSearch;
 
     private BluetoothMessageService mMessageService;
 
+    private boolean mHostBound;
+
+    private MessageStore mMessageStore;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -72,22 +90,59 @@ public class BluetoothChatFragment extends Fragment
         // Get local Bluetooth adapter
 
         initBluetoothMessageService();
+
+        mMessageStore = MessageStore.getInstance(getActivity());
     }
 
     private void initBluetoothMessageService() {
         FragmentActivity activity = getActivity();
         try {
-            mMessageService = BluetoothMessageInstance.init(activity);
+            // The connection lives in the host service, this fragment only borrows it
+            BluetoothMessageHostService.start(activity);
         } catch (BluetoothNotAvailableException e) {
             e.printStackTrace();
             Toast.makeText(activity, "Bluetooth is not available", Toast.LENGTH_LONG).show();
             activity.finish();
+            return;
         }
+        mHostBound = activity.bindService(new Intent(activity, BluetoothMessageHostService.class),
+                mHostConnection, Context.BIND_AUTO_CREATE);
     }
 
+    /**
+     * Gets the message service once the host is bound, which is usually after onResume()
+     */
+    private final ServiceConnection mHostConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mMessageService = ((BluetoothMessageHostService.LocalBinder) binder).getService();
+            if (mMessageService == null) {
+                return;
+            }
+            // Stays set when this fragment goes, messages arriving meanwhile are stored too
+            mMessageService.setBluetoothPeerMessageListener(
+                    HistoryRecorder.getInstance(getActivity()));
+            if (isResumed()) {
+                checkBtEnabled();
+                attachMessageService();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mMessageService = null;
+        }
+    };
+
     @Override
     public void onStart() {
         super.onStart();
+        if (mMessageService != null) {
+            checkBtEnabled();
+        }
+    }
+
+    private void checkBtEnabled() {
         // If BT is not on, request that it be enabled.
         // setupChat() will then be called during onActivityResult
         if (!mMessageService.isBtEnabled()) {
@@ -101,10 +156,34 @@ public class BluetoothChatFragment extends Fragment
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (mMessageService == null) {
-            return;
+        if (mConversation != null) {
+            mConversation.release();
+        }
+        mMessageStore.flush();
+        if (mMessageService != null) {
+            // The service outlives this fragment, it must not keep calling into it
+            mMessageService.setBluetoothAdapterListener(null);
+            mMessageService.setBluetoothDeviceListener(null);
+            mMessageService = null;
+        }
+        FragmentActivity activity = getActivity();
+        if (mHostBound) {
+            activity.unbindService(mHostConnection);
+            mHostBound = false;
+        }
+        // Recreated for a configuration change the connection stays, leaving the chat closes it
+        if (activity.isFinishing()) {
+            BluetoothMessageHostService.stop(activity);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (mConversation != null) {
+            // Hidden conversations are read from the store again when shown
+            mConversation.trimMemory();
         }
-        mMessageService.stop();
     }
 
     @Override
@@ -115,17 +194,21 @@ public class BluetoothChatFragment extends Fragment
         // not enabled during onStart(), so we were paused to enable it...
         // onResume() will be called when ACTION_REQUEST_ENABLE activity returns.
         if (mMessageService != null) {
+            attachMessageService();
+        }
+    }
 
-            mMessageService.setBluetoothAdapterListener(this);
-            mMessageService.setBluetoothDeviceListener(this);
-            mMessageService.setBluetoothMessageListener(this);
-
-            // Only if the state is STATE_NONE, do we know that we haven't started already
-            if (mMessageService.getState() == BluetoothMessageService.STATE_NONE) {
-                // Start the Bluetooth chat services
-                mMessageService.start();
-            }
-
+    private void attachMessageService() {
+        mMessageService.setBluetoothAdapterListener(this);
+        mMessageService.setBluetoothDeviceListener(this);
+
+        // Only if the state is STATE_NONE, do we know that we haven't started already
+        if (mMessageService.getState() == BluetoothMessageService.STATE_NONE) {
+            // Start the Bluetooth chat services
+            mMessageService.start();
+        } else if (mMessageService.getState() == BluetoothMessageService.STATE_CONNECTED) {
+            // Connected before this fragment was recreated, nothing will tell it again
+            onDeviceStateConnected(mMessageService.getConnectedDeviceName());
         }
     }
 
@@ -137,7 +220,8 @@ public class BluetoothChatFragment extends Fragment
 
     @Override
     public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
-        mConversationView = (ListView) view.findViewById(R.id.in);
+        mConversationView = (RecyclerView) view.findViewById(R.id.in);
+        mSearchResultsView = (RecyclerView) view.findViewById(R.id.search_results);
         mOutEditText = (EditText) view.findViewById(R.id.edit_text_out);
         mSendButton = (Button) view.findViewById(R.id.button_send);
     }
@@ -148,10 +232,10 @@ public class BluetoothChatFragment extends Fragment
     private void setupChat() {
         Log.d(TAG, "setupChat()");
 
-        // Initialize the array adapter for the conversation thread
-        mConversationArrayAdapter = new ArrayAdapter<String>(getActivity(), R.layout.message);
-
-        mConversationView.setAdapter(mConversationArrayAdapter);
+        // Initialize the view of the conversation thread
+        if (mConversation == null) {
+            mConversation = new ConversationController(mConversationView, mMessageStore);
+        }
 
         // Initialize the compose field with a listener for the return key
         mOutEditText.setOnEditorActionListener(mWriteListener);
@@ -177,7 +261,8 @@ public class BluetoothChatFragment extends Fragment
      */
     private void sendMessage(String message) {
         // Check that we're actually connected before trying anything
-        if (mMessageService.getState() != BluetoothMessageService.STATE_CONNECTED) {
+        if (mMessageService == null
+                || mMessageService.getState() != BluetoothMessageService.STATE_CONNECTED) {
             Toast.makeText(getActivity(), R.string.not_connected, Toast.LENGTH_SHORT).show();
             return;
         }
@@ -240,10 +325,66 @@ public class BluetoothChatFragment extends Fragment
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.bluetooth_chat, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.search_history);
+        searchItem.setOnActionExpandListener(mSearchExpandListener);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_history));
+        searchView.setOnQueryTextListener(mSearchListener);
     }
 
+    /**
+     * Shows the search results instead of the conversation while the search field is open
+     */
+    private final MenuItem.OnActionExpandListener mSearchExpandListener
+            = new MenuItem.OnActionExpandListener() {
+        @Override
+        public boolean onMenuItemActionExpand(MenuItem item) {
+            if (mSearch == null) {
+                mSearch = new SearchController(mSearchResultsView, mMessageStore);
+            }
+            mConversationView.setVisibility(View.GONE);
+            mSearchResultsView.setVisibility(View.VISIBLE);
+            return true;
+        }
+
+        @Override
+        public boolean onMenuItemActionCollapse(MenuItem item) {
+            mSearch.clear();
+            mSearchResultsView.setVisibility(View.GONE);
+            mConversationView.setVisibility(View.VISIBLE);
+            return true;
+        }
+    };
+
+    /**
+     * Searches while typing, the word being typed matches as a prefix
+     */
+    private final SearchView.OnQueryTextListener mSearchListener
+            = new SearchView.OnQueryTextListener() {
+        @Override
+        public boolean onQueryTextChange(String newText) {
+            if (mSearch != null) {
+                mSearch.search(newText, !newText.endsWith(" "));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onQueryTextSubmit(String query) {
+            if (mSearch != null) {
+                mSearch.search(query, false);
+            }
+            return true;
+        }
+    };
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (mMessageService == null) {
+            // The host service is not bound yet
+            return false;
+        }
         switch (item.getItemId()) {
             case R.id.secure_connect_scan: {
                 // Launch the DeviceListActivity to see devices and do scan
@@ -285,7 +426,9 @@ public class BluetoothChatFragment extends Fragment
     public void onDeviceStateConnected(String deviceName) {
         setStatus(getString(R.string.title_connected_to,
                 mMessageService.getConnectedDeviceName()));
-        mConversationArrayAdapter.clear();
+        if (mConversation != null) {
+            mConversation.show(mMessageService.getConnectedDeviceAddress());
+        }
     }
 
     @Override
@@ -309,14 +452,4 @@ public class BluetoothChatFragment extends Fragment
         Toast.makeText(getActivity(), R.string.message_unable_to_connect_device,
                 Toast.LENGTH_SHORT).show();
     }
-
-    @Override
-    public void onMessageWrite(String message) {
-        mConversationArrayAdapter.add("Me:  " + message);
-    }
-
-    @Override
-    public void onMessageRead(String message) {
-        mConversationArrayAdapter.add(mMessageService.getConnectedDeviceName() + ":  " + message);
-    }
 }
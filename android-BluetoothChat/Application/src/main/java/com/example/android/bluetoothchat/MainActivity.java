@@ -25,12 +25,20 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.ViewAnimator;
 
+import java.io.File;
+
 import com.example.android.common.activities.SampleActivityBase;
+import com.example.android.common.logger.AsyncLogNode;
+import com.example.android.common.logger.BinaryLogNode;
 import com.example.android.common.logger.Log;
 import com.example.android.common.logger.LogFragment;
+import com.example.android.common.logger.LogNode;
 import com.example.android.common.logger.LogWrapper;
 import com.example.android.common.logger.MessageOnlyLogFilter;
 
+import br.com.kanamobi.wrappedbluetoothmessage.log.LogSink;
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+
 /**
  * A simple launcher activity containing a summary sample description, sample log and a custom
  * {@link android.support.v4.app.Fragment} which can display a view.
@@ -96,10 +104,28 @@ public class MainActivity extends SampleActivityBase {
     /** Create a chain of targets that will receive log data */
     @Override
     public void initializeLogging() {
+        // Hands every line to a background thread, so callers never wait on the chain below.
+        LogNode previous = Log.getLogNode();
+        AsyncLogNode previousAsync = null;
+        BinaryLogNode binaryLog = null;
+        if (previous instanceof AsyncLogNode) {
+            previousAsync = (AsyncLogNode) previous;
+            if (previousAsync.getNext() instanceof BinaryLogNode) {
+                // Keep appending to the same file
+                binaryLog = (BinaryLogNode) previousAsync.getNext();
+            }
+        }
+        AsyncLogNode asyncNode = new AsyncLogNode();
+
+        // Rotating binary log on disk, for looking at field issues after logcat is gone.
+        if (binaryLog == null) {
+            binaryLog = new BinaryLogNode(new File(getFilesDir(), "logs"));
+        }
+        asyncNode.setNext(binaryLog);
+
         // Wraps Android's native log framework.
         LogWrapper logWrapper = new LogWrapper();
-        // Using Log, front-end to the logging chain, emulates android.util.log method signatures.
-        Log.setLogNode(logWrapper);
+        binaryLog.setNext(logWrapper);
 
         // Filter strips out everything except the message text.
         MessageOnlyLogFilter msgFilter = new MessageOnlyLogFilter();
@@ -110,6 +136,22 @@ public class MainActivity extends SampleActivityBase {
                 .findFragmentById(R.id.log_fragment);
         msgFilter.setNext(logFragment.getLogView());
 
+        // Using Log, front-end to the logging chain, emulates android.util.log method signatures.
+        // Only set once the chain is complete, the Bluetooth threads may already be logging.
+        Log.setLogNode(asyncNode);
+        if (previousAsync != null) {
+            // Passes on what it already queued, new lines go to the new node
+            previousAsync.shutdown();
+        }
+
+        // The library logs from its Bluetooth threads, send that into the chain as well.
+        Logger.setSink(new LogSink() {
+            @Override
+            public void println(int priority, String tag, String message, Throwable tr) {
+                Log.println(priority, tag, message, tr);
+            }
+        });
+
         Log.i(TAG, "Ready");
     }
 }
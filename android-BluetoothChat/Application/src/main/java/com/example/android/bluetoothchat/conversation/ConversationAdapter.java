@@ -0,0 +1,113 @@
+package com.example.android.bluetoothchat.conversation;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import java.util.List;
+
+import com.example.android.bluetoothchat.R;
+
+/**
+ * The window of the conversation that is in memory. Items come with their text laid out and
+ * are only ever added or removed at the ends, each change reported as the range it touched.
+ * Ids are the message sequence numbers, so RecyclerView keeps its place while pages come and go.
+ */
+class ConversationAdapter extends RecyclerView.Adapter<ConversationAdapter.Holder> {
+
+    private RingList<ConversationItem> mItems = new RingList<ConversationItem>(0);
+    private final MessageLayoutBuilder mLayoutBuilder;
+    private RecyclerView mRecyclerView;
+
+    ConversationAdapter(MessageLayoutBuilder layoutBuilder) {
+        mLayoutBuilder = layoutBuilder;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show another window, the list is shared and changed in place from now on.
+     */
+    void setItems(RingList<ConversationItem> items) {
+        mItems = items;
+        notifyDataSetChanged();
+    }
+
+    ConversationItem getItem(int position) {
+        return mItems.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).getSequence();
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = null;
+    }
+
+    @Override
+    public Holder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new Holder((MessageView) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.conversation_message, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(Holder holder, int position) {
+        ConversationItem item = mItems.get(position);
+        // Items laid out before the width was known, or for another one, are laid out here
+        int width = holder.mView.getTextWidth(mRecyclerView.getWidth()
+                - mRecyclerView.getPaddingLeft() - mRecyclerView.getPaddingRight());
+        if (item.mLayout == null || item.mLayout.getWidth() != Math.max(width, 1)) {
+            item.mLayout = mLayoutBuilder.build(item.mMessage, width);
+        }
+        holder.mView.setTextLayout(item.mLayout);
+    }
+
+    void addLast(List<ConversationItem> items) {
+        int start = mItems.size();
+        for (int i = 0; i < items.size(); i++) {
+            mItems.addLast(items.get(i));
+        }
+        notifyItemRangeInserted(start, items.size());
+    }
+
+    /**
+     * @param items oldest first
+     */
+    void addFirst(List<ConversationItem> items) {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            mItems.addFirst(items.get(i));
+        }
+        notifyItemRangeInserted(0, items.size());
+    }
+
+    void removeFirst(int count) {
+        mItems.removeFirst(count);
+        notifyItemRangeRemoved(0, count);
+    }
+
+    void removeLast(int count) {
+        mItems.removeLast(count);
+        notifyItemRangeRemoved(mItems.size(), count);
+    }
+
+    static class Holder extends RecyclerView.ViewHolder {
+        final MessageView mView;
+
+        Holder(MessageView view) {
+            super(view);
+            mView = view;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.example.android.bluetoothchat.conversation;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.example.android.bluetoothchat.R;
+import com.example.android.bluetoothchat.history.ChatMessage;
+import com.example.android.bluetoothchat.history.MessageStore;
+
+/**
+ * Shows the conversation with one peer in a RecyclerView, reading it from the
+ * {@link MessageStore} a page at a time as it is scrolled. At most {@link #MAX_ITEMS} messages
+ * are in memory, the window moves through the history instead of growing with it.
+ *
+ * Pages and new messages are laid out on a background thread before they reach the adapter,
+ * in the order they arrived, so the main thread only inserts ranges and draws.
+ *
+ * Each peer has its own {@link ConversationPartition}. The one of the shown peer backs the
+ * adapter; switching peers keeps the others in an LRU cache, up to a share of the heap, and
+ * keeps them current as messages arrive, so switching back shows them right away where they
+ * were left. Evicted ones are read from the store again when shown.
+ */
+public class ConversationController implements MessageStore.Listener {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_ITEMS = 500;
+    // Read the next page while this many messages are still left to scroll through
+    private static final int PREFETCH_DISTANCE = 15;
+    // Share of the heap the hidden partitions can take
+    private static final int CACHE_HEAP_DIVISOR = 32;
+
+    private final RecyclerView mView;
+    private final LinearLayoutManager mLayoutManager;
+    private final MessageStore mStore;
+    private final MessageLayoutBuilder mLayoutBuilder;
+    private final ConversationAdapter mAdapter;
+    private final int mItemPadding;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mLayoutExecutor;
+    private final PartitionCache mPartitions;
+
+    private volatile int mTextWidth;
+
+    // Main thread
+    private ConversationPartition mActive;
+    private int mGeneration;
+    private boolean mLoadingFirst;
+    private boolean mLoadingOlder;
+    private boolean mLoadingNewer;
+
+    public ConversationController(RecyclerView view, MessageStore store) {
+        mView = view;
+        mStore = store;
+        mLayoutBuilder = new MessageLayoutBuilder(view.getContext());
+        mAdapter = new ConversationAdapter(mLayoutBuilder);
+        mItemPadding = view.getResources().getDimensionPixelSize(
+                R.dimen.conversation_message_padding);
+        mLayoutExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ConversationLayout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        int cacheBytes = (int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / CACHE_HEAP_DIVISOR);
+        mPartitions = new PartitionCache(cacheBytes, MAX_ITEMS);
+
+        mLayoutManager = new LinearLayoutManager(view.getContext());
+        mLayoutManager.setStackFromEnd(true);
+        mView.setLayoutManager(mLayoutManager);
+        // The list fills its parent whatever it shows
+        mView.setHasFixedSize(true);
+        mView.setAdapter(mAdapter);
+        mView.addOnScrollListener(mScrollListener);
+        mView.addOnLayoutChangeListener(mLayoutChangeListener);
+        updateTextWidth();
+
+        mStore.addListener(this);
+    }
+
+    /**
+     * Show the conversation with the given peer, where it was left if it is still cached and
+     * from the latest messages otherwise.
+     */
+    public void show(String peerAddress) {
+        if (peerAddress == null || (mActive != null && peerAddress.equals(mActive.mPeer))) {
+            return;
+        }
+        park();
+        mGeneration++;
+        mLoadingOlder = false;
+        mLoadingNewer = false;
+        mLoadingFirst = false;
+
+        ConversationPartition cached = mPartitions.remove(peerAddress);
+        if (cached != null) {
+            mActive = cached;
+            mAdapter.setItems(cached.mItems);
+            if (cached.mAtBottom) {
+                scrollToBottom();
+            } else {
+                mLayoutManager.scrollToPositionWithOffset(cached.mFirstVisible,
+                        cached.mFirstVisibleOffset);
+            }
+            return;
+        }
+
+        mActive = new ConversationPartition(peerAddress);
+        mAdapter.setItems(mActive.mItems);
+        mLoadingFirst = true;
+
+        final int generation = mGeneration;
+        mStore.loadPage(peerAddress, Long.MAX_VALUE, PAGE_SIZE, new MessageStore.PageCallback() {
+            @Override
+            public void onPageLoaded(String peerAddress, List<ChatMessage> messages,
+                                     boolean hasMore) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                // The page has everything stored so far, new messages come after it
+                mLoadingFirst = false;
+                mActive.mHasOlder = hasMore;
+                layOut(generation, messages, new LaidOut() {
+                    @Override
+                    public void onLaidOut(List<ConversationItem> items) {
+                        mAdapter.addLast(items);
+                        scrollToBottom();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Put the shown partition in the cache, remembering where it was scrolled to. An empty or
+     * still loading one is not worth keeping.
+     */
+    private void park() {
+        ConversationPartition partition = mActive;
+        mActive = null;
+        if (partition == null || mLoadingFirst || partition.mItems.isEmpty()) {
+            return;
+        }
+        partition.mAtBottom = isAtBottom();
+        partition.mFirstVisible = Math.max(0, mLayoutManager.findFirstVisibleItemPosition());
+        View first = mLayoutManager.findViewByPosition(partition.mFirstVisible);
+        partition.mFirstVisibleOffset = first != null ? first.getTop() - mView.getPaddingTop() : 0;
+        mPartitions.put(partition);
+    }
+
+    /**
+     * Drop the hidden conversations, for when the system is low on memory.
+     */
+    public void trimMemory() {
+        mPartitions.evictAll();
+    }
+
+    /**
+     * Stop following the store, the controller is not used afterwards.
+     */
+    public void release() {
+        mStore.removeListener(this);
+        mPartitions.evictAll();
+        mGeneration++;
+        mView.removeOnScrollListener(mScrollListener);
+        mView.removeOnLayoutChangeListener(mLayoutChangeListener);
+        mLayoutExecutor.shutdown();
+    }
+
+    @Override
+    public void onMessagesAdded(List<ChatMessage> messages) {
+        Map<String, List<ChatMessage>> byPeer = new HashMap<String, List<ChatMessage>>();
+        for (ChatMessage message : messages) {
+            List<ChatMessage> peerMessages = byPeer.get(message.getPeerAddress());
+            if (peerMessages == null) {
+                peerMessages = new ArrayList<ChatMessage>();
+                byPeer.put(message.getPeerAddress(), peerMessages);
+            }
+            peerMessages.add(message);
+        }
+
+        for (Map.Entry<String, List<ChatMessage>> entry : byPeer.entrySet()) {
+            ConversationPartition partition;
+            if (mActive != null && entry.getKey().equals(mActive.mPeer)) {
+                // Unless a page on its way has them, or the window stops short of the newest
+                partition = mLoadingFirst || mActive.mHasNewer ? null : mActive;
+            } else {
+                partition = mPartitions.getFollowing(entry.getKey());
+            }
+            if (partition != null) {
+                addNewest(partition, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Lay the messages out and add them to the partition, wherever it is by then: shown,
+     * cached, or dropped from the cache and not worth updating.
+     */
+    private void addNewest(final ConversationPartition partition, List<ChatMessage> messages) {
+        layOut(messages, new LaidOut() {
+            @Override
+            public void onLaidOut(List<ConversationItem> items) {
+                if (partition == mActive) {
+                    addNewestShown(items);
+                } else {
+                    mPartitions.addNewest(partition, items);
+                }
+            }
+        });
+    }
+
+    private void addNewestShown(List<ConversationItem> items) {
+        items = newerThanWindow(items);
+        if (items.isEmpty()) {
+            return;
+        }
+        boolean atBottom = isAtBottom();
+        if (!atBottom && mAdapter.getItemCount() + items.size() > MAX_ITEMS) {
+            // Reading further back, the new messages are read when scrolled down to
+            mActive.mHasNewer = true;
+            return;
+        }
+        mAdapter.addLast(items);
+        if (atBottom) {
+            trimFirst();
+            scrollToBottom();
+        }
+    }
+
+    private void loadOlder() {
+        if (mActive == null || !mActive.mHasOlder || mLoadingOlder || mLoadingFirst
+                || mAdapter.getItemCount() == 0) {
+            return;
+        }
+        mLoadingOlder = true;
+        final int generation = mGeneration;
+        mStore.loadPage(mActive.mPeer, mAdapter.getItem(0).getSequence(), PAGE_SIZE,
+                new MessageStore.PageCallback() {
+                    @Override
+                    public void onPageLoaded(String peerAddress, List<ChatMessage> messages,
+                                             boolean hasMore) {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mActive.mHasOlder = hasMore;
+                        layOut(generation, messages, new LaidOut() {
+                            @Override
+                            public void onLaidOut(List<ConversationItem> items) {
+                                mLoadingOlder = false;
+                                if (items.isEmpty()) {
+                                    return;
+                                }
+                                // RecyclerView keeps the messages on screen where they are
+                                mAdapter.addFirst(items);
+                                int excess = mAdapter.getItemCount() - MAX_ITEMS;
+                                if (excess > 0) {
+                                    mAdapter.removeLast(excess);
+                                    mActive.mHasNewer = true;
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    private void loadNewer() {
+        if (mActive == null || !mActive.mHasNewer || mLoadingNewer
+                || mAdapter.getItemCount() == 0) {
+            return;
+        }
+        mLoadingNewer = true;
+        final int generation = mGeneration;
+        mStore.loadNewerPage(mActive.mPeer,
+                mAdapter.getItem(mAdapter.getItemCount() - 1).getSequence(), PAGE_SIZE,
+                new MessageStore.PageCallback() {
+                    @Override
+                    public void onPageLoaded(String peerAddress, List<ChatMessage> messages,
+                                             boolean hasMore) {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        // Caught up, messages stored from now on are added as they come
+                        mActive.mHasNewer = hasMore;
+                        layOut(generation, messages, new LaidOut() {
+                            @Override
+                            public void onLaidOut(List<ConversationItem> items) {
+                                mLoadingNewer = false;
+                                items = newerThanWindow(items);
+                                if (items.isEmpty()) {
+                                    return;
+                                }
+                                mAdapter.addLast(items);
+                                trimFirst();
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Drop the oldest messages beyond the window size, they can be read again.
+     */
+    private void trimFirst() {
+        int excess = mAdapter.getItemCount() - MAX_ITEMS;
+        if (excess > 0) {
+            mAdapter.removeFirst(excess);
+            mActive.mHasOlder = true;
+        }
+    }
+
+    private List<ConversationItem> newerThanWindow(List<ConversationItem> items) {
+        int count = mAdapter.getItemCount();
+        long newest = count > 0 ? mAdapter.getItem(count - 1).getSequence() : 0;
+        int first = 0;
+        while (first < items.size() && items.get(first).getSequence() <= newest) {
+            first++;
+        }
+        return first == 0 ? items : items.subList(first, items.size());
+    }
+
+    private boolean isAtBottom() {
+        return mLayoutManager.findLastVisibleItemPosition() >= mAdapter.getItemCount() - 1;
+    }
+
+    private void scrollToBottom() {
+        if (mAdapter.getItemCount() > 0) {
+            mView.scrollToPosition(mAdapter.getItemCount() - 1);
+        }
+    }
+
+    private void updateTextWidth() {
+        int width = mView.getWidth() - mView.getPaddingLeft() - mView.getPaddingRight()
+                - 2 * mItemPadding;
+        if (width <= 0 || width == mTextWidth) {
+            return;
+        }
+        boolean resized = mTextWidth > 0;
+        mTextWidth = width;
+        if (resized) {
+            // Rebind what is shown, binding lays it out again for the new width
+            mView.post(new Runnable() {
+                @Override
+                public void run() {
+                    mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
+                }
+            });
+        }
+    }
+
+    private interface LaidOut {
+        void onLaidOut(List<ConversationItem> items);
+    }
+
+    /**
+     * Lay the messages out on the layout thread, then hand them over on the main thread unless
+     * another conversation was opened meanwhile.
+     */
+    private void layOut(final int generation, final List<ChatMessage> messages,
+                        final LaidOut laidOut) {
+        layOut(messages, new LaidOut() {
+            @Override
+            public void onLaidOut(List<ConversationItem> items) {
+                if (generation == mGeneration) {
+                    laidOut.onLaidOut(items);
+                }
+            }
+        });
+    }
+
+    /**
+     * Lay the messages out on the layout thread, then hand them over on the main thread.
+     */
+    private void layOut(final List<ChatMessage> messages, final LaidOut laidOut) {
+        mLayoutExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int width = mTextWidth;
+                final List<ConversationItem> items =
+                        new ArrayList<ConversationItem>(messages.size());
+                for (ChatMessage message : messages) {
+                    items.add(new ConversationItem(message,
+                            width > 0 ? mLayoutBuilder.build(message, width) : null));
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        laidOut.onLaidOut(items);
+                    }
+                });
+            }
+        });
+    }
+
+    private final RecyclerView.OnScrollListener mScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                    if (mLayoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                        loadOlder();
+                    }
+                    if (mLayoutManager.findLastVisibleItemPosition()
+                            >= mAdapter.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                        loadNewer();
+                    }
+                }
+            };
+
+    private final View.OnLayoutChangeListener mLayoutChangeListener =
+            new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    updateTextWidth();
+                }
+            };
+}
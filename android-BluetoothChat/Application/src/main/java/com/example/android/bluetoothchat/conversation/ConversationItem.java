@@ -0,0 +1,42 @@
+package com.example.android.bluetoothchat.conversation;
+
+import android.text.Layout;
+
+import com.example.android.bluetoothchat.history.ChatMessage;
+
+/**
+ * A message in the conversation window with its text already laid out for a given width.
+ */
+class ConversationItem {
+
+    private static final int MESSAGE_BYTES = 128;
+    private static final int LAYOUT_BYTES = 192;
+    private static final int LINE_BYTES = 32;
+
+    final ChatMessage mMessage;
+    // Main thread once the item is shown
+    Layout mLayout;
+
+    ConversationItem(ChatMessage message, Layout layout) {
+        mMessage = message;
+        mLayout = layout;
+    }
+
+    long getSequence() {
+        return mMessage.getSequence();
+    }
+
+    /**
+     * Rough heap cost: the message with its strings, and the layout with its text and line
+     * arrays. Only used to weigh partitions against each other.
+     */
+    int estimateBytes() {
+        int bytes = MESSAGE_BYTES + 2 * mMessage.getText().length();
+        Layout layout = mLayout;
+        if (layout != null) {
+            bytes += LAYOUT_BYTES + 2 * layout.getText().length()
+                    + LINE_BYTES * layout.getLineCount();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.bluetoothchat.conversation;
+
+import java.util.List;
+
+/**
+ * The window of the conversation with one peer: its laid out messages, whether there is more
+ * history on either side of it, and where it was scrolled to. The partition of the shown peer
+ * backs the adapter, the others wait in the {@link PartitionCache} until shown again.
+ */
+class ConversationPartition {
+
+    final String mPeer;
+    final RingList<ConversationItem> mItems = new RingList<ConversationItem>(64);
+    boolean mHasOlder;
+    boolean mHasNewer;
+
+    // Scroll position when it was last hidden
+    boolean mAtBottom = true;
+    int mFirstVisible;
+    int mFirstVisibleOffset;
+
+    // Size while it is cached, fixed when it goes in so the cache stays consistent
+    private int mBytes;
+
+    ConversationPartition(String peer) {
+        mPeer = peer;
+    }
+
+    /**
+     * Add messages that arrived while hidden, dropping the oldest beyond maxItems.
+     */
+    void addNewest(List<ConversationItem> items, int maxItems) {
+        long newest = mItems.isEmpty() ? 0 : mItems.get(mItems.size() - 1).getSequence();
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getSequence() > newest) {
+                mItems.addLast(items.get(i));
+            }
+        }
+        int excess = mItems.size() - maxItems;
+        if (excess > 0) {
+            mItems.removeFirst(excess);
+            mHasOlder = true;
+            mFirstVisible = Math.max(0, mFirstVisible - excess);
+        }
+    }
+
+    void updateBytes() {
+        int bytes = 0;
+        for (int i = 0; i < mItems.size(); i++) {
+            bytes += mItems.get(i).estimateBytes();
+        }
+        mBytes = bytes;
+    }
+
+    int getBytes() {
+        return mBytes;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.bluetoothchat.conversation;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Paint;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.TypedValue;
+
+import com.example.android.bluetoothchat.history.ChatMessage;
+
+/**
+ * Lays out the text of a message, with who sent it, into a {@link StaticLayout}. Measuring text
+ * is most of the cost of showing a message, so this runs on a background thread and the views
+ * only draw the result.
+ */
+class MessageLayoutBuilder {
+
+    private static final float TEXT_SIZE_SP = 18;
+
+    private final TextPaint mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+
+    MessageLayoutBuilder(Context context) {
+        mPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+                context.getResources().getDisplayMetrics()));
+        mPaint.density = context.getResources().getDisplayMetrics().density;
+
+        TypedArray attributes = context.obtainStyledAttributes(
+                new int[]{android.R.attr.textColorPrimary});
+        try {
+            mPaint.setColor(attributes.getColor(0, 0xff000000));
+        } finally {
+            attributes.recycle();
+        }
+    }
+
+    /**
+     * Synchronized because the main thread lays out too when the width changed under a
+     * message that is about to be shown.
+     */
+    synchronized Layout build(ChatMessage message, int width) {
+        String text = message.isOutgoing()
+                ? "Me:  " + message.getText()
+                : message.getSenderName() + ":  " + message.getText();
+        return new StaticLayout(text, mPaint, Math.max(width, 1), Layout.Alignment.ALIGN_NORMAL,
+                1f, 0f, false);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.android.bluetoothchat.conversation;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws a text layout that was built ahead of time, so binding a message neither measures nor
+ * breaks lines on the main thread.
+ */
+public class MessageView extends View {
+
+    private Layout mLayout;
+
+    public MessageView(Context context) {
+        super(context);
+    }
+
+    public MessageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    void setTextLayout(Layout layout) {
+        if (layout == mLayout) {
+            return;
+        }
+        boolean resize = mLayout == null || layout == null
+                || mLayout.getHeight() != layout.getHeight()
+                || mLayout.getWidth() != layout.getWidth();
+        mLayout = layout;
+        setContentDescription(layout != null ? layout.getText() : null);
+        if (resize) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    /**
+     * Width available to the text in a view of the given width.
+     */
+    int getTextWidth(int viewWidth) {
+        return viewWidth - getPaddingLeft() - getPaddingRight();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = getPaddingTop() + getPaddingBottom()
+                + (mLayout != null ? mLayout.getHeight() : 0);
+        setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.bluetoothchat.conversation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The hidden {@link ConversationPartition}s, least recently used first, up to a total size.
+ * Cached partitions are kept current as messages arrive, and weighed again each time they grow.
+ * Main thread only.
+ */
+class PartitionCache {
+
+    private final int mMaxBytes;
+    private final int mMaxItems;
+    private final LinkedHashMap<String, ConversationPartition> mPartitions =
+            new LinkedHashMap<String, ConversationPartition>(16, 0.75f, true);
+    private int mBytes;
+
+    /**
+     * @param maxItems messages a partition keeps when new ones are added to it
+     */
+    PartitionCache(int maxBytes, int maxItems) {
+        mMaxBytes = maxBytes;
+        mMaxItems = maxItems;
+    }
+
+    /**
+     * Take the partition of peer out of the cache to show it.
+     *
+     * @return the partition, or null if it is not cached
+     */
+    ConversationPartition remove(String peer) {
+        ConversationPartition partition = mPartitions.remove(peer);
+        if (partition != null) {
+            mBytes -= partition.getBytes();
+        }
+        return partition;
+    }
+
+    /**
+     * Keep a hidden partition, evicting the least recently used ones beyond the size, this one
+     * too if it is bigger than the whole cache.
+     */
+    void put(ConversationPartition partition) {
+        remove(partition.mPeer);
+        partition.updateBytes();
+        mPartitions.put(partition.mPeer, partition);
+        mBytes += partition.getBytes();
+        trim();
+    }
+
+    /**
+     * The cached partition new messages of peer go to, which counts as a use. Null if none is
+     * cached, or if its window stops short of the newest messages, which are then read when it
+     * is scrolled down to.
+     */
+    ConversationPartition getFollowing(String peer) {
+        ConversationPartition partition = mPartitions.get(peer);
+        return partition != null && !partition.mHasNewer ? partition : null;
+    }
+
+    /**
+     * Add laid out messages to a partition if it is still the one cached for its peer. It may
+     * have been shown or evicted since {@link #getFollowing}, then it is left alone.
+     *
+     * @return whether the partition was still cached
+     */
+    boolean addNewest(ConversationPartition partition, List<ConversationItem> items) {
+        if (mPartitions.get(partition.mPeer) != partition) {
+            return false;
+        }
+        // Out and back in, so it is weighed again
+        remove(partition.mPeer);
+        partition.addNewest(items, mMaxItems);
+        put(partition);
+        return true;
+    }
+
+    void evictAll() {
+        mPartitions.clear();
+        mBytes = 0;
+    }
+
+    int size() {
+        return mPartitions.size();
+    }
+
+    int getBytes() {
+        return mBytes;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, ConversationPartition>> eldest =
+                mPartitions.entrySet().iterator();
+        while (mBytes > mMaxBytes && eldest.hasNext()) {
+            mBytes -= eldest.next().getValue().getBytes();
+            eldest.remove();
+        }
+    }
+}
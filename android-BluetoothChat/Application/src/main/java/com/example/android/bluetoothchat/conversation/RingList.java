@@ -0,0 +1,89 @@
+package com.example.android.bluetoothchat.conversation;
+
+import java.util.Arrays;
+
+/**
+ * List backed by a circular array: get, and adding or removing at either end, all take constant
+ * time. Holds the window of a conversation, which grows at the bottom as messages arrive and at
+ * the top as older pages are read, and is trimmed at the other end.
+ */
+class RingList<T> {
+
+    private Object[] mItems;
+    private int mHead;
+    private int mSize;
+
+    RingList(int capacity) {
+        mItems = new Object[Math.max(capacity, 8)];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        return (T) mItems[(mHead + index) % mItems.length];
+    }
+
+    void addLast(T item) {
+        ensureCapacity(mSize + 1);
+        mItems[(mHead + mSize) % mItems.length] = item;
+        mSize++;
+    }
+
+    void addFirst(T item) {
+        ensureCapacity(mSize + 1);
+        mHead = (mHead - 1 + mItems.length) % mItems.length;
+        mItems[mHead] = item;
+        mSize++;
+    }
+
+    void removeFirst(int count) {
+        checkCount(count);
+        for (int i = 0; i < count; i++) {
+            mItems[mHead] = null;
+            mHead = (mHead + 1) % mItems.length;
+        }
+        mSize -= count;
+    }
+
+    void removeLast(int count) {
+        checkCount(count);
+        for (int i = 0; i < count; i++) {
+            mItems[(mHead + mSize - 1 - i) % mItems.length] = null;
+        }
+        mSize -= count;
+    }
+
+    void clear() {
+        Arrays.fill(mItems, null);
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private void checkCount(int count) {
+        if (count < 0 || count > mSize) {
+            throw new IndexOutOfBoundsException("count " + count + ", size " + mSize);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mItems.length) {
+            return;
+        }
+        Object[] items = new Object[Math.max(capacity, mItems.length * 2)];
+        for (int i = 0; i < mSize; i++) {
+            items[i] = mItems[(mHead + i) % mItems.length];
+        }
+        mItems = items;
+        mHead = 0;
+    }
+}
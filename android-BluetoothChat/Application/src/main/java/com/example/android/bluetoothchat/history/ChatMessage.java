@@ -0,0 +1,67 @@
+package com.example.android.bluetoothchat.history;
+
+/**
+ * One stored chat line. Messages are ordered per peer by their sequence number, which the
+ * {@link MessageStore} assigns when it writes them.
+ */
+public class ChatMessage {
+
+    private final String mPeerAddress;
+    private final long mSequence;
+    private final long mTimeMillis;
+    private final boolean mOutgoing;
+    private final String mSenderName;
+    private final String mText;
+
+    public ChatMessage(String peerAddress, long sequence, long timeMillis, boolean outgoing,
+                       String senderName, String text) {
+        mPeerAddress = peerAddress;
+        mSequence = sequence;
+        mTimeMillis = timeMillis;
+        mOutgoing = outgoing;
+        mSenderName = senderName;
+        mText = text;
+    }
+
+    public String getPeerAddress() {
+        return mPeerAddress;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Wall clock time the message was sent or received.
+     */
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    public boolean isOutgoing() {
+        return mOutgoing;
+    }
+
+    /**
+     * Name of the remote device when it was received, null for outgoing messages.
+     */
+    public String getSenderName() {
+        return mSenderName;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * Copy with the sequence number the store gave it.
+     */
+    ChatMessage withSequence(long sequence) {
+        return new ChatMessage(mPeerAddress, sequence, mTimeMillis, mOutgoing, mSenderName, mText);
+    }
+
+    @Override
+    public String toString() {
+        return mPeerAddress + "#" + mSequence + (mOutgoing ? " > " : " < ") + mText;
+    }
+}
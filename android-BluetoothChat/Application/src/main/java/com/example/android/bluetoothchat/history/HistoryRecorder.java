@@ -0,0 +1,39 @@
+package com.example.android.bluetoothchat.history;
+
+import android.content.Context;
+
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothPeerMessageListener;
+
+/**
+ * Writes every message the service exchanges to the {@link MessageStore}, whether or not a chat
+ * screen is showing. Set once on the service, it lives as long as the process, like the
+ * connection in the host service does; screens only follow the store.
+ */
+public class HistoryRecorder implements BluetoothPeerMessageListener {
+
+    private static HistoryRecorder sInstance;
+
+    private final MessageStore mStore;
+
+    public static synchronized HistoryRecorder getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HistoryRecorder(MessageStore.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private HistoryRecorder(MessageStore store) {
+        mStore = store;
+    }
+
+    @Override
+    public void onMessageWrite(String address, String message) {
+        // The conversation of that device shows it once it is stored
+        mStore.append(address, true, null, message);
+    }
+
+    @Override
+    public void onMessageRead(String address, String deviceName, String message) {
+        mStore.append(address, false, deviceName, message);
+    }
+}
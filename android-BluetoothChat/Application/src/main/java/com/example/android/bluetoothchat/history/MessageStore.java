@@ -0,0 +1,327 @@
+package com.example.android.bluetoothchat.history;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.example.android.common.logger.Log;
+
+/**
+ * Chat history on disk, see {@link SqliteMessageTable}, numbered per peer by sequence.
+ *
+ * Nothing touches the disk on the calling thread. {@link #append} queues the message and a
+ * store thread writes whatever piled up in one transaction, then tells the {@link Listener}s on
+ * the main thread. Pages are read on the same thread, so a page and the messages reported after
+ * it never overlap. Only the pending batch is held in memory, however long the history gets.
+ * A batch that fails to write is kept and written again later, with the same sequences.
+ *
+ * Messages and sender names are also indexed for {@link #search}, always as current as the
+ * history.
+ */
+public class MessageStore {
+
+    private static final String TAG = "MessageStore";
+
+    static final String DATABASE_NAME = "chat_history.db";
+
+    // How long appends pile up before they are written together
+    static final long BATCH_DELAY_MS = 50;
+
+    // Wait before writing a failed batch again, doubling up to the maximum
+    static final long RETRY_DELAY_MS = 1000;
+    static final long MAX_RETRY_DELAY_MS = 60 * 1000;
+
+    private static MessageStore sInstance;
+
+    /**
+     * Receives the messages once they are on disk, on the main thread.
+     */
+    public interface Listener {
+        void onMessagesAdded(List<ChatMessage> messages);
+    }
+
+    /**
+     * Receives a page of {@link #loadPage}, on the main thread.
+     */
+    public interface PageCallback {
+        /**
+         * @param messages oldest first
+         * @param hasMore  whether there are more messages beyond this page, older ones for
+         *                 {@link #loadPage} and newer ones for {@link #loadNewerPage}
+         */
+        void onPageLoaded(String peerAddress, List<ChatMessage> messages, boolean hasMore);
+    }
+
+    /**
+     * Receives a page of {@link #search} results, on the main thread.
+     */
+    public interface SearchCallback {
+        /**
+         * @param messages newest first
+         * @param nextPage key to pass to {@link #search} for the following page, 0 if this
+         *                 was the last one
+         */
+        void onSearchResults(String query, List<ChatMessage> messages, long nextPage);
+    }
+
+    private final MessageTable mTable;
+    private final Handler mStoreHandler;
+    private final Handler mMainHandler;
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+
+    // Guarded by mPending
+    private final ArrayList<ChatMessage> mPending = new ArrayList<ChatMessage>();
+    private boolean mFlushScheduled;
+
+    // Store thread only
+    private final HashMap<String, Long> mLastSequences = new HashMap<String, Long>();
+    private long mRetryDelayMs = RETRY_DELAY_MS;
+
+    public static synchronized MessageStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MessageStore(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return sInstance;
+    }
+
+    MessageStore(Context context, String name) {
+        this(new SqliteMessageTable(context, name), newStoreHandler(),
+                new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * For tests, which pass null handlers and override the post methods below.
+     */
+    MessageStore(MessageTable table, Handler storeHandler, Handler mainHandler) {
+        mTable = table;
+        mStoreHandler = storeHandler;
+        mMainHandler = mainHandler;
+    }
+
+    private static Handler newStoreHandler() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Queue a message for writing. Callable from any thread, it never waits on the disk.
+     *
+     * @param senderName name of the remote device for incoming messages, null for outgoing ones
+     */
+    public void append(String peerAddress, boolean outgoing, String senderName, String text) {
+        ChatMessage message = new ChatMessage(peerAddress, 0, System.currentTimeMillis(),
+                outgoing, senderName, text);
+        synchronized (mPending) {
+            mPending.add(message);
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        postDelayed(mFlush, BATCH_DELAY_MS);
+    }
+
+    /**
+     * Read the page of messages just before beforeSequence, for example to fill the screen when
+     * a conversation opens or to go further back when it is scrolled up.
+     *
+     * @param beforeSequence only messages with a lower sequence, Long.MAX_VALUE for the newest
+     */
+    public void loadPage(String peerAddress, long beforeSequence, int limit,
+                         PageCallback callback) {
+        loadPage(peerAddress, beforeSequence, false, limit, callback);
+    }
+
+    /**
+     * Read the page of messages just after afterSequence, for going forward again through a
+     * conversation that was scrolled back.
+     */
+    public void loadNewerPage(String peerAddress, long afterSequence, int limit,
+                              PageCallback callback) {
+        loadPage(peerAddress, afterSequence, true, limit, callback);
+    }
+
+    private void loadPage(final String peerAddress, final long bound, final boolean newer,
+                          final int limit, final PageCallback callback) {
+        // Anything appended before this call is written before the page is read
+        flush();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                final List<ChatMessage> page = new ArrayList<ChatMessage>(limit + 1);
+                try {
+                    mTable.readPage(peerAddress, bound, newer, limit + 1, page);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not read the history of " + peerAddress, e);
+                }
+                final boolean hasMore = page.size() > limit;
+                if (hasMore) {
+                    page.remove(page.size() - 1);
+                }
+                if (!newer) {
+                    Collections.reverse(page);
+                }
+                postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPageLoaded(peerAddress, page, hasMore);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Find the messages matching a search, newest first, from all peers. The query is what the
+     * user typed, see {@link SearchQuery}; it is run against the index, so the cost depends on
+     * the number of matches read and not on the history size.
+     *
+     * @param pageKey        Long.MAX_VALUE for the first page, then the nextPage of the
+     *                       previous one
+     * @param prefixLastWord match the last word as a prefix, for searching while typing
+     */
+    public void search(final String query, final long pageKey, final int limit,
+                       final boolean prefixLastWord, final SearchCallback callback) {
+        // Like pages, results include everything appended before this call
+        flush();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                final List<ChatMessage> results = new ArrayList<ChatMessage>(limit);
+                long nextPage = 0;
+                String expression = SearchQuery.toMatchExpression(query, prefixLastWord);
+                if (expression != null) {
+                    try {
+                        nextPage = mTable.readMatches(expression, pageKey, limit, results);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Could not search for " + query, e);
+                        results.clear();
+                    }
+                }
+                final long next = nextPage;
+                postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSearchResults(query, results, next);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Write the pending messages in one transaction.
+     */
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            final ArrayList<ChatMessage> batch;
+            synchronized (mPending) {
+                mFlushScheduled = false;
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<ChatMessage>(mPending);
+                mPending.clear();
+            }
+
+            final List<ChatMessage> written;
+            try {
+                written = write(batch);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not write " + batch.size() + " messages, retrying in "
+                        + mRetryDelayMs + " ms", e);
+                retry(batch);
+                return;
+            }
+            mRetryDelayMs = RETRY_DELAY_MS;
+
+            postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : mListeners) {
+                        listener.onMessagesAdded(written);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Number the batch and write it. The sequences are only taken once the write succeeded, so
+     * a failed batch gets the same ones again.
+     */
+    private List<ChatMessage> write(List<ChatMessage> batch) {
+        HashMap<String, Long> sequences = new HashMap<String, Long>();
+        List<ChatMessage> numbered = new ArrayList<ChatMessage>(batch.size());
+        for (ChatMessage message : batch) {
+            String peerAddress = message.getPeerAddress();
+            Long last = sequences.get(peerAddress);
+            if (last == null) {
+                last = mLastSequences.get(peerAddress);
+            }
+            if (last == null) {
+                last = mTable.getLastSequence(peerAddress);
+            }
+            sequences.put(peerAddress, last + 1);
+            numbered.add(message.withSequence(last + 1));
+        }
+        mTable.insert(numbered);
+        mLastSequences.putAll(sequences);
+        return numbered;
+    }
+
+    /**
+     * Put a failed batch back in front of what was appended since, and write it all later.
+     */
+    private void retry(List<ChatMessage> batch) {
+        synchronized (mPending) {
+            mPending.addAll(0, batch);
+            mFlushScheduled = true;
+        }
+        removeCallbacks(mFlush);
+        postDelayed(mFlush, mRetryDelayMs);
+        mRetryDelayMs = Math.min(mRetryDelayMs * 2, MAX_RETRY_DELAY_MS);
+    }
+
+    /**
+     * Write what is pending now instead of after the batch delay, for example when the app goes
+     * to the background.
+     */
+    public void flush() {
+        removeCallbacks(mFlush);
+        post(mFlush);
+    }
+
+    void post(Runnable runnable) {
+        mStoreHandler.post(runnable);
+    }
+
+    void postDelayed(Runnable runnable, long delayMillis) {
+        mStoreHandler.postDelayed(runnable, delayMillis);
+    }
+
+    void removeCallbacks(Runnable runnable) {
+        mStoreHandler.removeCallbacks(runnable);
+    }
+
+    void postToMain(Runnable runnable) {
+        mMainHandler.post(runnable);
+    }
+}
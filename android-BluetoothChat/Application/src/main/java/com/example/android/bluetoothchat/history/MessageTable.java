@@ -0,0 +1,33 @@
+package com.example.android.bluetoothchat.history;
+
+import java.util.List;
+
+/**
+ * Where the {@link MessageStore} keeps the messages. Only called on the store thread.
+ */
+interface MessageTable {
+
+    /**
+     * @return the highest sequence stored for the peer, 0 if there is none
+     */
+    long getLastSequence(String peerAddress);
+
+    /**
+     * Write the messages, sequences already set, all of them or none.
+     */
+    void insert(List<ChatMessage> messages);
+
+    /**
+     * Read up to limit messages of the peer walking away from bound: lower sequences newest
+     * first, or higher ones oldest first if newer is set.
+     */
+    void readPage(String peerAddress, long bound, boolean newer, int limit,
+                  List<ChatMessage> page);
+
+    /**
+     * Read up to limit matches of a full-text expression, newest first, below pageKey.
+     *
+     * @return the key of the next page, 0 if there is none
+     */
+    long readMatches(String expression, long pageKey, int limit, List<ChatMessage> results);
+}
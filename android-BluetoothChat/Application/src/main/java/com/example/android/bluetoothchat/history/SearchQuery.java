@@ -0,0 +1,58 @@
+package com.example.android.bluetoothchat.history;
+
+/**
+ * Turns what was typed into a search box into an FTS MATCH expression.
+ *
+ * Every word must appear in the message or sender name. A word ending in '*' matches any term
+ * starting with it. Each word is quoted, so operators and punctuation typed by the user are
+ * never parsed as query syntax, and a word like "AB-123" matches those terms next to each other.
+ */
+public final class SearchQuery {
+
+    // Shorter prefixes match too much of the index to page back quickly
+    static final int MIN_PREFIX_LENGTH = 2;
+
+    private SearchQuery() {
+    }
+
+    /**
+     * @param prefixLastWord treat the last word as a prefix even without '*', for searching
+     *                       while it is still being typed
+     * @return the MATCH expression, or null if there is nothing to search for
+     */
+    public static String toMatchExpression(String text, boolean prefixLastWord) {
+        if (text == null) {
+            return null;
+        }
+        String[] words = text.trim().split("\\s+");
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i].replace("\"", "");
+            boolean prefix = word.endsWith("*") || (prefixLastWord && i == words.length - 1);
+            while (word.endsWith("*")) {
+                word = word.substring(0, word.length() - 1);
+            }
+            if (!hasTermCharacter(word)) {
+                continue;
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append('"').append(word);
+            if (prefix && word.length() >= MIN_PREFIX_LENGTH) {
+                expression.append('*');
+            }
+            expression.append('"');
+        }
+        return expression.length() > 0 ? expression.toString() : null;
+    }
+
+    private static boolean hasTermCharacter(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isLetterOrDigit(word.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.android.bluetoothchat.history;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link MessageTable} in SQLite with write-ahead logging, keyed by peer address and sequence.
+ *
+ * Messages and sender names are also indexed, in an FTS4 table that keeps only the index and
+ * reads the text from the messages table. The index is written in the same transaction as the
+ * messages, so it is always as current as the history.
+ */
+class SqliteMessageTable implements MessageTable {
+
+    // 2: full-text index
+    static final int DATABASE_VERSION = 2;
+
+    static final String TABLE_MESSAGES = "messages";
+    static final String COLUMN_PEER = "peer";
+    static final String COLUMN_SEQUENCE = "seq";
+    static final String COLUMN_TIME = "time";
+    static final String COLUMN_OUTGOING = "outgoing";
+    static final String COLUMN_SENDER = "sender";
+    static final String COLUMN_TEXT = "body";
+
+    static final String TABLE_INDEX = "messages_fts";
+    static final String COLUMN_DOCID = "docid";
+
+    private static final String[] MESSAGE_COLUMNS = {
+            COLUMN_PEER, COLUMN_SEQUENCE, COLUMN_TIME, COLUMN_OUTGOING, COLUMN_SENDER, COLUMN_TEXT
+    };
+
+    private final Database mDatabase;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mIndex;
+
+    SqliteMessageTable(Context context, String name) {
+        mDatabase = new Database(context, name);
+    }
+
+    @Override
+    public long getLastSequence(String peerAddress) {
+        Cursor cursor = mDatabase.getReadableDatabase().rawQuery("SELECT MAX("
+                + COLUMN_SEQUENCE + ") FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_PEER
+                + " = ?", new String[]{peerAddress});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void insert(List<ChatMessage> messages) {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        if (mInsert == null) {
+            mInsert = db.compileStatement("INSERT INTO " + TABLE_MESSAGES + " ("
+                    + COLUMN_PEER + ", " + COLUMN_SEQUENCE + ", " + COLUMN_TIME + ", "
+                    + COLUMN_OUTGOING + ", " + COLUMN_SENDER + ", " + COLUMN_TEXT
+                    + ") VALUES (?, ?, ?, ?, ?, ?)");
+            mIndex = db.compileStatement("INSERT INTO " + TABLE_INDEX + " (" + COLUMN_DOCID
+                    + ", " + COLUMN_SENDER + ", " + COLUMN_TEXT + ") VALUES (?, ?, ?)");
+        }
+
+        db.beginTransaction();
+        try {
+            for (ChatMessage message : messages) {
+                mInsert.bindString(1, message.getPeerAddress());
+                mInsert.bindLong(2, message.getSequence());
+                mInsert.bindLong(3, message.getTimeMillis());
+                mInsert.bindLong(4, message.isOutgoing() ? 1 : 0);
+                if (message.getSenderName() != null) {
+                    mInsert.bindString(5, message.getSenderName());
+                } else {
+                    mInsert.bindNull(5);
+                }
+                mInsert.bindString(6, message.getText());
+                long rowId = mInsert.executeInsert();
+
+                mIndex.bindLong(1, rowId);
+                if (message.getSenderName() != null) {
+                    mIndex.bindString(2, message.getSenderName());
+                } else {
+                    mIndex.bindNull(2);
+                }
+                mIndex.bindString(3, message.getText());
+                mIndex.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Walks away from bound using the primary key, so the cost does not depend on the history
+     * size.
+     */
+    @Override
+    public void readPage(String peerAddress, long bound, boolean newer, int limit,
+                         List<ChatMessage> page) {
+        Cursor cursor = mDatabase.getReadableDatabase().query(TABLE_MESSAGES, MESSAGE_COLUMNS,
+                COLUMN_PEER + " = ? AND " + COLUMN_SEQUENCE + (newer ? " > ?" : " < ?"),
+                new String[]{peerAddress, Long.toString(bound)},
+                null, null, COLUMN_SEQUENCE + (newer ? " ASC" : " DESC"),
+                Integer.toString(limit));
+        try {
+            while (cursor.moveToNext()) {
+                page.add(new ChatMessage(cursor.getString(0), cursor.getLong(1),
+                        cursor.getLong(2), cursor.getInt(3) != 0, cursor.getString(4),
+                        cursor.getString(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Docids are the rowids of the messages, so they grow with time and page through the
+     * results without an offset.
+     */
+    @Override
+    public long readMatches(String expression, long pageKey, int limit,
+                            List<ChatMessage> results) {
+        Cursor cursor = mDatabase.getReadableDatabase().rawQuery("SELECT rowid, "
+                + COLUMN_PEER + ", " + COLUMN_SEQUENCE + ", " + COLUMN_TIME + ", "
+                + COLUMN_OUTGOING + ", " + COLUMN_SENDER + ", " + COLUMN_TEXT
+                + " FROM " + TABLE_MESSAGES + " WHERE rowid IN (SELECT " + COLUMN_DOCID
+                + " FROM " + TABLE_INDEX + " WHERE " + TABLE_INDEX + " MATCH ? AND "
+                + COLUMN_DOCID + " < ? ORDER BY " + COLUMN_DOCID + " DESC LIMIT ?)"
+                + " ORDER BY rowid DESC",
+                new String[]{expression, Long.toString(pageKey), Integer.toString(limit + 1)});
+        long lastRowId = 0;
+        try {
+            while (cursor.moveToNext()) {
+                if (results.size() == limit) {
+                    // One more than asked for, the next page starts below the last one read
+                    return lastRowId;
+                }
+                lastRowId = cursor.getLong(0);
+                results.add(new ChatMessage(cursor.getString(1), cursor.getLong(2),
+                        cursor.getLong(3), cursor.getInt(4) != 0, cursor.getString(5),
+                        cursor.getString(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return 0;
+    }
+
+    /**
+     * Statements that create the current schema in an empty database.
+     */
+    static List<String> createStatements() {
+        return Arrays.asList("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + COLUMN_PEER + " TEXT NOT NULL, "
+                + COLUMN_SEQUENCE + " INTEGER NOT NULL, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_OUTGOING + " INTEGER NOT NULL, "
+                + COLUMN_SENDER + " TEXT, "
+                + COLUMN_TEXT + " TEXT NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_PEER + ", " + COLUMN_SEQUENCE + "))",
+                createIndexStatement());
+    }
+
+    /**
+     * Statements that bring a database of oldVersion to the current schema.
+     */
+    static List<String> upgradeStatements(int oldVersion) {
+        List<String> statements = new ArrayList<String>();
+        if (oldVersion < 2) {
+            statements.add(createIndexStatement());
+            // Index the history written before there was an index
+            statements.add("INSERT INTO " + TABLE_INDEX + " (" + TABLE_INDEX
+                    + ") VALUES ('rebuild')");
+        }
+        return statements;
+    }
+
+    /**
+     * External content table: only the index is stored, the text stays in the messages
+     * table. The prefix indexes turn 2 and 3 letter prefix queries into term lookups
+     * instead of scans over every term that starts with them.
+     */
+    private static String createIndexStatement() {
+        return "CREATE VIRTUAL TABLE " + TABLE_INDEX + " USING fts4("
+                + COLUMN_SENDER + ", " + COLUMN_TEXT + ", "
+                + "content=\"" + TABLE_MESSAGES + "\", prefix=\"2,3\")";
+    }
+
+    private static class Database extends SQLiteOpenHelper {
+
+        Database(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+            // Readers do not block the writer, and commits do not wait for a full sync
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            for (String statement : createStatements()) {
+                db.execSQL(statement);
+            }
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            for (String statement : upgradeStatements(oldVersion)) {
+                db.execSQL(statement);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.bluetoothchat.search;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+import com.example.android.bluetoothchat.history.ChatMessage;
+import com.example.android.bluetoothchat.history.MessageStore;
+
+/**
+ * Shows the results of a history search in a RecyclerView, newest first, reading the next page
+ * from the {@link MessageStore} index as the list is scrolled towards its end.
+ */
+public class SearchController {
+
+    private static final int PAGE_SIZE = 30;
+    // Read the next page while this many results are still left to scroll through
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private final RecyclerView mView;
+    private final LinearLayoutManager mLayoutManager;
+    private final MessageStore mStore;
+    private final SearchResultsAdapter mAdapter = new SearchResultsAdapter();
+
+    // Main thread
+    private String mQuery;
+    private boolean mPrefixLastWord;
+    private int mGeneration;
+    private long mNextPage;
+    private boolean mLoading;
+
+    public SearchController(RecyclerView view, MessageStore store) {
+        mView = view;
+        mStore = store;
+        mLayoutManager = new LinearLayoutManager(view.getContext());
+        mView.setLayoutManager(mLayoutManager);
+        mView.setHasFixedSize(true);
+        mView.setAdapter(mAdapter);
+        mView.addOnScrollListener(mScrollListener);
+    }
+
+    /**
+     * Show the first page of results for what was typed. Results of earlier searches that
+     * arrive afterwards are dropped, so this can be called on every key.
+     *
+     * @param prefixLastWord whether the last word is still being typed
+     */
+    public void search(String query, boolean prefixLastWord) {
+        if (query.equals(mQuery) && prefixLastWord == mPrefixLastWord) {
+            return;
+        }
+        mQuery = query;
+        mPrefixLastWord = prefixLastWord;
+        mGeneration++;
+        mAdapter.clear();
+        mNextPage = 0;
+        loadPage(Long.MAX_VALUE);
+    }
+
+    /**
+     * Forget the current search and its results.
+     */
+    public void clear() {
+        mQuery = null;
+        mGeneration++;
+        mNextPage = 0;
+        mLoading = false;
+        mAdapter.clear();
+    }
+
+    private void loadPage(long pageKey) {
+        mLoading = true;
+        final int generation = mGeneration;
+        mStore.search(mQuery, pageKey, PAGE_SIZE, mPrefixLastWord,
+                new MessageStore.SearchCallback() {
+                    @Override
+                    public void onSearchResults(String query, List<ChatMessage> messages,
+                                                long nextPage) {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mLoading = false;
+                        mNextPage = nextPage;
+                        mAdapter.addAll(messages);
+                    }
+                });
+    }
+
+    private final RecyclerView.OnScrollListener mScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                    if (mNextPage != 0 && !mLoading && mLayoutManager.findLastVisibleItemPosition()
+                            >= mAdapter.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                        loadPage(mNextPage);
+                    }
+                }
+            };
+}
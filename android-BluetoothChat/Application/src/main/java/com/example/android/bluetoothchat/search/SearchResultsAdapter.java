@@ -0,0 +1,75 @@
+package com.example.android.bluetoothchat.search;
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.android.bluetoothchat.R;
+import com.example.android.bluetoothchat.history.ChatMessage;
+
+/**
+ * The search results read so far, newest first, each with who sent it and when.
+ */
+class SearchResultsAdapter extends RecyclerView.Adapter<SearchResultsAdapter.Holder> {
+
+    private final ArrayList<ChatMessage> mResults = new ArrayList<ChatMessage>();
+
+    @Override
+    public int getItemCount() {
+        return mResults.size();
+    }
+
+    @Override
+    public Holder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new Holder(LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.search_result, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(Holder holder, int position) {
+        ChatMessage message = mResults.get(position);
+        Context context = holder.itemView.getContext();
+        String sender;
+        if (message.isOutgoing()) {
+            sender = context.getString(R.string.search_result_me);
+        } else if (message.getSenderName() != null) {
+            sender = message.getSenderName();
+        } else {
+            sender = message.getPeerAddress();
+        }
+        holder.mTitle.setText(context.getString(R.string.search_result_title, sender,
+                DateUtils.formatDateTime(context, message.getTimeMillis(),
+                        DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME)));
+        holder.mText.setText(message.getText());
+    }
+
+    void addAll(List<ChatMessage> results) {
+        int start = mResults.size();
+        mResults.addAll(results);
+        notifyItemRangeInserted(start, results.size());
+    }
+
+    void clear() {
+        int count = mResults.size();
+        mResults.clear();
+        notifyItemRangeRemoved(0, count);
+    }
+
+    static class Holder extends RecyclerView.ViewHolder {
+        final TextView mTitle;
+        final TextView mText;
+
+        Holder(View view) {
+            super(view);
+            mTitle = (TextView) view.findViewById(R.id.search_result_title);
+            mText = (TextView) view.findViewById(R.id.search_result_text);
+        }
+    }
+}
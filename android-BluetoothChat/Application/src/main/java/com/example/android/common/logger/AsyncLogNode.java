@@ -0,0 +1,182 @@
+package com.example.android.common.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link LogNode} that hands the log data to a background thread, which passes it on to the
+ * rest of the chain. Callers only copy four references into a preallocated ring, so logging
+ * from the Bluetooth threads does not wait on logcat or the on-screen log.
+ *
+ * When the ring is full new lines are dropped and counted instead of blocking the caller.
+ */
+public class AsyncLogNode implements LogNode {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // For piping:  The next node to receive Log data after this one has done its work.
+    private volatile LogNode mNext;
+
+    // Slot i holds sequence i while free for the producer of that position and i + 1 once
+    // published, see Vyukov's bounded MPMC queue. Only one thread consumes.
+    private final int mMask;
+    private final AtomicLongArray mSequences;
+    private final int[] mPriorities;
+    private final String[] mTags;
+    private final String[] mMessages;
+    private final Throwable[] mThrowables;
+
+    private final AtomicLong mTail = new AtomicLong();
+    private long mHead;
+
+    private final AtomicLong mDropped = new AtomicLong();
+    private final Thread mThread;
+    private volatile boolean mWaiting;
+    private volatile boolean mRunning = true;
+
+    /**
+     * @param capacity ring size, rounded up to a power of two
+     */
+    public AsyncLogNode(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mPriorities = new int[size];
+        mTags = new String[size];
+        mMessages = new String[size];
+        mThrowables = new Throwable[size];
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "AsyncLogNode");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public AsyncLogNode() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the next LogNode in the linked list.
+     */
+    public LogNode getNext() {
+        return mNext;
+    }
+
+    /**
+     * Sets the LogNode data will be sent to..
+     */
+    public void setNext(LogNode node) {
+        mNext = node;
+    }
+
+    /**
+     * Number of lines dropped because the ring was full.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Pass on what is already queued and stop the background thread.
+     */
+    public void shutdown() {
+        mRunning = false;
+        LockSupport.unpark(mThread);
+    }
+
+    @Override
+    public void println(int priority, String tag, String msg, Throwable tr) {
+        long tail;
+        int index;
+        while (true) {
+            tail = mTail.get();
+            index = (int) tail & mMask;
+            long sequence = mSequences.get(index);
+            if (sequence == tail) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    break;
+                }
+            } else if (sequence < tail) {
+                // The consumer has not freed this slot yet, the ring is full
+                mDropped.incrementAndGet();
+                return;
+            }
+            // Another producer claimed this position, try the next one
+        }
+
+        mPriorities[index] = priority;
+        mTags[index] = tag;
+        mMessages[index] = msg;
+        mThrowables[index] = tr;
+        mSequences.set(index, tail + 1);
+
+        if (mWaiting) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            if (drain()) {
+                continue;
+            }
+            if (!mRunning) {
+                return;
+            }
+
+            // Publish mWaiting before the last look at the ring, producers check it after
+            // publishing, so one of the two always sees the other.
+            mWaiting = true;
+            if (!isEmpty()) {
+                mWaiting = false;
+                continue;
+            }
+            LockSupport.park(this);
+            mWaiting = false;
+        }
+    }
+
+    /**
+     * Pass every published line on to the next node.
+     *
+     * @return true when at least one line was drained
+     */
+    private boolean drain() {
+        boolean drained = false;
+        while (true) {
+            int index = (int) mHead & mMask;
+            if (mSequences.get(index) != mHead + 1) {
+                return drained;
+            }
+
+            int priority = mPriorities[index];
+            String tag = mTags[index];
+            String msg = mMessages[index];
+            Throwable tr = mThrowables[index];
+            mTags[index] = null;
+            mMessages[index] = null;
+            mThrowables[index] = null;
+            mSequences.set(index, mHead + mMask + 1);
+            mHead++;
+            drained = true;
+
+            LogNode next = mNext;
+            if (next != null) {
+                next.println(priority, tag, msg, tr);
+            }
+        }
+    }
+
+    private boolean isEmpty() {
+        return mSequences.get((int) mHead & mMask) != mHead + 1;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns the files written by {@link BinaryLogNode} back into text. Only uses the JDK, so it
+ * runs on a desktop JVM against files pulled from a device:
+ *
+ * <pre>
+ * adb exec-out run-as com.example.android.bluetoothchat tar c files/logs | tar x
+ * java com.example.android.common.logger.BinaryLogDecoder files/logs
+ * </pre>
+ *
+ * Arguments are log files or directories of them, printed oldest first.
+ */
+public class BinaryLogDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] PRIORITIES = {'?', '?', 'V', 'D', 'I', 'W', 'E', 'A'};
+
+    private final SimpleDateFormat mDateFormat =
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: BinaryLogDecoder <log file or directory>...");
+            System.exit(1);
+        }
+
+        List<File> files = new ArrayList<File>();
+        for (String arg : args) {
+            File file = new File(arg);
+            File[] children = file.listFiles();
+            if (children != null) {
+                files.addAll(Arrays.asList(children));
+            } else {
+                files.add(file);
+            }
+        }
+        sortBySequence(files);
+
+        BinaryLogDecoder decoder = new BinaryLogDecoder();
+        for (File file : files) {
+            if (BinaryLogNode.sequenceOf(file) >= 0) {
+                decoder.decode(file, System.out);
+            }
+        }
+        System.out.flush();
+    }
+
+    static void sortBySequence(List<File> files) {
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long sa = BinaryLogNode.sequenceOf(a);
+                long sb = BinaryLogNode.sequenceOf(b);
+                return sa < sb ? -1 : (sa == sb ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Print every record of one file.
+     *
+     * @return the number of log records printed
+     */
+    public int decode(File file, PrintStream out) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            input.close();
+        }
+
+        if (buffer.remaining() < 4 || buffer.getInt() != BinaryLogNode.MAGIC) {
+            throw new IOException(file + " is not a binary log");
+        }
+
+        HashMap<Integer, String> tags = new HashMap<Integer, String>();
+        int count = 0;
+        while (buffer.remaining() >= BinaryLogNode.RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getShort() & 0xffff;
+            if (length == 0) {
+                // Rest of the file was never written
+                break;
+            }
+            if (length < BinaryLogNode.RECORD_HEADER || start + length > buffer.limit()) {
+                throw new IOException(file + ": bad record length " + length + " at " + start);
+            }
+            byte type = buffer.get();
+            int end = start + length;
+
+            if (type == BinaryLogNode.RECORD_TAG) {
+                int id = buffer.getShort() & 0xffff;
+                tags.put(id, readString(buffer, end));
+            } else if (type == BinaryLogNode.RECORD_LOG) {
+                long millis = buffer.getLong();
+                int priority = buffer.get();
+                int tagId = buffer.getShort() & 0xffff;
+                String message = readString(buffer, end);
+                out.println(format(millis, priority, tags.get(tagId), message));
+                count++;
+            }
+            // Unknown types are skipped, newer writers may add some
+            buffer.position(end);
+        }
+        return count;
+    }
+
+    String format(long millis, int priority, String tag, String message) {
+        char level = priority >= 0 && priority < PRIORITIES.length ? PRIORITIES[priority] : '?';
+        return mDateFormat.format(new Date(millis)) + ' ' + level + '/'
+                + (tag != null ? tag : "") + ": " + message;
+    }
+
+    private static String readString(ByteBuffer buffer, int end) {
+        return new String(buffer.array(), buffer.position(), end - buffer.position(), UTF_8);
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * {@link LogNode} that keeps the log on disk in a compact binary form, for looking at devices
+ * after the fact. Records go into a memory-mapped file of fixed size, so writing one is a
+ * memory copy and what was written survives the process dying. A new process carries on after
+ * the last record of the latest file; when a file is full the next one is started and the
+ * oldest is deleted. Use {@link BinaryLogDecoder} to read them back.
+ *
+ * Files are named log-&lt;sequence&gt;.bin. Each one starts with {@link #MAGIC} and holds
+ * records of the form [u16 length][u8 type][payload], little endian, until a zero length:
+ * <ul>
+ * <li>{@link #RECORD_TAG}: [u16 tag id][UTF-8 tag], sent before the first use of a tag in
+ * the file.</li>
+ * <li>{@link #RECORD_LOG}: [i64 wall clock millis][u8 priority][u16 tag id][UTF-8 message],
+ * with the stack trace appended to the message.</li>
+ * </ul>
+ *
+ * Files are only opened on the first line, so put this node after an {@link AsyncLogNode} to
+ * keep the disk work off the calling threads.
+ */
+public class BinaryLogNode implements LogNode {
+
+    public static final int MAGIC = 0x474c5442; // "BTLG"
+    public static final byte RECORD_TAG = 1;
+    public static final byte RECORD_LOG = 2;
+
+    public static final int DEFAULT_FILE_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 4;
+    public static final int MIN_FILE_SIZE = 1024;
+
+    static final String FILE_PREFIX = "log-";
+    static final String FILE_SUFFIX = ".bin";
+
+    // [u16 length][u8 type]
+    static final int RECORD_HEADER = 3;
+    // [i64 millis][u8 priority][u16 tag id]
+    static final int LOG_HEADER = 11;
+    static final int MAX_RECORD = 0xffff;
+    static final int NO_TAG = 0xffff;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // For piping:  The next node to receive Log data after this one has done its work.
+    private LogNode mNext;
+
+    private final File mDirectory;
+    private final int mFileSize;
+    private final int mMaxFiles;
+
+    // Guarded by this
+    private MappedByteBuffer mBuffer;
+    private long mSequence = -1;
+    private final HashMap<String, Integer> mTagIds = new HashMap<String, Integer>();
+    private boolean mFailed;
+
+    public BinaryLogNode(File directory, int fileSize, int maxFiles) {
+        if (fileSize < MIN_FILE_SIZE) {
+            throw new IllegalArgumentException("fileSize too small: " + fileSize);
+        }
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles must be at least 1");
+        }
+        mDirectory = directory;
+        mFileSize = fileSize;
+        mMaxFiles = maxFiles;
+    }
+
+    public BinaryLogNode(File directory) {
+        this(directory, DEFAULT_FILE_SIZE, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Returns the next LogNode in the linked list.
+     */
+    public LogNode getNext() {
+        return mNext;
+    }
+
+    /**
+     * Sets the LogNode data will be sent to..
+     */
+    public void setNext(LogNode node) {
+        mNext = node;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    @Override
+    public void println(int priority, String tag, String msg, Throwable tr) {
+        write(priority, tag, msg, tr);
+
+        // If this isn't the last node in the chain, move things along.
+        if (mNext != null) {
+            mNext.println(priority, tag, msg, tr);
+        }
+    }
+
+    private synchronized void write(int priority, String tag, String msg, Throwable tr) {
+        if (mFailed) {
+            return;
+        }
+        if (msg == null) {
+            msg = "";
+        }
+        if (tr != null) {
+            StringWriter trace = new StringWriter();
+            tr.printStackTrace(new PrintWriter(trace));
+            msg = msg + '\n' + trace;
+        }
+
+        try {
+            if (mBuffer == null) {
+                rotate();
+            }
+            int tagId = tag == null ? NO_TAG : tagId(tag);
+            int messageLength = Math.min(utf8Length(msg),
+                    Math.min(MAX_RECORD, mFileSize - 4) - RECORD_HEADER - LOG_HEADER);
+            if (mBuffer.remaining() < RECORD_HEADER + LOG_HEADER + messageLength) {
+                rotate();
+                tagId = tag == null ? NO_TAG : tagId(tag);
+                // Only the longest messages in the smallest files get here
+                messageLength = Math.min(messageLength,
+                        mBuffer.remaining() - RECORD_HEADER - LOG_HEADER);
+            }
+
+            int start = mBuffer.position();
+            mBuffer.position(start + RECORD_HEADER);
+            mBuffer.putLong(System.currentTimeMillis());
+            mBuffer.put((byte) priority);
+            mBuffer.putShort((short) tagId);
+            putUtf8(msg, messageLength);
+            finishRecord(start, RECORD_LOG);
+        } catch (IOException e) {
+            // Nowhere to report this, the rest of the chain still gets the line
+            mFailed = true;
+            mBuffer = null;
+        }
+    }
+
+    /**
+     * Id of the tag in the current file, writing its definition on first use.
+     */
+    private int tagId(String tag) throws IOException {
+        Integer id = mTagIds.get(tag);
+        if (id != null) {
+            return id;
+        }
+        int tagLength = Math.min(utf8Length(tag), 255);
+        if (mTagIds.size() == NO_TAG || mBuffer.remaining() < RECORD_HEADER + 2 + tagLength) {
+            rotate();
+        }
+        int newId = mTagIds.size();
+        int start = mBuffer.position();
+        mBuffer.position(start + RECORD_HEADER);
+        mBuffer.putShort((short) newId);
+        putUtf8(tag, tagLength);
+        finishRecord(start, RECORD_TAG);
+        mTagIds.put(tag, newId);
+        return newId;
+    }
+
+    private void finishRecord(int start, byte type) {
+        int end = mBuffer.position();
+        mBuffer.putShort(start, (short) (end - start));
+        mBuffer.put(start + 2, type);
+    }
+
+    /**
+     * Start the next file and delete the ones beyond mMaxFiles. The first time, carry on in the
+     * latest file instead if it has room.
+     */
+    private void rotate() throws IOException {
+        if (mSequence < 0) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Could not create " + mDirectory);
+            }
+            mSequence = latestSequence(mDirectory);
+            if (mSequence >= 0 && resume()) {
+                return;
+            }
+        }
+        mSequence++;
+        mTagIds.clear();
+
+        mBuffer = map(mSequence, true);
+        mBuffer.putInt(MAGIC);
+
+        File stale = new File(mDirectory, FILE_PREFIX + (mSequence - mMaxFiles) + FILE_SUFFIX);
+        if (stale.exists()) {
+            stale.delete();
+        }
+    }
+
+    /**
+     * Map file mSequence and move past its records, reading back the tags they define.
+     *
+     * @return false if the file is full, damaged or of another size, and was left alone
+     */
+    private boolean resume() throws IOException {
+        File latest = new File(mDirectory, FILE_PREFIX + mSequence + FILE_SUFFIX);
+        if (latest.length() != mFileSize) {
+            return false;
+        }
+        MappedByteBuffer buffer = map(mSequence, false);
+        if (buffer.getInt() != MAGIC) {
+            return false;
+        }
+
+        HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getShort(start) & 0xffff;
+            if (length == 0) {
+                break;
+            }
+            if (length < RECORD_HEADER || length > buffer.remaining()) {
+                return false;
+            }
+            if (buffer.get(start + 2) == RECORD_TAG) {
+                if (length < RECORD_HEADER + 2) {
+                    return false;
+                }
+                buffer.position(start + RECORD_HEADER);
+                int id = buffer.getShort() & 0xffff;
+                tagIds.put(readUtf8(buffer, start + length), id);
+            }
+            buffer.position(start + length);
+        }
+        if (buffer.remaining() < RECORD_HEADER + LOG_HEADER) {
+            return false;
+        }
+
+        // A record cut off by the process dying has no length yet, clear what it left behind
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        mBuffer = buffer;
+        mTagIds.clear();
+        mTagIds.putAll(tagIds);
+        return true;
+    }
+
+    private MappedByteBuffer map(long sequence, boolean create) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory,
+                FILE_PREFIX + sequence + FILE_SUFFIX), "rw");
+        try {
+            if (create) {
+                file.setLength(0);
+                file.setLength(mFileSize);
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mFileSize);
+        } finally {
+            file.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static String readUtf8(ByteBuffer buffer, int end) {
+        byte[] bytes = new byte[end - buffer.position()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Encode the first bytes of value as UTF-8 without allocating, stopping before a character
+     * that does not fit in maxBytes.
+     */
+    private void putUtf8(String value, int maxBytes) {
+        int written = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (written + 1 > maxBytes) {
+                    return;
+                }
+                mBuffer.put((byte) c);
+                written += 1;
+            } else if (c < 0x800) {
+                if (written + 2 > maxBytes) {
+                    return;
+                }
+                mBuffer.put((byte) (0xc0 | (c >> 6)));
+                mBuffer.put((byte) (0x80 | (c & 0x3f)));
+                written += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                if (written + 4 > maxBytes) {
+                    return;
+                }
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                mBuffer.put((byte) (0xf0 | (codePoint >> 18)));
+                mBuffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                mBuffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                mBuffer.put((byte) (0x80 | (codePoint & 0x3f)));
+                written += 4;
+            } else {
+                if (written + 3 > maxBytes) {
+                    return;
+                }
+                mBuffer.put((byte) (0xe0 | (c >> 12)));
+                mBuffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                mBuffer.put((byte) (0x80 | (c & 0x3f)));
+                written += 3;
+            }
+        }
+    }
+
+    /**
+     * Bytes putUtf8 writes for the whole string. Lone surrogates count as three bytes.
+     */
+    static int utf8Length(String value) {
+        int bytes = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Highest sequence number among the log files in directory, -1 if there are none.
+     */
+    static long latestSequence(File directory) {
+        long latest = -1;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return latest;
+        }
+        for (File file : files) {
+            latest = Math.max(latest, sequenceOf(file));
+        }
+        return latest;
+    }
+
+    /**
+     * Sequence number from a log file name, -1 for other files.
+     */
+    static long sequenceOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(),
+                    name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -48,6 +48,9 @@ import android.widget.ScrollView;
  */
 public class LogFragment extends Fragment {
 
+    // Lines kept on screen
+    private static final int LOG_LINE_CAPACITY = 500;
+
     private LogView mLogView;
     private ScrollView mScrollView;
 
@@ -77,6 +80,7 @@ public class LogFragment extends Fragment {
 
         mLogView.setGravity(Gravity.BOTTOM);
         mLogView.setTextAppearance(getActivity(), android.R.style.TextAppearance_Holo_Medium);
+        mLogView.setLineCapacity(LOG_LINE_CAPACITY);
 
         mScrollView.addView(mLogView);
         return mScrollView;
@@ -97,12 +101,21 @@ public class LogFragment extends Fragment {
 
             @Override
             public void afterTextChanged(Editable s) {
-                mScrollView.fullScroll(ScrollView.FOCUS_DOWN);
+                // Scroll once after the batch is laid out, not on every change
+                mScrollView.removeCallbacks(mScrollToBottom);
+                mScrollView.post(mScrollToBottom);
             }
         });
         return result;
     }
 
+    private final Runnable mScrollToBottom = new Runnable() {
+        @Override
+        public void run() {
+            mScrollView.fullScroll(ScrollView.FOCUS_DOWN);
+        }
+    };
+
     public LogView getLogView() {
         return mLogView;
     }
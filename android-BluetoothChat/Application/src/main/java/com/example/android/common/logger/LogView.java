@@ -15,15 +15,38 @@
  */
 package com.example.android.common.logger;
 
-import android.app.Activity;
 import android.content.Context;
+import android.text.Editable;
 import android.util.*;
+import android.view.Choreographer;
 import android.widget.TextView;
 
+import java.util.ArrayDeque;
+
 /** Simple TextView which is used to output log data received through the LogNode interface.
+ * Lines are appended once per frame, and with {@link #setLineCapacity(int)} only the newest
+ * lines are kept. The text layout only draws the lines inside the visible area, so with a
+ * capacity set the cost per line stays flat.
 */
 public class LogView extends TextView implements LogNode {
 
+    // Lines waiting for the next frame, from any thread. Guarded by mLock.
+    private final Object mLock = new Object();
+    private final ArrayDeque<String> mPending = new ArrayDeque<String>();
+    private boolean mFrameScheduled;
+
+    // 0 keeps every line
+    private volatile int mLineCapacity;
+
+    // Lengths of the lines on screen, oldest first. UI thread only.
+    private int[] mLineLengths;
+    private int mLineStart;
+    private int mLineCount;
+    private final StringBuilder mFrameBuilder = new StringBuilder();
+
+    // Created on the UI thread with the view, callbacks run there as well.
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
     public LogView(Context context) {
         super(context);
     }
@@ -36,6 +59,25 @@ public class LogView extends TextView implements LogNode {
         super(context, attrs, defStyle);
     }
 
+    /**
+     * Keep only the newest lines. Older lines are removed from the start of the text as new ones
+     * come in, so layout and memory stay bounded no matter how long the session runs. Clears
+     * the log, call it from the UI thread.
+     *
+     * @param capacity the number of lines to keep, 0 keeps every line
+     */
+    public void setLineCapacity(int capacity) {
+        mLineCapacity = capacity;
+        mLineLengths = capacity > 0 ? new int[capacity] : null;
+        mLineStart = 0;
+        mLineCount = 0;
+        setText("");
+    }
+
+    public int getLineCapacity() {
+        return mLineCapacity;
+    }
+
     /**
      * Formats the log data and prints it out to the LogView.
      * @param priority Log level of the data being logged.  Verbose, Error, etc.
@@ -82,7 +124,7 @@ public class LogView extends TextView implements LogNode {
 
         // Take the priority, tag, message, and exception, and concatenate as necessary
         // into one usable line of text.
-        final StringBuilder outputBuilder = new StringBuilder();
+        StringBuilder outputBuilder = new StringBuilder();
 
         String delimiter = "\t";
         appendIfNotNull(outputBuilder, priorityStr, delimiter);
@@ -90,15 +132,8 @@ public class LogView extends TextView implements LogNode {
         appendIfNotNull(outputBuilder, msg, delimiter);
         appendIfNotNull(outputBuilder, exceptionStr, delimiter);
 
-        // In case this was originally called from an AsyncTask or some other off-UI thread,
-        // make sure the update occurs within the UI thread.
-        ((Activity) getContext()).runOnUiThread( (new Thread(new Runnable() {
-            @Override
-            public void run() {
-                // Display the text we just generated within the LogView.
-                appendToLog(outputBuilder.toString());
-            }
-        })));
+        // Queued and shown on the next frame, whatever thread this was called from.
+        appendToLog(outputBuilder.toString());
 
         if (mNext != null) {
             mNext.println(priority, tag, msg, tr);
@@ -136,9 +171,66 @@ public class LogView extends TextView implements LogNode {
     // The next LogNode in the chain.
     LogNode mNext;
 
-    /** Outputs the string as a new line of log data in the LogView. */
+    /**
+     * Outputs the string as a new line of log data in the LogView. Can be called from any thread,
+     * lines are added in one batch per frame.
+     */
     public void appendToLog(String s) {
-        append("\n" + s);
+        synchronized (mLock) {
+            mPending.addLast(s);
+            // Lines that would be pushed out in the same frame are never shown, drop them now
+            int capacity = mLineCapacity;
+            if (capacity > 0 && mPending.size() > capacity) {
+                mPending.pollFirst();
+            }
+            if (mFrameScheduled) {
+                return;
+            }
+            mFrameScheduled = true;
+        }
+        mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flushPending();
+        }
+    };
+
+    /** Append everything queued since the last frame and trim the oldest lines. */
+    private void flushPending() {
+        StringBuilder batch = mFrameBuilder;
+        batch.setLength(0);
+        int[] lengths = mLineLengths;
+        int removedChars = 0;
+
+        synchronized (mLock) {
+            mFrameScheduled = false;
+            String line;
+            while ((line = mPending.pollFirst()) != null) {
+                batch.append('\n').append(line);
+                if (lengths == null) {
+                    continue;
+                }
+                if (mLineCount == lengths.length) {
+                    removedChars += lengths[mLineStart];
+                    mLineStart = (mLineStart + 1) % lengths.length;
+                    mLineCount--;
+                }
+                lengths[(mLineStart + mLineCount) % lengths.length] = line.length() + 1;
+                mLineCount++;
+            }
+        }
+
+        if (batch.length() == 0) {
+            return;
+        }
+        append(batch);
+        if (removedChars > 0) {
+            Editable text = getEditableText();
+            text.delete(0, Math.min(removedChars, text.length()));
+        }
     }
 
 
@@ -0,0 +1,113 @@
+package com.example.android.bluetoothchat.conversation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.android.bluetoothchat.history.ChatMessage;
+
+import static org.junit.Assert.*;
+
+public class PartitionCacheTest {
+
+    // An item without a layout weighs 128 bytes plus two per character, 136 for "abcd"
+    private static final int ITEM_BYTES = 136;
+
+    @Test
+    public void leastRecentlyUsedGoesFirst() {
+        PartitionCache cache = new PartitionCache(4 * ITEM_BYTES, 100);
+        cache.put(partition("a", 1, 3));
+        cache.put(partition("b", 1, 3));
+        assertNotNull(cache.getFollowing("a"));
+
+        cache.put(partition("c", 1, 3));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.remove("a"));
+        assertNull(cache.remove("b"));
+        assertEquals(2 * ITEM_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void partitionBiggerThanTheCacheIsNotKept() {
+        PartitionCache cache = new PartitionCache(2 * ITEM_BYTES, 100);
+        cache.put(partition("a", 1, 4));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void newMessagesAreWeighedAndCanEvictOthers() {
+        PartitionCache cache = new PartitionCache(4 * ITEM_BYTES, 100);
+        cache.put(partition("a", 1, 3));
+        ConversationPartition b = partition("b", 1, 3);
+        cache.put(b);
+
+        assertTrue(cache.addNewest(cache.getFollowing("b"), items(3, 4)));
+        assertEquals(1, cache.size());
+        assertEquals(3 * ITEM_BYTES, cache.getBytes());
+        assertEquals(3, b.mItems.get(b.mItems.size() - 1).getSequence());
+    }
+
+    @Test
+    public void catchUpSkipsKnownMessagesAndKeepsTheNewest() {
+        PartitionCache cache = new PartitionCache(100 * ITEM_BYTES, 4);
+        ConversationPartition a = partition("a", 1, 4);
+        a.mFirstVisible = 2;
+        cache.put(a);
+
+        // 2 and 3 are already in the window
+        cache.addNewest(a, items(2, 7));
+        assertEquals(4, a.mItems.size());
+        assertEquals(3, a.mItems.get(0).getSequence());
+        assertEquals(6, a.mItems.get(3).getSequence());
+        assertTrue(a.mHasOlder);
+        assertEquals(0, a.mFirstVisible);
+        assertEquals(4 * ITEM_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void partitionShownOrReplacedMeanwhileIsLeftAlone() {
+        PartitionCache cache = new PartitionCache(100 * ITEM_BYTES, 100);
+        ConversationPartition a = partition("a", 1, 2);
+        cache.put(a);
+        ConversationPartition following = cache.getFollowing("a");
+
+        // Shown, then hidden again as a new partition read from the store
+        cache.remove("a");
+        cache.put(partition("a", 1, 2));
+        assertFalse(cache.addNewest(following, items(2, 3)));
+        assertEquals(1, a.mItems.size());
+        assertEquals(ITEM_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void windowShortOfTheNewestDoesNotFollow() {
+        PartitionCache cache = new PartitionCache(100 * ITEM_BYTES, 100);
+        ConversationPartition a = partition("a", 1, 2);
+        a.mHasNewer = true;
+        cache.put(a);
+        assertNull(cache.getFollowing("a"));
+        assertNull(cache.getFollowing("b"));
+    }
+
+    /**
+     * Partition holding the messages from sequence from up to, not including, to.
+     */
+    private static ConversationPartition partition(String peer, long from, long to) {
+        ConversationPartition partition = new ConversationPartition(peer);
+        for (ConversationItem item : items(from, to)) {
+            partition.mItems.addLast(item);
+        }
+        return partition;
+    }
+
+    private static List<ConversationItem> items(long from, long to) {
+        List<ConversationItem> items = new ArrayList<ConversationItem>();
+        for (long sequence = from; sequence < to; sequence++) {
+            items.add(new ConversationItem(new ChatMessage("peer", sequence, 0, true, null,
+                    "abcd"), null));
+        }
+        return items;
+    }
+}
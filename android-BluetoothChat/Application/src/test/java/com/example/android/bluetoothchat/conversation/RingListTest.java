@@ -0,0 +1,106 @@
+package com.example.android.bluetoothchat.conversation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RingListTest {
+
+    @Test
+    public void itemsKeepTheirOrderAcrossTheWrap() {
+        RingList<Integer> list = new RingList<Integer>(8);
+        for (int i = 0; i < 8; i++) {
+            list.addLast(i);
+        }
+        // The head moves along and the new items wrap to the start of the array
+        list.removeFirst(5);
+        for (int i = 8; i < 13; i++) {
+            list.addLast(i);
+        }
+        assertEquals(items(5, 13), contents(list));
+
+        list.removeLast(2);
+        list.addFirst(4);
+        assertEquals(items(4, 11), contents(list));
+    }
+
+    @Test
+    public void growsFromBothEnds() {
+        RingList<Integer> list = new RingList<Integer>(8);
+        for (int i = 100; i < 110; i++) {
+            list.addLast(i);
+        }
+        for (int i = 99; i >= 80; i--) {
+            list.addFirst(i);
+        }
+        assertEquals(items(80, 110), contents(list));
+
+        list.removeFirst(10);
+        list.removeLast(10);
+        assertEquals(items(90, 100), contents(list));
+    }
+
+    @Test
+    public void addFirstOnAWrappedListGrows() {
+        RingList<Integer> list = new RingList<Integer>(8);
+        for (int i = 0; i < 6; i++) {
+            list.addLast(i);
+        }
+        list.removeFirst(4);
+        for (int i = 3; i >= -5; i--) {
+            list.addFirst(i);
+        }
+        assertEquals(items(-5, 6), contents(list));
+    }
+
+    @Test
+    public void removingAllEmptiesTheList() {
+        RingList<Integer> list = new RingList<Integer>(8);
+        list.addLast(1);
+        list.addLast(2);
+        list.removeLast(2);
+        assertTrue(list.isEmpty());
+        list.removeFirst(0);
+        assertTrue(list.isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void removeFirstRejectsMoreThanTheSize() {
+        RingList<Integer> list = new RingList<Integer>(8);
+        list.addLast(1);
+        list.removeFirst(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void removeLastRejectsANegativeCount() {
+        RingList<Integer> list = new RingList<Integer>(8);
+        list.addLast(1);
+        list.removeLast(-1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getRejectsAnIndexPastTheEnd() {
+        RingList<Integer> list = new RingList<Integer>(8);
+        list.addLast(1);
+        list.get(1);
+    }
+
+    private static List<Integer> items(int from, int to) {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static List<Integer> contents(RingList<Integer> list) {
+        List<Integer> contents = new ArrayList<Integer>();
+        for (int i = 0; i < list.size(); i++) {
+            contents.add(list.get(i));
+        }
+        return contents;
+    }
+}
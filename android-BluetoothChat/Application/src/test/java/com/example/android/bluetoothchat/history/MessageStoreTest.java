@@ -0,0 +1,243 @@
+package com.example.android.bluetoothchat.history;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageStoreTest {
+
+    private static final String PEER_A = "00:00:00:00:00:0A";
+    private static final String PEER_B = "00:00:00:00:00:0B";
+
+    private FakeTable mTable;
+    private final List<Runnable> mDelayed = new ArrayList<Runnable>();
+    private final List<Long> mDelays = new ArrayList<Long>();
+    private final List<List<ChatMessage>> mAdded = new ArrayList<List<ChatMessage>>();
+    private MessageStore mStore;
+
+    @Before
+    public void setUp() {
+        mTable = new FakeTable();
+        // Both threads run on the test thread, delayed posts wait in mDelayed
+        mStore = new MessageStore(mTable, null, null) {
+            @Override
+            void post(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            void postDelayed(Runnable runnable, long delayMillis) {
+                mDelayed.add(runnable);
+                mDelays.add(delayMillis);
+            }
+
+            @Override
+            void removeCallbacks(Runnable runnable) {
+                int index;
+                while ((index = mDelayed.indexOf(runnable)) >= 0) {
+                    mDelayed.remove(index);
+                    mDelays.remove(index);
+                }
+            }
+
+            @Override
+            void postToMain(Runnable runnable) {
+                runnable.run();
+            }
+        };
+        mStore.addListener(new MessageStore.Listener() {
+            @Override
+            public void onMessagesAdded(List<ChatMessage> messages) {
+                mAdded.add(messages);
+            }
+        });
+    }
+
+    @Test
+    public void appendsPileUpIntoOneBatch() {
+        mStore.append(PEER_A, true, null, "one");
+        mStore.append(PEER_A, false, "Phone", "two");
+        mStore.append(PEER_B, false, "Tablet", "three");
+        assertEquals(1, mDelayed.size());
+        assertEquals(MessageStore.BATCH_DELAY_MS, (long) mDelays.get(0));
+        assertTrue(mTable.mInserts.isEmpty());
+
+        runDelayed();
+        assertEquals(1, mTable.mInserts.size());
+        assertEquals(3, mTable.mInserts.get(0).size());
+        assertEquals(1, mAdded.size());
+        assertEquals("three", mAdded.get(0).get(2).getText());
+    }
+
+    @Test
+    public void sequencesArePerPeerAndFollowTheStoredOnes() {
+        mTable.add(new ChatMessage(PEER_A, 5, 0, true, null, "earlier"));
+        mStore.append(PEER_A, true, null, "one");
+        mStore.append(PEER_B, true, null, "two");
+        mStore.append(PEER_A, true, null, "three");
+        runDelayed();
+        mStore.append(PEER_B, true, null, "four");
+        runDelayed();
+
+        assertEquals(Arrays.asList(6L, 1L, 7L), sequences(mAdded.get(0)));
+        assertEquals(Arrays.asList(2L), sequences(mAdded.get(1)));
+    }
+
+    @Test
+    public void pagesStopAtTheirBounds() {
+        for (int i = 1; i <= 5; i++) {
+            mTable.add(new ChatMessage(PEER_A, i, 0, true, null, "m" + i));
+        }
+        mTable.add(new ChatMessage(PEER_B, 1, 0, true, null, "other"));
+        Pages pages = new Pages();
+
+        mStore.loadPage(PEER_A, Long.MAX_VALUE, 2, pages);
+        assertEquals(Arrays.asList(4L, 5L), pages.mSequences);
+        assertTrue(pages.mHasMore);
+
+        mStore.loadPage(PEER_A, 2, 2, pages);
+        assertEquals(Arrays.asList(1L), pages.mSequences);
+        assertFalse(pages.mHasMore);
+
+        mStore.loadNewerPage(PEER_A, 1, 2, pages);
+        assertEquals(Arrays.asList(2L, 3L), pages.mSequences);
+        assertTrue(pages.mHasMore);
+
+        mStore.loadNewerPage(PEER_A, 3, 2, pages);
+        assertEquals(Arrays.asList(4L, 5L), pages.mSequences);
+        assertFalse(pages.mHasMore);
+    }
+
+    @Test
+    public void pageIncludesWhatWasAppendedBefore() {
+        mStore.append(PEER_A, true, null, "one");
+        Pages pages = new Pages();
+        mStore.loadPage(PEER_A, Long.MAX_VALUE, 10, pages);
+
+        assertEquals(Arrays.asList(1L), pages.mSequences);
+        assertTrue(mDelayed.isEmpty());
+    }
+
+    @Test
+    public void failedBatchIsWrittenAgainWithTheSameSequences() {
+        mTable.mFailures = 2;
+        mStore.append(PEER_A, true, null, "one");
+        runDelayed();
+        assertTrue(mAdded.isEmpty());
+        assertEquals(MessageStore.RETRY_DELAY_MS, (long) mDelays.get(0));
+
+        // Appended meanwhile, goes after the failed batch
+        mStore.append(PEER_A, true, null, "two");
+        assertEquals(1, mDelayed.size());
+        runDelayed();
+        assertEquals(2 * MessageStore.RETRY_DELAY_MS, (long) mDelays.get(0));
+
+        runDelayed();
+        assertEquals(1, mAdded.size());
+        assertEquals(Arrays.asList(1L, 2L), sequences(mAdded.get(0)));
+        assertEquals("one", mAdded.get(0).get(0).getText());
+        assertTrue(mDelayed.isEmpty());
+    }
+
+    @Test
+    public void upgradeFromTheFirstVersionBuildsTheIndex() {
+        List<String> created = SqliteMessageTable.createStatements();
+        List<String> upgrade = SqliteMessageTable.upgradeStatements(1);
+
+        // Same index as a new install, filled from the messages already there
+        assertEquals(2, upgrade.size());
+        assertEquals(created.get(1), upgrade.get(0));
+        assertTrue(upgrade.get(0).contains(SqliteMessageTable.TABLE_INDEX));
+        assertTrue(upgrade.get(1).contains("'rebuild'"));
+        assertTrue(SqliteMessageTable.upgradeStatements(
+                SqliteMessageTable.DATABASE_VERSION).isEmpty());
+    }
+
+    private void runDelayed() {
+        assertEquals(1, mDelayed.size());
+        Runnable runnable = mDelayed.remove(0);
+        mDelays.remove(0);
+        runnable.run();
+    }
+
+    private static List<Long> sequences(List<ChatMessage> messages) {
+        List<Long> sequences = new ArrayList<Long>();
+        for (ChatMessage message : messages) {
+            sequences.add(message.getSequence());
+        }
+        return sequences;
+    }
+
+    private static class Pages implements MessageStore.PageCallback {
+        List<Long> mSequences;
+        boolean mHasMore;
+
+        @Override
+        public void onPageLoaded(String peerAddress, List<ChatMessage> messages,
+                                 boolean hasMore) {
+            mSequences = sequences(messages);
+            mHasMore = hasMore;
+        }
+    }
+
+    /**
+     * Keeps the messages in insertion order, the tests add them in sequence order.
+     */
+    private static class FakeTable implements MessageTable {
+        final List<ChatMessage> mMessages = new ArrayList<ChatMessage>();
+        final List<List<ChatMessage>> mInserts = new ArrayList<List<ChatMessage>>();
+        int mFailures;
+
+        void add(ChatMessage message) {
+            mMessages.add(message);
+        }
+
+        @Override
+        public long getLastSequence(String peerAddress) {
+            HashMap<String, Long> last = new HashMap<String, Long>();
+            for (ChatMessage message : mMessages) {
+                last.put(message.getPeerAddress(), message.getSequence());
+            }
+            Long sequence = last.get(peerAddress);
+            return sequence != null ? sequence : 0;
+        }
+
+        @Override
+        public void insert(List<ChatMessage> messages) {
+            if (mFailures > 0) {
+                mFailures--;
+                throw new IllegalStateException("disk full");
+            }
+            mInserts.add(new ArrayList<ChatMessage>(messages));
+            mMessages.addAll(messages);
+        }
+
+        @Override
+        public void readPage(String peerAddress, long bound, boolean newer, int limit,
+                             List<ChatMessage> page) {
+            List<ChatMessage> peer = new ArrayList<ChatMessage>();
+            for (ChatMessage message : mMessages) {
+                if (message.getPeerAddress().equals(peerAddress)
+                        && (newer ? message.getSequence() > bound
+                        : message.getSequence() < bound)) {
+                    peer.add(message);
+                }
+            }
+            for (int i = 0; i < peer.size() && page.size() < limit; i++) {
+                page.add(peer.get(newer ? i : peer.size() - 1 - i));
+            }
+        }
+
+        @Override
+        public long readMatches(String expression, long pageKey, int limit,
+                                List<ChatMessage> results) {
+            return 0;
+        }
+    }
+}
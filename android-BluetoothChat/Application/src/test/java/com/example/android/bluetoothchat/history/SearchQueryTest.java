@@ -0,0 +1,45 @@
+package com.example.android.bluetoothchat.history;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchQueryTest {
+
+    @Test
+    public void everyWordIsQuoted() {
+        assertEquals("\"hello\" \"OR\" \"world\"",
+                SearchQuery.toMatchExpression("hello OR world", false));
+        assertEquals("\"AB-123\"", SearchQuery.toMatchExpression("  AB-123 ", false));
+    }
+
+    @Test
+    public void quotesTypedByTheUserAreDropped() {
+        assertEquals("\"say\" \"hi\"", SearchQuery.toMatchExpression("say \"hi\"", false));
+        assertEquals("\"unbalanced\"", SearchQuery.toMatchExpression("un\"balanced", false));
+    }
+
+    @Test
+    public void trailingStarMakesAPrefix() {
+        assertEquals("\"blue*\"", SearchQuery.toMatchExpression("blue*", false));
+        assertEquals("\"blue*\" \"sky\"", SearchQuery.toMatchExpression("blue** sky", false));
+    }
+
+    @Test
+    public void prefixesShorterThanTheMinimumAreWholeWords() {
+        assertEquals("\"b\"", SearchQuery.toMatchExpression("b*", false));
+        assertEquals("\"hello\" \"w\"", SearchQuery.toMatchExpression("hello w", true));
+        assertEquals("\"hello\" \"wo*\"", SearchQuery.toMatchExpression("hello wo", true));
+        assertEquals("\"hello\" \"wo\"", SearchQuery.toMatchExpression("hello wo", false));
+    }
+
+    @Test
+    public void punctuationAloneIsNotSearched() {
+        assertNull(SearchQuery.toMatchExpression("?! --", true));
+        assertNull(SearchQuery.toMatchExpression("***", true));
+        assertNull(SearchQuery.toMatchExpression("   ", false));
+        assertNull(SearchQuery.toMatchExpression(null, false));
+        assertEquals("\"hello\" \"world\"",
+                SearchQuery.toMatchExpression("hello -- world", false));
+    }
+}
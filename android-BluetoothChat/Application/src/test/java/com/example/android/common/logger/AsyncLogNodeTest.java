@@ -0,0 +1,176 @@
+package com.example.android.common.logger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncLogNodeTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int LINES = 20000;
+
+    @Test
+    public void producersWrapAroundWithoutLosingOrder() throws Exception {
+        final AsyncLogNode node = new AsyncLogNode(16);
+        Collector collector = new Collector(null);
+        node.setNext(collector);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final String tag = String.valueOf(p);
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < LINES; i++) {
+                        node.println(Log.INFO, tag, String.valueOf(i), null);
+                        // Bursts, so the consumer gets to free slots between them
+                        if (i % 64 == 63) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        long total = PRODUCERS * LINES;
+        assertTrue(collector.await(total - node.getDroppedCount(), 10000));
+        node.shutdown();
+
+        // Every line is either passed on once, in the order its producer wrote it, or counted
+        assertEquals(0, collector.getOutOfOrder());
+        assertEquals(total, collector.getCount() + node.getDroppedCount());
+        assertTrue("ring did not wrap around", collector.getCount() > 16 * 10);
+    }
+
+    @Test
+    public void fullRingDropsAndCountsNewLines() throws Exception {
+        AsyncLogNode node = new AsyncLogNode(4);
+        CountDownLatch gate = new CountDownLatch(1);
+        Collector collector = new Collector(gate);
+        node.setNext(collector);
+
+        // The background thread holds the first line until the gate opens
+        node.println(Log.INFO, "0", "0", null);
+        assertTrue(collector.await(1, 5000));
+        for (int i = 1; i <= 4; i++) {
+            node.println(Log.INFO, "0", String.valueOf(i), null);
+        }
+        for (int i = 5; i < 8; i++) {
+            node.println(Log.INFO, "0", String.valueOf(i), null);
+        }
+        assertEquals(3, node.getDroppedCount());
+
+        gate.countDown();
+        assertTrue(collector.await(5, 5000));
+        node.shutdown();
+        assertEquals("[0, 1, 2, 3, 4]", collector.getMessages().toString());
+    }
+
+    @Test
+    public void shutdownPassesOnQueuedLines() throws Exception {
+        AsyncLogNode node = new AsyncLogNode(8);
+        CountDownLatch gate = new CountDownLatch(1);
+        Collector collector = new Collector(gate);
+        node.setNext(collector);
+
+        node.println(Log.INFO, "0", "0", null);
+        assertTrue(collector.await(1, 5000));
+        node.println(Log.INFO, "0", "1", null);
+        node.println(Log.INFO, "0", "2", null);
+        node.shutdown();
+
+        gate.countDown();
+        assertTrue(collector.await(3, 5000));
+        assertEquals("[0, 1, 2]", collector.getMessages().toString());
+        assertEquals(0, node.getDroppedCount());
+    }
+
+    /**
+     * Last node of the chain. Lines are "sequence" messages tagged with their producer.
+     */
+    private static class Collector implements LogNode {
+        private final CountDownLatch mGate;
+        private final long[] mLast = new long[PRODUCERS];
+        private final List<String> mMessages = new ArrayList<String>();
+        private long mCount;
+        private long mOutOfOrder;
+
+        /**
+         * @param gate held by the first line until it opens, null to never wait
+         */
+        Collector(CountDownLatch gate) {
+            mGate = gate;
+            for (int i = 0; i < PRODUCERS; i++) {
+                mLast[i] = -1;
+            }
+        }
+
+        @Override
+        public void println(int priority, String tag, String msg, Throwable tr) {
+            synchronized (this) {
+                int producer = Integer.parseInt(tag);
+                long sequence = Long.parseLong(msg);
+                if (sequence <= mLast[producer]) {
+                    mOutOfOrder++;
+                }
+                mLast[producer] = sequence;
+                if (mMessages.size() < 16) {
+                    mMessages.add(msg);
+                }
+                mCount++;
+                notifyAll();
+            }
+            if (mGate != null) {
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        synchronized boolean await(long count, long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (mCount < count) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+
+        synchronized long getCount() {
+            return mCount;
+        }
+
+        synchronized long getOutOfOrder() {
+            return mOutOfOrder;
+        }
+
+        synchronized List<String> getMessages() {
+            return new ArrayList<String>(mMessages);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.common.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+public class BinaryLogNodeTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("logs", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void decoderReadsBackWhatWasWritten() throws Exception {
+        BinaryLogNode node = new BinaryLogNode(mDirectory);
+        node.println(Log.DEBUG, "Chat", "connected to café 😀", null);
+        node.println(Log.ERROR, "Service", "write failed", new IOException("broken pipe"));
+        node.println(Log.INFO, null, null, null);
+
+        String[] lines = decode(file(0)).split("\n");
+        assertTrue(lines[0], lines[0].endsWith(" D/Chat: connected to café 😀"));
+        assertTrue(lines[1], lines[1].endsWith(" E/Service: write failed"));
+        assertTrue(lines[2], lines[2].contains("java.io.IOException: broken pipe"));
+        assertTrue(decode(file(0)).contains(" I/: \n"));
+    }
+
+    @Test
+    public void newNodeCarriesOnInTheLatestFile() throws Exception {
+        BinaryLogNode first = new BinaryLogNode(mDirectory);
+        first.println(Log.INFO, "Chat", "one", null);
+        first.println(Log.INFO, "Service", "two", null);
+
+        // As after a restart of the process
+        BinaryLogNode second = new BinaryLogNode(mDirectory);
+        second.println(Log.INFO, "Service", "three", null);
+        second.println(Log.WARN, "Discovery", "four", null);
+
+        assertEquals(1, mDirectory.listFiles().length);
+        String[] lines = decode(file(0)).split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[2], lines[2].endsWith(" I/Service: three"));
+        assertTrue(lines[3], lines[3].endsWith(" W/Discovery: four"));
+    }
+
+    @Test
+    public void fullFileIsNotResumed() throws Exception {
+        // Magic, the tag and a line of 997 bytes fill the file to its last byte
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 997) {
+            message.append('x');
+        }
+        new BinaryLogNode(mDirectory, BinaryLogNode.MIN_FILE_SIZE, 4)
+                .println(Log.INFO, "Chat", message.toString(), null);
+        assertFalse(file(1).exists());
+
+        new BinaryLogNode(mDirectory, BinaryLogNode.MIN_FILE_SIZE, 4)
+                .println(Log.INFO, "Chat", "after the restart", null);
+
+        assertTrue(decode(file(0)).endsWith(message + "\n"));
+        assertTrue(decode(file(1)).endsWith(" I/Chat: after the restart\n"));
+    }
+
+    @Test
+    public void differentFileSizeStartsANewFile() throws Exception {
+        new BinaryLogNode(mDirectory).println(Log.INFO, "Chat", "one", null);
+        new BinaryLogNode(mDirectory, BinaryLogNode.MIN_FILE_SIZE, 4)
+                .println(Log.INFO, "Chat", "two", null);
+
+        assertTrue(decode(file(0)).endsWith(" I/Chat: one\n"));
+        assertTrue(decode(file(1)).endsWith(" I/Chat: two\n"));
+    }
+
+    private File file(long sequence) {
+        return new File(mDirectory, BinaryLogNode.FILE_PREFIX + sequence
+                + BinaryLogNode.FILE_SUFFIX);
+    }
+
+    private static String decode(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        new BinaryLogDecoder().decode(file, out);
+        out.flush();
+        return bytes.toString("UTF-8");
+    }
+}
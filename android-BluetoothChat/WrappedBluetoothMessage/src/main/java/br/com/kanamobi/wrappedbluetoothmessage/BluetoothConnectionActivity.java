@@ -20,15 +20,20 @@ import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.content.Intent;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.Window;
 
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+
 public class BluetoothConnectionActivity extends Activity {
 
     private static final String TAG = "BluetoothMessage";
+    private static final Logger LOG = Logger.get(TAG);
 
     public static final String ARG_ACTION = "br.com.kanamobi.wrappedbluetoothmessage.ARG_ACTION";
     public static final String ARG_CONNECTION_SECURE = "br.com.kanamobi.wrappedbluetoothmessage.ARG_CONNECTION_SECURE";
+    // Name of the service the result goes back to, the default one if missing
+    public static final String ARG_SERVICE_NAME =
+            "br.com.kanamobi.wrappedbluetoothmessage.ARG_SERVICE_NAME";
 
     public static final int ACTION_ENABLE_BLUETOOTH = 42;
     public static final int ACTION_CONNECT_DEVICE = 84;
@@ -86,8 +91,14 @@ public class BluetoothConnectionActivity extends Activity {
 
         finish();
 
-        Log.d(TAG, "onActivityResult() requestCode: $requestCode / resultCode $resultCode");
-        BluetoothMessageInstance.getInstance().onActivityResult(requestCode, resultCode, data);
+        LOG.d("onActivityResult() requestCode: {} / resultCode {}", requestCode, resultCode);
+        String name = getIntent().getStringExtra(ARG_SERVICE_NAME);
+        BluetoothMessageService service = name != null
+                ? BluetoothMessageInstance.getInstance(name)
+                : BluetoothMessageInstance.getInstance();
+        if (service != null) {
+            service.onActivityResult(requestCode, resultCode, data);
+        }
 
     }
 }
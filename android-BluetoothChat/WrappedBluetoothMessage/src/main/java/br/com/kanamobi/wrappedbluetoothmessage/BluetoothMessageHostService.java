@@ -0,0 +1,184 @@
+package br.com.kanamobi.wrappedbluetoothmessage;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothStreamListener;
+import br.com.kanamobi.wrappedbluetoothmessage.exceptions.BluetoothNotAvailableException;
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+
+/**
+ * Foreground service that owns the {@link BluetoothMessageService}, so the connection outlives
+ * the Activities and Fragments that use it. Start it once with {@link #start(Context)}, then
+ * bind and unbind as the UI comes and goes; binding and unbinding never touch the connection,
+ * only {@link #stop(Context)} does. Holds the application context only.
+ *
+ * <pre>
+ * BluetoothMessageHostService.start(activity);
+ * activity.bindService(new Intent(activity, BluetoothMessageHostService.class), connection, 0);
+ * ...
+ * BluetoothMessageService service =
+ *         ((BluetoothMessageHostService.LocalBinder) binder).getService();
+ * </pre>
+ */
+public class BluetoothMessageHostService extends Service {
+
+    private static final String TAG = "BluetoothMessageHost";
+    private static final Logger LOG = Logger.get(TAG);
+
+    private static final String CHANNEL_ID = "bluetooth_connection";
+    private static final int NOTIFICATION_ID = 0x4254;
+
+    private final LocalBinder mBinder = new LocalBinder();
+    private BluetoothMessageService mService;
+    private NotificationManager mNotificationManager;
+    private final Object mNotificationLock = new Object();
+    // Guarded by mNotificationLock, set once the notification must not come back
+    private boolean mDestroyed;
+
+    /**
+     * Given to clients that bind.
+     */
+    public class LocalBinder extends Binder {
+        public BluetoothMessageService getService() {
+            return mService;
+        }
+    }
+
+    // Called on the Bluetooth threads, NotificationManager can be called from any thread
+    private final BluetoothStreamListener mStateListener = new BluetoothStreamListener() {
+        @Override
+        public void onStateChanged(int state) {
+            Notification notification = buildNotification(state);
+            synchronized (mNotificationLock) {
+                if (!mDestroyed) {
+                    mNotificationManager.notify(NOTIFICATION_ID, notification);
+                }
+            }
+        }
+
+        @Override
+        public void onConnectionFailed() {
+        }
+
+        @Override
+        public void onConnectionLost() {
+        }
+
+        @Override
+        public void onBytesRead(byte[] buffer, int length) {
+        }
+
+        @Override
+        public void onBytesWritten(byte[] buffer) {
+        }
+    };
+
+    /**
+     * Start the service in the foreground, if it is not running yet.
+     *
+     * @throws BluetoothNotAvailableException if the device has no Bluetooth
+     */
+    public static void start(Context context) throws BluetoothNotAvailableException {
+        if (BluetoothAdapter.getDefaultAdapter() == null) {
+            throw new BluetoothNotAvailableException();
+        }
+        Intent intent = new Intent(context, BluetoothMessageHostService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    /**
+     * Close the connection and stop the service once no client is bound.
+     */
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, BluetoothMessageHostService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.connection_channel), NotificationManager.IMPORTANCE_LOW);
+            mNotificationManager.createNotificationChannel(channel);
+        }
+        try {
+            mService = BluetoothMessageInstance.init(getApplicationContext());
+        } catch (BluetoothNotAvailableException e) {
+            LOG.e("Bluetooth is not available", e);
+            stopSelf();
+            return;
+        }
+        mService.addBluetoothStreamListener(mStateListener);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Right away, a service started with startForegroundService() has seconds to do it
+        startForeground(NOTIFICATION_ID,
+                buildNotification(mService != null ? mService.getState() : 0));
+        if (mService == null) {
+            stopSelf();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // A state change already under way on a Bluetooth thread must not post it again
+        synchronized (mNotificationLock) {
+            mDestroyed = true;
+        }
+        if (mService != null) {
+            mService.removeBluetoothStreamListener(mStateListener);
+            mService.stop();
+        }
+        stopForeground(true);
+        mNotificationManager.cancel(NOTIFICATION_ID);
+    }
+
+    private Notification buildNotification(int state) {
+        Notification.Builder builder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? new Notification.Builder(this, CHANNEL_ID) : newLegacyBuilder();
+        String text = state == BluetoothMessageService.STATE_CONNECTED
+                ? getString(R.string.connection_connected, mService.getConnectedDeviceName())
+                : getString(R.string.connection_waiting);
+        builder.setSmallIcon(android.R.drawable.stat_sys_data_bluetooth)
+                .setContentTitle(getApplicationInfo().loadLabel(getPackageManager()))
+                .setContentText(text)
+                .setOngoing(true);
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        if (launch != null) {
+            builder.setContentIntent(PendingIntent.getActivity(this, 0, launch, 0));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builder without a channel, which is all there is before Android O.
+     */
+    @SuppressWarnings("deprecation")
+    private Notification.Builder newLegacyBuilder() {
+        return new Notification.Builder(this);
+    }
+}
@@ -3,29 +3,138 @@ package br.com.kanamobi.wrappedbluetoothmessage;
 import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
 
+import java.util.HashMap;
+import java.util.UUID;
+
+import br.com.kanamobi.wrappedbluetoothmessage.discovery.DeviceDiscoveryManager;
 import br.com.kanamobi.wrappedbluetoothmessage.exceptions.BluetoothNotAvailableException;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.BluetoothTransport;
 
+/**
+ * The services of the process, one per name. {@link #init(Context)} gives the default one, a
+ * {@link Builder} gives others, each with its own UUIDs and connection. Safe to call from any
+ * thread; a service is created the first time it is asked for and opens no socket until it is
+ * started.
+ */
 public class BluetoothMessageInstance {
 
-    static BluetoothMessageService instance;
+    // Guarded by the class
+    private static final HashMap<String, BluetoothMessageService> sInstances =
+            new HashMap<String, BluetoothMessageService>();
+    private static final HashMap<UUID, String> sNamesByUuid = new HashMap<UUID, String>();
 
     public static BluetoothMessageService init(Context context) throws BluetoothNotAvailableException{
+        return new Builder(context).build();
+    }
+
+    /**
+     * The default service, null before {@link #init(Context)}.
+     */
+    public static BluetoothMessageService getInstance(){
+        return getInstance(BluetoothTransport.DEFAULT_NAME);
+    }
 
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    /**
+     * The service built with the given name, null if there is none.
+     */
+    public static synchronized BluetoothMessageService getInstance(String name) {
+        return sInstances.get(name);
+    }
+
+    /**
+     * Builds a service, or returns the one already built with the same name. The UUIDs have to
+     * be the ones it was built with; the listen modes are those of the first build.
+     *
+     * <pre>
+     * BluetoothMessageService files = new BluetoothMessageInstance.Builder(context)
+     *         .setName("FileShare")
+     *         .setUuids(FILE_SHARE_SECURE_UUID, FILE_SHARE_INSECURE_UUID)
+     *         .setListenModes(true, false)
+     *         .build();
+     * </pre>
+     */
+    public static class Builder {
+        private final Context mContext;
+        private String mName = BluetoothTransport.DEFAULT_NAME;
+        private UUID mSecureUuid = BluetoothTransport.DEFAULT_UUID_SECURE;
+        private UUID mInsecureUuid = BluetoothTransport.DEFAULT_UUID_INSECURE;
+        private boolean mListenSecure = true;
+        private boolean mListenInsecure = true;
 
-        if(bluetoothAdapter == null){
-            throw new BluetoothNotAvailableException();
+        public Builder(Context context) {
+            mContext = context;
         }
 
-        if (instance == null) {
-            instance = new BluetoothMessageService(context, bluetoothAdapter);
+        /**
+         * Name of the service, and of its SDP records with "Secure" or "Insecure" appended.
+         */
+        public Builder setName(String name) {
+            mName = name;
+            return this;
         }
 
-        return instance;
-    }
+        public Builder setUuids(UUID secureUuid, UUID insecureUuid) {
+            mSecureUuid = secureUuid;
+            mInsecureUuid = insecureUuid;
+            return this;
+        }
 
-    public static BluetoothMessageService getInstance(){
-        return instance;
+        /**
+         * @see BluetoothMessageService#setListenModes(boolean, boolean)
+         */
+        public Builder setListenModes(boolean secure, boolean insecure) {
+            mListenSecure = secure;
+            mListenInsecure = insecure;
+            return this;
+        }
+
+        /**
+         * @throws BluetoothNotAvailableException if the device has no Bluetooth
+         * @throws IllegalStateException if the name or a UUID is taken by another service
+         */
+        public BluetoothMessageService build() throws BluetoothNotAvailableException {
+            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+
+            if(bluetoothAdapter == null){
+                throw new BluetoothNotAvailableException();
+            }
+
+            synchronized (BluetoothMessageInstance.class) {
+                BluetoothMessageService instance = sInstances.get(mName);
+                if (instance != null) {
+                    if (!mName.equals(sNamesByUuid.get(mSecureUuid))
+                            || !mName.equals(sNamesByUuid.get(mInsecureUuid))) {
+                        throw new IllegalStateException(
+                                mName + " was built with other UUIDs");
+                    }
+                    return instance;
+                }
+                checkUuidFree(mSecureUuid);
+                checkUuidFree(mInsecureUuid);
+
+                // Never an Activity's, the service outlives whichever one got here first
+                Context context = mContext.getApplicationContext();
+                instance = new BluetoothMessageService(context, bluetoothAdapter, mName,
+                        mSecureUuid, mInsecureUuid);
+                instance.setListenModes(mListenSecure, mListenInsecure);
+
+                // Let the discovery scheduler see our traffic so it never scans while we are busy
+                instance.addBluetoothStreamListener(
+                        DeviceDiscoveryManager.getInstance(context).getScheduler());
+
+                sInstances.put(mName, instance);
+                sNamesByUuid.put(mSecureUuid, mName);
+                sNamesByUuid.put(mInsecureUuid, mName);
+                return instance;
+            }
+        }
+
+        private static void checkUuidFree(UUID uuid) {
+            String name = sNamesByUuid.get(uuid);
+            if (name != null) {
+                throw new IllegalStateException(uuid + " is already used by " + name);
+            }
+        }
     }
 
 }
@@ -19,24 +19,54 @@ package br.com.kanamobi.wrappedbluetoothmessage;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import android.util.Log;
+import android.os.Looper;
 import android.widget.Toast;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import br.com.kanamobi.wrappedbluetoothmessage.attachment.Attachment;
+import br.com.kanamobi.wrappedbluetoothmessage.attachment.AttachmentReceiver;
+import br.com.kanamobi.wrappedbluetoothmessage.attachment.AttachmentSender;
+import br.com.kanamobi.wrappedbluetoothmessage.attachment.OutgoingAttachment;
 import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothAdapterListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothAttachmentListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothConnectListener;
 import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothDeviceListener;
 import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothMessageListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothPeerMessageListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothReadListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothStreamListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.ReadListenerList;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.StreamListenerList;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.FrameCodec;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.FrameDecoder;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.MessageCodec;
+import br.com.kanamobi.wrappedbluetoothmessage.dedupe.PeerSeenSets;
+import br.com.kanamobi.wrappedbluetoothmessage.dedupe.SeenSet;
+import br.com.kanamobi.wrappedbluetoothmessage.dispatch.CallbackDispatcher;
+import br.com.kanamobi.wrappedbluetoothmessage.dispatch.HandlerDispatcher;
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+import br.com.kanamobi.wrappedbluetoothmessage.metrics.ConnectionMetrics;
+import br.com.kanamobi.wrappedbluetoothmessage.metrics.ConnectionTimeline;
+import br.com.kanamobi.wrappedbluetoothmessage.metrics.MetricsRegistry;
+import br.com.kanamobi.wrappedbluetoothmessage.reactive.InboundMessagePublisher;
+import br.com.kanamobi.wrappedbluetoothmessage.trace.Traces;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.BluetoothTransport;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageServerSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+import org.reactivestreams.Publisher;
 
 /**
  * Defines several constants used between {@link BluetoothMessageService} and the UI.
@@ -45,25 +75,28 @@ public class BluetoothMessageService {
 
     // Debugging
     private static final String TAG = "BluetoothChatService";
-
-    // Name for the SDP record when creating server socket
-    private static final String NAME_SECURE = "BluetoothChatSecure";
-    private static final String NAME_INSECURE = "BluetoothChatInsecure";
-
-    // Unique UUID for this application
-    private static final UUID MY_UUID_SECURE =
-            UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66");
-    private static final UUID MY_UUID_INSECURE =
-            UUID.fromString("8ce255c0-200a-11e0-ac64-0800200c9a66");
+    private static final Logger LOG = Logger.get(TAG);
 
     private Context context;
+    private final String mName;
     private final BluetoothAdapter mAdapter;
+    private final MessageTransport mTransport;
+    private final CallbackDispatcher mDispatcher;
     private AcceptThread mSecureAcceptThread;
     private AcceptThread mInsecureAcceptThread;
+    // The last accept thread started for each mode, the next one waits for it to let go of
+    // its server socket
+    private AcceptThread mLastSecureAcceptThread;
+    private AcceptThread mLastInsecureAcceptThread;
+    private boolean mListenSecure = true;
+    private boolean mListenInsecure = true;
     private ConnectThread mConnectThread;
     private ConnectedThread mConnectedThread;
     private int mState;
     private int mNewState;
+    private final InboundMessagePublisher mInboundPublisher = new InboundMessagePublisher();
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final ConnectionTimeline mTimeline = new ConnectionTimeline();
 
     // Constants that indicate the current connection state
     public static final int STATE_NONE = 0;       // we're doing nothing
@@ -76,23 +109,60 @@ public class BluetoothMessageService {
     public static final int REQUEST_CONNECT_DEVICE_INSECURE = 2;
     public static final int REQUEST_ENABLE_BT = 3;
 
+    // How long the read thread waits for subscriber demand before re-checking the state
+    private static final long DEMAND_POLL_MS = 250;
+
+    // Message ids remembered per peer to drop messages sent again, and peers remembered
+    private static final int SEEN_IDS_PER_PEER = 1024;
+    private static final int SEEN_PEERS = 8;
+
+    // What happened to an attachment, arg1 of MESSAGE_ATTACHMENT
+    private static final int ATTACHMENT_STARTED = 1;
+    private static final int ATTACHMENT_THUMBNAIL = 2;
+    private static final int ATTACHMENT_PROGRESS = 3;
+    private static final int ATTACHMENT_RECEIVED = 4;
+    private static final int ATTACHMENT_FAILED = 5;
+    private static final int ATTACHMENT_SENT = 6;
+    private static final int ATTACHMENT_SEND_FAILED = 7;
+
     private BluetoothDeviceListener mBluetoothDeviceListener = null;
     private BluetoothMessageListener mBluetoothMessageListener = null;
+    private BluetoothPeerMessageListener mBluetoothPeerMessageListener = null;
     private BluetoothAdapterListener mBluetoothAdapterListener = null;
+    private BluetoothAttachmentListener mBluetoothAttachmentListener = null;
+    private final StreamListenerList mStreamListeners = new StreamListenerList();
+    private final ReadListenerList mReadListeners = new ReadListenerList();
 
-    private Handler mResultHandler = new Handler();
+    private final PeerSeenSets mSeenSets = new PeerSeenSets(SEEN_PEERS, SEEN_IDS_PER_PEER);
+    // Starts at random, so ids do not repeat when the app is started again
+    private final AtomicLong mNextMessageId = new AtomicLong(new Random().nextLong());
+
+    // Outgoing connection attempt started by connect(), used to report its latency
+    private long mConnectStartNanos = 0;
+    private String mPendingConnectAddress = null;
+    private BluetoothConnectListener mPendingConnectListener = null;
+    private volatile long mLastConnectLatencyMillis = -1;
 
     String mConnectedDeviceName = null;
+    private volatile String mConnectedDeviceAddress = null;
 
-    private Handler mHandler = new Handler() {
+    private final CallbackDispatcher.Target mDispatchTarget = new CallbackDispatcher.Target() {
 
         @Override
-        public void handleMessage(Message msg) {
-            super.handleMessage(msg);
-            switch (msg.what){
+        public void onServiceMessage(int what, int arg1, Object obj, long waitNanos) {
+            Traces.begin(Traces.DISPATCH);
+            try {
+                handleServiceMessage(what, arg1, obj, waitNanos);
+            } finally {
+                Traces.end();
+            }
+        }
+
+        private void handleServiceMessage(int what, int arg1, Object obj, long waitNanos) {
+            switch (what){
                 case Constants.MESSAGE_STATE_CHANGE:
 
-                    switch (msg.arg1) {
+                    switch (arg1) {
                         case BluetoothMessageService.STATE_CONNECTED:
                             if(mBluetoothDeviceListener != null)
                                 mBluetoothDeviceListener.onDeviceStateConnected(mConnectedDeviceName);
@@ -117,23 +187,69 @@ public class BluetoothMessageService {
                     break;
 
                 case Constants.MESSAGE_WRITE:
-                    byte[] writeBuf = (byte[]) msg.obj;
+                    Exchanged written = (Exchanged) obj;
+                    mMetrics.onDispatched(written.mConnection, waitNanos);
+                    byte[] writeBuf = (byte[]) written.mPayload;
                     // construct a string from the buffer
-                    String writeMessage = new String(writeBuf);
-                    if(mBluetoothMessageListener != null)
-                        mBluetoothMessageListener.onMessageWrite(writeMessage);
+                    Traces.begin(Traces.DECODE);
+                    String writeMessage = MessageCodec.decode(writeBuf);
+                    Traces.end();
+                    if(mBluetoothMessageListener != null) {
+                        Traces.begin(Traces.LISTENER);
+                        try {
+                            mBluetoothMessageListener.onMessageWrite(writeMessage);
+                        } finally {
+                            Traces.end();
+                        }
+                    }
+                    if(mBluetoothPeerMessageListener != null) {
+                        Traces.begin(Traces.LISTENER);
+                        try {
+                            mBluetoothPeerMessageListener.onMessageWrite(written.mAddress,
+                                    writeMessage);
+                        } finally {
+                            Traces.end();
+                        }
+                    }
                     break;
 
                 case Constants.MESSAGE_READ:
-                    byte[] readBuf = (byte[]) msg.obj;
-                    // construct a string from the valid bytes in the buffer
-                    String readMessage = new String(readBuf, 0, msg.arg1);
-                    if(mBluetoothMessageListener != null)
-                        mBluetoothMessageListener.onMessageRead(readMessage);
+                    // Decoded on the read thread, the read buffer is reused for the next read
+                    Exchanged read = (Exchanged) obj;
+                    mMetrics.onDispatched(read.mConnection, waitNanos);
+                    String readMessage = (String) read.mPayload;
+                    if(mBluetoothMessageListener != null) {
+                        Traces.begin(Traces.LISTENER);
+                        try {
+                            mBluetoothMessageListener.onMessageRead(readMessage);
+                        } finally {
+                            Traces.end();
+                        }
+                    }
+                    if(mBluetoothPeerMessageListener != null) {
+                        Traces.begin(Traces.LISTENER);
+                        try {
+                            mBluetoothPeerMessageListener.onMessageRead(read.mAddress, read.mName,
+                                    readMessage);
+                        } finally {
+                            Traces.end();
+                        }
+                    }
+                    break;
+
+                case Constants.MESSAGE_ATTACHMENT:
+                    if (mBluetoothAttachmentListener != null) {
+                        Traces.begin(Traces.LISTENER);
+                        try {
+                            onAttachmentEvent(arg1, (Exchanged) obj);
+                        } finally {
+                            Traces.end();
+                        }
+                    }
                     break;
 
                 case Constants.MESSAGE_DEVICE_NAME:
-                    mConnectedDeviceName = msg.getData().getString(Constants.DEVICE_NAME);
+                    mConnectedDeviceName = (String) obj;
                     if(mBluetoothDeviceListener != null)
                         mBluetoothDeviceListener.onDeviceStateConnected(mConnectedDeviceName);
                     break;
@@ -150,11 +266,74 @@ public class BluetoothMessageService {
             }
 
         }
+
+        private void onAttachmentEvent(int event, Exchanged exchanged) {
+            AttachmentEvent payload = (AttachmentEvent) exchanged.mPayload;
+            BluetoothAttachmentListener listener = mBluetoothAttachmentListener;
+            String address = exchanged.mAddress;
+            Attachment attachment = payload.mAttachment;
+            switch (event) {
+                case ATTACHMENT_STARTED:
+                    listener.onAttachmentStarted(address, exchanged.mName, attachment);
+                    break;
+                case ATTACHMENT_THUMBNAIL:
+                    listener.onAttachmentThumbnail(address, attachment, payload.mData);
+                    break;
+                case ATTACHMENT_PROGRESS:
+                    listener.onAttachmentProgress(address, attachment, payload.mReceived);
+                    break;
+                case ATTACHMENT_RECEIVED:
+                    listener.onAttachmentReceived(address, attachment, payload.mData);
+                    break;
+                case ATTACHMENT_FAILED:
+                    listener.onAttachmentFailed(address, attachment);
+                    break;
+                case ATTACHMENT_SENT:
+                    listener.onAttachmentSent(address, attachment);
+                    break;
+                case ATTACHMENT_SEND_FAILED:
+                    listener.onAttachmentSendFailed(address, attachment);
+                    break;
+            }
+        }
     };
 
     public BluetoothMessageService(Context context, BluetoothAdapter adapter) {
+        this(context, adapter, BluetoothTransport.DEFAULT_NAME,
+                BluetoothTransport.DEFAULT_UUID_SECURE, BluetoothTransport.DEFAULT_UUID_INSECURE);
+    }
+
+    /**
+     * Service that other devices reach by its own UUIDs, independent of any other service in
+     * the process. Usually built through {@link BluetoothMessageInstance.Builder}.
+     *
+     * @param name the service is known by, and the SDP records are named after
+     */
+    public BluetoothMessageService(Context context, BluetoothAdapter adapter, String name,
+                                   UUID secureUuid, UUID insecureUuid) {
+        this(context, adapter, name,
+                new BluetoothTransport(adapter, name, secureUuid, insecureUuid),
+                // Callbacks go to the UI whichever thread built the service
+                new HandlerDispatcher(Looper.getMainLooper()));
+    }
+
+    /**
+     * Service on another transport, with the callbacks delivered by the given dispatcher.
+     * Everything that needs an Activity or the BluetoothAdapter, like {@link #requestEnableBt()}
+     * or {@link #ensureDiscoverable()}, is unavailable. Lets the service run on a desktop JVM.
+     */
+    public BluetoothMessageService(MessageTransport transport, CallbackDispatcher dispatcher) {
+        this(null, null, BluetoothTransport.DEFAULT_NAME, transport, dispatcher);
+    }
+
+    private BluetoothMessageService(Context context, BluetoothAdapter adapter, String name,
+                                    MessageTransport transport, CallbackDispatcher dispatcher) {
         this.context = context;
+        mName = name;
         mAdapter = adapter;
+        mTransport = transport;
+        mDispatcher = dispatcher;
+        mDispatcher.setTarget(mDispatchTarget);
         mState = STATE_NONE;
         mNewState = mState;
     }
@@ -171,16 +350,110 @@ public class BluetoothMessageService {
         this.mBluetoothMessageListener = bluetoothMessageListener;
     }
 
+    /**
+     * Listener for messages with the device they were exchanged with, called along with the
+     * {@link BluetoothMessageListener}.
+     */
+    public void setBluetoothPeerMessageListener(
+            BluetoothPeerMessageListener bluetoothPeerMessageListener) {
+        this.mBluetoothPeerMessageListener = bluetoothPeerMessageListener;
+    }
+
+    public void setBluetoothAttachmentListener(
+            BluetoothAttachmentListener bluetoothAttachmentListener) {
+        this.mBluetoothAttachmentListener = bluetoothAttachmentListener;
+    }
+
+    /**
+     * Register a listener that is called directly from the Bluetooth threads,
+     * before anything is posted to the main Looper.
+     */
+    public void addBluetoothStreamListener(BluetoothStreamListener bluetoothStreamListener) {
+        mStreamListeners.add(bluetoothStreamListener);
+    }
+
+    public void removeBluetoothStreamListener(BluetoothStreamListener bluetoothStreamListener) {
+        mStreamListeners.remove(bluetoothStreamListener);
+    }
+
+    /**
+     * Register a listener that gets each inbound message on the read thread, duplicates
+     * already dropped, before anything is posted to the main Looper.
+     */
+    public void addBluetoothReadListener(BluetoothReadListener bluetoothReadListener) {
+        mReadListeners.add(bluetoothReadListener);
+    }
+
+    public void removeBluetoothReadListener(BluetoothReadListener bluetoothReadListener) {
+        mReadListeners.remove(bluetoothReadListener);
+    }
+
+    /**
+     * Snapshot of the traffic counters, queue depth and latency histograms of this service
+     * and of its current connection.
+     */
+    public MetricsRegistry.Snapshot getMetrics() {
+        return mMetrics.snapshot();
+    }
+
+    /**
+     * Recent connection lifecycle events, see
+     * {@link br.com.kanamobi.wrappedbluetoothmessage.metrics.TimelineAnalyzer} for the analysis.
+     */
+    public ConnectionTimeline getTimeline() {
+        return mTimeline;
+    }
+
+    /**
+     * Inbound text messages as a Reactive Streams {@link Publisher}, the UTF-8 bytes of one
+     * message each, duplicates already dropped. While subscribed, the socket is only read and a
+     * message only delivered when the subscriber has outstanding demand. Completes when
+     * {@link #stop()} is called.
+     */
+    public Publisher<byte[]> getInboundPublisher() {
+        return mInboundPublisher;
+    }
+
     /**
      * Update UI title according to the current state of the chat connection
      */
     private synchronized void updateUserInterfaceTitle() {
         mState = getState();
-        Log.d(TAG, "updateUserInterfaceTitle() " + mNewState + " -> " + mState);
+        LOG.d("updateUserInterfaceTitle() {} -> {}", mNewState, mState);
         mNewState = mState;
 
         // Give the new state to the Handler so the UI Activity can update
-        mHandler.obtainMessage(Constants.MESSAGE_STATE_CHANGE, mNewState, -1).sendToTarget();
+        mDispatcher.dispatch(Constants.MESSAGE_STATE_CHANGE, mNewState, null);
+
+        mStreamListeners.onStateChanged(mNewState);
+    }
+
+    /**
+     * Name of the service, {@link BluetoothTransport#DEFAULT_NAME} unless built with another.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Which server sockets {@link #start()} opens, both by default. Only the modes that peers
+     * actually connect with should be listened on, every server socket is an SDP record. A
+     * mode turned off while listening stops being listened on right away.
+     *
+     * @param secure   listen for secure connections
+     * @param insecure listen for insecure connections
+     */
+    public synchronized void setListenModes(boolean secure, boolean insecure) {
+        mListenSecure = secure;
+        mListenInsecure = insecure;
+        if (!secure && mSecureAcceptThread != null) {
+            mSecureAcceptThread.cancel();
+            mSecureAcceptThread = null;
+        }
+        if (!insecure && mInsecureAcceptThread != null) {
+            mInsecureAcceptThread.cancel();
+            mInsecureAcceptThread = null;
+        }
     }
 
     /**
@@ -195,7 +468,8 @@ public class BluetoothMessageService {
      * session in listening (server) mode. Called by the Activity onResume()
      */
     public synchronized void start() {
-        Log.d(TAG, "start");
+        LOG.d("start");
+        mTimeline.beginAttempt(ConnectionTimeline.LISTEN);
 
         // Cancel any thread attempting to make a connection
         if (mConnectThread != null) {
@@ -209,12 +483,12 @@ public class BluetoothMessageService {
             mConnectedThread = null;
         }
 
-        // Start the thread to listen on a BluetoothServerSocket
-        if (mSecureAcceptThread == null) {
+        // Start the thread to listen on a BluetoothServerSocket, it opens the socket itself
+        if (mListenSecure && mSecureAcceptThread == null) {
             mSecureAcceptThread = new AcceptThread(true);
             mSecureAcceptThread.start();
         }
-        if (mInsecureAcceptThread == null) {
+        if (mListenInsecure && mInsecureAcceptThread == null) {
             mInsecureAcceptThread = new AcceptThread(false);
             mInsecureAcceptThread.start();
         }
@@ -229,7 +503,46 @@ public class BluetoothMessageService {
      * @param secure Socket Security type - Secure (true) , Insecure (false)
      */
     public synchronized void connect(BluetoothDevice device, boolean secure) {
-        Log.d(TAG, "connect to: " + device);
+        connect(device.getAddress(), secure, null);
+    }
+
+    /**
+     * Connect to a remote device by its MAC address, without going through
+     * {@link DeviceListActivity}.
+     *
+     * @param address  The hardware address of the remote device, e.g. "00:11:22:AA:BB:CC"
+     * @param secure   Socket Security type - Secure (true) , Insecure (false)
+     * @param listener Called on the main thread once the attempt succeeds or fails, may be null
+     */
+    public synchronized void connect(String address, boolean secure,
+                                     BluetoothConnectListener listener) {
+        LOG.d("connect to: {}", address);
+
+        // Get a socket first, an address that is no good must not take the current link down
+        MessageSocket socket;
+        try {
+            socket = mTransport.createSocket(address, secure);
+        } catch (IllegalArgumentException e) {
+            LOG.e("Not a Bluetooth address: {}", address, e);
+            socket = null;
+        } catch (IOException e) {
+            LOG.e("Socket Type: {} create() failed", secure ? "Secure" : "Insecure", e);
+            socket = null;
+        }
+        if (socket == null) {
+            postConnectResult(listener, false, address, null, 0);
+            return;
+        }
+
+        mTimeline.beginAttempt(ConnectionTimeline.CONNECT_REQUESTED);
+
+        // A newer attempt replaces the pending one
+        if (mPendingConnectListener != null) {
+            notifyConnectResult(false, null);
+        }
+        mConnectStartNanos = System.nanoTime();
+        mPendingConnectAddress = address;
+        mPendingConnectListener = listener;
 
         // Cancel any thread attempting to make a connection
         if (mState == STATE_CONNECTING) {
@@ -246,12 +559,79 @@ public class BluetoothMessageService {
         }
 
         // Start the thread to connect with the given device
-        mConnectThread = new ConnectThread(device, secure);
+        mConnectThread = new ConnectThread(socket, secure);
         mConnectThread.start();
         // Update UI title
         updateUserInterfaceTitle();
     }
 
+    /**
+     * Give up the attempt started by {@link #connect(String, boolean, BluetoothConnectListener)}
+     * with listener and go back to listening. Nothing happens if that attempt has already ended
+     * or a newer one replaced it, so the current link or attempt is left alone.
+     *
+     * @param listener the listener the attempt was started with
+     */
+    public synchronized void cancelConnect(BluetoothConnectListener listener) {
+        if (listener == null || mPendingConnectListener != listener) {
+            return;
+        }
+        LOG.d("cancel connect to: {}", mPendingConnectAddress);
+        notifyConnectResult(false, null);
+        start();
+    }
+
+    /**
+     * Time from the last {@link #connect} call until the link was up, or -1 if no
+     * outgoing connection has completed yet.
+     */
+    public long getLastConnectLatencyMillis() {
+        return mLastConnectLatencyMillis;
+    }
+
+    /**
+     * Report the end of the pending connection attempt, if there is one.
+     */
+    private synchronized void notifyConnectResult(final boolean connected,
+                                                  final String deviceName) {
+        if (mConnectStartNanos == 0) {
+            return;
+        }
+
+        final long latencyNanos = System.nanoTime() - mConnectStartNanos;
+        final long latencyMillis = latencyNanos / 1000000L;
+        final String address = mPendingConnectAddress;
+        final BluetoothConnectListener listener = mPendingConnectListener;
+        mConnectStartNanos = 0;
+        mPendingConnectAddress = null;
+        mPendingConnectListener = null;
+
+        if (connected) {
+            mLastConnectLatencyMillis = latencyMillis;
+            mMetrics.onConnectLatency(latencyNanos);
+            LOG.d("connect latency {}ms", latencyMillis);
+        }
+
+        postConnectResult(listener, connected, address, deviceName, latencyMillis);
+    }
+
+    private void postConnectResult(final BluetoothConnectListener listener,
+                                   final boolean connected, final String address,
+                                   final String deviceName, final long latencyMillis) {
+        if (listener != null) {
+            mDispatcher.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (connected) {
+                        listener.onConnected(deviceName, latencyMillis);
+                    } else {
+                        listener.onConnectionFailed(address, latencyMillis);
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Start the ConnectedThread to begin managing a Bluetooth connection
      *
@@ -260,7 +640,17 @@ public class BluetoothMessageService {
      */
     public synchronized void connected(BluetoothSocket socket, BluetoothDevice
             device, final String socketType) {
-        Log.d(TAG, "connected, Socket Type:" + socketType);
+        connected(BluetoothTransport.wrap(socket), socketType);
+    }
+
+    /**
+     * Start the ConnectedThread to begin managing a connection
+     *
+     * @param socket The connected socket
+     */
+    private synchronized void connected(MessageSocket socket, final String socketType) {
+        LOG.d("connected, Socket Type: {}", socketType);
+        mTimeline.record(ConnectionTimeline.CONNECTED);
 
         // Cancel the thread that completed the connection
         if (mConnectThread != null) {
@@ -288,12 +678,16 @@ public class BluetoothMessageService {
         mConnectedThread = new ConnectedThread(socket, socketType);
         mConnectedThread.start();
 
+        String address = socket.getRemoteAddress();
+        mConnectedDeviceName = socket.getRemoteName();
+        mConnectedDeviceAddress = address;
+        mMetrics.onConnected(address);
+
+        // An incoming connection from another device also ends our own attempt
+        notifyConnectResult(address.equals(mPendingConnectAddress), mConnectedDeviceName);
+
         // Send the name of the connected device back to the UI Activity
-        Message msg = mHandler.obtainMessage(Constants.MESSAGE_DEVICE_NAME);
-        Bundle bundle = new Bundle();
-        bundle.putString(Constants.DEVICE_NAME, device.getName());
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        mDispatcher.dispatch(Constants.MESSAGE_DEVICE_NAME, -1, mConnectedDeviceName);
         // Update UI title
         updateUserInterfaceTitle();
     }
@@ -302,7 +696,8 @@ public class BluetoothMessageService {
      * Stop all threads
      */
     public synchronized void stop() {
-        Log.d(TAG, "stop");
+        LOG.d("stop");
+        mTimeline.record(ConnectionTimeline.STOPPED);
 
         if (mConnectThread != null) {
             mConnectThread.cancel();
@@ -326,27 +721,63 @@ public class BluetoothMessageService {
         mState = STATE_NONE;
         // Update UI title
         updateUserInterfaceTitle();
+
+        mInboundPublisher.complete();
     }
 
     /**
      * Write to the ConnectedThread in an unsynchronized manner
      *
      * @param message The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @return the id the message was sent with, to send it again with after a reconnect
+     * @see ConnectedThread#write(byte[], long)
+     */
+    public long write(String message) {
+        long messageId;
+        do {
+            messageId = mNextMessageId.incrementAndGet();
+        } while (messageId == 0);
+        return write(message, messageId);
+    }
+
+    /**
+     * Write a message with the id it was first written with. The receiver drops a message
+     * whose id it has seen recently from the same device, so a message that may or may not
+     * have arrived before the connection was lost can safely be sent again.
+     *
+     * @param messageId as returned by {@link #write(String)}, 0 is never taken for a duplicate
+     * @return messageId
      */
-    public void write(String message) {
+    public long write(String message, long messageId) {
 
-        byte[] out = message.getBytes();
+        byte[] out = MessageCodec.encode(message);
 
         // Create temporary object
         ConnectedThread r;
         // Synchronize a copy of the ConnectedThread
         synchronized (this) {
-            if (mState != STATE_CONNECTED) return;
+            if (mState != STATE_CONNECTED) return messageId;
             r = mConnectedThread;
         }
         // Perform the write unsynchronized
-        r.write(out);
+        r.write(out, messageId);
+        return messageId;
+    }
+
+    /**
+     * Send an attachment to the connected device. Its thumbnail goes out right away, its data
+     * in chunks between the text messages written meanwhile; progress is reported to the
+     * {@link BluetoothAttachmentListener}.
+     *
+     * @return false if there is no connection
+     */
+    public boolean sendAttachment(OutgoingAttachment attachment) {
+        ConnectedThread r;
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return false;
+            r = mConnectedThread;
+        }
+        return r.sendAttachment(attachment);
     }
 
     /**
@@ -354,11 +785,12 @@ public class BluetoothMessageService {
      */
     private void connectionFailed() {
         // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(Constants.MESSAGE_CONNECTION_FAILED);
-        Bundle bundle = new Bundle();
-        bundle.putString(Constants.TOAST, "Unable to connect device");
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        mDispatcher.dispatch(Constants.MESSAGE_CONNECTION_FAILED, -1, null);
+
+        mMetrics.onConnectionFailed();
+        mTimeline.record(ConnectionTimeline.CONNECTION_FAILED);
+        mStreamListeners.onConnectionFailed();
+        notifyConnectResult(false, null);
 
         mState = STATE_NONE;
         // Update UI title
@@ -373,11 +805,11 @@ public class BluetoothMessageService {
      */
     private void connectionLost() {
         // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(Constants.MESSAGE_DISCONNECTED);
-        Bundle bundle = new Bundle();
-        bundle.putString(Constants.TOAST, "Device connection was lost");
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        mDispatcher.dispatch(Constants.MESSAGE_DISCONNECTED, -1, null);
+
+        mMetrics.onConnectionLost();
+        mTimeline.record(ConnectionTimeline.CONNECTION_LOST);
+        mStreamListeners.onConnectionLost();
 
         mState = STATE_NONE;
         // Update UI title
@@ -395,45 +827,81 @@ public class BluetoothMessageService {
      * (or until cancelled).
      */
     private class AcceptThread extends Thread {
-        // The local server socket
-        private final BluetoothServerSocket mmServerSocket;
+        // The local server socket, opened by the thread, guarded by this
+        private MessageServerSocket mmServerSocket;
+        private boolean mmCancelled;
+        private final boolean mmSecure;
+        private AcceptThread mmPrevious;
         private String mSocketType;
 
+        // Called with the service lock held
         public AcceptThread(boolean secure) {
-            BluetoothServerSocket tmp = null;
+            mmSecure = secure;
             mSocketType = secure ? "Secure" : "Insecure";
-
-            // Create a new listening server socket
-            try {
-                if (secure) {
-                    tmp = mAdapter.listenUsingRfcommWithServiceRecord(NAME_SECURE,
-                            MY_UUID_SECURE);
-                } else {
-                    tmp = mAdapter.listenUsingInsecureRfcommWithServiceRecord(
-                            NAME_INSECURE, MY_UUID_INSECURE);
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Socket Type: " + mSocketType + "listen() failed", e);
+            if (secure) {
+                mmPrevious = mLastSecureAcceptThread;
+                mLastSecureAcceptThread = this;
+            } else {
+                mmPrevious = mLastInsecureAcceptThread;
+                mLastInsecureAcceptThread = this;
             }
-            mmServerSocket = tmp;
             mState = STATE_LISTEN;
         }
 
         public void run() {
-            Log.d(TAG, "Socket Type: " + mSocketType +
-                    "BEGIN mAcceptThread" + this);
+            LOG.d("Socket Type: {} BEGIN mAcceptThread {}", mSocketType, this);
             setName("AcceptThread" + mSocketType);
 
-            BluetoothSocket socket = null;
+            // A cancelled thread can still be opening the socket of the same record, it closes
+            // it and ends right after
+            if (mmPrevious != null) {
+                try {
+                    mmPrevious.join();
+                } catch (InterruptedException e) {
+                    LOG.e("Socket Type: {} interrupted before listen()", mSocketType, e);
+                    return;
+                }
+                mmPrevious = null;
+            }
+
+            // Create a new listening server socket here, registering the SDP record can take
+            // a while and start() is called from the main thread
+            MessageServerSocket serverSocket;
+            try {
+                serverSocket = mTransport.listen(mmSecure);
+            } catch (IOException e) {
+                LOG.e("Socket Type: {} listen() failed", mSocketType, e);
+                return;
+            }
+            boolean cancelled;
+            synchronized (this) {
+                cancelled = mmCancelled;
+                if (!cancelled) {
+                    mmServerSocket = serverSocket;
+                }
+            }
+            if (cancelled) {
+                closeServerSocket(serverSocket);
+                return;
+            }
+
+            MessageSocket socket = null;
 
             // Listen to the server socket if we're not connected
             while (mState != STATE_CONNECTED) {
                 try {
                     // This is a blocking call and will only return on a
                     // successful connection or an exception
-                    socket = mmServerSocket.accept();
+                    mTimeline.record(ConnectionTimeline.ACCEPT_STARTED);
+                    Traces.begin(Traces.ACCEPT);
+                    try {
+                        socket = serverSocket.accept();
+                    } finally {
+                        Traces.end();
+                    }
+                    mTimeline.record(ConnectionTimeline.ACCEPT_RETURNED);
                 } catch (IOException e) {
-                    Log.e(TAG, "Socket Type: " + mSocketType + "accept() failed", e);
+                    LOG.e("Socket Type: {} accept() failed", mSocketType, e);
                     break;
                 }
 
@@ -444,8 +912,7 @@ public class BluetoothMessageService {
                             case STATE_LISTEN:
                             case STATE_CONNECTING:
                                 // Situation normal. Start the connected thread.
-                                connected(socket, socket.getRemoteDevice(),
-                                        mSocketType);
+                                connected(socket, mSocketType);
                                 break;
                             case STATE_NONE:
                             case STATE_CONNECTED:
@@ -453,23 +920,35 @@ public class BluetoothMessageService {
                                 try {
                                     socket.close();
                                 } catch (IOException e) {
-                                    Log.e(TAG, "Could not close unwanted socket", e);
+                                    LOG.e("Could not close unwanted socket", e);
                                 }
                                 break;
                         }
                     }
                 }
             }
-            Log.i(TAG, "END mAcceptThread, socket Type: " + mSocketType);
+            LOG.i("END mAcceptThread, socket Type: {}", mSocketType);
 
         }
 
         public void cancel() {
-            Log.d(TAG, "Socket Type" + mSocketType + "cancel " + this);
+            LOG.d("Socket Type: {} cancel {}", mSocketType, this);
+            MessageServerSocket serverSocket;
+            synchronized (this) {
+                mmCancelled = true;
+                serverSocket = mmServerSocket;
+            }
+            // Not open yet, the thread closes it as soon as it is
+            if (serverSocket != null) {
+                closeServerSocket(serverSocket);
+            }
+        }
+
+        private void closeServerSocket(MessageServerSocket serverSocket) {
             try {
-                mmServerSocket.close();
+                serverSocket.close();
             } catch (IOException e) {
-                Log.e(TAG, "Socket Type" + mSocketType + "close() of server failed", e);
+                LOG.e("Socket Type: {} close() of server failed", mSocketType, e);
             }
         }
     }
@@ -481,86 +960,137 @@ public class BluetoothMessageService {
      * succeeds or fails.
      */
     private class ConnectThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
+        private final MessageSocket mmSocket;
         private String mSocketType;
 
-        public ConnectThread(BluetoothDevice device, boolean secure) {
-            mmDevice = device;
-            BluetoothSocket tmp = null;
+        public ConnectThread(MessageSocket socket, boolean secure) {
             mSocketType = secure ? "Secure" : "Insecure";
-
-            // Get a BluetoothSocket for a connection with the
-            // given BluetoothDevice
-            try {
-                if (secure) {
-                    tmp = device.createRfcommSocketToServiceRecord(
-                            MY_UUID_SECURE);
-                } else {
-                    tmp = device.createInsecureRfcommSocketToServiceRecord(
-                            MY_UUID_INSECURE);
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Socket Type: " + mSocketType + "create() failed", e);
-            }
-            mmSocket = tmp;
+            mmSocket = socket;
             mState = STATE_CONNECTING;
         }
 
         public void run() {
-            Log.i(TAG, "BEGIN mConnectThread SocketType:" + mSocketType);
+            LOG.i("BEGIN mConnectThread SocketType: {}", mSocketType);
             setName("ConnectThread" + mSocketType);
 
             // Always cancel discovery because it will slow down a connection
-            mAdapter.cancelDiscovery();
+            mTransport.cancelDiscovery();
+            mTimeline.record(ConnectionTimeline.DISCOVERY_CANCELLED);
 
             // Make a connection to the BluetoothSocket
             try {
                 // This is a blocking call and will only return on a
                 // successful connection or an exception
-                mmSocket.connect();
+                mTimeline.record(ConnectionTimeline.CONNECT_ENTERED);
+                Traces.begin(Traces.CONNECT);
+                try {
+                    mmSocket.connect();
+                } finally {
+                    Traces.end();
+                }
+                mTimeline.record(ConnectionTimeline.CONNECT_RETURNED);
             } catch (IOException e) {
                 // Close the socket
                 try {
                     mmSocket.close();
                 } catch (IOException e2) {
-                    Log.e(TAG, "unable to close() " + mSocketType +
-                            " socket during connection failure", e2);
+                    LOG.e("unable to close() {} socket during connection failure", mSocketType, e2);
+                }
+                synchronized (BluetoothMessageService.this) {
+                    // Cancelled by a newer attempt, start(), stop() or an incoming connection,
+                    // which have taken over the state and the pending listener
+                    if (mConnectThread != this) {
+                        return;
+                    }
+                    mConnectThread = null;
+                    connectionFailed();
                 }
-                connectionFailed();
                 return;
             }
 
-            // Reset the ConnectThread because we're done
             synchronized (BluetoothMessageService.this) {
+                if (mConnectThread != this) {
+                    cancel();
+                    return;
+                }
+                // Reset the ConnectThread because we're done
                 mConnectThread = null;
-            }
 
-            // Start the connected thread
-            connected(mmSocket, mmDevice, mSocketType);
+                // Start the connected thread
+                connected(mmSocket, mSocketType);
+            }
         }
 
         public void cancel() {
             try {
                 mmSocket.close();
             } catch (IOException e) {
-                Log.e(TAG, "close() of connect " + mSocketType + " socket failed", e);
+                LOG.e("close() of connect {} socket failed", mSocketType, e);
             }
         }
     }
 
+    /**
+     * A message read or written, with the device of the connection that carried it.
+     */
+    private static final class Exchanged {
+        final String mAddress;
+        final String mName;
+        final Object mPayload;
+        // Metrics the message was queued against, for messages counted in the queue depth
+        final ConnectionMetrics mConnection;
+
+        Exchanged(String address, String name, Object payload) {
+            this(address, name, payload, null);
+        }
+
+        Exchanged(String address, String name, Object payload, ConnectionMetrics connection) {
+            mAddress = address;
+            mName = name;
+            mPayload = payload;
+            mConnection = connection;
+        }
+    }
+
+    /**
+     * Payload of MESSAGE_ATTACHMENT.
+     */
+    private static final class AttachmentEvent {
+        final Attachment mAttachment;
+        final byte[] mData;
+        final int mReceived;
+
+        AttachmentEvent(Attachment attachment, byte[] data, int received) {
+            mAttachment = attachment;
+            mData = data;
+            mReceived = received;
+        }
+    }
+
     /**
      * This thread runs during a connection with a remote device.
      * It handles all incoming and outgoing transmissions.
      */
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
+    private class ConnectedThread extends Thread
+            implements FrameDecoder.Callback, AttachmentReceiver.Listener,
+            AttachmentSender.Listener, AttachmentSender.FrameWriter {
+        private final MessageSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
-
-        public ConnectedThread(BluetoothSocket socket, String socketType) {
-            Log.d(TAG, "create ConnectedThread: " + socketType);
+        private final String mmAddress;
+        private final String mmName;
+        // Fair, so a text message waiting for the socket goes before the next attachment chunk
+        private final ReentrantLock mmWriteLock = new ReentrantLock(true);
+        private final FrameDecoder mmDecoder = new FrameDecoder();
+        private final AttachmentReceiver mmAttachmentReceiver = new AttachmentReceiver(this);
+        private final AttachmentSender mmAttachmentSender;
+        private final SeenSet mmSeen;
+
+        public ConnectedThread(MessageSocket socket, String socketType) {
+            LOG.d("create ConnectedThread: {}", socketType);
             mmSocket = socket;
+            mmAddress = socket.getRemoteAddress();
+            mmName = socket.getRemoteName();
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
 
@@ -569,58 +1099,218 @@ public class BluetoothMessageService {
                 tmpIn = socket.getInputStream();
                 tmpOut = socket.getOutputStream();
             } catch (IOException e) {
-                Log.e(TAG, "temp sockets not created", e);
+                LOG.e("temp sockets not created", e);
             }
 
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            mmAttachmentSender = new AttachmentSender("AttachmentSender", this, this);
+            // Kept across connections, a peer sends again what the last one may have lost
+            mmSeen = mSeenSets.get(mmAddress);
             mState = STATE_CONNECTED;
         }
 
         public void run() {
-            Log.i(TAG, "BEGIN mConnectedThread");
+            LOG.i("BEGIN mConnectedThread");
             byte[] buffer = new byte[1024];
             int bytes;
+            boolean firstRead = true;
 
             // Keep listening to the InputStream while connected
             while (mState == STATE_CONNECTED) {
                 try {
+                    // Only pull from the socket when a subscriber asked for more
+                    if (!mInboundPublisher.awaitDemand(DEMAND_POLL_MS)) {
+                        continue;
+                    }
+
                     // Read from the InputStream
-                    bytes = mmInStream.read(buffer);
+                    Traces.begin(Traces.READ);
+                    try {
+                        bytes = mmInStream.read(buffer);
+                    } finally {
+                        Traces.end();
+                    }
+                    mMetrics.onRead(bytes);
+                    if (firstRead) {
+                        mTimeline.record(ConnectionTimeline.FIRST_BYTE);
+                        firstRead = false;
+                    }
 
-                    // Send the obtained bytes to the UI Activity
-                    mHandler.obtainMessage(Constants.MESSAGE_READ, bytes, -1, buffer)
-                            .sendToTarget();
+                    Traces.begin(Traces.PUBLISH);
+                    try {
+                        mStreamListeners.onBytesRead(buffer, bytes);
+                    } finally {
+                        Traces.end();
+                    }
+
+                    // A read holds any part of any number of frames
+                    mmDecoder.feed(buffer, bytes, this);
                 } catch (IOException e) {
-                    Log.e(TAG, "disconnected", e);
+                    LOG.e("disconnected", e);
                     connectionLost();
                     break;
+                } catch (InterruptedException e) {
+                    LOG.e("interrupted while waiting for demand", e);
+                    break;
+                }
+            }
+            mmAttachmentSender.close();
+            mmAttachmentReceiver.close();
+        }
+
+        @Override
+        public void onFrame(int type, byte[] payload, int offset, int length)
+                throws IOException {
+            if (type != FrameCodec.TYPE_TEXT) {
+                if (!mmAttachmentReceiver.onFrame(type, payload, offset, length)) {
+                    LOG.w("Ignoring frame of unknown type {}", type);
                 }
+                return;
+            }
+
+            if (length < FrameCodec.MESSAGE_ID_LENGTH) {
+                throw new IOException("Malformed text frame");
+            }
+            long messageId = FrameCodec.getLong(payload, offset);
+            if (!mmSeen.add(messageId)) {
+                mMetrics.onDuplicate();
+                LOG.d("dropped duplicate message {}", messageId);
+                return;
+            }
+            mMetrics.onMessageIn();
+
+            // construct a string from the payload, here because the buffer is reused by the
+            // next read
+            int textLength = length - FrameCodec.MESSAGE_ID_LENGTH;
+            Traces.begin(Traces.DECODE);
+            String readMessage;
+            try {
+                readMessage = MessageCodec.decode(payload, offset + FrameCodec.MESSAGE_ID_LENGTH,
+                        textLength);
+            } finally {
+                Traces.end();
+            }
+
+            mReadListeners.onMessageRead(mmAddress, messageId, readMessage);
+
+            // Send the obtained message to the UI Activity
+            mDispatcher.dispatch(Constants.MESSAGE_READ, textLength,
+                    new Exchanged(mmAddress, mmName, readMessage, mMetrics.onEnqueued()));
+
+            // One message per unit of demand, a read can hold several
+            try {
+                while (!mInboundPublisher.awaitDemand(DEMAND_POLL_MS)) {
+                    if (mState != STATE_CONNECTED) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while waiting for demand");
+            }
+            Traces.begin(Traces.PUBLISH);
+            try {
+                mInboundPublisher.publish(payload, offset + FrameCodec.MESSAGE_ID_LENGTH,
+                        textLength);
+            } finally {
+                Traces.end();
+            }
+        }
+
+        @Override
+        public void onAttachmentStarted(Attachment attachment) {
+            dispatchAttachment(ATTACHMENT_STARTED, attachment, null, 0);
+        }
+
+        @Override
+        public void onAttachmentThumbnail(Attachment attachment, byte[] thumbnail) {
+            dispatchAttachment(ATTACHMENT_THUMBNAIL, attachment, thumbnail, 0);
+        }
+
+        @Override
+        public void onAttachmentProgress(Attachment attachment, int received) {
+            dispatchAttachment(ATTACHMENT_PROGRESS, attachment, null, received);
+        }
+
+        @Override
+        public void onAttachmentReceived(Attachment attachment, byte[] data) {
+            dispatchAttachment(ATTACHMENT_RECEIVED, attachment, data, data.length);
+        }
+
+        @Override
+        public void onAttachmentFailed(Attachment attachment) {
+            dispatchAttachment(ATTACHMENT_FAILED, attachment, null, 0);
+        }
+
+        @Override
+        public void onAttachmentSent(Attachment attachment) {
+            dispatchAttachment(ATTACHMENT_SENT, attachment, null, attachment.getLength());
+        }
+
+        // Called by the AttachmentSender, an outgoing attachment
+        @Override
+        public void onAttachmentSendFailed(Attachment attachment) {
+            dispatchAttachment(ATTACHMENT_SEND_FAILED, attachment, null, 0);
+        }
+
+        private void dispatchAttachment(int event, Attachment attachment, byte[] data,
+                                        int received) {
+            mDispatcher.dispatch(Constants.MESSAGE_ATTACHMENT, event, new Exchanged(mmAddress,
+                    mmName, new AttachmentEvent(attachment, data, received)));
+        }
+
+        boolean sendAttachment(OutgoingAttachment attachment) {
+            return mmAttachmentSender.send(attachment);
+        }
+
+        /**
+         * Write one whole frame, after the frame another thread is writing.
+         */
+        @Override
+        public void writeFrame(byte[] frame) throws IOException {
+            // The time waiting for the lock is part of the send latency
+            long start = System.nanoTime();
+            mmWriteLock.lock();
+            try {
+                Traces.begin(Traces.WRITE);
+                try {
+                    mmOutStream.write(frame);
+                } finally {
+                    Traces.end();
+                }
+                mMetrics.onWrite(frame.length, System.nanoTime() - start);
+
+                mStreamListeners.onBytesWritten(frame);
+            } finally {
+                mmWriteLock.unlock();
             }
         }
 
         /**
          * Write to the connected OutStream.
          *
-         * @param buffer The bytes to write
+         * @param buffer    The bytes to write
+         * @param messageId The id the receiver recognizes the message by
          */
-        public void write(byte[] buffer) {
+        public void write(byte[] buffer, long messageId) {
             try {
-                mmOutStream.write(buffer);
+                writeFrame(FrameCodec.encodeText(messageId, buffer));
+                mMetrics.onMessageOut();
 
                 // Share the sent message back to the UI Activity
-                mHandler.obtainMessage(Constants.MESSAGE_WRITE, -1, -1, buffer)
-                        .sendToTarget();
+                mDispatcher.dispatch(Constants.MESSAGE_WRITE, -1,
+                        new Exchanged(mmAddress, mmName, buffer, mMetrics.onEnqueued()));
             } catch (IOException e) {
-                Log.e(TAG, "Exception during write", e);
+                LOG.e("Exception during write", e);
             }
         }
 
         public void cancel() {
+            mmAttachmentSender.close();
             try {
                 mmSocket.close();
             } catch (IOException e) {
-                Log.e(TAG, "close() of connect socket failed", e);
+                LOG.e("close() of connect socket failed", e);
             }
         }
     }
@@ -634,30 +1324,36 @@ public class BluetoothMessageService {
         Intent intent = new Intent(context, BluetoothConnectionActivity.class);
         intent.putExtra(BluetoothConnectionActivity.ARG_ACTION,
                 BluetoothConnectionActivity.ACTION_ENABLE_BLUETOOTH);
+        intent.putExtra(BluetoothConnectionActivity.ARG_SERVICE_NAME, mName);
+        // The context is the application's, which has no task of its own to start into
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         context.startActivity(intent);
     }
 
     public void onActivityResult(final int requestCode, final int resultCode, final Intent data) {
-        mResultHandler.postDelayed(new Runnable() {
+        LOG.d("onActivityResult() requestCode: {} / resultCode {}", requestCode, resultCode);
+
+        // Connecting is asynchronous already and reports back through the Handler,
+        // so there is no reason to wait for the caller to come back to the foreground
+        switch (requestCode) {
+            case REQUEST_CONNECT_DEVICE_SECURE:
+                // When DeviceListActivity returns with a device to connect
+                if (resultCode == Activity.RESULT_OK && data != null)
+                    connectDevice(data, true);
+                return;
+
+            case REQUEST_CONNECT_DEVICE_INSECURE:
+                // When DeviceListActivity returns with a device to connect
+                if (resultCode == Activity.RESULT_OK && data != null) {
+                    connectDevice(data, false);
+                }
+                return;
+        }
+
+        mDispatcher.postDelayed(new Runnable() {
             @Override
             public void run() {
-                Log.d(TAG, "onActivityResult() requestCode: $requestCode / resultCode $resultCode");
-
                 switch (requestCode) {
-                    case REQUEST_CONNECT_DEVICE_SECURE:
-                        // When DeviceListActivity returns with a device to connect
-                        if (resultCode == Activity.RESULT_OK && data != null)
-                            connectDevice(data, true);
-
-                        break;
-
-                    case REQUEST_CONNECT_DEVICE_INSECURE:
-                        // When DeviceListActivity returns with a device to connect
-                        if (resultCode == Activity.RESULT_OK && data != null) {
-                            connectDevice(data, false);
-                        }
-                        break;
-
                     case REQUEST_ENABLE_BT:
                         // When the request to enable Bluetooth returns
                         if (resultCode == Activity.RESULT_OK) {
@@ -685,10 +1381,8 @@ public class BluetoothMessageService {
         // Get the device MAC address
         String address = data.getExtras()
                 .getString(DeviceListActivity.EXTRA_DEVICE_ADDRESS);
-        // Get the BluetoothDevice object
-        BluetoothDevice device = mAdapter.getRemoteDevice(address);
         // Attempt to connect to the device
-        connect(device, secure);
+        connect(address, secure, null);
     }
 
     /**
@@ -699,6 +1393,7 @@ public class BluetoothMessageService {
                 BluetoothAdapter.SCAN_MODE_CONNECTABLE_DISCOVERABLE) {
             Intent discoverableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
             discoverableIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, 300);
+            discoverableIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             context.startActivity(discoverableIntent);
         }
     }
@@ -713,10 +1408,19 @@ public class BluetoothMessageService {
         serverIntent.putExtra(BluetoothConnectionActivity.ARG_ACTION,
                 BluetoothConnectionActivity.ACTION_CONNECT_DEVICE);
         serverIntent.putExtra(BluetoothConnectionActivity.ARG_CONNECTION_SECURE, secure);
+        serverIntent.putExtra(BluetoothConnectionActivity.ARG_SERVICE_NAME, mName);
+        serverIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         context.startActivity(serverIntent);
     }
 
     public String getConnectedDeviceName() {
         return mConnectedDeviceName;
     }
+
+    /**
+     * Hardware address of the device of the current or last connection, null before the first.
+     */
+    public String getConnectedDeviceAddress() {
+        return mConnectedDeviceAddress;
+    }
 }
@@ -28,6 +28,7 @@ public class Constants {
     public static final int MESSAGE_DEVICE_NAME = 4;
     public static final int MESSAGE_DISCONNECTED = 6;
     public static final int MESSAGE_CONNECTION_FAILED = 7;
+    public static final int MESSAGE_ATTACHMENT = 8;
 
     // Key names received from the BluetoothChatService Handler
     public static final String DEVICE_NAME = "device_name";
@@ -19,22 +19,25 @@ package br.com.kanamobi.wrappedbluetoothmessage;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.View;
 import android.view.Window;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ListView;
-import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothDiscoveryListener;
+import br.com.kanamobi.wrappedbluetoothmessage.discovery.DeviceDiscoveryManager;
+import br.com.kanamobi.wrappedbluetoothmessage.discovery.DiscoveredDevice;
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+
 /**
  * This Activity appears as a dialog. It lists any paired devices and
  * devices detected in the area after discovery. When a device is chosen
@@ -47,6 +50,7 @@ public class DeviceListActivity extends Activity {
      * Tag for Log
      */
     private static final String TAG = "DeviceListActivity";
+    private static final Logger LOG = Logger.get(TAG);
 
     /**
      * Return Intent extra
@@ -58,11 +62,23 @@ public class DeviceListActivity extends Activity {
      */
     private BluetoothAdapter mBtAdapter;
 
+    /**
+     * Keeps discovery results between launches
+     */
+    private DeviceDiscoveryManager mDiscoveryManager;
+
     /**
      * Newly discovered devices
      */
     private ArrayAdapter<String> mNewDevicesArrayAdapter;
 
+    /**
+     * Addresses of the rows in the paired and new device lists, by position
+     */
+    private final List<String> mPairedDeviceAddresses = new ArrayList<String>();
+    private final List<String> mNewDeviceAddresses = new ArrayList<String>();
+    private final Set<String> mPairedAddressSet = new HashSet<String>();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -92,24 +108,20 @@ public class DeviceListActivity extends Activity {
         // Find and set up the ListView for paired devices
         ListView pairedListView = (ListView) findViewById(R.id.paired_devices);
         pairedListView.setAdapter(pairedDevicesArrayAdapter);
-        pairedListView.setOnItemClickListener(mDeviceClickListener);
+        pairedListView.setOnItemClickListener(mPairedDeviceClickListener);
 
         // Find and set up the ListView for newly discovered devices
         ListView newDevicesListView = (ListView) findViewById(R.id.new_devices);
         newDevicesListView.setAdapter(mNewDevicesArrayAdapter);
-        newDevicesListView.setOnItemClickListener(mDeviceClickListener);
-
-        // Register for broadcasts when a device is discovered
-        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
-        this.registerReceiver(mReceiver, filter);
-
-        // Register for broadcasts when discovery has finished
-        filter = new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-        this.registerReceiver(mReceiver, filter);
+        newDevicesListView.setOnItemClickListener(mNewDeviceClickListener);
 
         // Get the local Bluetooth adapter
         mBtAdapter = BluetoothAdapter.getDefaultAdapter();
 
+        // Listen for discovery results, whoever started the scan
+        mDiscoveryManager = DeviceDiscoveryManager.getInstance(this);
+        mDiscoveryManager.addDiscoveryListener(mDiscoveryListener);
+
         // Get a set of currently paired devices
         Set<BluetoothDevice> pairedDevices = mBtAdapter.getBondedDevices();
 
@@ -118,11 +130,16 @@ public class DeviceListActivity extends Activity {
             findViewById(R.id.title_paired_devices).setVisibility(View.VISIBLE);
             for (BluetoothDevice device : pairedDevices) {
                 pairedDevicesArrayAdapter.add(device.getName() + "\n" + device.getAddress());
+                mPairedDeviceAddresses.add(device.getAddress());
+                mPairedAddressSet.add(device.getAddress());
             }
         } else {
             String noDevices = getResources().getText(R.string.none_paired).toString();
             pairedDevicesArrayAdapter.add(noDevices);
         }
+
+        // Show what earlier scans found right away, a new scan only refreshes it
+        showNewDevices();
     }
 
     @Override
@@ -130,19 +147,17 @@ public class DeviceListActivity extends Activity {
         super.onDestroy();
 
         // Make sure we're not doing discovery anymore
-        if (mBtAdapter != null) {
-            mBtAdapter.cancelDiscovery();
-        }
+        mDiscoveryManager.cancel(this);
 
-        // Unregister broadcast listeners
-        this.unregisterReceiver(mReceiver);
+        // Unregister discovery listener
+        mDiscoveryManager.removeDiscoveryListener(mDiscoveryListener);
     }
 
     /**
      * Start device discover with the BluetoothAdapter
      */
     private void doDiscovery() {
-        Log.d(TAG, "doDiscovery()");
+        LOG.d("doDiscovery()");
 
         // Indicate scanning in the title
         setProgressBarIndeterminateVisibility(true);
@@ -151,65 +166,98 @@ public class DeviceListActivity extends Activity {
         // Turn on sub-title for new devices
         findViewById(R.id.title_new_devices).setVisibility(View.VISIBLE);
 
-        // If we're already discovering, stop it
-        if (mBtAdapter.isDiscovering()) {
-            mBtAdapter.cancelDiscovery();
+        // Refresh the cache. A scan that is already running is reused, and the
+        // scheduler holds it back while a connection is busy
+        mDiscoveryManager.refresh(this);
+    }
+
+    /**
+     * Fill the new devices list from the discovery cache, strongest signal first
+     */
+    private void showNewDevices() {
+        List<DiscoveredDevice> devices = mDiscoveryManager.getRankedDevices();
+
+        mNewDevicesArrayAdapter.setNotifyOnChange(false);
+        mNewDevicesArrayAdapter.clear();
+        mNewDeviceAddresses.clear();
+        for (DiscoveredDevice device : devices) {
+            // If it's already paired, skip it, because it's been listed already
+            if (mPairedAddressSet.contains(device.getAddress())) {
+                continue;
+            }
+            mNewDevicesArrayAdapter.add(device.getName() + "\n" + device.getAddress());
+            mNewDeviceAddresses.add(device.getAddress());
         }
+        mNewDevicesArrayAdapter.notifyDataSetChanged();
 
-        // Request discover from BluetoothAdapter
-        mBtAdapter.startDiscovery();
+        if (!mNewDeviceAddresses.isEmpty()) {
+            findViewById(R.id.title_new_devices).setVisibility(View.VISIBLE);
+        }
     }
 
     /**
-     * The on-click listener for all devices in the ListViews
+     * The on-click listener for the paired devices ListView
      */
-    private AdapterView.OnItemClickListener mDeviceClickListener
+    private AdapterView.OnItemClickListener mPairedDeviceClickListener
             = new AdapterView.OnItemClickListener() {
-        public void onItemClick(AdapterView<?> av, View v, int arg2, long arg3) {
-            // Cancel discovery because it's costly and we're about to connect
-            mBtAdapter.cancelDiscovery();
+        public void onItemClick(AdapterView<?> av, View v, int position, long id) {
+            // The "none paired" row has no address
+            if (position < mPairedDeviceAddresses.size()) {
+                finishWithAddress(mPairedDeviceAddresses.get(position));
+            }
+        }
+    };
+
+    /**
+     * The on-click listener for the new devices ListView
+     */
+    private AdapterView.OnItemClickListener mNewDeviceClickListener
+            = new AdapterView.OnItemClickListener() {
+        public void onItemClick(AdapterView<?> av, View v, int position, long id) {
+            // The "none found" row has no address
+            if (position < mNewDeviceAddresses.size()) {
+                finishWithAddress(mNewDeviceAddresses.get(position));
+            }
+        }
+    };
 
-            // Get the device MAC address, which is the last 17 chars in the View
-            String info = ((TextView) v).getText().toString();
-            String address = info.substring(info.length() - 17);
+    /**
+     * Return the chosen device to the parent Activity
+     *
+     * @param address MAC address of the chosen device
+     */
+    private void finishWithAddress(String address) {
+        // Cancel discovery because it's costly and we're about to connect
+        mDiscoveryManager.cancel(this);
 
-            // Create the result Intent and include the MAC address
-            Intent intent = new Intent();
-            intent.putExtra(EXTRA_DEVICE_ADDRESS, address);
+        // Create the result Intent and include the MAC address
+        Intent intent = new Intent();
+        intent.putExtra(EXTRA_DEVICE_ADDRESS, address);
 
-            Log.d(TAG, "Selected Address " + address);
+        LOG.d("Selected Address {}", address);
 
-            // Set result and finish this Activity
-            setResult(Activity.RESULT_OK, intent);
-            finish();
-        }
-    };
+        // Set result and finish this Activity
+        setResult(Activity.RESULT_OK, intent);
+        finish();
+    }
 
     /**
-     * The BroadcastReceiver that listens for discovered devices and changes the title when
-     * discovery is finished
+     * Listens for discovered devices and changes the title when discovery is finished
      */
-    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+    private final BluetoothDiscoveryListener mDiscoveryListener = new BluetoothDiscoveryListener() {
+        @Override
+        public void onDeviceDiscovered(DiscoveredDevice device) {
+            // Rebuild from the cache so a device found twice is listed once
+            showNewDevices();
+        }
+
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-
-            // When discovery finds a device
-            if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-                // Get the BluetoothDevice object from the Intent
-                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                // If it's already paired, skip it, because it's been listed already
-                if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
-                    mNewDevicesArrayAdapter.add(device.getName() + "\n" + device.getAddress());
-                }
-                // When discovery is finished, change the Activity title
-            } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-                setProgressBarIndeterminateVisibility(false);
-                setTitle(R.string.select_device);
-                if (mNewDevicesArrayAdapter.getCount() == 0) {
-                    String noDevices = getResources().getText(R.string.none_found).toString();
-                    mNewDevicesArrayAdapter.add(noDevices);
-                }
+        public void onDiscoveryFinished() {
+            setProgressBarIndeterminateVisibility(false);
+            setTitle(R.string.select_device);
+            if (mNewDevicesArrayAdapter.getCount() == 0) {
+                String noDevices = getResources().getText(R.string.none_found).toString();
+                mNewDevicesArrayAdapter.add(noDevices);
             }
         }
     };
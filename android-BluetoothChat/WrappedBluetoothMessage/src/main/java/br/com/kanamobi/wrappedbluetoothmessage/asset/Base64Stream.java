@@ -0,0 +1,128 @@
+package br.com.kanamobi.wrappedbluetoothmessage.asset;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Base64 one character or block at a time, so data URIs are converted while they stream past
+ * instead of as whole strings. android.util.Base64 needs the whole input, and java.util.Base64
+ * is not on the API levels the library supports.
+ */
+final class Base64Stream {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+        // URL-safe alphabet too, some exporters use it
+        VALUES['-'] = 62;
+        VALUES['_'] = 63;
+    }
+
+    private Base64Stream() {
+    }
+
+    /**
+     * Decodes characters into an OutputStream, buffering a block of bytes at a time.
+     */
+    static final class Decoder {
+        private final OutputStream mOutput;
+        private final byte[] mBuffer = new byte[8192];
+        private int mBuffered;
+        private int mBits;
+        private int mBitCount;
+        private long mLength;
+        private boolean mPadded;
+
+        Decoder(OutputStream output) {
+            mOutput = output;
+        }
+
+        void write(int c) throws IOException {
+            if (c == '=') {
+                mPadded = true;
+                return;
+            }
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                return;
+            }
+            int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0 || mPadded) {
+                throw new IOException("Bad base64 character '" + (char) c + "'");
+            }
+            mBits = (mBits << 6) | value;
+            mBitCount += 6;
+            if (mBitCount >= 8) {
+                mBitCount -= 8;
+                if (mBuffered == mBuffer.length) {
+                    mOutput.write(mBuffer, 0, mBuffered);
+                    mBuffered = 0;
+                }
+                mBuffer[mBuffered++] = (byte) (mBits >> mBitCount);
+                mLength++;
+            }
+        }
+
+        /**
+         * Write out what is buffered and get ready for the next value.
+         *
+         * @return the number of bytes decoded since the last finish
+         */
+        long finish() throws IOException {
+            mOutput.write(mBuffer, 0, mBuffered);
+            long length = mLength;
+            mBuffered = 0;
+            mBits = 0;
+            mBitCount = 0;
+            mLength = 0;
+            mPadded = false;
+            return length;
+        }
+    }
+
+    /**
+     * Write length bytes of input as padded base64.
+     */
+    static void encode(InputStream input, long length, Writer writer) throws IOException {
+        // Whole groups of three bytes per block, so only the last one is padded
+        byte[] bytes = new byte[3 * 2048];
+        char[] chars = new char[4 * 2048];
+        long remaining = length;
+        while (remaining > 0) {
+            int count = readFully(input, bytes, (int) Math.min(bytes.length, remaining));
+            int written = 0;
+            for (int i = 0; i < count; i += 3) {
+                int b0 = bytes[i] & 0xff;
+                int b1 = i + 1 < count ? bytes[i + 1] & 0xff : 0;
+                int b2 = i + 2 < count ? bytes[i + 2] & 0xff : 0;
+                chars[written++] = ALPHABET[b0 >> 2];
+                chars[written++] = ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)];
+                chars[written++] = i + 1 < count ? ALPHABET[((b1 & 0x0f) << 2) | (b2 >> 6)] : '=';
+                chars[written++] = i + 2 < count ? ALPHABET[b2 & 0x3f] : '=';
+            }
+            writer.write(chars, 0, written);
+            remaining -= count;
+        }
+    }
+
+    static int readFully(InputStream input, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = input.read(buffer, read, length - read);
+            if (count < 0) {
+                throw new IOException("Unexpected end of data");
+            }
+            read += count;
+        }
+        return read;
+    }
+}
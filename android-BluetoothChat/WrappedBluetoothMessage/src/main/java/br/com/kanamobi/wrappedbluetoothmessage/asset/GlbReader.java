@@ -0,0 +1,188 @@
+package br.com.kanamobi.wrappedbluetoothmessage.asset;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a binary glTF (GLB) as it arrives. The JSON chunk is read up front; the binary chunk is
+ * left in the stream, for consuming it straight from the socket with {@link #getBinary()} or
+ * turning the whole asset back into a .gltf with {@link #writeGltf(OutputStream)}.
+ */
+public class GlbReader {
+
+    private final InputStream mInput;
+    private final long mLength;
+    private final String mJson;
+    private final long mBinaryLength;
+    private boolean mBinaryTaken;
+
+    /**
+     * Read the header and the JSON chunk.
+     *
+     * @throws IOException if this is not a GLB of a version that is understood
+     */
+    public GlbReader(InputStream input) throws IOException {
+        mInput = input;
+        byte[] header =
+                new byte[GltfTranscoder.HEADER_LENGTH + GltfTranscoder.CHUNK_HEADER_LENGTH];
+        Base64Stream.readFully(input, header, header.length);
+        if (getInt(header, 0) != GltfTranscoder.GLB_MAGIC) {
+            throw new IOException("Not a GLB");
+        }
+        if (getInt(header, 4) != GltfTranscoder.GLB_VERSION) {
+            throw new IOException("Unsupported GLB version " + getInt(header, 4));
+        }
+        mLength = getInt(header, 8) & 0xffffffffL;
+        long jsonLength = getInt(header, 12) & 0xffffffffL;
+        if (getInt(header, 16) != GltfTranscoder.CHUNK_JSON
+                || header.length + jsonLength > mLength) {
+            throw new IOException("GLB does not start with a JSON chunk");
+        }
+        byte[] json = new byte[(int) jsonLength];
+        Base64Stream.readFully(input, json, json.length);
+        mJson = new String(json, Json.UTF_8).trim();
+
+        long remaining = mLength - header.length - jsonLength;
+        if (remaining >= GltfTranscoder.CHUNK_HEADER_LENGTH) {
+            byte[] chunkHeader = new byte[GltfTranscoder.CHUNK_HEADER_LENGTH];
+            Base64Stream.readFully(input, chunkHeader, chunkHeader.length);
+            long chunkLength = getInt(chunkHeader, 0) & 0xffffffffL;
+            if (getInt(chunkHeader, 4) != GltfTranscoder.CHUNK_BIN
+                    || chunkLength > remaining - chunkHeader.length) {
+                throw new IOException("Second GLB chunk is not a binary chunk");
+            }
+            mBinaryLength = chunkLength;
+        } else {
+            mBinaryLength = 0;
+        }
+    }
+
+    /**
+     * Total length of the GLB, as its header says.
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    public String getJson() {
+        return mJson;
+    }
+
+    /**
+     * Length of the binary chunk, padding included, 0 if there is none.
+     */
+    public long getBinaryLength() {
+        return mBinaryLength;
+    }
+
+    /**
+     * The binary chunk, read from the underlying stream. Can only be taken once, and does not
+     * close the underlying stream.
+     */
+    public InputStream getBinary() {
+        if (mBinaryTaken) {
+            throw new IllegalStateException("The binary chunk was already read");
+        }
+        mBinaryTaken = true;
+        return new ChunkInputStream(mInput, mBinaryLength);
+    }
+
+    /**
+     * Write the asset as a .gltf, with the binary chunk as the data URI of buffer 0. The
+     * binary is encoded as it is read, never held whole.
+     */
+    public void writeGltf(OutputStream output) throws IOException {
+        // Data URIs the JSON chunk still has are small, they are kept aside and written back
+        final ByteArrayOutputStream embedded = new ByteArrayOutputStream();
+        Map<String, Object> document = Json.asObject(Json.parse(
+                new ByteArrayInputStream(mJson.getBytes(Json.UTF_8)), embedded));
+        if (document == null) {
+            throw new IOException("GLB JSON chunk is not an object");
+        }
+
+        List<Object> buffers = Json.asArray(document.get("buffers"));
+        Map<String, Object> binary = buffers != null && !buffers.isEmpty()
+                ? Json.asObject(buffers.get(0)) : null;
+        final InputStream chunk = mBinaryLength > 0 ? getBinary() : null;
+        Json.Data binaryData = null;
+        if (chunk != null && binary != null && !binary.containsKey("uri")) {
+            Object byteLength = binary.get("byteLength");
+            long length = byteLength instanceof Json.Number
+                    ? ((Json.Number) byteLength).longValue() : mBinaryLength;
+            binaryData = new Json.Data("application/octet-stream", 0,
+                    Math.min(length, mBinaryLength));
+            binary.put("uri", binaryData);
+        }
+
+        final Json.Data fromChunk = binaryData;
+        Writer writer = new OutputStreamWriter(output, Json.UTF_8);
+        Json.write(document, writer, new Json.DataSource() {
+            @Override
+            public void writeBase64(Json.Data data, Writer out) throws IOException {
+                if (data == fromChunk) {
+                    Base64Stream.encode(chunk, data.mLength, out);
+                } else {
+                    Base64Stream.encode(new ByteArrayInputStream(embedded.toByteArray(),
+                            (int) data.mOffset, (int) data.mLength), data.mLength, out);
+                }
+            }
+        });
+        writer.flush();
+    }
+
+    static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * The next length bytes of a stream.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final InputStream mInput;
+        private long mRemaining;
+
+        ChunkInputStream(InputStream input, long length) {
+            mInput = input;
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            int b = mInput.read();
+            if (b < 0) {
+                throw new IOException("GLB binary chunk truncated");
+            }
+            mRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            int count = mInput.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (count < 0) {
+                throw new IOException("GLB binary chunk truncated");
+            }
+            mRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(mInput.available(), mRemaining);
+        }
+    }
+}
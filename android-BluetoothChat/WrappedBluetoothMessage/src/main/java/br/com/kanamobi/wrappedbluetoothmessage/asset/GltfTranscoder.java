@@ -0,0 +1,354 @@
+package br.com.kanamobi.wrappedbluetoothmessage.asset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a .gltf with embedded data URIs into a binary glTF (GLB), for sending 3D assets
+ * without the third that base64 adds and without the receiver parsing megabytes of text.
+ *
+ * The input is read once. Data URIs are decoded into a spool while they are read, so only the
+ * structure of the document is ever held as text. Then the embedded buffers are merged into the
+ * GLB binary chunk, embedded images become buffer views of it, and the GLB is written as the
+ * JSON chunk followed by the spool. External URIs are left as they are.
+ */
+public final class GltfTranscoder {
+
+    static final int GLB_MAGIC = 0x46546c67; // "glTF"
+    static final int GLB_VERSION = 2;
+    static final int CHUNK_JSON = 0x4e4f534a; // "JSON"
+    static final int CHUNK_BIN = 0x004e4942; // "BIN\0"
+    // [u32 magic][u32 version][u32 length]
+    static final int HEADER_LENGTH = 12;
+    // [u32 length][u32 type]
+    static final int CHUNK_HEADER_LENGTH = 8;
+
+    private GltfTranscoder() {
+    }
+
+    /**
+     * Transcode with the decoded data held in memory until it is written.
+     *
+     * @return the length of the GLB
+     */
+    public static long transcode(InputStream gltf, OutputStream glb) throws IOException {
+        MemorySpool spool = new MemorySpool();
+        return transcode(gltf, glb, spool);
+    }
+
+    /**
+     * Transcode with the decoded data spooled to a file, for models that should not be held in
+     * memory. The file is deleted afterwards.
+     *
+     * @return the length of the GLB
+     */
+    public static long transcode(InputStream gltf, OutputStream glb, File spoolFile)
+            throws IOException {
+        FileSpool spool = new FileSpool(spoolFile);
+        try {
+            return transcode(gltf, glb, spool);
+        } finally {
+            spool.close();
+        }
+    }
+
+    private static long transcode(InputStream gltf, OutputStream glb, Spool spool)
+            throws IOException {
+        OutputStream sink = spool.getOutput();
+        Map<String, Object> document = Json.asObject(Json.parse(gltf, sink));
+        sink.close();
+        if (document == null) {
+            throw new IOException("Not a glTF document");
+        }
+        long binaryLength = moveDataToBinary(document, spool.getLength());
+
+        // Data URIs somewhere other than buffers and images stay data URIs
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(json, Json.UTF_8);
+        Json.write(document, writer, spool);
+        writer.flush();
+
+        int jsonPadding = padding(json.size());
+        int binaryPadding = padding(binaryLength);
+        long length = HEADER_LENGTH + CHUNK_HEADER_LENGTH + json.size() + jsonPadding;
+        if (binaryLength > 0) {
+            length += CHUNK_HEADER_LENGTH + binaryLength + binaryPadding;
+        }
+        if (length > 0xffffffffL) {
+            throw new IOException("Too large for a GLB: " + length + " bytes");
+        }
+
+        byte[] header = new byte[HEADER_LENGTH + CHUNK_HEADER_LENGTH];
+        putInt(header, 0, GLB_MAGIC);
+        putInt(header, 4, GLB_VERSION);
+        putInt(header, 8, (int) length);
+        putInt(header, 12, json.size() + jsonPadding);
+        putInt(header, 16, CHUNK_JSON);
+        glb.write(header);
+        json.writeTo(glb);
+        for (int i = 0; i < jsonPadding; i++) {
+            glb.write(' ');
+        }
+
+        if (binaryLength > 0) {
+            byte[] chunkHeader = new byte[CHUNK_HEADER_LENGTH];
+            putInt(chunkHeader, 0, (int) (binaryLength + binaryPadding));
+            putInt(chunkHeader, 4, CHUNK_BIN);
+            glb.write(chunkHeader);
+            spool.copyTo(glb, binaryLength);
+            glb.write(new byte[binaryPadding]);
+        }
+        glb.flush();
+        return length;
+    }
+
+    /**
+     * Point the buffers and images that had data URIs at the binary chunk, which becomes
+     * buffer 0.
+     *
+     * @return the length of the binary chunk, 0 if nothing was embedded
+     */
+    private static long moveDataToBinary(Map<String, Object> document, long spoolLength) {
+        List<Object> buffers = Json.asArray(document.get("buffers"));
+        List<Object> images = Json.asArray(document.get("images"));
+        boolean embedded = false;
+        if (buffers != null) {
+            for (Object buffer : buffers) {
+                Map<String, Object> object = Json.asObject(buffer);
+                embedded |= object != null && object.get("uri") instanceof Json.Data;
+            }
+        }
+        if (images != null) {
+            for (Object image : images) {
+                Map<String, Object> object = Json.asObject(image);
+                embedded |= object != null && object.get("uri") instanceof Json.Data;
+            }
+        }
+        if (!embedded) {
+            return 0;
+        }
+
+        // Buffer 0 is the binary chunk, the external buffers follow in their order
+        List<Object> newBuffers = new ArrayList<Object>();
+        Map<String, Object> binary = new LinkedHashMap<String, Object>();
+        binary.put("byteLength", new Json.Number(spoolLength));
+        newBuffers.add(binary);
+        int count = buffers != null ? buffers.size() : 0;
+        int[] newIndex = new int[count];
+        long[] binaryOffset = new long[count];
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> buffer = Json.asObject(buffers.get(i));
+            Object uri = buffer != null ? buffer.get("uri") : null;
+            if (uri instanceof Json.Data) {
+                newIndex[i] = 0;
+                binaryOffset[i] = ((Json.Data) uri).mOffset;
+            } else {
+                newIndex[i] = newBuffers.size();
+                newBuffers.add(buffers.get(i));
+            }
+        }
+        document.put("buffers", newBuffers);
+
+        List<Object> bufferViews = Json.asArray(document.get("bufferViews"));
+        if (bufferViews == null) {
+            bufferViews = new ArrayList<Object>();
+        }
+        for (Object view : bufferViews) {
+            Map<String, Object> object = Json.asObject(view);
+            Object buffer = object != null ? object.get("buffer") : null;
+            if (!(buffer instanceof Json.Number)) {
+                continue;
+            }
+            int index = (int) ((Json.Number) buffer).longValue();
+            if (index < 0 || index >= count) {
+                continue;
+            }
+            object.put("buffer", new Json.Number(newIndex[index]));
+            if (newIndex[index] == 0) {
+                Object offset = object.get("byteOffset");
+                long byteOffset = offset instanceof Json.Number
+                        ? ((Json.Number) offset).longValue() : 0;
+                object.put("byteOffset", new Json.Number(byteOffset + binaryOffset[index]));
+            }
+        }
+
+        if (images != null) {
+            for (Object image : images) {
+                Map<String, Object> object = Json.asObject(image);
+                Object uri = object != null ? object.get("uri") : null;
+                if (!(uri instanceof Json.Data)) {
+                    continue;
+                }
+                Json.Data data = (Json.Data) uri;
+                Map<String, Object> view = new LinkedHashMap<String, Object>();
+                view.put("buffer", new Json.Number(0));
+                view.put("byteOffset", new Json.Number(data.mOffset));
+                view.put("byteLength", new Json.Number(data.mLength));
+                object.remove("uri");
+                object.put("bufferView", new Json.Number(bufferViews.size()));
+                if (!object.containsKey("mimeType")) {
+                    object.put("mimeType", data.mMimeType);
+                }
+                bufferViews.add(view);
+            }
+        }
+        document.put("bufferViews", bufferViews);
+        return spoolLength;
+    }
+
+    static int padding(long length) {
+        return (int) ((4 - length % 4) % 4);
+    }
+
+    static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Where the decoded data waits while the JSON chunk is written. Also gives data URIs left
+     * in the document back as base64.
+     */
+    private abstract static class Spool implements Json.DataSource {
+        abstract OutputStream getOutput() throws IOException;
+
+        abstract long getLength();
+
+        abstract void copyTo(OutputStream output, long length) throws IOException;
+
+        abstract InputStream open(long offset) throws IOException;
+
+        @Override
+        public void writeBase64(Json.Data data, Writer writer) throws IOException {
+            InputStream input = open(data.mOffset);
+            try {
+                Base64Stream.encode(input, data.mLength, writer);
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    private static class MemorySpool extends Spool {
+        private final Buffer mBuffer = new Buffer();
+
+        @Override
+        OutputStream getOutput() {
+            return mBuffer;
+        }
+
+        @Override
+        long getLength() {
+            return mBuffer.size();
+        }
+
+        @Override
+        void copyTo(OutputStream output, long length) throws IOException {
+            output.write(mBuffer.array(), 0, (int) length);
+        }
+
+        @Override
+        InputStream open(long offset) {
+            return new ByteArrayInputStream(mBuffer.array(), (int) offset,
+                    mBuffer.size() - (int) offset);
+        }
+
+        /**
+         * Gives out its array instead of copying it.
+         */
+        private static class Buffer extends ByteArrayOutputStream {
+            Buffer() {
+                super(64 * 1024);
+            }
+
+            byte[] array() {
+                return buf;
+            }
+        }
+    }
+
+    private static class FileSpool extends Spool {
+        private final File mFile;
+        private long mLength;
+
+        FileSpool(File file) {
+            mFile = file;
+        }
+
+        @Override
+        OutputStream getOutput() throws IOException {
+            return new BufferedOutputStream(new FileOutputStream(mFile) {
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    super.write(buffer, offset, length);
+                    mLength += length;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    super.write(b);
+                    mLength++;
+                }
+            }, 64 * 1024);
+        }
+
+        @Override
+        long getLength() {
+            return mLength;
+        }
+
+        @Override
+        void copyTo(OutputStream output, long length) throws IOException {
+            InputStream input = new FileInputStream(mFile);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = length;
+                while (remaining > 0) {
+                    int count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (count < 0) {
+                        throw new IOException("Spool file truncated");
+                    }
+                    output.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        @Override
+        InputStream open(long offset) throws IOException {
+            InputStream input = new BufferedInputStream(new FileInputStream(mFile), 64 * 1024);
+            long skipped = 0;
+            while (skipped < offset) {
+                long count = input.skip(offset - skipped);
+                if (count <= 0) {
+                    input.close();
+                    throw new IOException("Spool file truncated");
+                }
+                skipped += count;
+            }
+            return input;
+        }
+
+        void close() {
+            mFile.delete();
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package br.com.kanamobi.wrappedbluetoothmessage.asset;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for glTF documents, in plain Java so it also runs on a desktop JVM.
+ *
+ * Objects are read into LinkedHashMaps, keeping the member order, arrays into ArrayLists,
+ * numbers into {@link Number} with the text as written, and null into {@link #NULL}. The value
+ * of a "uri" member holding a base64 data URI is never kept as text: it is decoded straight
+ * into the data sink while it is read, and the tree holds a {@link Data} saying where it went.
+ */
+final class Json {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final Object NULL = new Object() {
+        @Override
+        public String toString() {
+            return "null";
+        }
+    };
+
+    // Embedded data starts on this boundary in the sink, as GLB wants for its buffers
+    static final int DATA_ALIGNMENT = 4;
+
+    private static final String DATA_PREFIX = "data:";
+    private static final String BASE64_MARKER = ";base64,";
+    // Longest "data:<mime type>;base64," looked for before giving up on a data URI
+    private static final int MAX_DATA_HEADER = 256;
+
+    private Json() {
+    }
+
+    /**
+     * A number as it was written, so nothing is lost to a conversion.
+     */
+    static final class Number {
+        final String mText;
+
+        Number(String text) {
+            mText = text;
+        }
+
+        Number(long value) {
+            mText = Long.toString(value);
+        }
+
+        long longValue() {
+            return Long.parseLong(mText);
+        }
+    }
+
+    /**
+     * Bytes of a data URI, decoded into the sink at mOffset.
+     */
+    static final class Data {
+        final String mMimeType;
+        final long mOffset;
+        final long mLength;
+
+        Data(String mimeType, long offset, long length) {
+            mMimeType = mimeType;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    /**
+     * Writes the bytes of the {@link Data} values back as text when a tree is written.
+     */
+    interface DataSource {
+        /**
+         * Write the base64 of data, without the "data:...;base64," header or quotes.
+         */
+        void writeBase64(Data data, Writer writer) throws IOException;
+    }
+
+    /**
+     * Read a document, decoding its data URIs into sink.
+     *
+     * @param sink receives the decoded data URIs one after the other, each starting on a
+     *             {@link #DATA_ALIGNMENT} boundary
+     */
+    static Object parse(InputStream input, OutputStream sink) throws IOException {
+        Parser parser = new Parser(new InputStreamReader(input, UTF_8), sink);
+        Object value = parser.readValue(null);
+        if (parser.skipWhitespace() != -1) {
+            throw parser.error("Trailing content");
+        }
+        parser.flushData();
+        return value;
+    }
+
+    /**
+     * Write a tree as compact UTF-8 JSON.
+     *
+     * @param source writes the {@link Data} values, may be null if there are none
+     */
+    static void write(Object value, Writer writer, DataSource source) throws IOException {
+        if (value instanceof Map) {
+            writer.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> member : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString((String) member.getKey(), writer);
+                writer.write(':');
+                write(member.getValue(), writer, source);
+            }
+            writer.write('}');
+        } else if (value instanceof List) {
+            writer.write('[');
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                write(list.get(i), writer, source);
+            }
+            writer.write(']');
+        } else if (value instanceof String) {
+            writeString((String) value, writer);
+        } else if (value instanceof Number) {
+            writer.write(((Number) value).mText);
+        } else if (value instanceof Data) {
+            if (source == null) {
+                throw new IOException("No source for embedded data");
+            }
+            Data data = (Data) value;
+            writer.write('"');
+            writer.write(DATA_PREFIX);
+            writer.write(data.mMimeType);
+            writer.write(BASE64_MARKER);
+            source.writeBase64(data, writer);
+            writer.write('"');
+        } else if (value instanceof Boolean || value == NULL) {
+            writer.write(value.toString());
+        } else {
+            throw new IOException("Not a JSON value: " + value);
+        }
+    }
+
+    private static void writeString(String value, Writer writer) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> asObject(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> asArray(Object value) {
+        return value instanceof List ? (List<Object>) value : null;
+    }
+
+    /**
+     * Recursive descent over a character buffer, decoding data URIs as they stream past.
+     */
+    private static final class Parser {
+        private final Reader mReader;
+        private final char[] mBuffer = new char[8192];
+        private int mPosition;
+        private int mLimit;
+        private long mConsumed;
+
+        private final OutputStream mSink;
+        private final Base64Stream.Decoder mDecoder;
+        private long mSinkLength;
+
+        Parser(Reader reader, OutputStream sink) {
+            mReader = reader;
+            mSink = sink;
+            mDecoder = new Base64Stream.Decoder(sink);
+        }
+
+        int peek() throws IOException {
+            if (mPosition == mLimit) {
+                mConsumed += mLimit;
+                mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+                mPosition = 0;
+                if (mLimit <= 0) {
+                    mLimit = 0;
+                    return -1;
+                }
+            }
+            return mBuffer[mPosition];
+        }
+
+        int next() throws IOException {
+            int c = peek();
+            if (c != -1) {
+                mPosition++;
+            }
+            return c;
+        }
+
+        int skipWhitespace() throws IOException {
+            int c = peek();
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                mPosition++;
+                c = peek();
+            }
+            return c;
+        }
+
+        IOException error(String message) {
+            return new IOException(message + " at character " + (mConsumed + mPosition));
+        }
+
+        private void expect(char expected) throws IOException {
+            if (next() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+        }
+
+        /**
+         * @param key name of the member this is the value of, null in arrays and at the top
+         */
+        Object readValue(String key) throws IOException {
+            int c = skipWhitespace();
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    mPosition++;
+                    return readString("uri".equals(key));
+                case 't':
+                    readWord("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    readWord("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    readWord("null");
+                    return NULL;
+                case -1:
+                    throw error("Unexpected end of document");
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return readNumber();
+                    }
+                    throw error("Unexpected '" + (char) c + "'");
+            }
+        }
+
+        private Map<String, Object> readObject() throws IOException {
+            mPosition++;
+            Map<String, Object> object = new LinkedHashMap<String, Object>();
+            if (skipWhitespace() == '}') {
+                mPosition++;
+                return object;
+            }
+            while (true) {
+                if (skipWhitespace() != '"') {
+                    throw error("Expected a member name");
+                }
+                mPosition++;
+                String name = (String) readString(false);
+                skipWhitespace();
+                expect(':');
+                object.put(name, readValue(name));
+                int c = skipWhitespace();
+                mPosition++;
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> readArray() throws IOException {
+            mPosition++;
+            List<Object> array = new ArrayList<Object>();
+            if (skipWhitespace() == ']') {
+                mPosition++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue(null));
+                int c = skipWhitespace();
+                mPosition++;
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private void readWord(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                if (next() != word.charAt(i)) {
+                    throw error("Expected " + word);
+                }
+            }
+        }
+
+        private Number readNumber() throws IOException {
+            StringBuilder text = new StringBuilder();
+            int c = peek();
+            while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'
+                    || (c >= '0' && c <= '9')) {
+                text.append((char) c);
+                mPosition++;
+                c = peek();
+            }
+            return new Number(text.toString());
+        }
+
+        /**
+         * Read a string after its opening quote. A data URI is only looked for when the
+         * string can hold one, and only its header is ever kept as text.
+         */
+        private Object readString(boolean mayBeData) throws IOException {
+            StringBuilder text = new StringBuilder();
+            boolean data = false;
+            while (true) {
+                int c = next();
+                if (c == '"') {
+                    break;
+                }
+                if (c == -1) {
+                    throw error("Unterminated string");
+                }
+                if (c == '\\') {
+                    c = readEscape();
+                }
+                if (data) {
+                    mDecoder.write(c);
+                    continue;
+                }
+                text.append((char) c);
+                if (mayBeData && c == ',' && isDataHeader(text)) {
+                    data = true;
+                    alignSink();
+                }
+            }
+            if (!data) {
+                return text.toString();
+            }
+
+            long length = mDecoder.finish();
+            long offset = mSinkLength;
+            mSinkLength += length;
+            String mimeType = text.substring(DATA_PREFIX.length(),
+                    text.length() - BASE64_MARKER.length());
+            return new Data(mimeType, offset, length);
+        }
+
+        private static boolean isDataHeader(StringBuilder text) {
+            int markerAt = text.length() - BASE64_MARKER.length();
+            return text.length() <= MAX_DATA_HEADER && markerAt >= DATA_PREFIX.length()
+                    && text.indexOf(DATA_PREFIX) == 0
+                    && text.indexOf(BASE64_MARKER, markerAt) == markerAt;
+        }
+
+        private int readEscape() throws IOException {
+            int c = next();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(next(), 16);
+                        if (digit < 0) {
+                            throw error("Bad \\u escape");
+                        }
+                        value = value * 16 + digit;
+                    }
+                    return value;
+                default:
+                    throw error("Bad escape");
+            }
+        }
+
+        private void alignSink() throws IOException {
+            while (mSinkLength % DATA_ALIGNMENT != 0) {
+                mSink.write(0);
+                mSinkLength++;
+            }
+        }
+
+        void flushData() throws IOException {
+            mSink.flush();
+        }
+    }
+}
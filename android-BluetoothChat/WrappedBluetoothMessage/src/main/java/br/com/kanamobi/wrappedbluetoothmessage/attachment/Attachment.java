@@ -0,0 +1,57 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+/**
+ * What is known about an attachment before its data: announced first, so the receiver can lay
+ * out a placeholder of the right size.
+ */
+public final class Attachment {
+
+    private final int mId;
+    private final String mMimeType;
+    private final int mLength;
+    private final int mWidth;
+    private final int mHeight;
+
+    public Attachment(int id, String mimeType, int length, int width, int height) {
+        mId = id;
+        mMimeType = mimeType;
+        mLength = length;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Tells the attachments of one sender apart, only while they are being sent.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * Length of the full data in bytes.
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Width of the full image in pixels, 0 if the attachment is not an image.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public String toString() {
+        return "Attachment " + mId + " " + mMimeType + " " + mLength + " bytes " + mWidth + "x"
+                + mHeight;
+    }
+}
@@ -0,0 +1,67 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes received images at the size they are shown at, into bitmaps from a
+ * {@link BitmapPool} when one fits.
+ */
+public class AttachmentDecoder {
+
+    private final BitmapPool mPool;
+
+    public AttachmentDecoder(BitmapPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Decode an image to at least the given size, if it is that large. Give the bitmap back to
+     * the pool when it is no longer shown.
+     *
+     * @return null if the data is not an image
+     */
+    public Bitmap decode(byte[] data, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = sampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        // Rounded up, decoders differ in how they round
+        int decodedWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        int decodedHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap reused = mPool.get(decodedWidth * decodedHeight * 4);
+        options.inBitmap = reused;
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            if (reused == null) {
+                throw e;
+            }
+            // The decoder could not reuse the bitmap after all
+            mPool.put(reused);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * @return the largest power of two the image can be scaled down by and still cover the
+     * requested size
+     */
+    public static int sampleSize(int width, int height, int requestedWidth,
+                                 int requestedHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= requestedWidth
+                && height / (sampleSize * 2) >= requestedHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,188 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns picked images into {@link OutgoingAttachment}s: the image scaled to fit
+ * {@link #MAX_DIMENSION} and a thumbnail small enough to arrive well before it. Encoding runs on
+ * a small pool of background priority threads, so it neither blocks the UI nor competes with
+ * it for the CPU.
+ */
+public class AttachmentEncoder {
+
+    public static final int MAX_DIMENSION = 1600;
+    public static final int THUMBNAIL_DIMENSION = 96;
+
+    private static final int QUALITY = 85;
+    private static final int THUMBNAIL_QUALITY = 50;
+    private static final String JPEG = "image/jpeg";
+
+    /**
+     * Called on the main thread.
+     */
+    public interface Callback {
+        void onEncoded(Uri uri, OutgoingAttachment attachment);
+
+        void onEncodeFailed(Uri uri, IOException e);
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor;
+
+    public AttachmentEncoder(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+        // One core is left to the UI
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "AttachmentEncoder");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * Encode an image in the background.
+     */
+    public void encodeImage(final Uri uri, final Callback callback) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final OutgoingAttachment attachment = encodeImage(uri);
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onEncoded(uri, attachment);
+                            }
+                        });
+                    } catch (final IOException e) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onEncodeFailed(uri, e);
+                            }
+                        });
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down
+        }
+    }
+
+    /**
+     * Stop the threads, images not encoded yet are dropped.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private OutgoingAttachment encodeImage(Uri uri) throws IOException {
+        byte[] original = read(uri);
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(original, 0, original.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not an image: " + uri);
+        }
+
+        byte[] thumbnail = compress(scale(original, bounds, THUMBNAIL_DIMENSION),
+                THUMBNAIL_QUALITY);
+        if (JPEG.equals(bounds.outMimeType)
+                && Math.max(bounds.outWidth, bounds.outHeight) <= MAX_DIMENSION) {
+            // Already what would be sent, encoding it again would only lose quality
+            return new OutgoingAttachment(JPEG, bounds.outWidth, bounds.outHeight, thumbnail,
+                    original);
+        }
+        Bitmap image = scale(original, bounds, MAX_DIMENSION);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        return new OutgoingAttachment(JPEG, width, height, thumbnail, compress(image, QUALITY));
+    }
+
+    /**
+     * Decode the image scaled to fit a square of the given side, recycling what it does not
+     * return.
+     */
+    private static Bitmap scale(byte[] data, BitmapFactory.Options bounds, int dimension)
+            throws IOException {
+        float scale = Math.min(1f, (float) dimension
+                / Math.max(bounds.outWidth, bounds.outHeight));
+        int width = Math.max(1, Math.round(bounds.outWidth * scale));
+        int height = Math.max(1, Math.round(bounds.outHeight * scale));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = AttachmentDecoder.sampleSize(bounds.outWidth, bounds.outHeight,
+                width, height);
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (decoded == null) {
+            throw new IOException("Could not decode the image");
+        }
+        if (decoded.getWidth() == width && decoded.getHeight() == height) {
+            return decoded;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    private static byte[] compress(Bitmap bitmap, int quality) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
+        bitmap.recycle();
+        return output.toByteArray();
+    }
+
+    private byte[] read(Uri uri) throws IOException {
+        InputStream input = mResolver.openInputStream(uri);
+        if (input == null) {
+            throw new IOException("Could not open " + uri);
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+                if (output.size() > AttachmentReceiver.MAX_LENGTH) {
+                    throw new IOException("Too large to send: " + uri);
+                }
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+}
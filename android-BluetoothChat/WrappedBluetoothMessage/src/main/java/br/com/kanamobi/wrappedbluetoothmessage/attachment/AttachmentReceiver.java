@@ -0,0 +1,201 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.com.kanamobi.wrappedbluetoothmessage.codec.FrameCodec;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.MessageCodec;
+
+/**
+ * Puts together the attachments arriving on one connection, from the frames
+ * {@link AttachmentSender} writes. Used from the thread that reads. Buffers grow as the data
+ * arrives, and the attachments in progress may not announce more than a fixed total.
+ */
+public class AttachmentReceiver {
+
+    // Longest attachment accepted, longer ones are announced but their data is dropped
+    public static final int MAX_LENGTH = 32 * 1024 * 1024;
+
+    // Total length of the attachments in progress, attachments over it fail when they start
+    public static final int MAX_INCOMING_BYTES = 2 * MAX_LENGTH;
+
+    // First buffer of an attachment, it doubles from there up to the announced length
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    // How many progress callbacks an attachment gets at most
+    private static final int PROGRESS_STEPS = 20;
+
+    /**
+     * Called on the reading thread. Byte arrays handed over are the listener's to keep.
+     */
+    public interface Listener {
+        void onAttachmentStarted(Attachment attachment);
+
+        void onAttachmentThumbnail(Attachment attachment, byte[] thumbnail);
+
+        void onAttachmentProgress(Attachment attachment, int received);
+
+        void onAttachmentReceived(Attachment attachment, byte[] data);
+
+        /**
+         * The connection ended, or the attachment was too long to accept.
+         */
+        void onAttachmentFailed(Attachment attachment);
+    }
+
+    private final Listener mListener;
+    private final long mMaxIncomingBytes;
+    private final Map<Integer, Incoming> mIncoming = new HashMap<Integer, Incoming>();
+    // Announced length of the attachments in mIncoming
+    private long mIncomingBytes;
+
+    public AttachmentReceiver(Listener listener) {
+        this(listener, MAX_INCOMING_BYTES);
+    }
+
+    AttachmentReceiver(Listener listener, long maxIncomingBytes) {
+        mListener = listener;
+        mMaxIncomingBytes = maxIncomingBytes;
+    }
+
+    /**
+     * Take a frame of one of the attachment types.
+     *
+     * @return false if the frame is of another type
+     * @throws IOException if the frame is malformed, the stream is not in step
+     */
+    public boolean onFrame(int type, byte[] payload, int offset, int length) throws IOException {
+        switch (type) {
+            case FrameCodec.TYPE_ATTACHMENT_START:
+                onStart(payload, offset, length);
+                return true;
+            case FrameCodec.TYPE_ATTACHMENT_THUMBNAIL:
+                onThumbnail(payload, offset, length);
+                return true;
+            case FrameCodec.TYPE_ATTACHMENT_CHUNK:
+                onChunk(payload, offset, length);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Report every attachment not completely received as failed, when the connection is gone.
+     */
+    public void close() {
+        List<Incoming> dropped = new ArrayList<Incoming>(mIncoming.values());
+        mIncoming.clear();
+        mIncomingBytes = 0;
+        for (Incoming incoming : dropped) {
+            mListener.onAttachmentFailed(incoming.mAttachment);
+        }
+    }
+
+    private void onStart(byte[] payload, int offset, int length) throws IOException {
+        check(length >= 16);
+        Attachment attachment = new Attachment(FrameCodec.getInt(payload, offset),
+                MessageCodec.decode(payload, offset + 16, length - 16),
+                FrameCodec.getInt(payload, offset + 4), FrameCodec.getInt(payload, offset + 8),
+                FrameCodec.getInt(payload, offset + 12));
+        check(attachment.getLength() >= 0);
+
+        Incoming previous = remove(attachment.getId());
+        if (previous != null) {
+            mListener.onAttachmentFailed(previous.mAttachment);
+        }
+        mListener.onAttachmentStarted(attachment);
+        if (attachment.getLength() > MAX_LENGTH
+                || mIncomingBytes + attachment.getLength() > mMaxIncomingBytes) {
+            mListener.onAttachmentFailed(attachment);
+        } else if (attachment.getLength() == 0) {
+            mListener.onAttachmentReceived(attachment, new byte[0]);
+        } else {
+            mIncoming.put(attachment.getId(), new Incoming(attachment));
+            mIncomingBytes += attachment.getLength();
+        }
+    }
+
+    private void onThumbnail(byte[] payload, int offset, int length) throws IOException {
+        check(length >= 4);
+        Incoming incoming = mIncoming.get(FrameCodec.getInt(payload, offset));
+        if (incoming == null) {
+            return;
+        }
+        byte[] thumbnail = new byte[length - 4];
+        System.arraycopy(payload, offset + 4, thumbnail, 0, thumbnail.length);
+        mListener.onAttachmentThumbnail(incoming.mAttachment, thumbnail);
+    }
+
+    private void onChunk(byte[] payload, int offset, int length) throws IOException {
+        check(length >= 8);
+        Incoming incoming = mIncoming.get(FrameCodec.getInt(payload, offset));
+        if (incoming == null) {
+            // Of an attachment that was not accepted
+            return;
+        }
+        int position = FrameCodec.getInt(payload, offset + 4);
+        int count = length - 8;
+        Attachment attachment = incoming.mAttachment;
+        int total = attachment.getLength();
+        check(position >= 0 && position <= total - count);
+        // Chunks come in order, a gap means the stream is out of step. A chunk sent again, or
+        // overlapping the last one, only counts with the bytes that are new.
+        check(position <= incoming.mReceived);
+        incoming.ensureCapacity(position + count);
+        System.arraycopy(payload, offset + 8, incoming.mData, position, count);
+        incoming.mReceived = Math.max(incoming.mReceived, position + count);
+
+        if (incoming.mReceived >= total) {
+            remove(attachment.getId());
+            mListener.onAttachmentReceived(attachment, incoming.mData);
+            return;
+        }
+        int step = (int) ((long) incoming.mReceived * PROGRESS_STEPS / total);
+        if (step > incoming.mStep) {
+            incoming.mStep = step;
+            mListener.onAttachmentProgress(attachment, incoming.mReceived);
+        }
+    }
+
+    private Incoming remove(int id) {
+        Incoming incoming = mIncoming.remove(id);
+        if (incoming != null) {
+            mIncomingBytes -= incoming.mAttachment.getLength();
+        }
+        return incoming;
+    }
+
+    private static void check(boolean valid) throws IOException {
+        if (!valid) {
+            throw new IOException("Malformed attachment frame");
+        }
+    }
+
+    private static class Incoming {
+        final Attachment mAttachment;
+        byte[] mData;
+        // Everything before this offset has arrived
+        int mReceived;
+        int mStep;
+
+        Incoming(Attachment attachment) {
+            mAttachment = attachment;
+            mData = new byte[Math.min(attachment.getLength(), INITIAL_CAPACITY)];
+        }
+
+        /**
+         * Grow the buffer to hold length bytes, never past the announced length.
+         */
+        void ensureCapacity(int length) {
+            if (length > mData.length) {
+                int capacity = (int) Math.min((long) mData.length * 2, mAttachment.getLength());
+                mData = Arrays.copyOf(mData, Math.max(capacity, length));
+            }
+        }
+    }
+}
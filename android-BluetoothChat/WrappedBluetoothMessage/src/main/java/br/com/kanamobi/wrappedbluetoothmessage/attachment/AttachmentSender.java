@@ -0,0 +1,199 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import br.com.kanamobi.wrappedbluetoothmessage.codec.FrameCodec;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.MessageCodec;
+
+/**
+ * Sends the attachments of one connection from a thread of its own, a frame at a time. The
+ * start and thumbnail of every queued attachment go before the data of any of them, so the
+ * receiver can show each one right away. The data follows in chunks small enough that a chat
+ * message written meanwhile only waits for the chunk already on the wire.
+ *
+ * <pre>
+ * start     [u32 id][u32 length][u32 width][u32 height][mime type]
+ * thumbnail [u32 id][image]
+ * chunk     [u32 id][u32 offset][data]
+ * </pre>
+ */
+public class AttachmentSender {
+
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Writes one frame to the connection, whole, between the frames of other writers.
+     */
+    public interface FrameWriter {
+        void writeFrame(byte[] frame) throws IOException;
+    }
+
+    /**
+     * Called on the sending thread.
+     */
+    public interface Listener {
+        void onAttachmentSent(Attachment attachment);
+
+        /**
+         * The connection ended before the attachment was sent.
+         */
+        void onAttachmentSendFailed(Attachment attachment);
+    }
+
+    private final String mThreadName;
+    private final FrameWriter mWriter;
+    private final Listener mListener;
+
+    // Guarded by this
+    private final LinkedList<Pending> mQueue = new LinkedList<Pending>();
+    private Thread mThread;
+    private boolean mClosed;
+
+    public AttachmentSender(String threadName, FrameWriter writer, Listener listener) {
+        mThreadName = threadName;
+        mWriter = writer;
+        mListener = listener;
+    }
+
+    /**
+     * Queue an attachment, starting the sending thread the first time.
+     *
+     * @return false if the sender is closed
+     */
+    public synchronized boolean send(OutgoingAttachment attachment) {
+        if (mClosed) {
+            return false;
+        }
+        mQueue.add(new Pending(attachment));
+        if (mThread == null) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sendQueued();
+                }
+            }, mThreadName);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Stop sending. Attachments not completely sent are reported as failed.
+     */
+    public void close() {
+        List<Pending> dropped;
+        synchronized (this) {
+            mClosed = true;
+            dropped = new ArrayList<Pending>(mQueue);
+            mQueue.clear();
+            notifyAll();
+        }
+        for (Pending pending : dropped) {
+            mListener.onAttachmentSendFailed(pending.mOutgoing.getAttachment());
+        }
+    }
+
+    private void sendQueued() {
+        try {
+            while (true) {
+                Pending pending;
+                List<byte[]> frames = new ArrayList<byte[]>(2);
+                synchronized (this) {
+                    while (mQueue.isEmpty() && !mClosed) {
+                        wait();
+                    }
+                    if (mClosed) {
+                        return;
+                    }
+                    pending = firstNotStarted();
+                    if (pending != null) {
+                        pending.mStarted = true;
+                        frames.add(pending.startFrame());
+                        if (pending.mOutgoing.getThumbnail().length > 0) {
+                            frames.add(pending.thumbnailFrame());
+                        }
+                    } else {
+                        pending = mQueue.getFirst();
+                        frames.add(pending.nextChunkFrame());
+                    }
+                }
+
+                for (byte[] frame : frames) {
+                    mWriter.writeFrame(frame);
+                }
+
+                boolean sent;
+                synchronized (this) {
+                    // Already reported as failed if the sender was closed meanwhile
+                    sent = pending.isDone() && mQueue.remove(pending);
+                }
+                if (sent) {
+                    mListener.onAttachmentSent(pending.mOutgoing.getAttachment());
+                }
+            }
+        } catch (IOException e) {
+            close();
+        } catch (InterruptedException e) {
+            close();
+        }
+    }
+
+    private Pending firstNotStarted() {
+        for (Pending pending : mQueue) {
+            if (!pending.mStarted) {
+                return pending;
+            }
+        }
+        return null;
+    }
+
+    private static class Pending {
+        final OutgoingAttachment mOutgoing;
+        boolean mStarted;
+        int mOffset;
+
+        Pending(OutgoingAttachment outgoing) {
+            mOutgoing = outgoing;
+        }
+
+        boolean isDone() {
+            return mStarted && mOffset == mOutgoing.getData().length;
+        }
+
+        byte[] startFrame() {
+            Attachment attachment = mOutgoing.getAttachment();
+            byte[] mimeType = MessageCodec.encode(attachment.getMimeType());
+            byte[] payload = new byte[16 + mimeType.length];
+            FrameCodec.putInt(payload, 0, attachment.getId());
+            FrameCodec.putInt(payload, 4, attachment.getLength());
+            FrameCodec.putInt(payload, 8, attachment.getWidth());
+            FrameCodec.putInt(payload, 12, attachment.getHeight());
+            System.arraycopy(mimeType, 0, payload, 16, mimeType.length);
+            return FrameCodec.encode(FrameCodec.TYPE_ATTACHMENT_START, payload);
+        }
+
+        byte[] thumbnailFrame() {
+            byte[] thumbnail = mOutgoing.getThumbnail();
+            byte[] payload = new byte[4 + thumbnail.length];
+            FrameCodec.putInt(payload, 0, mOutgoing.getAttachment().getId());
+            System.arraycopy(thumbnail, 0, payload, 4, thumbnail.length);
+            return FrameCodec.encode(FrameCodec.TYPE_ATTACHMENT_THUMBNAIL, payload);
+        }
+
+        byte[] nextChunkFrame() {
+            byte[] data = mOutgoing.getData();
+            int length = Math.min(CHUNK_SIZE, data.length - mOffset);
+            byte[] payload = new byte[8 + length];
+            FrameCodec.putInt(payload, 0, mOutgoing.getAttachment().getId());
+            FrameCodec.putInt(payload, 4, mOffset);
+            System.arraycopy(data, mOffset, payload, 8, length);
+            mOffset += length;
+            return FrameCodec.encode(FrameCodec.TYPE_ATTACHMENT_CHUNK, payload);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mutable bitmaps kept for {@link AttachmentDecoder} to decode into, so scrolling through a
+ * conversation full of images does not allocate a bitmap per image and make the GC pause the
+ * UI. Bitmaps over the byte budget are recycled, oldest first.
+ */
+public class BitmapPool {
+
+    // A bitmap much larger than asked for wastes more memory than allocating a new one would
+    private static final int MAX_OVERSIZE = 4;
+
+    private final long mMaxBytes;
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBySize =
+            new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    private final LinkedList<Bitmap> mByAge = new LinkedList<Bitmap>();
+    private long mBytes;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap that can hold at least this many bytes of pixels.
+     *
+     * @return null if there is none
+     */
+    public synchronized Bitmap get(int minBytes) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBySize.ceilingEntry(minBytes);
+        if (entry == null || entry.getKey() > (long) minBytes * MAX_OVERSIZE) {
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            mBySize.remove(entry.getKey());
+        }
+        mByAge.remove(bitmap);
+        mBytes -= entry.getKey();
+        return bitmap;
+    }
+
+    /**
+     * Give back a bitmap that is no longer shown.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        // The size of a recycled bitmap is undefined
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bitmaps = mBySize.get(size);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<Bitmap>();
+            mBySize.put(size, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mByAge.add(bitmap);
+        mBytes += size;
+        while (mBytes > mMaxBytes) {
+            evict(mByAge.removeFirst());
+        }
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized void clear() {
+        while (!mByAge.isEmpty()) {
+            evict(mByAge.removeFirst());
+        }
+    }
+
+    private void evict(Bitmap bitmap) {
+        int size = bitmap.getAllocationByteCount();
+        ArrayDeque<Bitmap> bitmaps = mBySize.get(size);
+        bitmaps.remove(bitmap);
+        if (bitmaps.isEmpty()) {
+            mBySize.remove(size);
+        }
+        mBytes -= size;
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,42 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An attachment ready to send: its thumbnail and its full data, encoded. Images are made into
+ * one by {@link AttachmentEncoder}.
+ */
+public final class OutgoingAttachment {
+
+    private static final AtomicInteger sNextId = new AtomicInteger(1);
+
+    private final Attachment mAttachment;
+    private final byte[] mThumbnail;
+    private final byte[] mData;
+
+    /**
+     * @param thumbnail small enough to go in a single frame, empty for none
+     */
+    public OutgoingAttachment(String mimeType, int width, int height, byte[] thumbnail,
+                              byte[] data) {
+        if (data.length > AttachmentReceiver.MAX_LENGTH) {
+            throw new IllegalArgumentException("Attachment of " + data.length + " bytes");
+        }
+        mAttachment = new Attachment(sNextId.getAndIncrement(), mimeType, data.length, width,
+                height);
+        mThumbnail = thumbnail;
+        mData = data;
+    }
+
+    public Attachment getAttachment() {
+        return mAttachment;
+    }
+
+    public byte[] getThumbnail() {
+        return mThumbnail;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+}
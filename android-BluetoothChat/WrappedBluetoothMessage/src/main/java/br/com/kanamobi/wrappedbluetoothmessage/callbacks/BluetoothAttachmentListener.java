@@ -0,0 +1,29 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+import br.com.kanamobi.wrappedbluetoothmessage.attachment.Attachment;
+
+/**
+ * Attachments exchanged with the connected device, called on the main thread. An incoming
+ * attachment is started, gets its thumbnail, makes progress and is received, in that order;
+ * ids only tell apart the attachments going in the same direction.
+ */
+public interface BluetoothAttachmentListener {
+
+    void onAttachmentStarted(String address, String deviceName, Attachment attachment);
+    void onAttachmentThumbnail(String address, Attachment attachment, byte[] thumbnail);
+    void onAttachmentProgress(String address, Attachment attachment, int received);
+    void onAttachmentReceived(String address, Attachment attachment, byte[] data);
+
+    /**
+     * An incoming attachment will not be completed, the connection ended or it was too long.
+     */
+    void onAttachmentFailed(String address, Attachment attachment);
+
+    void onAttachmentSent(String address, Attachment attachment);
+
+    /**
+     * An attachment given to {@code sendAttachment} was not completely sent.
+     */
+    void onAttachmentSendFailed(String address, Attachment attachment);
+
+}
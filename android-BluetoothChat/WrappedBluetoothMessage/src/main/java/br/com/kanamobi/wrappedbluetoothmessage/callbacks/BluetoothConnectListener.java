@@ -0,0 +1,8 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+public interface BluetoothConnectListener {
+
+    void onConnected(String deviceName, long latencyMillis);
+    void onConnectionFailed(String address, long latencyMillis);
+
+}
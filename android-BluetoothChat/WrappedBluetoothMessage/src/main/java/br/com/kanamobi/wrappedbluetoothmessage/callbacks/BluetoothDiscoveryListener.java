@@ -0,0 +1,10 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+import br.com.kanamobi.wrappedbluetoothmessage.discovery.DiscoveredDevice;
+
+public interface BluetoothDiscoveryListener {
+
+    void onDeviceDiscovered(DiscoveredDevice device);
+    void onDiscoveryFinished();
+
+}
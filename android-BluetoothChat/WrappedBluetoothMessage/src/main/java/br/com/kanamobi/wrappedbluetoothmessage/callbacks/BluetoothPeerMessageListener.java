@@ -0,0 +1,13 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+/**
+ * Like {@link BluetoothMessageListener}, with the device each message was exchanged with. The
+ * device is taken by the thread that read or wrote the message, so a message that is delivered
+ * after switching devices still names the one it came from.
+ */
+public interface BluetoothPeerMessageListener {
+
+    void onMessageWrite(String address, String message);
+    void onMessageRead(String address, String deviceName, String message);
+
+}
@@ -0,0 +1,12 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+/**
+ * Receives inbound text messages on the thread that read them, after duplicates were dropped
+ * and before anything is posted to the main Looper. Implementations must be thread-safe and
+ * should return quickly.
+ */
+public interface BluetoothReadListener {
+
+    void onMessageRead(String address, long messageId, String message);
+
+}
@@ -0,0 +1,20 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+/**
+ * Receives connection events on the thread that produced them, without going
+ * through the main Looper. Reads and writes arrive on the Bluetooth I/O threads,
+ * so implementations must be thread-safe and should return quickly.
+ */
+public interface BluetoothStreamListener {
+
+    void onStateChanged(int state);
+    void onConnectionFailed();
+    void onConnectionLost();
+
+    /**
+     * The buffer is reused for the next read, copy what you need before returning.
+     */
+    void onBytesRead(byte[] buffer, int length);
+    void onBytesWritten(byte[] buffer);
+
+}
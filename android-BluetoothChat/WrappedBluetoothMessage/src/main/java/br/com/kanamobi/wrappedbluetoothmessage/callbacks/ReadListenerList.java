@@ -0,0 +1,45 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+import java.util.Arrays;
+
+/**
+ * {@link BluetoothReadListener} that passes every message on to the registered listeners.
+ * Same copy-on-write array as {@link StreamListenerList}, so the read thread calls out without
+ * taking a lock or allocating.
+ */
+public class ReadListenerList implements BluetoothReadListener {
+
+    private static final BluetoothReadListener[] EMPTY = new BluetoothReadListener[0];
+
+    private volatile BluetoothReadListener[] mListeners = EMPTY;
+
+    public synchronized void add(BluetoothReadListener listener) {
+        BluetoothReadListener[] listeners = Arrays.copyOf(mListeners, mListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        mListeners = listeners;
+    }
+
+    public synchronized void remove(BluetoothReadListener listener) {
+        BluetoothReadListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                BluetoothReadListener[] removed = new BluetoothReadListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+                mListeners = removed;
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return mListeners.length;
+    }
+
+    @Override
+    public void onMessageRead(String address, long messageId, String message) {
+        for (BluetoothReadListener listener : mListeners) {
+            listener.onMessageRead(address, messageId, message);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package br.com.kanamobi.wrappedbluetoothmessage.callbacks;
+
+import java.util.Arrays;
+
+/**
+ * {@link BluetoothStreamListener} that passes every call on to the registered listeners.
+ * Listeners can be added and removed from any thread while calls are going on. The listeners
+ * live in a copy-on-write array, so calling out takes no lock and does not allocate.
+ */
+public class StreamListenerList implements BluetoothStreamListener {
+
+    private static final BluetoothStreamListener[] EMPTY = new BluetoothStreamListener[0];
+
+    private volatile BluetoothStreamListener[] mListeners = EMPTY;
+
+    public synchronized void add(BluetoothStreamListener listener) {
+        BluetoothStreamListener[] listeners = Arrays.copyOf(mListeners, mListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        mListeners = listeners;
+    }
+
+    public synchronized void remove(BluetoothStreamListener listener) {
+        BluetoothStreamListener[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                BluetoothStreamListener[] removed = new BluetoothStreamListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+                mListeners = removed;
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return mListeners.length;
+    }
+
+    @Override
+    public void onStateChanged(int state) {
+        for (BluetoothStreamListener listener : mListeners) {
+            listener.onStateChanged(state);
+        }
+    }
+
+    @Override
+    public void onConnectionFailed() {
+        for (BluetoothStreamListener listener : mListeners) {
+            listener.onConnectionFailed();
+        }
+    }
+
+    @Override
+    public void onConnectionLost() {
+        for (BluetoothStreamListener listener : mListeners) {
+            listener.onConnectionLost();
+        }
+    }
+
+    @Override
+    public void onBytesRead(byte[] buffer, int length) {
+        for (BluetoothStreamListener listener : mListeners) {
+            listener.onBytesRead(buffer, length);
+        }
+    }
+
+    @Override
+    public void onBytesWritten(byte[] buffer) {
+        for (BluetoothStreamListener listener : mListeners) {
+            listener.onBytesWritten(buffer);
+        }
+    }
+}
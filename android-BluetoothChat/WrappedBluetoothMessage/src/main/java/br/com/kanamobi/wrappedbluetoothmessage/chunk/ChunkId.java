@@ -0,0 +1,94 @@
+package br.com.kanamobi.wrappedbluetoothmessage.chunk;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The SHA-256 of a chunk, which is all that is needed to tell whether a peer already has it.
+ */
+public final class ChunkId {
+
+    public static final int LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] mBytes;
+    private final int mHashCode;
+
+    private ChunkId(byte[] bytes) {
+        mBytes = bytes;
+        mHashCode = Arrays.hashCode(bytes);
+    }
+
+    public static ChunkId of(byte[] data) {
+        return of(data, 0, data.length);
+    }
+
+    public static ChunkId of(byte[] data, int offset, int length) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        digest.update(data, offset, length);
+        return new ChunkId(digest.digest());
+    }
+
+    static ChunkId read(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[LENGTH];
+        input.readFully(bytes);
+        return new ChunkId(bytes);
+    }
+
+    void write(DataOutputStream output) throws IOException {
+        output.write(mBytes);
+    }
+
+    /**
+     * @return the id with this {@link #toHex()} form, or null if it is not one
+     */
+    static ChunkId fromHex(String hex) {
+        if (hex.length() != LENGTH * 2) {
+            return null;
+        }
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return new ChunkId(bytes);
+    }
+
+    public String toHex() {
+        char[] chars = new char[LENGTH * 2];
+        for (int i = 0; i < LENGTH; i++) {
+            chars[i * 2] = HEX[(mBytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[mBytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ChunkId && Arrays.equals(mBytes, ((ChunkId) o).mBytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -0,0 +1,217 @@
+package br.com.kanamobi.wrappedbluetoothmessage.chunk;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chunks received from peers, one file per chunk named by its id, so a chunk only has to cross
+ * the link once. When the chunks take more than the size cap the least recently used ones are
+ * deleted. The use order is kept in the file times, so it survives a restart. Chunks a transfer
+ * still has to read are pinned and skipped by the eviction until the transfer is done.
+ */
+public class ChunkStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    // Guarded by this. Chunk lengths, least recently used first.
+    private final LinkedHashMap<ChunkId, Integer> mChunks =
+            new LinkedHashMap<ChunkId, Integer>(64, 0.75f, true);
+    private long mBytes;
+    // Guarded by this. Pin counts, a chunk can be pinned by several transfers at once.
+    private final HashMap<ChunkId, Integer> mPins = new HashMap<ChunkId, Integer>();
+
+    /**
+     * Open the store in directory, creating it if needed, and index the chunks already there.
+     */
+    public ChunkStore(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+
+        File[] files = directory.listFiles();
+        List<File> chunks = new ArrayList<File>();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // Left by a write that did not finish
+                file.delete();
+            } else if (ChunkId.fromHex(file.getName()) != null) {
+                chunks.add(file);
+            }
+        }
+        Collections.sort(chunks, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : x > y ? 1 : 0;
+            }
+        });
+        synchronized (this) {
+            for (File file : chunks) {
+                mChunks.put(ChunkId.fromHex(file.getName()), (int) file.length());
+                mBytes += file.length();
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Whether the chunk is here. Counts as a use, so chunks a peer was just told about are the
+     * last to be evicted.
+     */
+    public synchronized boolean contains(ChunkId id) {
+        if (mChunks.get(id) == null) {
+            return false;
+        }
+        // The file time is the use order after a restart
+        file(id).setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * @return the chunk, or null if it is not here
+     */
+    public synchronized byte[] get(ChunkId id) throws IOException {
+        Integer length = mChunks.get(id);
+        if (length == null) {
+            return null;
+        }
+        File file = file(id);
+        byte[] data = new byte[length];
+        InputStream input;
+        try {
+            input = new FileInputStream(file);
+        } catch (IOException e) {
+            // Deleted behind our back
+            remove(id);
+            return null;
+        }
+        try {
+            new DataInputStream(input).readFully(data);
+        } finally {
+            input.close();
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    /**
+     * Add a chunk, evicting others if the store grows past its cap. The caller has checked
+     * that data is what id says. A chunk bigger than the cap is only kept while it is pinned.
+     */
+    public synchronized void put(ChunkId id, byte[] data) throws IOException {
+        if (mChunks.get(id) != null) {
+            return;
+        }
+        if (data.length > mMaxBytes && !mPins.containsKey(id)) {
+            // It would push out every other chunk and then itself
+            return;
+        }
+        File file = file(id);
+        File temp = new File(mDirectory, file.getName() + TEMP_SUFFIX);
+        OutputStream output = new FileOutputStream(temp);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot store chunk " + id);
+        }
+        mChunks.put(id, data.length);
+        mBytes += data.length;
+        evict();
+    }
+
+    /**
+     * Keep the chunk from being evicted, whether it is here already or put later, until the
+     * matching {@link #unpin}.
+     */
+    public synchronized void pin(ChunkId id) {
+        Integer pins = mPins.get(id);
+        mPins.put(id, pins == null ? 1 : pins + 1);
+    }
+
+    public synchronized void unpin(ChunkId id) {
+        Integer pins = mPins.get(id);
+        if (pins == null) {
+            return;
+        }
+        if (pins > 1) {
+            mPins.put(id, pins - 1);
+        } else {
+            mPins.remove(id);
+            // Pinned chunks can hold the store over its cap
+            evict();
+        }
+    }
+
+    public synchronized int getCount() {
+        return mChunks.size();
+    }
+
+    /**
+     * Bytes of chunk data held.
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Delete every chunk.
+     */
+    public synchronized void clear() {
+        for (ChunkId id : new ArrayList<ChunkId>(mChunks.keySet())) {
+            file(id).delete();
+        }
+        mChunks.clear();
+        mBytes = 0;
+    }
+
+    private void remove(ChunkId id) {
+        Integer length = mChunks.remove(id);
+        if (length != null) {
+            mBytes -= length;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<ChunkId, Integer>> eldest = mChunks.entrySet().iterator();
+        while (mBytes > mMaxBytes && eldest.hasNext()) {
+            Map.Entry<ChunkId, Integer> entry = eldest.next();
+            if (mPins.containsKey(entry.getKey())) {
+                continue;
+            }
+            file(entry.getKey()).delete();
+            mBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private File file(ChunkId id) {
+        return new File(mDirectory, id.toHex());
+    }
+}
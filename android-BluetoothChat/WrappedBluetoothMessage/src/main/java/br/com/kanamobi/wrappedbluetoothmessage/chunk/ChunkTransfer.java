@@ -0,0 +1,261 @@
+package br.com.kanamobi.wrappedbluetoothmessage.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sends a file to a peer that keeps a {@link ChunkStore}, over any pair of streams, sending only
+ * the chunks the peer does not have.
+ *
+ * <pre>
+ * sender   -> [magic][version][u64 length][u32 count] count * ([u32 length][id])
+ * receiver -> [magic][u32 count][bitmap of the chunks it needs]
+ * sender   -> the needed chunks, in order
+ * receiver -> [magic]
+ * </pre>
+ *
+ * The manifest is the inventory exchange: the receiver checks it against its store and answers
+ * with what it lacks. Chunks are checked against their id when they arrive, and the file is
+ * written out in order as it is put together. The receiver pins every chunk of the manifest,
+ * so chunks arriving later cannot evict the ones it still has to read from the store.
+ */
+public final class ChunkTransfer {
+
+    private static final int MAGIC = 0x57424354; // "WBCT"
+    private static final int VERSION = 1;
+    private static final int MAX_CHUNKS = 1 << 20;
+
+    private static final int MANIFEST_HEADER_LENGTH = 4 + 4 + 8 + 4;
+    private static final int MANIFEST_ENTRY_LENGTH = 4 + ChunkId.LENGTH;
+    private static final int ANSWER_HEADER_LENGTH = 4 + 4;
+    private static final int DONE_LENGTH = 4;
+
+    private ChunkTransfer() {
+    }
+
+    /**
+     * What a transfer cost.
+     */
+    public static final class Stats {
+        private final long mLength;
+        private final int mChunks;
+        private final int mChunksSent;
+        private final long mBytesSent;
+        private final long mWireBytes;
+
+        Stats(long length, int chunks, int chunksSent, long bytesSent) {
+            mLength = length;
+            mChunks = chunks;
+            mChunksSent = chunksSent;
+            mBytesSent = bytesSent;
+            mWireBytes = MANIFEST_HEADER_LENGTH + (long) chunks * MANIFEST_ENTRY_LENGTH
+                    + ANSWER_HEADER_LENGTH + (chunks + 7) / 8 + bytesSent + DONE_LENGTH;
+        }
+
+        /**
+         * Length of the file.
+         */
+        public long getLength() {
+            return mLength;
+        }
+
+        public int getChunks() {
+            return mChunks;
+        }
+
+        public int getChunksSent() {
+            return mChunksSent;
+        }
+
+        /**
+         * Chunk data that crossed the link.
+         */
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        /**
+         * Everything that crossed the link in both directions, manifest and answer included.
+         */
+        public long getWireBytes() {
+            return mWireBytes;
+        }
+    }
+
+    /**
+     * Send a file. The file is read twice, once to make the manifest and once for the chunks
+     * the peer needs, and must not change in between.
+     */
+    public static Stats send(File file, InputStream input, OutputStream output)
+            throws IOException {
+        List<ChunkId> ids = new ArrayList<ChunkId>();
+        List<Integer> lengths = new ArrayList<Integer>();
+        long length = 0;
+        InputStream content = new FileInputStream(file);
+        try {
+            ContentChunker chunker = new ContentChunker(content);
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                ids.add(ChunkId.of(chunk));
+                lengths.add(chunk.length);
+                length += chunk.length;
+            }
+        } finally {
+            content.close();
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 8192));
+        DataInputStream in = new DataInputStream(input);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(length);
+        out.writeInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            out.writeInt(lengths.get(i));
+            ids.get(i).write(out);
+        }
+        out.flush();
+
+        if (in.readInt() != MAGIC || in.readInt() != ids.size()) {
+            throw new IOException("Bad answer to the chunk manifest");
+        }
+        byte[] needed = new byte[(ids.size() + 7) / 8];
+        in.readFully(needed);
+
+        int chunksSent = 0;
+        long bytesSent = 0;
+        content = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        try {
+            DataInputStream data = new DataInputStream(content);
+            byte[] buffer = new byte[ContentChunker.DEFAULT_MAX_SIZE];
+            for (int i = 0; i < ids.size(); i++) {
+                int chunkLength = lengths.get(i);
+                data.readFully(buffer, 0, chunkLength);
+                if (isSet(needed, i)) {
+                    out.write(buffer, 0, chunkLength);
+                    chunksSent++;
+                    bytesSent += chunkLength;
+                }
+            }
+        } finally {
+            content.close();
+        }
+        out.flush();
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Chunk transfer not confirmed");
+        }
+        return new Stats(length, ids.size(), chunksSent, bytesSent);
+    }
+
+    /**
+     * Receive a file into content, taking what the store has from the store and keeping the
+     * chunks that arrive in it.
+     */
+    public static Stats receive(ChunkStore store, InputStream input, OutputStream output,
+                                OutputStream content) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 8192));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a chunk transfer");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported chunk transfer version " + version);
+        }
+        long length = in.readLong();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_CHUNKS) {
+            throw new IOException("Bad chunk count " + count);
+        }
+        int[] lengths = new int[count];
+        ChunkId[] ids = new ChunkId[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = in.readInt();
+            if (lengths[i] <= 0 || lengths[i] > ContentChunker.DEFAULT_MAX_SIZE) {
+                throw new IOException("Bad chunk length " + lengths[i]);
+            }
+            ids[i] = ChunkId.read(in);
+        }
+
+        Set<ChunkId> pinned = new HashSet<ChunkId>();
+        try {
+            for (ChunkId id : ids) {
+                if (pinned.add(id)) {
+                    store.pin(id);
+                }
+            }
+            return receive(store, in, out, content, length, lengths, ids);
+        } finally {
+            for (ChunkId id : pinned) {
+                store.unpin(id);
+            }
+        }
+    }
+
+    private static Stats receive(ChunkStore store, DataInputStream in, DataOutputStream out,
+                                 OutputStream content, long length, int[] lengths, ChunkId[] ids)
+            throws IOException {
+        int count = ids.length;
+
+        // A chunk that repeats is only asked for once, it is in the store by the next time
+        byte[] needed = new byte[(count + 7) / 8];
+        Set<ChunkId> asked = new HashSet<ChunkId>();
+        for (int i = 0; i < count; i++) {
+            if (!store.contains(ids[i]) && asked.add(ids[i])) {
+                needed[i / 8] |= 1 << (i % 8);
+            }
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(count);
+        out.write(needed);
+        out.flush();
+
+        int chunksSent = 0;
+        long bytesSent = 0;
+        long written = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] chunk;
+            if (isSet(needed, i)) {
+                chunk = new byte[lengths[i]];
+                in.readFully(chunk);
+                if (!ChunkId.of(chunk).equals(ids[i])) {
+                    throw new IOException("Chunk " + i + " does not match its id");
+                }
+                store.put(ids[i], chunk);
+                chunksSent++;
+                bytesSent += chunk.length;
+            } else {
+                chunk = store.get(ids[i]);
+                if (chunk == null) {
+                    throw new IOException("Chunk " + ids[i] + " was evicted during the transfer");
+                }
+            }
+            content.write(chunk);
+            written += chunk.length;
+        }
+        content.flush();
+        if (written != length) {
+            throw new IOException("Received " + written + " bytes of " + length);
+        }
+
+        out.writeInt(MAGIC);
+        out.flush();
+        return new Stats(length, count, chunksSent, bytesSent);
+    }
+
+    private static boolean isSet(byte[] bitmap, int index) {
+        return (bitmap[index / 8] & (1 << (index % 8))) != 0;
+    }
+}
@@ -0,0 +1,117 @@
+package br.com.kanamobi.wrappedbluetoothmessage.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into chunks at positions chosen by its content, with a gear rolling hash over
+ * the last 64 bytes. An edit only moves the boundaries next to it, so the chunks of a slightly
+ * changed file are mostly the chunks it had before, wherever the edit shifted them to.
+ */
+public final class ContentChunker {
+
+    public static final int DEFAULT_MIN_SIZE = 2 * 1024;
+    public static final int DEFAULT_AVERAGE_SIZE = 8 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    // Bytes that still count in the hash, one bit of it is shifted out per byte
+    private static final int WINDOW = 64;
+
+    // Random values per byte. Sender and receiver have to agree, so they come from a fixed seed.
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = 0x5742434849554e4bL;
+        for (int i = 0; i < GEAR.length; i++) {
+            // SplitMix64
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream mInput;
+    private final int mMinSize;
+    private final int mMaxSize;
+    private final long mMask;
+
+    private final byte[] mBuffer;
+    private int mStart;
+    private int mEnd;
+    private boolean mEnded;
+
+    public ContentChunker(InputStream input) {
+        this(input, DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param averageSize a power of two, chunks are this long on average plus the minimum size
+     */
+    public ContentChunker(InputStream input, int minSize, int averageSize, int maxSize) {
+        if (Integer.bitCount(averageSize) != 1 || minSize < WINDOW || maxSize < minSize) {
+            throw new IllegalArgumentException("Bad chunk sizes " + minSize + ", "
+                    + averageSize + ", " + maxSize);
+        }
+        mInput = input;
+        mMinSize = minSize;
+        mMaxSize = maxSize;
+        // The top bits of the hash, the low ones only depend on the last few bytes
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        mMask = (long) (averageSize - 1) << (Long.SIZE - bits);
+        mBuffer = new byte[maxSize];
+    }
+
+    /**
+     * @return the next chunk, or null at the end of the stream
+     */
+    public byte[] next() throws IOException {
+        fill();
+        int available = mEnd - mStart;
+        if (available == 0) {
+            return null;
+        }
+        int length = cut(available);
+        byte[] chunk = Arrays.copyOfRange(mBuffer, mStart, mStart + length);
+        mStart += length;
+        return chunk;
+    }
+
+    private int cut(int available) {
+        if (available <= mMinSize) {
+            return available;
+        }
+        int limit = Math.min(available, mMaxSize);
+        long hash = 0;
+        // Bytes further back than the window before the minimum size would not count anyway
+        for (int i = mMinSize - WINDOW; i < limit; i++) {
+            hash = (hash << 1) + GEAR[mBuffer[mStart + i] & 0xff];
+            if (i >= mMinSize && (hash & mMask) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Have a whole maximum size chunk buffered, unless the stream ends first.
+     */
+    private void fill() throws IOException {
+        if (mEnded || mEnd - mStart >= mMaxSize) {
+            return;
+        }
+        System.arraycopy(mBuffer, mStart, mBuffer, 0, mEnd - mStart);
+        mEnd -= mStart;
+        mStart = 0;
+        while (mEnd < mBuffer.length) {
+            int count = mInput.read(mBuffer, mEnd, mBuffer.length - mEnd);
+            if (count < 0) {
+                mEnded = true;
+                return;
+            }
+            mEnd += count;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package br.com.kanamobi.wrappedbluetoothmessage.codec;
+
+/**
+ * What goes over the socket: frames of [u8 type][u32 length][payload], big-endian. RFCOMM is a
+ * stream, a read can hold part of a message or several, so every message carries its length.
+ * A text frame holds the u64 id of the message and then its text, so a message sent again after
+ * a reconnect can be recognized. Frame types other than text carry attachments, see
+ * {@link br.com.kanamobi.wrappedbluetoothmessage.attachment.AttachmentSender}.
+ */
+public final class FrameCodec {
+
+    public static final int TYPE_TEXT = 1;
+    public static final int TYPE_ATTACHMENT_START = 2;
+    public static final int TYPE_ATTACHMENT_THUMBNAIL = 3;
+    public static final int TYPE_ATTACHMENT_CHUNK = 4;
+
+    public static final int HEADER_LENGTH = 5;
+    // The message id in front of the text of a text frame
+    public static final int MESSAGE_ID_LENGTH = 8;
+
+    // Longest payload accepted, anything longer means the stream is not in step
+    public static final int MAX_PAYLOAD = 1024 * 1024;
+
+    private FrameCodec() {
+    }
+
+    public static byte[] encode(int type, byte[] payload) {
+        return encode(type, payload, 0, payload.length);
+    }
+
+    public static byte[] encode(int type, byte[] payload, int offset, int length) {
+        if (length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Frame payload of " + length + " bytes");
+        }
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        frame[0] = (byte) type;
+        putInt(frame, 1, length);
+        System.arraycopy(payload, offset, frame, HEADER_LENGTH, length);
+        return frame;
+    }
+
+    /**
+     * A text frame for an encoded message.
+     */
+    public static byte[] encodeText(long messageId, byte[] text) {
+        if (MESSAGE_ID_LENGTH + text.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Message of " + text.length + " bytes");
+        }
+        byte[] frame = new byte[HEADER_LENGTH + MESSAGE_ID_LENGTH + text.length];
+        frame[0] = (byte) TYPE_TEXT;
+        putInt(frame, 1, MESSAGE_ID_LENGTH + text.length);
+        putLong(frame, HEADER_LENGTH, messageId);
+        System.arraycopy(text, 0, frame, HEADER_LENGTH + MESSAGE_ID_LENGTH, text.length);
+        return frame;
+    }
+
+    public static void putLong(byte[] buffer, int offset, long value) {
+        putInt(buffer, offset, (int) (value >>> 32));
+        putInt(buffer, offset + 4, (int) value);
+    }
+
+    public static long getLong(byte[] buffer, int offset) {
+        return (long) getInt(buffer, offset) << 32 | getInt(buffer, offset + 4) & 0xffffffffL;
+    }
+
+    public static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    public static int getInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16
+                | (buffer[offset + 2] & 0xff) << 8 | (buffer[offset + 3] & 0xff);
+    }
+}
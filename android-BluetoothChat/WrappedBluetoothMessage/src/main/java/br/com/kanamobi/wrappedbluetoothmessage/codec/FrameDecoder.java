@@ -0,0 +1,86 @@
+package br.com.kanamobi.wrappedbluetoothmessage.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Puts the frames of a connection back together from reads of any size. One per connection,
+ * used from the thread that reads.
+ */
+public class FrameDecoder {
+
+    /**
+     * Receives each whole frame. The payload buffer is reused, copy what you need.
+     */
+    public interface Callback {
+        void onFrame(int type, byte[] payload, int offset, int length) throws IOException;
+    }
+
+    private byte[] mPending = new byte[1024];
+    private int mPendingLength;
+
+    /**
+     * Take the next length bytes read from the socket.
+     *
+     * @throws IOException if a frame header announces more than {@link FrameCodec#MAX_PAYLOAD}
+     */
+    public void feed(byte[] buffer, int length, Callback callback) throws IOException {
+        int offset = 0;
+        // Complete the frame left over from the last read first
+        while (mPendingLength > 0 && offset < length) {
+            int wanted = mPendingLength < FrameCodec.HEADER_LENGTH
+                    ? FrameCodec.HEADER_LENGTH : frameLength(mPending, 0);
+            int taken = Math.min(wanted - mPendingLength, length - offset);
+            append(buffer, offset, taken);
+            offset += taken;
+            if (mPendingLength >= FrameCodec.HEADER_LENGTH
+                    && mPendingLength == frameLength(mPending, 0)) {
+                mPendingLength = 0;
+                callback.onFrame(mPending[0] & 0xff, mPending, FrameCodec.HEADER_LENGTH,
+                        frameLength(mPending, 0) - FrameCodec.HEADER_LENGTH);
+            }
+        }
+        if (mPendingLength > 0) {
+            return;
+        }
+
+        // Whole frames straight from the read buffer
+        while (length - offset >= FrameCodec.HEADER_LENGTH) {
+            int frameLength = frameLength(buffer, offset);
+            if (length - offset < frameLength) {
+                break;
+            }
+            callback.onFrame(buffer[offset] & 0xff, buffer, offset + FrameCodec.HEADER_LENGTH,
+                    frameLength - FrameCodec.HEADER_LENGTH);
+            offset += frameLength;
+        }
+        append(buffer, offset, length - offset);
+    }
+
+    /**
+     * Drop a partly received frame, when the connection it came from is gone.
+     */
+    public void reset() {
+        mPendingLength = 0;
+    }
+
+    /**
+     * @return the length of the frame starting at offset, header included
+     */
+    private static int frameLength(byte[] buffer, int offset) throws IOException {
+        int length = FrameCodec.getInt(buffer, offset + 1);
+        if (length < 0 || length > FrameCodec.MAX_PAYLOAD) {
+            throw new IOException("Bad frame length " + length);
+        }
+        return FrameCodec.HEADER_LENGTH + length;
+    }
+
+    private void append(byte[] buffer, int offset, int length) {
+        if (mPendingLength + length > mPending.length) {
+            mPending = Arrays.copyOf(mPending,
+                    Math.max(mPending.length * 2, mPendingLength + length));
+        }
+        System.arraycopy(buffer, offset, mPending, mPendingLength, length);
+        mPendingLength += length;
+    }
+}
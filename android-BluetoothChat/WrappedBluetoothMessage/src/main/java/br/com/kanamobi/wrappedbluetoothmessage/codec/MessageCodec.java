@@ -0,0 +1,27 @@
+package br.com.kanamobi.wrappedbluetoothmessage.codec;
+
+import java.nio.charset.Charset;
+
+/**
+ * Turns chat messages into the bytes sent over the socket and back. Messages are UTF-8, the
+ * default charset on Android, spelled out so the JVM tools and benchmarks match the device.
+ */
+public final class MessageCodec {
+
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private MessageCodec() {
+    }
+
+    public static byte[] encode(String message) {
+        return message.getBytes(CHARSET);
+    }
+
+    public static String decode(byte[] buffer, int offset, int length) {
+        return new String(buffer, offset, length, CHARSET);
+    }
+
+    public static String decode(byte[] buffer) {
+        return decode(buffer, 0, buffer.length);
+    }
+}
@@ -0,0 +1,171 @@
+package br.com.kanamobi.wrappedbluetoothmessage.coroutines
+
+import android.bluetooth.BluetoothDevice
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothConnectListener
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothReadListener
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothStreamListener
+import br.com.kanamobi.wrappedbluetoothmessage.exceptions.BluetoothConnectionFailedException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.channels.sendBlocking
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import java.io.Closeable
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * How [BluetoothMessageCoroutines.messages] behaves when the collector is slower than the link.
+ */
+enum class MessageBackpressure {
+    /**
+     * Keep up to `capacity` messages, then block the read thread until the collector catches up.
+     */
+    BUFFER,
+
+    /**
+     * Never block the read thread, the collector only sees the latest message.
+     */
+    CONFLATE
+}
+
+/**
+ * Coroutine facade for [BluetoothMessageService].
+ *
+ * Everything here is fed by a [BluetoothStreamListener] or a [BluetoothReadListener], so state
+ * changes and inbound messages are produced on the Bluetooth threads and never touch the main
+ * Looper. Collect on whatever
+ * dispatcher fits the work, for example `Dispatchers.Default`.
+ */
+@ExperimentalCoroutinesApi
+class BluetoothMessageCoroutines(val service: BluetoothMessageService) : Closeable {
+
+    private val mutableConnectionState = MutableStateFlow(service.state)
+
+    /**
+     * Current connection state, one of the `BluetoothMessageService.STATE_*` constants.
+     */
+    val connectionState: StateFlow<Int> get() = mutableConnectionState
+
+    private val stateListener = object : StreamListenerAdapter() {
+        override fun onStateChanged(state: Int) {
+            mutableConnectionState.value = state
+        }
+    }
+
+    init {
+        service.addBluetoothStreamListener(stateListener)
+    }
+
+    /**
+     * Connect to [device] and suspend until the link is up.
+     *
+     * @return the connected device name
+     * @throws BluetoothConnectionFailedException if the connection attempt failed
+     */
+    suspend fun connect(device: BluetoothDevice, secure: Boolean): String? =
+            connect(device.address, secure)
+
+    /**
+     * Connect to the device with the given MAC [address] and suspend until the link is up.
+     *
+     * @return the connected device name
+     * @throws BluetoothConnectionFailedException if the connection attempt failed
+     */
+    suspend fun connect(address: String, secure: Boolean): String? =
+            suspendCancellableCoroutine { continuation ->
+                val listener = object : BluetoothConnectListener {
+                    override fun onConnected(deviceName: String?, latencyMillis: Long) {
+                        if (continuation.isActive) {
+                            continuation.resume(deviceName)
+                        }
+                    }
+
+                    override fun onConnectionFailed(address: String?, latencyMillis: Long) {
+                        if (continuation.isActive) {
+                            continuation.resumeWithException(BluetoothConnectionFailedException())
+                        }
+                    }
+                }
+                continuation.invokeOnCancellation {
+                    // Drop this attempt only, a newer one or the link it made is left alone
+                    service.cancelConnect(listener)
+                }
+                service.connect(address, secure, listener)
+            }
+
+    /**
+     * Write [message] to the connected device from the IO dispatcher.
+     *
+     * @return the id of the message, for sending it again with `service.write(message, id)`
+     * @throws IllegalStateException if there is no connection
+     */
+    suspend fun send(message: String) = withContext(Dispatchers.IO) {
+        check(service.state == BluetoothMessageService.STATE_CONNECTED) { "Not connected" }
+        service.write(message)
+    }
+
+    /**
+     * Cold flow of inbound text messages, without the duplicates a peer sends again after a
+     * reconnect. Each collector registers its own listener for as long as it is collecting.
+     *
+     * @param backpressure what to do when the collector falls behind
+     * @param capacity buffer size for [MessageBackpressure.BUFFER]
+     */
+    fun messages(backpressure: MessageBackpressure = MessageBackpressure.BUFFER,
+                 capacity: Int = Channel.BUFFERED): Flow<String> {
+        val flow = callbackFlow<String> {
+            val listener = BluetoothReadListener { _, _, message ->
+                if (isClosedForSend) {
+                    return@BluetoothReadListener
+                }
+                when (backpressure) {
+                    MessageBackpressure.BUFFER -> try {
+                        sendBlocking(message)
+                    } catch (e: Exception) {
+                        // Collector went away while we were waiting for room
+                    }
+                    MessageBackpressure.CONFLATE -> offer(message)
+                }
+            }
+
+            service.addBluetoothReadListener(listener)
+            awaitClose { service.removeBluetoothReadListener(listener) }
+        }
+
+        return when (backpressure) {
+            MessageBackpressure.BUFFER -> flow.buffer(capacity)
+            MessageBackpressure.CONFLATE -> flow.conflate()
+        }
+    }
+
+    /**
+     * Stop tracking [connectionState]. Flows that are still being collected keep working.
+     */
+    override fun close() {
+        service.removeBluetoothStreamListener(stateListener)
+    }
+
+    private abstract class StreamListenerAdapter : BluetoothStreamListener {
+        override fun onStateChanged(state: Int) {}
+        override fun onConnectionFailed() {}
+        override fun onConnectionLost() {}
+        override fun onBytesRead(buffer: ByteArray, length: Int) {}
+        override fun onBytesWritten(buffer: ByteArray) {}
+    }
+}
+
+/**
+ * Wrap this service in a [BluetoothMessageCoroutines] facade.
+ */
+@ExperimentalCoroutinesApi
+fun BluetoothMessageService.coroutines() = BluetoothMessageCoroutines(this)
@@ -0,0 +1,52 @@
+package br.com.kanamobi.wrappedbluetoothmessage.dedupe;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link SeenSet} per peer address, for the peers talked to most recently. The set of the
+ * peer least recently talked to is cleared and reused for a new one, so memory stays at
+ * {@code maxPeers} sets whatever the number of peers.
+ */
+public class PeerSeenSets {
+
+    private final int mMaxPeers;
+    private final int mCapacity;
+
+    // Guarded by this, in access order
+    private final LinkedHashMap<String, SeenSet> mSets =
+            new LinkedHashMap<String, SeenSet>(16, 0.75f, true);
+
+    /**
+     * @param capacity ids remembered exactly per peer, see {@link SeenSet#SeenSet(int)}
+     */
+    public PeerSeenSets(int maxPeers, int capacity) {
+        mMaxPeers = maxPeers;
+        mCapacity = capacity;
+    }
+
+    /**
+     * @return the set of this peer, created or taken over from another peer if it has none
+     */
+    public synchronized SeenSet get(String address) {
+        SeenSet set = mSets.get(address);
+        if (set != null) {
+            return set;
+        }
+        if (mSets.size() >= mMaxPeers) {
+            Iterator<Map.Entry<String, SeenSet>> eldest = mSets.entrySet().iterator();
+            set = eldest.next().getValue();
+            eldest.remove();
+            set.clear();
+        } else {
+            set = new SeenSet(mCapacity);
+        }
+        mSets.put(address, set);
+        return set;
+    }
+
+    public synchronized int size() {
+        return mSets.size();
+    }
+}
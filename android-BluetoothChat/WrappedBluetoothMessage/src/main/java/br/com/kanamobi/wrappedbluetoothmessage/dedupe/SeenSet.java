@@ -0,0 +1,194 @@
+package br.com.kanamobi.wrappedbluetoothmessage.dedupe;
+
+import java.util.Arrays;
+
+/**
+ * The message ids last received from one peer, to drop a message the peer sends again after a
+ * reconnect. Memory is fixed when the set is created, however long the session.
+ *
+ * The exact window holds the last {@code capacity} ids, in a ring that gives their order and an
+ * open addressing table that finds them, so a duplicate within the window is always caught and
+ * nothing else is ever taken for one. In front of it sits a Bloom filter over the same ids,
+ * which answers the common case, a new id, from a few bits without touching the table. A Bloom
+ * filter cannot forget, so it is kept as two generations of a window's worth of ids each, and
+ * the older one is cleared when the newer one fills; together they always cover the window.
+ *
+ * Id 0 means "no id" and is never taken for a duplicate.
+ */
+public class SeenSet {
+
+    // Bits per id in each Bloom generation and hashes per id, about 1% false positives
+    private static final int BITS_PER_ID = 10;
+    private static final int HASHES = 7;
+
+    private final int mCapacity;
+    private final long[] mRing;
+    private final long[] mTable;
+    private final int mTableMask;
+    private final long[][] mBloom;
+    private final int mBloomBits;
+    private final int mGenerationSize;
+
+    private int mHead;
+    private int mSize;
+    private int mCurrent;
+    private int mCurrentCount;
+    private long mBloomHits;
+
+    /**
+     * @param capacity how many of the latest ids are remembered exactly
+     */
+    public SeenSet(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity " + capacity);
+        }
+        mCapacity = capacity;
+        mRing = new long[capacity];
+        // At most half full, so probes stay short
+        int tableSize = Integer.highestOneBit(capacity - 1) << 2;
+        mTable = new long[tableSize];
+        mTableMask = tableSize - 1;
+        mGenerationSize = capacity;
+        mBloomBits = Math.max(64, mGenerationSize * BITS_PER_ID);
+        mBloom = new long[2][(mBloomBits + 63) / 64];
+    }
+
+    /**
+     * Remember an id.
+     *
+     * @return false if it was already seen, the message is a duplicate
+     */
+    public synchronized boolean add(long id) {
+        if (id == 0) {
+            return true;
+        }
+        long hash = mix(id);
+        if (mightContain(hash)) {
+            mBloomHits++;
+            if (tableContains(id, hash)) {
+                return false;
+            }
+        }
+
+        if (mSize == mCapacity) {
+            tableRemove(mRing[mHead]);
+        } else {
+            mSize++;
+        }
+        mRing[mHead] = id;
+        mHead = (mHead + 1) % mCapacity;
+        tableAdd(id, hash);
+        bloomAdd(hash);
+        return true;
+    }
+
+    public synchronized boolean contains(long id) {
+        long hash = mix(id);
+        return id != 0 && mightContain(hash) && tableContains(id, hash);
+    }
+
+    /**
+     * How many ids are remembered exactly, at most the capacity.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * How many new ids the Bloom filter could not rule out and had to be looked up.
+     */
+    public synchronized long getBloomHits() {
+        return mBloomHits;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(mRing, 0);
+        Arrays.fill(mTable, 0);
+        Arrays.fill(mBloom[0], 0);
+        Arrays.fill(mBloom[1], 0);
+        mHead = 0;
+        mSize = 0;
+        mCurrentCount = 0;
+    }
+
+    private boolean mightContain(long hash) {
+        return bloomContains(mBloom[mCurrent], hash) || bloomContains(mBloom[1 - mCurrent], hash);
+    }
+
+    private boolean bloomContains(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mBloomBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bloomAdd(long hash) {
+        if (mCurrentCount == mGenerationSize) {
+            // The older generation only holds ids that have left the window
+            mCurrent = 1 - mCurrent;
+            Arrays.fill(mBloom[mCurrent], 0);
+            mCurrentCount = 0;
+        }
+        long[] bits = mBloom[mCurrent];
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mBloomBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        mCurrentCount++;
+    }
+
+    private boolean tableContains(long id, long hash) {
+        int slot = (int) (hash >>> 40) & mTableMask;
+        while (mTable[slot] != 0) {
+            if (mTable[slot] == id) {
+                return true;
+            }
+            slot = (slot + 1) & mTableMask;
+        }
+        return false;
+    }
+
+    private void tableAdd(long id, long hash) {
+        int slot = (int) (hash >>> 40) & mTableMask;
+        while (mTable[slot] != 0) {
+            slot = (slot + 1) & mTableMask;
+        }
+        mTable[slot] = id;
+    }
+
+    private void tableRemove(long id) {
+        int slot = (int) (mix(id) >>> 40) & mTableMask;
+        while (mTable[slot] != id) {
+            slot = (slot + 1) & mTableMask;
+        }
+        // Move later entries of the probe run back, so lookups never stop at the gap
+        int gap = slot;
+        slot = (slot + 1) & mTableMask;
+        while (mTable[slot] != 0) {
+            int home = (int) (mix(mTable[slot]) >>> 40) & mTableMask;
+            if (((slot - home) & mTableMask) >= ((slot - gap) & mTableMask)) {
+                mTable[gap] = mTable[slot];
+                gap = slot;
+            }
+            slot = (slot + 1) & mTableMask;
+        }
+        mTable[gap] = 0;
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads ids that differ in a few low bits over all 64.
+     */
+    private static long mix(long id) {
+        long z = id;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,130 @@
+package br.com.kanamobi.wrappedbluetoothmessage.discovery;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Devices found by discovery, one entry per address. Entries that were not seen again
+ * within the time to live are dropped.
+ */
+public class DeviceDiscoveryCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Strongest signal first, then the most recently seen.
+     */
+    private static final Comparator<DiscoveredDevice> RANKING = new Comparator<DiscoveredDevice>() {
+        @Override
+        public int compare(DiscoveredDevice a, DiscoveredDevice b) {
+            if (a.getRssi() != b.getRssi()) {
+                return b.getRssi() - a.getRssi();
+            }
+            return a.getLastSeenMillis() < b.getLastSeenMillis() ? 1
+                    : a.getLastSeenMillis() > b.getLastSeenMillis() ? -1 : 0;
+        }
+    };
+
+    private final long mTtlMillis;
+    private final Map<String, DiscoveredDevice> mDevices = new HashMap<String, DiscoveredDevice>();
+
+    public DeviceDiscoveryCache() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    public DeviceDiscoveryCache(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Record a sighting of a device. Values the broadcast did not carry are kept from the
+     * previous sighting.
+     *
+     * @return the updated entry
+     */
+    public synchronized DiscoveredDevice update(String address, String name, short rssi,
+                                                int deviceClass) {
+        DiscoveredDevice previous = mDevices.get(address);
+        if (previous != null) {
+            if (name == null) {
+                name = previous.getName();
+            }
+            if (rssi == DiscoveredDevice.RSSI_UNKNOWN) {
+                rssi = previous.getRssi();
+            }
+            if (deviceClass == DiscoveredDevice.DEVICE_CLASS_UNKNOWN) {
+                deviceClass = previous.getDeviceClass();
+            }
+        }
+
+        DiscoveredDevice device = new DiscoveredDevice(address, name, rssi, deviceClass, now());
+        mDevices.put(address, device);
+        return device;
+    }
+
+    /**
+     * @return the entry for this address, or null if it is unknown or expired
+     */
+    public synchronized DiscoveredDevice get(String address) {
+        DiscoveredDevice device = mDevices.get(address);
+        if (device != null && isExpired(device, now())) {
+            mDevices.remove(address);
+            return null;
+        }
+        return device;
+    }
+
+    /**
+     * @return every live entry, best candidates first
+     */
+    public synchronized List<DiscoveredDevice> getRankedDevices() {
+        evictExpired();
+        List<DiscoveredDevice> devices = new ArrayList<DiscoveredDevice>(mDevices.values());
+        Collections.sort(devices, RANKING);
+        return devices;
+    }
+
+    /**
+     * Drop the entries that outlived the time to live.
+     *
+     * @return how many entries were dropped
+     */
+    public synchronized int evictExpired() {
+        long now = now();
+        int evicted = 0;
+        Iterator<DiscoveredDevice> iterator = mDevices.values().iterator();
+        while (iterator.hasNext()) {
+            if (isExpired(iterator.next(), now)) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public synchronized int size() {
+        return mDevices.size();
+    }
+
+    public synchronized void clear() {
+        mDevices.clear();
+    }
+
+    private boolean isExpired(DiscoveredDevice device, long now) {
+        return now - device.getLastSeenMillis() > mTtlMillis;
+    }
+
+    /**
+     * Clock used for last seen times, monotonic so TTLs survive wall clock changes.
+     */
+    protected long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
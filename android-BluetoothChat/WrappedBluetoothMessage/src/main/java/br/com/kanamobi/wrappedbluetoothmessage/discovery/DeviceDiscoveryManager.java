@@ -0,0 +1,129 @@
+package br.com.kanamobi.wrappedbluetoothmessage.discovery;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothDiscoveryListener;
+
+/**
+ * Keeps a {@link DeviceDiscoveryCache} up to date from the discovery broadcasts, no matter who
+ * started the scan. Pickers and headless callers can show {@link #getRankedDevices()} right
+ * away and call {@link #refresh(Object)} to update it in the background. Scans go through a
+ * {@link DiscoveryScheduler}, so they never run while a connection is busy.
+ */
+public class DeviceDiscoveryManager {
+
+    private static DeviceDiscoveryManager sInstance;
+
+    private final DiscoveryScheduler mScheduler;
+    private final DeviceDiscoveryCache mCache = new DeviceDiscoveryCache();
+    private final List<BluetoothDiscoveryListener> mListeners =
+            new CopyOnWriteArrayList<BluetoothDiscoveryListener>();
+
+    public static synchronized DeviceDiscoveryManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DeviceDiscoveryManager(context.getApplicationContext(),
+                    BluetoothAdapter.getDefaultAdapter());
+        }
+        return sInstance;
+    }
+
+    private DeviceDiscoveryManager(Context context, BluetoothAdapter adapter) {
+        mScheduler = new DiscoveryScheduler(adapter);
+
+        // Register for broadcasts when a device is discovered and when discovery starts or ends
+        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        context.registerReceiver(mReceiver, filter);
+    }
+
+    public void addDiscoveryListener(BluetoothDiscoveryListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeDiscoveryListener(BluetoothDiscoveryListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Cached devices, strongest signal first. Does not start a scan.
+     */
+    public List<DiscoveredDevice> getRankedDevices() {
+        return mCache.getRankedDevices();
+    }
+
+    public DeviceDiscoveryCache getCache() {
+        return mCache;
+    }
+
+    public DiscoveryScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Ask for a discovery to refresh the cache. It joins a scan that is already running, and
+     * waits while any connection is busy or the scan budget is used up. The requester is any
+     * object that identifies the caller, the same one is passed to {@link #cancel(Object)}.
+     */
+    public void refresh(Object requester) {
+        mScheduler.requestScan(requester);
+    }
+
+    /**
+     * Drop the refresh of requester. The scan is stopped only if no other caller still wants it.
+     */
+    public void cancel(Object requester) {
+        mScheduler.cancel(requester);
+    }
+
+    /**
+     * The BroadcastReceiver that listens for discovered devices and the end of discovery
+     */
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+
+            // When discovery finds a device
+            if (BluetoothDevice.ACTION_FOUND.equals(action)) {
+                // Get the BluetoothDevice object from the Intent
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI,
+                        DiscoveredDevice.RSSI_UNKNOWN);
+                BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                int deviceClass = bluetoothClass != null ? bluetoothClass.getDeviceClass()
+                        : DiscoveredDevice.DEVICE_CLASS_UNKNOWN;
+
+                String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                if (name == null) {
+                    name = device.getName();
+                }
+
+                DiscoveredDevice discovered = mCache.update(device.getAddress(), name, rssi,
+                        deviceClass);
+                for (BluetoothDiscoveryListener listener : mListeners) {
+                    listener.onDeviceDiscovered(discovered);
+                }
+
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
+                mScheduler.onDiscoveryStarted();
+
+                // When discovery is finished, let the listeners know
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+                mScheduler.onDiscoveryFinished();
+                for (BluetoothDiscoveryListener listener : mListeners) {
+                    listener.onDiscoveryFinished();
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,73 @@
+package br.com.kanamobi.wrappedbluetoothmessage.discovery;
+
+/**
+ * A device seen during discovery, as kept by {@link DeviceDiscoveryCache}.
+ */
+public class DiscoveredDevice {
+
+    /**
+     * RSSI value used when the broadcast did not carry one
+     */
+    public static final short RSSI_UNKNOWN = Short.MIN_VALUE;
+
+    /**
+     * Device class value used when the broadcast did not carry one
+     */
+    public static final int DEVICE_CLASS_UNKNOWN = -1;
+
+    private final String mAddress;
+    private final String mName;
+    private final short mRssi;
+    private final int mDeviceClass;
+    private final long mLastSeenMillis;
+
+    public DiscoveredDevice(String address, String name, short rssi, int deviceClass,
+                            long lastSeenMillis) {
+        mAddress = address;
+        mName = name;
+        mRssi = rssi;
+        mDeviceClass = deviceClass;
+        mLastSeenMillis = lastSeenMillis;
+    }
+
+    /**
+     * The hardware address, e.g. "00:11:22:AA:BB:CC"
+     */
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * The friendly name, may be null when the remote device did not report one.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Signal strength in dBm, or {@link #RSSI_UNKNOWN}.
+     */
+    public short getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * One of the {@link android.bluetooth.BluetoothClass.Device} constants, or
+     * {@link #DEVICE_CLASS_UNKNOWN}.
+     */
+    public int getDeviceClass() {
+        return mDeviceClass;
+    }
+
+    /**
+     * When the device was last reported, on the cache clock.
+     */
+    public long getLastSeenMillis() {
+        return mLastSeenMillis;
+    }
+
+    @Override
+    public String toString() {
+        return mName + "\n" + mAddress;
+    }
+}
@@ -0,0 +1,325 @@
+package br.com.kanamobi.wrappedbluetoothmessage.discovery;
+
+import android.bluetooth.BluetoothAdapter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothStreamListener;
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+
+/**
+ * Owns the discovery requests of the library.
+ *
+ * Inquiry shares the radio with the RFCOMM links and badly hurts their throughput, so scans
+ * are only started once every watched connection has been quiet for a while, and any scan
+ * (ours or another app's) is cancelled as soon as traffic shows up. Overlapping requests are
+ * coalesced into one scan, and no more than a fixed number of scans run per budget window.
+ * Each caller passes its own token, so one caller cancelling never drops another's request.
+ *
+ * Register it on each {@link br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService}
+ * with addBluetoothStreamListener so it can see the traffic.
+ */
+public class DiscoveryScheduler implements BluetoothStreamListener {
+
+    private static final String TAG = "DiscoveryScheduler";
+    private static final Logger LOG = Logger.get(TAG);
+
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 2000;
+    public static final int DEFAULT_MAX_SCANS = 3;
+    public static final long DEFAULT_BUDGET_WINDOW_MILLIS = 5 * 60 * 1000;
+
+    private final BluetoothAdapter mAdapter;
+    private final Handler mHandler;
+
+    // Written on the main thread, also read by onTraffic on the I/O threads
+    private volatile long mQuietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+
+    // Main thread only
+    private long mBudgetWindowMillis = DEFAULT_BUDGET_WINDOW_MILLIS;
+    private long[] mScanStarts = new long[DEFAULT_MAX_SCANS];
+    private int mNextScanSlot;
+    // Callers waiting for a scan, and the callers our running scan was started for
+    private final Set<Object> mPending = new HashSet<Object>();
+    private final Set<Object> mScanRequesters = new HashSet<Object>();
+    private boolean mOwnScan;
+    private boolean mRequeue;
+
+    private volatile boolean mDiscovering;
+    private volatile long mLastTrafficMillis;
+    private final AtomicBoolean mPreemptPosted = new AtomicBoolean();
+
+    // Guarded by mStatsLock
+    private final Object mStatsLock = new Object();
+    private long mBytesWhileDiscovering;
+    private long mMillisWhileDiscovering;
+    private long mBytesIdle;
+    private long mMillisIdle;
+    private long mLastAccountedMillis;
+
+    public DiscoveryScheduler(BluetoothAdapter adapter) {
+        this(adapter, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * For tests, which override the adapter, clock and Handler methods below.
+     */
+    DiscoveryScheduler(BluetoothAdapter adapter, Handler handler) {
+        mAdapter = adapter;
+        mHandler = handler;
+    }
+
+    /**
+     * How long every connection must stay silent before a scan may start.
+     */
+    public void setQuietPeriod(final long quietPeriodMillis) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mQuietPeriodMillis = quietPeriodMillis;
+                evaluate();
+            }
+        });
+    }
+
+    /**
+     * Allow at most maxScans scans to start within any windowMillis period.
+     */
+    public void setScanBudget(final int maxScans, final long windowMillis) {
+        if (maxScans < 1) {
+            throw new IllegalArgumentException("maxScans must be at least 1");
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mScanStarts = new long[maxScans];
+                mNextScanSlot = 0;
+                mBudgetWindowMillis = windowMillis;
+                evaluate();
+            }
+        });
+    }
+
+    /**
+     * Ask for a scan on behalf of requester. It joins a scan that is already running or
+     * pending, otherwise it starts once the links are quiet and the budget allows it.
+     */
+    public void requestScan(final Object requester) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                // Join our own scan, or its requeue if traffic has already cancelled it
+                if (mOwnScan) {
+                    mScanRequesters.add(requester);
+                    return;
+                }
+                mPending.add(requester);
+                evaluate();
+            }
+        });
+    }
+
+    /**
+     * Drop the request of requester. The pending scan is dropped, and our running scan stopped,
+     * only once no other requester is left waiting for it.
+     */
+    public void cancel(final Object requester) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mPending.remove(requester);
+                if (mPending.isEmpty()) {
+                    removeCallbacks(mEvaluate);
+                }
+                if (mScanRequesters.remove(requester) && mScanRequesters.isEmpty()
+                        && mOwnScan && !mRequeue) {
+                    cancelDiscovery();
+                }
+            }
+        });
+    }
+
+    /**
+     * Bytes per second moved by the watched connections with and without a scan running.
+     */
+    public DiscoveryThroughput getThroughput() {
+        synchronized (mStatsLock) {
+            return new DiscoveryThroughput(mBytesWhileDiscovering, mMillisWhileDiscovering,
+                    mBytesIdle, mMillisIdle);
+        }
+    }
+
+    /**
+     * Called from the ACTION_DISCOVERY_STARTED broadcast, whoever started the scan.
+     */
+    void onDiscoveryStarted() {
+        mDiscovering = true;
+        if (isBusy(now())) {
+            preemptScan();
+        }
+    }
+
+    /**
+     * Called from the ACTION_DISCOVERY_FINISHED broadcast.
+     */
+    void onDiscoveryFinished() {
+        mDiscovering = false;
+        mOwnScan = false;
+        // Queued only now, before this the cancelled scan would still be joined
+        if (mRequeue) {
+            mRequeue = false;
+            mPending.addAll(mScanRequesters);
+        }
+        mScanRequesters.clear();
+        evaluate();
+    }
+
+    private final Runnable mEvaluate = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+
+    private final Runnable mPreempt = new Runnable() {
+        @Override
+        public void run() {
+            mPreemptPosted.set(false);
+            preemptScan();
+        }
+    };
+
+    private void evaluate() {
+        removeCallbacks(mEvaluate);
+        if (mPending.isEmpty()) {
+            return;
+        }
+
+        // Coalesce with the scan that is already running
+        if (mDiscovering || isAdapterDiscovering()) {
+            mPending.clear();
+            return;
+        }
+
+        long now = now();
+        if (isBusy(now)) {
+            postDelayed(mEvaluate, mLastTrafficMillis + mQuietPeriodMillis - now);
+            return;
+        }
+
+        long oldestStart = mScanStarts[mNextScanSlot];
+        if (oldestStart != 0 && now - oldestStart < mBudgetWindowMillis) {
+            LOG.d("scan budget used up, deferring");
+            postDelayed(mEvaluate, oldestStart + mBudgetWindowMillis - now);
+            return;
+        }
+
+        if (startDiscovery()) {
+            mScanStarts[mNextScanSlot] = now;
+            mNextScanSlot = (mNextScanSlot + 1) % mScanStarts.length;
+            mOwnScan = true;
+            mScanRequesters.addAll(mPending);
+            mPending.clear();
+        }
+    }
+
+    /**
+     * Stop the running scan because a link is busy. Our own scans are queued again once the
+     * adapter reports the scan finished.
+     */
+    private void preemptScan() {
+        if (!mDiscovering) {
+            return;
+        }
+        LOG.d("link busy, cancelling discovery");
+        cancelDiscovery();
+        if (mOwnScan) {
+            mRequeue = true;
+        }
+    }
+
+    private boolean isBusy(long now) {
+        return mLastTrafficMillis != 0 && now - mLastTrafficMillis < mQuietPeriodMillis;
+    }
+
+    /**
+     * Runs on the Bluetooth I/O threads.
+     */
+    private void onTraffic(int bytes) {
+        long now = now();
+        boolean discovering = mDiscovering;
+
+        synchronized (mStatsLock) {
+            // Only time with traffic counts, idle gaps are capped at the quiet period
+            long elapsed = mLastAccountedMillis == 0 ? 0
+                    : Math.min(now - mLastAccountedMillis, mQuietPeriodMillis);
+            mLastAccountedMillis = now;
+            if (discovering) {
+                mBytesWhileDiscovering += bytes;
+                mMillisWhileDiscovering += elapsed;
+            } else {
+                mBytesIdle += bytes;
+                mMillisIdle += elapsed;
+            }
+        }
+        mLastTrafficMillis = now;
+
+        if (discovering && mPreemptPosted.compareAndSet(false, true)) {
+            post(mPreempt);
+        }
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    boolean isAdapterDiscovering() {
+        return mAdapter.isDiscovering();
+    }
+
+    boolean startDiscovery() {
+        return mAdapter.startDiscovery();
+    }
+
+    void cancelDiscovery() {
+        mAdapter.cancelDiscovery();
+    }
+
+    void post(Runnable runnable) {
+        mHandler.post(runnable);
+    }
+
+    void postDelayed(Runnable runnable, long delayMillis) {
+        mHandler.postDelayed(runnable, delayMillis);
+    }
+
+    void removeCallbacks(Runnable runnable) {
+        mHandler.removeCallbacks(runnable);
+    }
+
+    @Override
+    public void onBytesRead(byte[] buffer, int length) {
+        onTraffic(length);
+    }
+
+    @Override
+    public void onBytesWritten(byte[] buffer) {
+        onTraffic(buffer.length);
+    }
+
+    @Override
+    public void onStateChanged(int state) {
+    }
+
+    @Override
+    public void onConnectionFailed() {
+    }
+
+    @Override
+    public void onConnectionLost() {
+    }
+}
@@ -0,0 +1,56 @@
+package br.com.kanamobi.wrappedbluetoothmessage.discovery;
+
+/**
+ * Traffic of the watched connections, split by whether a discovery was running.
+ * Only time with traffic is counted, so the rates are comparable.
+ */
+public class DiscoveryThroughput {
+
+    private final long mBytesWhileDiscovering;
+    private final long mMillisWhileDiscovering;
+    private final long mBytesIdle;
+    private final long mMillisIdle;
+
+    public DiscoveryThroughput(long bytesWhileDiscovering, long millisWhileDiscovering,
+                               long bytesIdle, long millisIdle) {
+        mBytesWhileDiscovering = bytesWhileDiscovering;
+        mMillisWhileDiscovering = millisWhileDiscovering;
+        mBytesIdle = bytesIdle;
+        mMillisIdle = millisIdle;
+    }
+
+    public long getBytesWhileDiscovering() {
+        return mBytesWhileDiscovering;
+    }
+
+    public long getMillisWhileDiscovering() {
+        return mMillisWhileDiscovering;
+    }
+
+    public long getBytesIdle() {
+        return mBytesIdle;
+    }
+
+    public long getMillisIdle() {
+        return mMillisIdle;
+    }
+
+    public double getBytesPerSecondWhileDiscovering() {
+        return rate(mBytesWhileDiscovering, mMillisWhileDiscovering);
+    }
+
+    public double getBytesPerSecondIdle() {
+        return rate(mBytesIdle, mMillisIdle);
+    }
+
+    private static double rate(long bytes, long millis) {
+        return millis == 0 ? 0 : bytes * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("discovering: %.0f B/s over %d ms, idle: %.0f B/s over %d ms",
+                getBytesPerSecondWhileDiscovering(), mMillisWhileDiscovering,
+                getBytesPerSecondIdle(), mMillisIdle);
+    }
+}
@@ -0,0 +1,30 @@
+package br.com.kanamobi.wrappedbluetoothmessage.dispatch;
+
+/**
+ * Moves the service callbacks from the Bluetooth threads to the thread the listeners expect,
+ * the main Looper on a phone.
+ */
+public interface CallbackDispatcher {
+
+    /**
+     * Receives the service messages on the callback thread.
+     */
+    interface Target {
+        /**
+         * @param what      one of the Constants.MESSAGE_* values
+         * @param waitNanos how long the message waited in the queue
+         */
+        void onServiceMessage(int what, int arg1, Object obj, long waitNanos);
+    }
+
+    void setTarget(Target target);
+
+    /**
+     * Queue a message for the target.
+     */
+    void dispatch(int what, int arg1, Object obj);
+
+    void post(Runnable runnable);
+
+    void postDelayed(Runnable runnable, long delayMillis);
+}
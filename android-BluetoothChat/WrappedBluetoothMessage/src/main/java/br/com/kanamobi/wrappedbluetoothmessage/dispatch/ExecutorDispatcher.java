@@ -0,0 +1,72 @@
+package br.com.kanamobi.wrappedbluetoothmessage.dispatch;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CallbackDispatcher} on a single background thread, for running the service without a
+ * Looper, for example on a desktop JVM.
+ */
+public class ExecutorDispatcher implements CallbackDispatcher {
+
+    private final ScheduledExecutorService mExecutor;
+    private volatile Target mTarget;
+
+    public ExecutorDispatcher(final String threadName) {
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void setTarget(Target target) {
+        mTarget = target;
+    }
+
+    @Override
+    public void dispatch(final int what, final int arg1, final Object obj) {
+        final long queuedNanos = System.nanoTime();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Target target = mTarget;
+                if (target != null) {
+                    target.onServiceMessage(what, arg1, obj, System.nanoTime() - queuedNanos);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void post(Runnable runnable) {
+        try {
+            mExecutor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            // Shut down, the service threads can still be winding down
+        }
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        try {
+            mExecutor.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down, the service threads can still be winding down
+        }
+    }
+
+    /**
+     * Stop the thread, callbacks that are still queued or come later are dropped.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,60 @@
+package br.com.kanamobi.wrappedbluetoothmessage.dispatch;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * {@link CallbackDispatcher} on a Looper. Messages come from the Message pool, so dispatching
+ * does not allocate. The time a message was queued is kept in arg2, in microseconds of
+ * {@link System#nanoTime()}: the unsigned 32 bit difference covers waits of over an hour.
+ */
+public class HandlerDispatcher implements CallbackDispatcher {
+
+    private final Handler mHandler;
+    private volatile Target mTarget;
+
+    /**
+     * Dispatch on the Looper of the calling thread.
+     */
+    public HandlerDispatcher() {
+        this(Looper.myLooper());
+    }
+
+    public HandlerDispatcher(Looper looper) {
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                Target target = mTarget;
+                if (target != null) {
+                    long waitMicros = (nowMicros() - msg.arg2) & 0xffffffffL;
+                    target.onServiceMessage(msg.what, msg.arg1, msg.obj, waitMicros * 1000L);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void setTarget(Target target) {
+        mTarget = target;
+    }
+
+    @Override
+    public void dispatch(int what, int arg1, Object obj) {
+        mHandler.obtainMessage(what, arg1, nowMicros(), obj).sendToTarget();
+    }
+
+    private static int nowMicros() {
+        return (int) (System.nanoTime() / 1000L);
+    }
+
+    @Override
+    public void post(Runnable runnable) {
+        mHandler.post(runnable);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        mHandler.postDelayed(runnable, delayMillis);
+    }
+}
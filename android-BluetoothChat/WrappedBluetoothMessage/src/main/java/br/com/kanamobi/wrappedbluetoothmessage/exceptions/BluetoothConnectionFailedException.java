@@ -0,0 +1,10 @@
+package br.com.kanamobi.wrappedbluetoothmessage.exceptions;
+
+public class BluetoothConnectionFailedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public BluetoothConnectionFailedException() {
+        super("BluetoothConnectionFailedException: Unable to connect device");
+    }
+}
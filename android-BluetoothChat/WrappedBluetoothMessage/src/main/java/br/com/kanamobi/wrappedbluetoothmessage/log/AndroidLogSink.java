@@ -0,0 +1,17 @@
+package br.com.kanamobi.wrappedbluetoothmessage.log;
+
+import android.util.Log;
+
+/**
+ * Sends log lines to logcat.
+ */
+public class AndroidLogSink implements LogSink {
+
+    @Override
+    public void println(int priority, String tag, String message, Throwable tr) {
+        if (tr != null) {
+            message = message + '\n' + Log.getStackTraceString(tr);
+        }
+        Log.println(priority, tag, message);
+    }
+}
@@ -0,0 +1,11 @@
+package br.com.kanamobi.wrappedbluetoothmessage.log;
+
+/**
+ * Destination for the lines of {@link Logger}. Only called for enabled levels, with the message
+ * already formatted.
+ */
+public interface LogSink {
+
+    void println(int priority, String tag, String message, Throwable tr);
+
+}
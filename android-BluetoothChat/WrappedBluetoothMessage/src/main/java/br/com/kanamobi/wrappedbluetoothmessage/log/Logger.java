@@ -0,0 +1,172 @@
+package br.com.kanamobi.wrappedbluetoothmessage.log;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BuildConfig;
+
+/**
+ * Logging facade for the library.
+ *
+ * The level is checked before anything else, and messages are "{}" patterns that are only
+ * formatted when the level is enabled, so a disabled call costs nothing but the check as long
+ * as its arguments already exist. Numbers go through the long overloads to avoid boxing.
+ *
+ * <pre>
+ * private static final Logger LOG = Logger.get(TAG);
+ * LOG.d("connect to: {}", device);
+ * </pre>
+ */
+public final class Logger {
+
+    private static final ConcurrentHashMap<String, Logger> sLoggers =
+            new ConcurrentHashMap<String, Logger>();
+
+    private static volatile int sMinPriority = BuildConfig.DEBUG ? Log.VERBOSE : Log.INFO;
+    private static volatile LogSink sSink = new AndroidLogSink();
+
+    private final String mTag;
+
+    private Logger(String tag) {
+        mTag = tag;
+    }
+
+    /**
+     * @return the logger for this tag, the tag is interned once here
+     */
+    public static Logger get(String tag) {
+        Logger logger = sLoggers.get(tag);
+        if (logger == null) {
+            Logger created = new Logger(tag.intern());
+            logger = sLoggers.putIfAbsent(tag, created);
+            if (logger == null) {
+                logger = created;
+            }
+        }
+        return logger;
+    }
+
+    /**
+     * Drop everything below this priority, one of the {@link Log} levels.
+     */
+    public static void setMinPriority(int priority) {
+        sMinPriority = priority;
+    }
+
+    public static int getMinPriority() {
+        return sMinPriority;
+    }
+
+    /**
+     * Replace the sink, null turns logging off.
+     */
+    public static void setSink(LogSink sink) {
+        sSink = sink;
+    }
+
+    public String getTag() {
+        return mTag;
+    }
+
+    public boolean isLoggable(int priority) {
+        return priority >= sMinPriority && sSink != null;
+    }
+
+    public void d(String message) {
+        if (isLoggable(Log.DEBUG)) {
+            log(Log.DEBUG, message, 0, null, null, null);
+        }
+    }
+
+    public void d(String format, Object arg) {
+        if (isLoggable(Log.DEBUG)) {
+            log(Log.DEBUG, format, 1, arg, null, null);
+        }
+    }
+
+    public void d(String format, Object arg1, Object arg2) {
+        if (isLoggable(Log.DEBUG)) {
+            log(Log.DEBUG, format, 2, arg1, arg2, null);
+        }
+    }
+
+    public void d(String format, long arg) {
+        if (isLoggable(Log.DEBUG)) {
+            log(Log.DEBUG, format, 1, arg, null, null);
+        }
+    }
+
+    public void d(String format, long arg1, long arg2) {
+        if (isLoggable(Log.DEBUG)) {
+            log(Log.DEBUG, format, 2, arg1, arg2, null);
+        }
+    }
+
+    public void i(String message) {
+        if (isLoggable(Log.INFO)) {
+            log(Log.INFO, message, 0, null, null, null);
+        }
+    }
+
+    public void i(String format, Object arg) {
+        if (isLoggable(Log.INFO)) {
+            log(Log.INFO, format, 1, arg, null, null);
+        }
+    }
+
+    public void w(String message) {
+        if (isLoggable(Log.WARN)) {
+            log(Log.WARN, message, 0, null, null, null);
+        }
+    }
+
+    public void w(String format, Object arg) {
+        if (isLoggable(Log.WARN)) {
+            log(Log.WARN, format, 1, arg, null, null);
+        }
+    }
+
+    public void e(String message, Throwable tr) {
+        if (isLoggable(Log.ERROR)) {
+            log(Log.ERROR, message, 0, null, null, tr);
+        }
+    }
+
+    public void e(String format, Object arg, Throwable tr) {
+        if (isLoggable(Log.ERROR)) {
+            log(Log.ERROR, format, 1, arg, null, tr);
+        }
+    }
+
+    private void log(int priority, String format, int argCount, Object arg1, Object arg2,
+                     Throwable tr) {
+        LogSink sink = sSink;
+        if (sink == null) {
+            return;
+        }
+        String message = argCount == 0 ? format : format(format, argCount, arg1, arg2);
+        sink.println(priority, mTag, message, tr);
+    }
+
+    /**
+     * Replace each "{}" in the pattern with the next argument. Extra placeholders are kept as is.
+     */
+    static String format(String format, int argCount, Object arg1, Object arg2) {
+        StringBuilder builder = new StringBuilder(format.length() + 32);
+        int start = 0;
+        int used = 0;
+        while (used < argCount) {
+            int index = format.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            builder.append(format, start, index);
+            builder.append(used == 0 ? arg1 : arg2);
+            start = index + 2;
+            used++;
+        }
+        builder.append(format, start, format.length());
+        return builder.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters of one connection, or of the whole service. Updates are lock-free and do
+ * not allocate.
+ */
+public class ConnectionMetrics {
+
+    private final String mDeviceAddress;
+    private final long mStartedAtMillis;
+
+    private final AtomicLong mBytesIn = new AtomicLong();
+    private final AtomicLong mBytesOut = new AtomicLong();
+    private final AtomicLong mMessagesIn = new AtomicLong();
+    private final AtomicLong mMessagesOut = new AtomicLong();
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram mSendLatency = new LatencyHistogram();
+    private final LatencyHistogram mDispatchLatency = new LatencyHistogram();
+
+    public ConnectionMetrics(String deviceAddress, long startedAtMillis) {
+        mDeviceAddress = deviceAddress;
+        mStartedAtMillis = startedAtMillis;
+    }
+
+    void onRead(int bytes) {
+        mBytesIn.addAndGet(bytes);
+    }
+
+    void onWrite(int bytes, long latencyNanos) {
+        mBytesOut.addAndGet(bytes);
+        mSendLatency.record(latencyNanos);
+    }
+
+    void onMessageIn() {
+        mMessagesIn.incrementAndGet();
+    }
+
+    void onMessageOut() {
+        mMessagesOut.incrementAndGet();
+    }
+
+    void onEnqueued() {
+        int depth = mQueueDepth.incrementAndGet();
+        int max;
+        do {
+            max = mMaxQueueDepth.get();
+        } while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth));
+    }
+
+    void onDispatched(long waitNanos) {
+        mQueueDepth.decrementAndGet();
+        mDispatchLatency.record(waitNanos);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Point in time copy of a {@link ConnectionMetrics}.
+     */
+    public static class Snapshot {
+        private final String mDeviceAddress;
+        private final long mStartedAtMillis;
+        private final long mBytesIn;
+        private final long mBytesOut;
+        private final long mMessagesIn;
+        private final long mMessagesOut;
+        private final int mQueueDepth;
+        private final int mMaxQueueDepth;
+        private final LatencyHistogram.Snapshot mSendLatency;
+        private final LatencyHistogram.Snapshot mDispatchLatency;
+
+        Snapshot(ConnectionMetrics metrics) {
+            mDeviceAddress = metrics.mDeviceAddress;
+            mStartedAtMillis = metrics.mStartedAtMillis;
+            mBytesIn = metrics.mBytesIn.get();
+            mBytesOut = metrics.mBytesOut.get();
+            mMessagesIn = metrics.mMessagesIn.get();
+            mMessagesOut = metrics.mMessagesOut.get();
+            mQueueDepth = metrics.mQueueDepth.get();
+            mMaxQueueDepth = metrics.mMaxQueueDepth.get();
+            mSendLatency = metrics.mSendLatency.snapshot();
+            mDispatchLatency = metrics.mDispatchLatency.snapshot();
+        }
+
+        /**
+         * Remote address, null for the service-wide totals.
+         */
+        public String getDeviceAddress() {
+            return mDeviceAddress;
+        }
+
+        /**
+         * When counting started, in {@link System#currentTimeMillis()} time.
+         */
+        public long getStartedAtMillis() {
+            return mStartedAtMillis;
+        }
+
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        /**
+         * Text messages received, without duplicates. Attachment frames are not counted.
+         */
+        public long getMessagesIn() {
+            return mMessagesIn;
+        }
+
+        /**
+         * Text messages sent. Attachment frames are not counted.
+         */
+        public long getMessagesOut() {
+            return mMessagesOut;
+        }
+
+        /**
+         * Reads and writes posted to the main thread but not handled yet.
+         */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        /**
+         * Time spent writing each frame to the socket.
+         */
+        public LatencyHistogram.Snapshot getSendLatency() {
+            return mSendLatency;
+        }
+
+        /**
+         * Time each read or write waited in the main thread queue.
+         */
+        public LatencyHistogram.Snapshot getDispatchLatency() {
+            return mDispatchLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "in=" + mMessagesIn + "/" + mBytesIn + "B out=" + mMessagesOut + "/"
+                    + mBytesOut + "B queue=" + mQueueDepth + " (max " + mMaxQueueDepth + ")"
+                    + " send[" + mSendLatency + "] dispatch[" + mDispatchLatency + "]";
+        }
+    }
+}
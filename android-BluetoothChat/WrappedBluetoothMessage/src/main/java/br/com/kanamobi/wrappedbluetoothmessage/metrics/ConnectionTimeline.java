@@ -0,0 +1,181 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size ring of timestamped connection lifecycle events, for finding out where the time
+ * of a slow connect or reconnect went. Every {@link #LISTEN} or {@link #CONNECT_REQUESTED}
+ * starts a new attempt and the events after it carry that attempt number.
+ *
+ * Only lifecycle points are recorded, never per read or write, so the lock is not contended.
+ * {@link #dump()} gives a compact binary copy that {@link TimelineAnalyzer} turns into
+ * phase-by-phase latencies.
+ */
+public class ConnectionTimeline {
+
+    public static final int LISTEN = 1;
+    public static final int CONNECT_REQUESTED = 2;
+    public static final int ACCEPT_STARTED = 3;
+    public static final int ACCEPT_RETURNED = 4;
+    public static final int DISCOVERY_CANCELLED = 5;
+    public static final int CONNECT_ENTERED = 6;
+    public static final int CONNECT_RETURNED = 7;
+    public static final int CONNECTED = 8;
+    public static final int FIRST_BYTE = 9;
+    public static final int CONNECTION_LOST = 10;
+    public static final int CONNECTION_FAILED = 11;
+    public static final int STOPPED = 12;
+
+    private static final String[] NAMES = {
+            "?", "listen", "connect requested", "accept started", "accept returned",
+            "discovery cancelled", "connect entered", "connect returned", "connected",
+            "first byte", "connection lost", "connection failed", "stopped"
+    };
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    static final int DUMP_MAGIC = 0x4254544c; // "BTTL"
+    static final byte DUMP_VERSION = 1;
+    // [i64 nanos][u8 event][i32 attempt]
+    private static final int DUMP_RECORD = 13;
+    // [i32 magic][u8 version][i64 wall clock millis][i64 nanos][i32 count]
+    private static final int DUMP_HEADER = 25;
+
+    // Guarded by this
+    private final long[] mTimes;
+    private final byte[] mEvents;
+    private final int[] mAttempts;
+    private long mWritten;
+    private int mAttempt;
+
+    public ConnectionTimeline(int capacity) {
+        mTimes = new long[capacity];
+        mEvents = new byte[capacity];
+        mAttempts = new int[capacity];
+    }
+
+    public ConnectionTimeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Record the event that opens a new attempt.
+     */
+    public synchronized void beginAttempt(int event) {
+        mAttempt++;
+        record(event);
+    }
+
+    /**
+     * Record an event of the current attempt.
+     */
+    public synchronized void record(int event) {
+        int index = (int) (mWritten % mTimes.length);
+        mTimes[index] = System.nanoTime();
+        mEvents[index] = (byte) event;
+        mAttempts[index] = mAttempt;
+        mWritten++;
+    }
+
+    /**
+     * Events still in the ring, oldest first.
+     */
+    public synchronized List<Event> getEvents() {
+        int count = (int) Math.min(mWritten, mTimes.length);
+        List<Event> events = new ArrayList<Event>(count);
+        for (long i = mWritten - count; i < mWritten; i++) {
+            int index = (int) (i % mTimes.length);
+            events.add(new Event(mTimes[index], mEvents[index], mAttempts[index]));
+        }
+        return events;
+    }
+
+    /**
+     * Binary copy of the events still in the ring, with the clocks at dump time so the
+     * timestamps can be matched to other logs.
+     */
+    public byte[] dump() {
+        List<Event> events = getEvents();
+        ByteBuffer buffer = ByteBuffer.allocate(DUMP_HEADER + events.size() * DUMP_RECORD);
+        buffer.putInt(DUMP_MAGIC);
+        buffer.put(DUMP_VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(System.nanoTime());
+        buffer.putInt(events.size());
+        for (Event event : events) {
+            buffer.putLong(event.mTimeNanos);
+            buffer.put((byte) event.mEvent);
+            buffer.putInt(event.mAttempt);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Read back the events of a {@link #dump()}.
+     *
+     * @throws IllegalArgumentException if this is not a timeline dump
+     */
+    public static List<Event> parse(byte[] dump) {
+        ByteBuffer buffer = ByteBuffer.wrap(dump);
+        if (dump.length < DUMP_HEADER || buffer.getInt() != DUMP_MAGIC
+                || buffer.get() != DUMP_VERSION) {
+            throw new IllegalArgumentException("Not a connection timeline dump");
+        }
+        buffer.getLong();
+        buffer.getLong();
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() < count * DUMP_RECORD) {
+            throw new IllegalArgumentException("Truncated connection timeline dump");
+        }
+
+        List<Event> events = new ArrayList<Event>(count);
+        for (int i = 0; i < count; i++) {
+            long time = buffer.getLong();
+            int event = buffer.get();
+            int attempt = buffer.getInt();
+            events.add(new Event(time, event, attempt));
+        }
+        return events;
+    }
+
+    public static String eventName(int event) {
+        return event > 0 && event < NAMES.length ? NAMES[event] : NAMES[0];
+    }
+
+    /**
+     * One recorded lifecycle event.
+     */
+    public static class Event {
+        private final long mTimeNanos;
+        private final int mEvent;
+        private final int mAttempt;
+
+        public Event(long timeNanos, int event, int attempt) {
+            mTimeNanos = timeNanos;
+            mEvent = event;
+            mAttempt = attempt;
+        }
+
+        /**
+         * {@link System#nanoTime()} when it happened.
+         */
+        public long getTimeNanos() {
+            return mTimeNanos;
+        }
+
+        public int getEvent() {
+            return mEvent;
+        }
+
+        public int getAttempt() {
+            return mAttempt;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + mAttempt + " " + eventName(mEvent) + " @" + mTimeNanos;
+        }
+    }
+}
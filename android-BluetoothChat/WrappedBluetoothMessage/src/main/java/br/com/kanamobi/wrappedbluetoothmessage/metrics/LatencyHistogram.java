@@ -0,0 +1,120 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets from 50 microseconds to 10 seconds.
+ * Recording does not allocate, so it can stay on in the I/O paths.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets in nanoseconds. One more bucket catches everything above.
+     */
+    private static final long[] BOUNDS_NANOS = {
+            50000L, 100000L, 250000L, 500000L,
+            1000000L, 2500000L, 5000000L, 10000000L, 25000000L, 50000000L,
+            100000000L, 250000000L, 500000000L,
+            1000000000L, 2500000000L, 5000000000L, 10000000000L
+    };
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSumNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        mCounts.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSumNanos.addAndGet(nanos);
+
+        long max;
+        do {
+            max = mMaxNanos.get();
+        } while (nanos > max && !mMaxNanos.compareAndSet(max, nanos));
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mCount.get(), mSumNanos.get(), mMaxNanos.get());
+    }
+
+    /**
+     * Point in time copy of a {@link LatencyHistogram}.
+     */
+    public static class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSumNanos;
+        private final long mMaxNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+            mCounts = counts;
+            mCount = count;
+            mSumNanos = sumNanos;
+            mMaxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mSumNanos / mCount;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, capped at the max seen.
+         *
+         * @param percentile between 0 and 100
+         */
+        public long getPercentileNanos(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank && mCounts[i] > 0) {
+                    return i < BOUNDS_NANOS.length ? Math.min(BOUNDS_NANOS[i], mMaxNanos) : mMaxNanos;
+                }
+            }
+            return mMaxNanos;
+        }
+
+        /**
+         * Bucket counts, the last one holds everything above the largest bound.
+         */
+        public long[] getBucketCounts() {
+            return mCounts.clone();
+        }
+
+        public static long[] getBucketBoundsNanos() {
+            return BOUNDS_NANOS.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", mCount,
+                    getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6,
+                    getPercentileNanos(99) / 1e6, mMaxNanos / 1e6);
+        }
+    }
+}
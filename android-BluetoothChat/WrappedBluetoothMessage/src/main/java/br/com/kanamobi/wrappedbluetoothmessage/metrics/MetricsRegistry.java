@@ -0,0 +1,196 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a {@link br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService}: totals
+ * for the service plus counters for the current connection. Cheap enough to leave on, nothing
+ * on the read and write paths allocates.
+ */
+public class MetricsRegistry {
+
+    private final ConnectionMetrics mTotal = new ConnectionMetrics(null, System.currentTimeMillis());
+    private volatile ConnectionMetrics mConnection;
+
+    private final LatencyHistogram mConnectLatency = new LatencyHistogram();
+    private final AtomicLong mConnections = new AtomicLong();
+    private final AtomicLong mConnectionFailures = new AtomicLong();
+    private final AtomicLong mConnectionsLost = new AtomicLong();
+    private final AtomicLong mDuplicates = new AtomicLong();
+
+    /**
+     * Start counting for a new connection.
+     */
+    public void onConnected(String deviceAddress) {
+        mConnections.incrementAndGet();
+        mConnection = new ConnectionMetrics(deviceAddress, System.currentTimeMillis());
+    }
+
+    public void onConnectLatency(long nanos) {
+        mConnectLatency.record(nanos);
+    }
+
+    public void onConnectionFailed() {
+        mConnectionFailures.incrementAndGet();
+    }
+
+    public void onConnectionLost() {
+        mConnectionsLost.incrementAndGet();
+    }
+
+    /**
+     * A message was dropped because it had already been received.
+     */
+    public void onDuplicate() {
+        mDuplicates.incrementAndGet();
+    }
+
+    /**
+     * Bytes read from the socket, whatever frames they hold.
+     */
+    public void onRead(int bytes) {
+        mTotal.onRead(bytes);
+        ConnectionMetrics connection = mConnection;
+        if (connection != null) {
+            connection.onRead(bytes);
+        }
+    }
+
+    /**
+     * One frame written to the socket.
+     */
+    public void onWrite(int bytes, long latencyNanos) {
+        mTotal.onWrite(bytes, latencyNanos);
+        ConnectionMetrics connection = mConnection;
+        if (connection != null) {
+            connection.onWrite(bytes, latencyNanos);
+        }
+    }
+
+    /**
+     * A text message was received and was not a duplicate.
+     */
+    public void onMessageIn() {
+        mTotal.onMessageIn();
+        ConnectionMetrics connection = mConnection;
+        if (connection != null) {
+            connection.onMessageIn();
+        }
+    }
+
+    /**
+     * A text message was written.
+     */
+    public void onMessageOut() {
+        mTotal.onMessageOut();
+        ConnectionMetrics connection = mConnection;
+        if (connection != null) {
+            connection.onMessageOut();
+        }
+    }
+
+    /**
+     * A read or write was posted to the main thread. Returns the connection it was counted
+     * against, to hand back to {@link #onDispatched} even if a new connection is up by then.
+     */
+    public ConnectionMetrics onEnqueued() {
+        mTotal.onEnqueued();
+        ConnectionMetrics connection = mConnection;
+        if (connection != null) {
+            connection.onEnqueued();
+        }
+        return connection;
+    }
+
+    /**
+     * A posted read or write was handled after waiting waitNanos in the queue.
+     *
+     * @param connection what {@link #onEnqueued} returned for it
+     */
+    public void onDispatched(ConnectionMetrics connection, long waitNanos) {
+        mTotal.onDispatched(waitNanos);
+        if (connection != null) {
+            connection.onDispatched(waitNanos);
+        }
+    }
+
+    public Snapshot snapshot() {
+        ConnectionMetrics connection = mConnection;
+        return new Snapshot(mTotal.snapshot(), connection != null ? connection.snapshot() : null,
+                mConnectLatency.snapshot(), mConnections.get(), mConnectionFailures.get(),
+                mConnectionsLost.get(), mDuplicates.get());
+    }
+
+    /**
+     * Point in time copy of a {@link MetricsRegistry}.
+     */
+    public static class Snapshot {
+        private final ConnectionMetrics.Snapshot mTotal;
+        private final ConnectionMetrics.Snapshot mConnection;
+        private final LatencyHistogram.Snapshot mConnectLatency;
+        private final long mConnections;
+        private final long mConnectionFailures;
+        private final long mConnectionsLost;
+        private final long mDuplicates;
+
+        Snapshot(ConnectionMetrics.Snapshot total, ConnectionMetrics.Snapshot connection,
+                 LatencyHistogram.Snapshot connectLatency, long connections,
+                 long connectionFailures, long connectionsLost, long duplicates) {
+            mTotal = total;
+            mConnection = connection;
+            mConnectLatency = connectLatency;
+            mConnections = connections;
+            mConnectionFailures = connectionFailures;
+            mConnectionsLost = connectionsLost;
+            mDuplicates = duplicates;
+        }
+
+        /**
+         * Counters since the service was created.
+         */
+        public ConnectionMetrics.Snapshot getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * Counters of the current or last connection, null if there was none.
+         */
+        public ConnectionMetrics.Snapshot getConnection() {
+            return mConnection;
+        }
+
+        /**
+         * Time from connect() until the link was up, for outgoing connections.
+         */
+        public LatencyHistogram.Snapshot getConnectLatency() {
+            return mConnectLatency;
+        }
+
+        public long getConnections() {
+            return mConnections;
+        }
+
+        public long getConnectionFailures() {
+            return mConnectionFailures;
+        }
+
+        public long getConnectionsLost() {
+            return mConnectionsLost;
+        }
+
+        /**
+         * Messages dropped because they had already been received.
+         */
+        public long getDuplicates() {
+            return mDuplicates;
+        }
+
+        @Override
+        public String toString() {
+            return "connections=" + mConnections + " failed=" + mConnectionFailures
+                    + " lost=" + mConnectionsLost + " duplicates=" + mDuplicates
+                    + " connect[" + mConnectLatency + "]"
+                    + "\ntotal: " + mTotal + "\nconnection: " + mConnection;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency distributions per phase of a {@link ConnectionTimeline}.
+ *
+ * Phases are the time between consecutive events of the same attempt, for example
+ * "connect entered -> connect returned", plus two totals: from the event that opened an
+ * attempt to its connection, and from a lost connection to the next one (the reconnect).
+ *
+ * Runs on a desktop JVM against files written from {@link ConnectionTimeline#dump()}. Each dump
+ * is analyzed on its own, attempt numbers and clocks start over in every process:
+ * <pre>
+ * java br.com.kanamobi.wrappedbluetoothmessage.metrics.TimelineAnalyzer timeline.bin
+ * </pre>
+ */
+public class TimelineAnalyzer {
+
+    public static final String RECONNECT = "reconnect (connection lost -> connected)";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TimelineAnalyzer <timeline dump>...");
+            System.exit(1);
+        }
+
+        List<List<ConnectionTimeline.Event>> dumps =
+                new ArrayList<List<ConnectionTimeline.Event>>();
+        for (String arg : args) {
+            dumps.add(ConnectionTimeline.parse(readFile(new File(arg))));
+        }
+        System.out.print(format(analyzeDumps(dumps)));
+    }
+
+    /**
+     * Group the time between events into phases, in the order they first show up.
+     */
+    public static Map<String, PhaseStats> analyze(List<ConnectionTimeline.Event> events) {
+        Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>();
+        collect(events, samples);
+        return toPhases(samples);
+    }
+
+    /**
+     * Like {@link #analyze(List)} with the phases of several dumps put together. No phase
+     * spans two dumps.
+     */
+    public static Map<String, PhaseStats> analyzeDumps(
+            List<List<ConnectionTimeline.Event>> dumps) {
+        Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>();
+        for (List<ConnectionTimeline.Event> events : dumps) {
+            collect(events, samples);
+        }
+        return toPhases(samples);
+    }
+
+    private static void collect(List<ConnectionTimeline.Event> events,
+                                Map<String, List<Long>> samples) {
+        Map<Integer, ConnectionTimeline.Event> firstOfAttempt =
+                new HashMap<Integer, ConnectionTimeline.Event>();
+        ConnectionTimeline.Event previous = null;
+        ConnectionTimeline.Event lost = null;
+
+        for (ConnectionTimeline.Event event : events) {
+            Integer attempt = event.getAttempt();
+            if (!firstOfAttempt.containsKey(attempt)) {
+                firstOfAttempt.put(attempt, event);
+            }
+
+            // Both accept threads report the same events, only count the first one
+            if (previous != null && previous.getAttempt() == event.getAttempt()
+                    && previous.getEvent() != event.getEvent()) {
+                add(samples, ConnectionTimeline.eventName(previous.getEvent()) + " -> "
+                        + ConnectionTimeline.eventName(event.getEvent()),
+                        event.getTimeNanos() - previous.getTimeNanos());
+            }
+
+            if (event.getEvent() == ConnectionTimeline.CONNECTED) {
+                ConnectionTimeline.Event first = firstOfAttempt.get(attempt);
+                if (first != event) {
+                    add(samples, "attempt (" + ConnectionTimeline.eventName(first.getEvent())
+                            + " -> connected)", event.getTimeNanos() - first.getTimeNanos());
+                }
+                if (lost != null) {
+                    add(samples, RECONNECT, event.getTimeNanos() - lost.getTimeNanos());
+                    lost = null;
+                }
+            } else if (event.getEvent() == ConnectionTimeline.CONNECTION_LOST) {
+                lost = event;
+            } else if (event.getEvent() == ConnectionTimeline.STOPPED) {
+                // Stopping on purpose is not a reconnect
+                lost = null;
+            }
+            previous = event;
+        }
+    }
+
+    private static Map<String, PhaseStats> toPhases(Map<String, List<Long>> samples) {
+        Map<String, PhaseStats> phases = new LinkedHashMap<String, PhaseStats>();
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+            phases.put(entry.getKey(), new PhaseStats(entry.getValue()));
+        }
+        return phases;
+    }
+
+    /**
+     * One line per phase, times in milliseconds.
+     */
+    public static String format(Map<String, PhaseStats> phases) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%-50s %6s %9s %9s %9s %9s %9s%n", "phase (ms)",
+                "n", "min", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            builder.append(String.format(Locale.US, "%-50s %6d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    entry.getKey(), stats.getCount(), stats.getMinNanos() / 1e6,
+                    stats.getPercentileNanos(50) / 1e6, stats.getPercentileNanos(90) / 1e6,
+                    stats.getPercentileNanos(99) / 1e6, stats.getMaxNanos() / 1e6));
+        }
+        return builder.toString();
+    }
+
+    private static void add(Map<String, List<Long>> samples, String phase, long nanos) {
+        List<Long> values = samples.get(phase);
+        if (values == null) {
+            values = new ArrayList<Long>();
+            samples.put(phase, values);
+        }
+        values.add(nanos);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Exact distribution of one phase. Timelines are small, so every sample is kept.
+     */
+    public static class PhaseStats {
+        private final long[] mSorted;
+
+        PhaseStats(List<Long> samples) {
+            mSorted = new long[samples.size()];
+            for (int i = 0; i < mSorted.length; i++) {
+                mSorted[i] = samples.get(i);
+            }
+            Arrays.sort(mSorted);
+        }
+
+        public int getCount() {
+            return mSorted.length;
+        }
+
+        public long getMinNanos() {
+            return mSorted.length == 0 ? 0 : mSorted[0];
+        }
+
+        public long getMaxNanos() {
+            return mSorted.length == 0 ? 0 : mSorted[mSorted.length - 1];
+        }
+
+        /**
+         * Nearest-rank percentile.
+         *
+         * @param percentile between 0 and 100
+         */
+        public long getPercentileNanos(double percentile) {
+            if (mSorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(mSorted.length * percentile / 100.0);
+            return mSorted[Math.max(0, Math.min(rank, mSorted.length) - 1)];
+        }
+    }
+}
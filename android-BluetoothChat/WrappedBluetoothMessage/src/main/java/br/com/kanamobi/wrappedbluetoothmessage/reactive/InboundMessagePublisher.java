@@ -0,0 +1,221 @@
+package br.com.kanamobi.wrappedbluetoothmessage.reactive;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unicast {@link Publisher} for the text messages read from the connected socket, each one the
+ * UTF-8 bytes of one message, without its framing or id.
+ *
+ * Demand is counted in messages. While a subscriber is attached the read thread only pulls from
+ * the socket, and only hands over the next message, when there is outstanding demand, so a slow
+ * subscriber leaves the data in the RFCOMM buffers and the remote sender gets throttled by the
+ * link itself. Without a subscriber reads are not gated at all.
+ */
+public class InboundMessagePublisher implements Publisher<byte[]> {
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock
+    private InboundSubscription mSubscription;
+
+    @Override
+    public void subscribe(Subscriber<? super byte[]> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber == null");
+        }
+
+        InboundSubscription subscription = new InboundSubscription(subscriber);
+        boolean accepted;
+        synchronized (mLock) {
+            accepted = mSubscription == null;
+            if (accepted) {
+                mSubscription = subscription;
+            }
+        }
+
+        subscriber.onSubscribe(subscription);
+        if (!accepted) {
+            subscription.terminate(
+                    new IllegalStateException("Publisher allows only one subscriber"));
+        }
+    }
+
+    /**
+     * Block the read thread until the subscriber asked for more, or there is no subscriber.
+     *
+     * @param timeoutMillis how long to wait before giving the caller a chance to re-check its state
+     * @return true when it is fine to read from the socket
+     */
+    public boolean awaitDemand(long timeoutMillis) throws InterruptedException {
+        synchronized (mLock) {
+            if (mSubscription == null || mSubscription.demand.get() > 0) {
+                return true;
+            }
+            mLock.wait(timeoutMillis);
+            return mSubscription == null || mSubscription.demand.get() > 0;
+        }
+    }
+
+    /**
+     * Hand a message just read to the subscriber, after {@link #awaitDemand(long)} returned true.
+     * Only called from the read thread.
+     */
+    public void publish(byte[] buffer, int offset, int length) {
+        InboundSubscription subscription;
+        synchronized (mLock) {
+            subscription = mSubscription;
+        }
+        if (subscription == null) {
+            return;
+        }
+
+        // A subscriber that attached after the demand was checked has not asked for it yet. It
+        // is treated like a message read before the subscription existed.
+        long current;
+        do {
+            current = subscription.demand.get();
+            if (current <= 0) {
+                return;
+            }
+        } while (current != Long.MAX_VALUE
+                && !subscription.demand.compareAndSet(current, current - 1));
+
+        synchronized (mLock) {
+            if (subscription.done) {
+                return;
+            }
+            subscription.emitting = true;
+        }
+        try {
+            subscription.subscriber.onNext(Arrays.copyOfRange(buffer, offset, offset + length));
+        } finally {
+            subscription.afterEmit();
+        }
+    }
+
+    /**
+     * Complete the current subscriber, called when the service is stopped. If the read thread
+     * is inside onNext, it signals onComplete once that returns (rule 1.3).
+     */
+    public void complete() {
+        InboundSubscription subscription;
+        synchronized (mLock) {
+            subscription = mSubscription;
+            mLock.notifyAll();
+        }
+        if (subscription != null) {
+            subscription.terminate(null);
+        }
+    }
+
+    private void detach(InboundSubscription subscription) {
+        synchronized (mLock) {
+            if (mSubscription == subscription) {
+                mSubscription = null;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    private void signalDemand() {
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    private class InboundSubscription implements Subscription {
+        final Subscriber<? super byte[]> subscriber;
+        final AtomicLong demand = new AtomicLong();
+        // Guarded by mLock. Done once cancelled or terminated, no onNext after that
+        boolean done;
+        boolean emitting;
+        // The terminal signal waiting for onNext to return, only set while emitting
+        boolean terminalPending;
+        Throwable pendingError;
+
+        InboundSubscription(Subscriber<? super byte[]> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Signal onComplete, or onError if error is not null, unless the subscription is done
+         * already. Deferred to the thread in onNext if there is one, signals stay serial.
+         */
+        void terminate(Throwable error) {
+            synchronized (mLock) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                if (mSubscription == this) {
+                    mSubscription = null;
+                }
+                mLock.notifyAll();
+                if (emitting) {
+                    terminalPending = true;
+                    pendingError = error;
+                    return;
+                }
+            }
+            signalTerminal(error);
+        }
+
+        void afterEmit() {
+            Throwable error;
+            synchronized (mLock) {
+                emitting = false;
+                if (!terminalPending) {
+                    return;
+                }
+                terminalPending = false;
+                error = pendingError;
+                pendingError = null;
+            }
+            signalTerminal(error);
+        }
+
+        private void signalTerminal(Throwable error) {
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                terminate(new IllegalArgumentException(
+                        "Rule 3.9: request must be positive, was " + n));
+                return;
+            }
+
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n;
+                if (next < 0) {
+                    // Saturate, Long.MAX_VALUE means unbounded
+                    next = Long.MAX_VALUE;
+                }
+            } while (!demand.compareAndSet(current, next));
+            signalDemand();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (mLock) {
+                done = true;
+                terminalPending = false;
+                pendingError = null;
+            }
+            detach(this);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package br.com.kanamobi.wrappedbluetoothmessage.trace;
+
+import android.os.Trace;
+
+/**
+ * Emits {@link Trace} sections, so they show up in systrace and Perfetto captures.
+ */
+public class AndroidTracer implements Tracer {
+
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+}
@@ -0,0 +1,80 @@
+package br.com.kanamobi.wrappedbluetoothmessage.trace;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import br.com.kanamobi.wrappedbluetoothmessage.metrics.LatencyHistogram;
+
+/**
+ * Plain JVM {@link Tracer} that records how long each section took into a
+ * {@link LatencyHistogram} per section name. Meant for tests and the loopback harness.
+ */
+public class SectionTimingTracer implements Tracer {
+
+    private static final int MAX_DEPTH = 32;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ThreadLocal<SectionStack> mStacks = new ThreadLocal<SectionStack>() {
+        @Override
+        protected SectionStack initialValue() {
+            return new SectionStack();
+        }
+    };
+
+    @Override
+    public void beginSection(String name) {
+        SectionStack stack = mStacks.get();
+        if (stack.depth < MAX_DEPTH) {
+            stack.names[stack.depth] = name;
+            stack.starts[stack.depth] = System.nanoTime();
+        }
+        stack.depth++;
+    }
+
+    @Override
+    public void endSection() {
+        long now = System.nanoTime();
+        SectionStack stack = mStacks.get();
+        if (stack.depth == 0) {
+            return;
+        }
+        stack.depth--;
+        if (stack.depth < MAX_DEPTH) {
+            histogram(stack.names[stack.depth]).record(now - stack.starts[stack.depth]);
+            stack.names[stack.depth] = null;
+        }
+    }
+
+    /**
+     * Durations recorded so far, by section name.
+     */
+    public Map<String, LatencyHistogram.Snapshot> getTimings() {
+        Map<String, LatencyHistogram.Snapshot> timings =
+                new HashMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : mHistograms.entrySet()) {
+            timings.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return timings;
+    }
+
+    private LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    private static class SectionStack {
+        final String[] names = new String[MAX_DEPTH];
+        final long[] starts = new long[MAX_DEPTH];
+        int depth;
+    }
+}
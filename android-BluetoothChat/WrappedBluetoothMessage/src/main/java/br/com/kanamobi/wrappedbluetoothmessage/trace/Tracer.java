@@ -0,0 +1,18 @@
+package br.com.kanamobi.wrappedbluetoothmessage.trace;
+
+/**
+ * Receives the trace sections of the library, see {@link Traces}.
+ */
+public interface Tracer {
+
+    /**
+     * Open a section on the calling thread. Sections nest and must be closed on the same thread.
+     */
+    void beginSection(String name);
+
+    /**
+     * Close the most recent section opened on the calling thread.
+     */
+    void endSection();
+
+}
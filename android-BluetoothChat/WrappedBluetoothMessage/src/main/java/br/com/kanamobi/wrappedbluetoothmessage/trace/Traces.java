@@ -0,0 +1,59 @@
+package br.com.kanamobi.wrappedbluetoothmessage.trace;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BuildConfig;
+
+/**
+ * Entry point for the trace sections around the hot paths of the library.
+ *
+ * Sections go to {@link AndroidTracer} unless another {@link Tracer} is installed, for example
+ * {@link SectionTimingTracer} on the JVM. Building with the TRACE_ENABLED build config field set
+ * to false turns every call into dead code.
+ */
+public final class Traces {
+
+    public static final boolean ENABLED = BuildConfig.TRACE_ENABLED;
+
+    // Section names, kept as constants so tracing never builds strings
+    public static final String CONNECT = "BtMessage:connect";
+    public static final String ACCEPT = "BtMessage:accept";
+    public static final String READ = "BtMessage:read";
+    public static final String PUBLISH = "BtMessage:publish";
+    public static final String DISPATCH = "BtMessage:dispatch";
+    public static final String DECODE = "BtMessage:decode";
+    public static final String LISTENER = "BtMessage:listener";
+    public static final String WRITE = "BtMessage:write";
+
+    private static volatile Tracer sTracer = new AndroidTracer();
+
+    private Traces() {
+    }
+
+    /**
+     * Replace the tracer, null drops every section.
+     */
+    public static void setTracer(Tracer tracer) {
+        sTracer = tracer;
+    }
+
+    public static Tracer getTracer() {
+        return sTracer;
+    }
+
+    public static void begin(String name) {
+        if (ENABLED) {
+            Tracer tracer = sTracer;
+            if (tracer != null) {
+                tracer.beginSection(name);
+            }
+        }
+    }
+
+    public static void end() {
+        if (ENABLED) {
+            Tracer tracer = sTracer;
+            if (tracer != null) {
+                tracer.endSection();
+            }
+        }
+    }
+}
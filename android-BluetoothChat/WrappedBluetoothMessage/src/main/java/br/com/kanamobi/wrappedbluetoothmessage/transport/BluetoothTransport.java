@@ -0,0 +1,140 @@
+package br.com.kanamobi.wrappedbluetoothmessage.transport;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * {@link MessageTransport} over Bluetooth RFCOMM.
+ */
+public class BluetoothTransport implements MessageTransport {
+
+    // Name for the SDP records when creating server sockets, "Secure" or "Insecure" is appended
+    public static final String DEFAULT_NAME = "BluetoothChat";
+
+    // Unique UUIDs for this application
+    public static final UUID DEFAULT_UUID_SECURE =
+            UUID.fromString("fa87c0d0-afac-11de-8a39-0800200c9a66");
+    public static final UUID DEFAULT_UUID_INSECURE =
+            UUID.fromString("8ce255c0-200a-11e0-ac64-0800200c9a66");
+
+    private final BluetoothAdapter mAdapter;
+    private final String mName;
+    private final UUID mSecureUuid;
+    private final UUID mInsecureUuid;
+
+    public BluetoothTransport(BluetoothAdapter adapter) {
+        this(adapter, DEFAULT_NAME, DEFAULT_UUID_SECURE, DEFAULT_UUID_INSECURE);
+    }
+
+    /**
+     * Transport for another service, that devices reach by its own UUIDs.
+     *
+     * @param name         registered as the SDP names name + "Secure" and name + "Insecure"
+     * @param secureUuid   UUID of the secure service record
+     * @param insecureUuid UUID of the insecure service record
+     */
+    public BluetoothTransport(BluetoothAdapter adapter, String name, UUID secureUuid,
+                              UUID insecureUuid) {
+        mAdapter = adapter;
+        mName = name;
+        mSecureUuid = secureUuid;
+        mInsecureUuid = insecureUuid;
+    }
+
+    @Override
+    public MessageServerSocket listen(boolean secure) throws IOException {
+        final BluetoothServerSocket serverSocket;
+        if (secure) {
+            serverSocket = mAdapter.listenUsingRfcommWithServiceRecord(mName + "Secure",
+                    mSecureUuid);
+        } else {
+            serverSocket = mAdapter.listenUsingInsecureRfcommWithServiceRecord(
+                    mName + "Insecure", mInsecureUuid);
+        }
+
+        return new MessageServerSocket() {
+            @Override
+            public MessageSocket accept() throws IOException {
+                BluetoothSocket socket = serverSocket.accept();
+                return socket != null ? new Socket(socket) : null;
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    @Override
+    public MessageSocket createSocket(String address, boolean secure) throws IOException {
+        BluetoothDevice device = mAdapter.getRemoteDevice(address);
+        if (secure) {
+            return new Socket(device.createRfcommSocketToServiceRecord(mSecureUuid));
+        } else {
+            return new Socket(device.createInsecureRfcommSocketToServiceRecord(mInsecureUuid));
+        }
+    }
+
+    @Override
+    public void cancelDiscovery() {
+        mAdapter.cancelDiscovery();
+    }
+
+    /**
+     * Wrap a connected BluetoothSocket.
+     */
+    public static MessageSocket wrap(BluetoothSocket socket) {
+        return new Socket(socket);
+    }
+
+    private static class Socket implements MessageSocket {
+        private final BluetoothSocket mSocket;
+
+        Socket(BluetoothSocket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            mSocket.connect();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSocket.close();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return mSocket.getRemoteDevice().getAddress();
+        }
+
+        @Override
+        public String getRemoteName() {
+            return mSocket.getRemoteDevice().getName();
+        }
+
+        @Override
+        public String toString() {
+            return mSocket.getRemoteDevice().toString();
+        }
+    }
+}
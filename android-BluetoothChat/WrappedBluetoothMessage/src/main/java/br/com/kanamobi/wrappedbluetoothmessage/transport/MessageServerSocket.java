@@ -0,0 +1,18 @@
+package br.com.kanamobi.wrappedbluetoothmessage.transport;
+
+import java.io.IOException;
+
+/**
+ * Listening socket, a BluetoothServerSocket on a phone.
+ */
+public interface MessageServerSocket {
+
+    /**
+     * Block until a remote device connects.
+     *
+     * @throws IOException when the server socket is closed or fails
+     */
+    MessageSocket accept() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,30 @@
+package br.com.kanamobi.wrappedbluetoothmessage.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connection to a remote device, a BluetoothSocket on a phone.
+ */
+public interface MessageSocket {
+
+    /**
+     * Block until the connection is up. Only called on sockets from
+     * {@link MessageTransport#createSocket}, accepted sockets are connected already.
+     */
+    void connect() throws IOException;
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Close the connection, blocked reads and writes on either side fail with an IOException.
+     */
+    void close() throws IOException;
+
+    String getRemoteAddress();
+
+    String getRemoteName();
+}
@@ -0,0 +1,30 @@
+package br.com.kanamobi.wrappedbluetoothmessage.transport;
+
+import java.io.IOException;
+
+/**
+ * Where {@link br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService} gets its
+ * sockets from. {@link BluetoothTransport} uses RFCOMM, other implementations let the service
+ * run on a desktop JVM for tests and benchmarks.
+ */
+public interface MessageTransport {
+
+    /**
+     * Start listening for incoming connections.
+     *
+     * @param secure Socket Security type - Secure (true) , Insecure (false)
+     */
+    MessageServerSocket listen(boolean secure) throws IOException;
+
+    /**
+     * Create a socket to the device with the given address, not connected yet.
+     *
+     * @param secure Socket Security type - Secure (true) , Insecure (false)
+     */
+    MessageSocket createSocket(String address, boolean secure) throws IOException;
+
+    /**
+     * Stop any device discovery before connecting, it slows the connection down.
+     */
+    void cancelDiscovery();
+}
@@ -0,0 +1,159 @@
+package br.com.kanamobi.wrappedbluetoothmessage.asset;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class GltfTranscoderTest {
+
+    private static final byte[] FIRST = {1, 2, 3, 4, 5};
+    private static final byte[] SECOND = {10, 11, 12, 13, 14, 15, 16, 17};
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N'};
+
+    // The model from the repository root, relative to the module the tests run in
+    private final String mModelPath = System.getProperty("asset.gltf", "../../modelo2.gltf");
+
+    @Test
+    public void embeddedDataMovesToTheBinaryChunk() throws Exception {
+        byte[] glb = transcode(sampleGltf().getBytes(Json.UTF_8));
+        GlbReader reader = new GlbReader(new ByteArrayInputStream(glb));
+        assertEquals(glb.length, reader.getLength());
+
+        Map<String, Object> document = parse(reader.getJson(), null);
+        assertEquals("a/b", Json.asObject(document.get("asset")).get("copyright"));
+
+        // 5 bytes, 3 of alignment, 8 bytes, then the image
+        List<Object> buffers = Json.asArray(document.get("buffers"));
+        assertEquals(2, buffers.size());
+        assertEquals(19, number(buffers.get(0), "byteLength"));
+        assertFalse(Json.asObject(buffers.get(0)).containsKey("uri"));
+        assertEquals("external.bin", Json.asObject(buffers.get(1)).get("uri"));
+
+        List<Object> views = Json.asArray(document.get("bufferViews"));
+        assertEquals(4, views.size());
+        assertEquals(0, number(views.get(0), "buffer"));
+        assertEquals(1, number(views.get(0), "byteOffset"));
+        assertEquals(1, number(views.get(1), "buffer"));
+        assertEquals(0, number(views.get(2), "buffer"));
+        assertEquals(10, number(views.get(2), "byteOffset"));
+        assertEquals(16, number(views.get(3), "byteOffset"));
+        assertEquals(3, number(views.get(3), "byteLength"));
+
+        Map<String, Object> image = Json.asObject(Json.asArray(document.get("images")).get(0));
+        assertEquals(3, number(image, "bufferView"));
+        assertEquals("image/png", image.get("mimeType"));
+        assertFalse(image.containsKey("uri"));
+
+        assertEquals(20, reader.getBinaryLength());
+        byte[] binary = new byte[20];
+        Base64Stream.readFully(reader.getBinary(), binary, binary.length);
+        assertArrayEquals(FIRST, Arrays.copyOfRange(binary, 0, 5));
+        assertArrayEquals(SECOND, Arrays.copyOfRange(binary, 8, 16));
+        assertArrayEquals(IMAGE, Arrays.copyOfRange(binary, 16, 19));
+    }
+
+    @Test
+    public void glbTurnsBackIntoTheSameGltf() throws Exception {
+        byte[] glb = transcode(sampleGltf().getBytes(Json.UTF_8));
+
+        ByteArrayOutputStream gltf = new ByteArrayOutputStream();
+        new GlbReader(new ByteArrayInputStream(glb)).writeGltf(gltf);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Map<String, Object> document = parse(gltf.toString("UTF-8"), data);
+        Json.Data binary = (Json.Data) Json.asObject(
+                Json.asArray(document.get("buffers")).get(0)).get("uri");
+        assertEquals(19, binary.mLength);
+        assertArrayEquals(SECOND, Arrays.copyOfRange(data.toByteArray(), 8, 16));
+
+        assertArrayEquals(glb, transcode(gltf.toByteArray()));
+    }
+
+    @Test
+    public void fileSpoolWritesTheSameGlb() throws Exception {
+        byte[] gltf = sampleGltf().getBytes(Json.UTF_8);
+        File spool = File.createTempFile("gltf", ".spool");
+        ByteArrayOutputStream glb = new ByteArrayOutputStream();
+        GltfTranscoder.transcode(new ByteArrayInputStream(gltf), glb, spool);
+
+        assertArrayEquals(transcode(gltf), glb.toByteArray());
+        assertFalse(spool.exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWhatIsNotAGlb() throws Exception {
+        new GlbReader(new ByteArrayInputStream(sampleGltf().getBytes(Json.UTF_8)));
+    }
+
+    @Test
+    public void modelSurvivesTheRoundTrip() throws Exception {
+        File model = new File(mModelPath);
+        assumeTrue(model.isFile());
+
+        InputStream input = new FileInputStream(model);
+        ByteArrayOutputStream glb = new ByteArrayOutputStream();
+        try {
+            GltfTranscoder.transcode(input, glb);
+        } finally {
+            input.close();
+        }
+        assertTrue(glb.size() < model.length());
+
+        ByteArrayOutputStream gltf = new ByteArrayOutputStream();
+        new GlbReader(new ByteArrayInputStream(glb.toByteArray())).writeGltf(gltf);
+        assertArrayEquals(glb.toByteArray(), transcode(gltf.toByteArray()));
+    }
+
+    private static byte[] transcode(byte[] gltf) throws IOException {
+        ByteArrayOutputStream glb = new ByteArrayOutputStream();
+        GltfTranscoder.transcode(new ByteArrayInputStream(gltf), glb);
+        return glb.toByteArray();
+    }
+
+    private static Map<String, Object> parse(String json, ByteArrayOutputStream data)
+            throws IOException {
+        return Json.asObject(Json.parse(new ByteArrayInputStream(json.getBytes(Json.UTF_8)),
+                data != null ? data : new ByteArrayOutputStream()));
+    }
+
+    private static long number(Object object, String key) {
+        return ((Json.Number) Json.asObject(object).get(key)).longValue();
+    }
+
+    private static String sampleGltf() throws IOException {
+        return "{\n"
+                + "  \"asset\": {\"version\": \"2.0\", \"copyright\": \"a\\/b\"},\n"
+                + "  \"buffers\": [\n"
+                + "    {\"byteLength\": 5, \"uri\": \"" + dataUri("application/octet-stream", FIRST)
+                + "\"},\n"
+                + "    {\"byteLength\": 10, \"uri\": \"external.bin\"},\n"
+                + "    {\"byteLength\": 8, \"uri\": \"" + dataUri("application/gltf-buffer", SECOND)
+                + "\"}\n"
+                + "  ],\n"
+                + "  \"bufferViews\": [\n"
+                + "    {\"buffer\": 0, \"byteOffset\": 1, \"byteLength\": 4},\n"
+                + "    {\"buffer\": 1, \"byteLength\": 10},\n"
+                + "    {\"buffer\": 2, \"byteOffset\": 2, \"byteLength\": 6}\n"
+                + "  ],\n"
+                + "  \"images\": [{\"uri\": \"" + dataUri("image/png", IMAGE) + "\"}]\n"
+                + "}\n";
+    }
+
+    private static String dataUri(String mimeType, byte[] bytes) throws IOException {
+        StringWriter writer = new StringWriter();
+        writer.write("data:" + mimeType + ";base64,");
+        Base64Stream.encode(new ByteArrayInputStream(bytes), bytes.length, writer);
+        return writer.toString();
+    }
+}
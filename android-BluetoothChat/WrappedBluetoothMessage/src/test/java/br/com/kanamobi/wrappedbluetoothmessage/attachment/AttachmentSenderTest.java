@@ -0,0 +1,256 @@
+package br.com.kanamobi.wrappedbluetoothmessage.attachment;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import br.com.kanamobi.wrappedbluetoothmessage.codec.FrameCodec;
+
+import static org.junit.Assert.*;
+
+public class AttachmentSenderTest {
+
+    @Test
+    public void receiverPutsTheAttachmentBackTogether() throws Exception {
+        byte[] data = new byte[100 * 1000];
+        new Random(1).nextBytes(data);
+        byte[] thumbnail = {1, 2, 3};
+        Frames frames = new Frames();
+        Events events = new Events();
+        AttachmentSender sender = new AttachmentSender("sender", frames, events);
+        AttachmentReceiver receiver = new AttachmentReceiver(events);
+
+        OutgoingAttachment outgoing = new OutgoingAttachment("image/jpeg", 40, 30, thumbnail,
+                data);
+        assertTrue(sender.send(outgoing));
+        while (events.mReceived == null) {
+            byte[] frame = frames.take();
+            assertTrue(receiver.onFrame(frame[0], frame, FrameCodec.HEADER_LENGTH,
+                    frame.length - FrameCodec.HEADER_LENGTH));
+        }
+        assertTrue(events.mSent.await(5, TimeUnit.SECONDS));
+
+        assertEquals(outgoing.getAttachment().getId(), events.mStarted.getId());
+        assertEquals("image/jpeg", events.mStarted.getMimeType());
+        assertEquals(30, events.mStarted.getHeight());
+        assertArrayEquals(thumbnail, events.mThumbnail);
+        assertArrayEquals(data, events.mReceived);
+        assertTrue(events.mProgress.size() <= 20);
+        sender.close();
+    }
+
+    @Test
+    public void repeatedChunksDoNotCompleteEarly() throws Exception {
+        Events events = new Events();
+        AttachmentReceiver receiver = new AttachmentReceiver(events);
+        byte[] start = new byte[16];
+        FrameCodec.putInt(start, 0, 7);
+        FrameCodec.putInt(start, 4, 10);
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_START, start, 0, start.length);
+
+        byte[] chunk = chunk(7, 0, new byte[] {1, 2, 3, 4, 5, 6});
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_CHUNK, chunk, 0, chunk.length);
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_CHUNK, chunk, 0, chunk.length);
+        assertNull(events.mReceived);
+        assertEquals(Arrays.asList(6), events.mProgress);
+
+        // Overlapping the first, only its last four bytes are new
+        chunk = chunk(7, 4, new byte[] {5, 6, 7, 8, 9, 10});
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_CHUNK, chunk, 0, chunk.length);
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, events.mReceived);
+    }
+
+    @Test
+    public void attachmentsOverTheIncomingCapFail() throws Exception {
+        Events events = new Events();
+        AttachmentReceiver receiver = new AttachmentReceiver(events, 100);
+        start(receiver, 1, 60);
+        start(receiver, 2, 60);
+        assertEquals(Arrays.asList(2), events.mFailed);
+
+        // Room again once the first is complete
+        byte[] chunk = chunk(1, 0, new byte[60]);
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_CHUNK, chunk, 0, chunk.length);
+        assertEquals(60, events.mReceived.length);
+        start(receiver, 3, 60);
+        assertEquals(Arrays.asList(2), events.mFailed);
+    }
+
+    @Test(expected = IOException.class)
+    public void chunkAfterAGapIsMalformed() throws Exception {
+        AttachmentReceiver receiver = new AttachmentReceiver(new Events());
+        byte[] start = new byte[16];
+        FrameCodec.putInt(start, 0, 7);
+        FrameCodec.putInt(start, 4, 10);
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_START, start, 0, start.length);
+        byte[] chunk = chunk(7, 4, new byte[] {1, 2});
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_CHUNK, chunk, 0, chunk.length);
+    }
+
+    @Test
+    public void laterThumbnailsGoBeforeEarlierData() throws Exception {
+        // Start, thumbnail, then the writer holds the first chunk until the second is queued
+        GatedFrames frames = new GatedFrames(2);
+        AttachmentSender sender = new AttachmentSender("sender", frames, new Events());
+        sender.send(new OutgoingAttachment("image/jpeg", 1, 1, new byte[1], new byte[20000]));
+        assertTrue(frames.mHeld.await(5, TimeUnit.SECONDS));
+        sender.send(new OutgoingAttachment("image/jpeg", 1, 1, new byte[1], new byte[20000]));
+        frames.mGate.countDown();
+        List<Integer> types = frames.awaitTypes(5);
+        sender.close();
+
+        assertEquals(Arrays.asList(FrameCodec.TYPE_ATTACHMENT_START,
+                FrameCodec.TYPE_ATTACHMENT_THUMBNAIL, FrameCodec.TYPE_ATTACHMENT_CHUNK,
+                FrameCodec.TYPE_ATTACHMENT_START, FrameCodec.TYPE_ATTACHMENT_THUMBNAIL),
+                types.subList(0, 5));
+    }
+
+    @Test
+    public void pendingAttachmentsFailWhenClosed() throws Exception {
+        Events events = new Events();
+        AttachmentSender sender = new AttachmentSender("sender", new AttachmentSender
+                .FrameWriter() {
+            @Override
+            public void writeFrame(byte[] frame) throws IOException {
+                throw new IOException("Socket closed");
+            }
+        }, events);
+        sender.send(new OutgoingAttachment("image/jpeg", 1, 1, new byte[0], new byte[10]));
+        assertTrue(events.mSendFailed.await(5, TimeUnit.SECONDS));
+        assertFalse(sender.send(new OutgoingAttachment("image/jpeg", 1, 1, new byte[0],
+                new byte[10])));
+    }
+
+    private static void start(AttachmentReceiver receiver, int id, int length)
+            throws IOException {
+        byte[] start = new byte[16];
+        FrameCodec.putInt(start, 0, id);
+        FrameCodec.putInt(start, 4, length);
+        receiver.onFrame(FrameCodec.TYPE_ATTACHMENT_START, start, 0, start.length);
+    }
+
+    private static byte[] chunk(int id, int position, byte[] data) {
+        byte[] payload = new byte[8 + data.length];
+        FrameCodec.putInt(payload, 0, id);
+        FrameCodec.putInt(payload, 4, position);
+        System.arraycopy(data, 0, payload, 8, data.length);
+        return payload;
+    }
+
+    /**
+     * Hands each frame over to the test one at a time, like a socket with no buffer.
+     */
+    private static class Frames implements AttachmentSender.FrameWriter {
+        private final LinkedBlockingQueue<byte[]> mFrames = new LinkedBlockingQueue<byte[]>(1);
+
+        @Override
+        public void writeFrame(byte[] frame) throws IOException {
+            try {
+                mFrames.put(frame);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+        }
+
+        byte[] take() throws InterruptedException {
+            byte[] frame = mFrames.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no frame written", frame);
+            return frame;
+        }
+    }
+
+    /**
+     * Records the type of every frame, and holds the writer on the given frame until the gate
+     * opens.
+     */
+    private static class GatedFrames implements AttachmentSender.FrameWriter {
+        final CountDownLatch mHeld = new CountDownLatch(1);
+        final CountDownLatch mGate = new CountDownLatch(1);
+        private final int mHoldAt;
+        private final List<Integer> mTypes = new ArrayList<Integer>();
+
+        GatedFrames(int holdAt) {
+            mHoldAt = holdAt;
+        }
+
+        @Override
+        public void writeFrame(byte[] frame) throws IOException {
+            int index;
+            synchronized (this) {
+                index = mTypes.size();
+                mTypes.add((int) frame[0]);
+                notifyAll();
+            }
+            if (index == mHoldAt) {
+                mHeld.countDown();
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+
+        synchronized List<Integer> awaitTypes(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mTypes.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("only " + mTypes, remaining > 0);
+                wait(remaining);
+            }
+            return new ArrayList<Integer>(mTypes);
+        }
+    }
+
+    private static class Events implements AttachmentSender.Listener, AttachmentReceiver.Listener {
+        final CountDownLatch mSent = new CountDownLatch(1);
+        final CountDownLatch mSendFailed = new CountDownLatch(1);
+        final List<Integer> mProgress = new ArrayList<Integer>();
+        final List<Integer> mFailed = new ArrayList<Integer>();
+        Attachment mStarted;
+        byte[] mThumbnail;
+        byte[] mReceived;
+
+        @Override
+        public void onAttachmentSent(Attachment attachment) {
+            mSent.countDown();
+        }
+
+        @Override
+        public void onAttachmentSendFailed(Attachment attachment) {
+            mSendFailed.countDown();
+        }
+
+        @Override
+        public void onAttachmentStarted(Attachment attachment) {
+            mStarted = attachment;
+        }
+
+        @Override
+        public void onAttachmentThumbnail(Attachment attachment, byte[] thumbnail) {
+            mThumbnail = thumbnail;
+        }
+
+        @Override
+        public void onAttachmentProgress(Attachment attachment, int received) {
+            mProgress.add(received);
+        }
+
+        @Override
+        public void onAttachmentReceived(Attachment attachment, byte[] data) {
+            mReceived = data;
+        }
+
+        @Override
+        public void onAttachmentFailed(Attachment attachment) {
+            mFailed.add(attachment.getId());
+        }
+    }
+}
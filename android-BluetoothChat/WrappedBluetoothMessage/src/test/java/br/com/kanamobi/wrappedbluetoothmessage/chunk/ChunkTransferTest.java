@@ -0,0 +1,224 @@
+package br.com.kanamobi.wrappedbluetoothmessage.chunk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChunkTransferTest {
+
+    private File mDirectory;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("chunks", "");
+        mDirectory.delete();
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        File[] files = mDirectory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void boundariesComeBackAfterAnInsert() throws Exception {
+        byte[] original = random(1, 256 * 1024);
+        byte[] edited = insert(original, 100 * 1024, "an edit".getBytes("UTF-8"));
+
+        Set<ChunkId> before = new HashSet<ChunkId>(chunkIds(original));
+        List<ChunkId> after = chunkIds(edited);
+        int changed = 0;
+        for (ChunkId id : after) {
+            if (!before.contains(id)) {
+                changed++;
+            }
+        }
+        assertTrue(after.size() > 10);
+        assertTrue("changed " + changed, changed <= 2);
+    }
+
+    @Test
+    public void onlyMissingChunksAreSent() throws Exception {
+        ChunkStore store = new ChunkStore(mDirectory, 16 * 1024 * 1024);
+        byte[] original = random(2, 300 * 1024);
+        File file = write(original);
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ChunkTransfer.Stats first = transfer(file, store, received);
+        assertArrayEquals(original, received.toByteArray());
+        assertEquals(first.getChunks(), first.getChunksSent());
+        assertEquals(original.length, first.getBytesSent());
+
+        received.reset();
+        ChunkTransfer.Stats again = transfer(file, store, received);
+        assertArrayEquals(original, received.toByteArray());
+        assertEquals(0, again.getChunksSent());
+        assertTrue(again.getWireBytes() < original.length / 100);
+
+        byte[] edited = insert(original, 150 * 1024, "an edit".getBytes("UTF-8"));
+        File editedFile = write(edited);
+        received.reset();
+        ChunkTransfer.Stats edit = transfer(editedFile, store, received);
+        assertArrayEquals(edited, received.toByteArray());
+        assertTrue(edit.getChunksSent() <= 2);
+        editedFile.delete();
+        file.delete();
+    }
+
+    @Test
+    public void storeEvictsTheLeastRecentlyUsed() throws Exception {
+        ChunkStore store = new ChunkStore(mDirectory, 3000);
+        byte[] a = random(3, 1000);
+        byte[] b = random(4, 1000);
+        byte[] c = random(5, 1000);
+        store.put(ChunkId.of(a), a);
+        store.put(ChunkId.of(b), b);
+        store.put(ChunkId.of(c), c);
+        assertTrue(store.contains(ChunkId.of(a)));
+
+        byte[] d = random(6, 1000);
+        store.put(ChunkId.of(d), d);
+        assertFalse(store.contains(ChunkId.of(b)));
+        assertArrayEquals(a, store.get(ChunkId.of(a)));
+        assertEquals(3000, store.getBytes());
+
+        ChunkStore reopened = new ChunkStore(mDirectory, 3000);
+        assertEquals(3, reopened.getCount());
+        assertArrayEquals(d, reopened.get(ChunkId.of(d)));
+    }
+
+    @Test
+    public void containsCountsAsAUseAfterARestart() throws Exception {
+        ChunkStore store = new ChunkStore(mDirectory, 3000);
+        long now = System.currentTimeMillis();
+        byte[][] chunks = {random(7, 1000), random(8, 1000), random(9, 1000)};
+        for (int i = 0; i < chunks.length; i++) {
+            store.put(ChunkId.of(chunks[i]), chunks[i]);
+            // Whole seconds apart, file times can be that coarse
+            new File(mDirectory, ChunkId.of(chunks[i]).toHex())
+                    .setLastModified(now - (3 - i) * 10000L);
+        }
+        assertTrue(store.contains(ChunkId.of(chunks[0])));
+
+        ChunkStore reopened = new ChunkStore(mDirectory, 2000);
+        assertTrue(reopened.contains(ChunkId.of(chunks[0])));
+        assertFalse(reopened.contains(ChunkId.of(chunks[1])));
+        assertTrue(reopened.contains(ChunkId.of(chunks[2])));
+    }
+
+    @Test
+    public void chunksArrivingLaterDoNotEvictTheOnesStillToBeRead() throws Exception {
+        byte[] original = random(10, 300 * 1024);
+        ChunkStore store = new ChunkStore(mDirectory, original.length);
+        File file = write(original);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        transfer(file, store, received);
+        assertEquals(original.length, store.getBytes());
+
+        // The new first chunk arrives before the stored ones are read, with the store full
+        byte[] edited = insert(original, 0, "an edit".getBytes("UTF-8"));
+        File editedFile = write(edited);
+        received.reset();
+        ChunkTransfer.Stats edit = transfer(editedFile, store, received);
+        assertArrayEquals(edited, received.toByteArray());
+        assertTrue(edit.getChunksSent() <= 2);
+        assertTrue(store.getBytes() <= original.length);
+        editedFile.delete();
+        file.delete();
+    }
+
+    @Test
+    public void chunkBiggerThanTheStoreIsNotKept() throws Exception {
+        ChunkStore store = new ChunkStore(mDirectory, 1000);
+        byte[] small = random(11, 400);
+        byte[] big = random(12, 1500);
+        store.put(ChunkId.of(small), small);
+        store.put(ChunkId.of(big), big);
+
+        assertFalse(store.contains(ChunkId.of(big)));
+        assertTrue(store.contains(ChunkId.of(small)));
+        assertEquals(400, store.getBytes());
+    }
+
+    private ChunkTransfer.Stats transfer(final File file, ChunkStore store, OutputStream content)
+            throws Exception {
+        final PipedInputStream toReceiver = new PipedInputStream(64 * 1024);
+        final PipedOutputStream fromSender = new PipedOutputStream(toReceiver);
+        final PipedInputStream toSender = new PipedInputStream(64 * 1024);
+        PipedOutputStream fromReceiver = new PipedOutputStream(toSender);
+
+        Future<ChunkTransfer.Stats> sent = mExecutor.submit(new Callable<ChunkTransfer.Stats>() {
+            @Override
+            public ChunkTransfer.Stats call() throws Exception {
+                return ChunkTransfer.send(file, toSender, fromSender);
+            }
+        });
+        ChunkTransfer.Stats received =
+                ChunkTransfer.receive(store, toReceiver, fromReceiver, content);
+        ChunkTransfer.Stats stats = sent.get(30, TimeUnit.SECONDS);
+        assertEquals(received.getWireBytes(), stats.getWireBytes());
+        return stats;
+    }
+
+    private static List<ChunkId> chunkIds(byte[] data) throws IOException {
+        List<ChunkId> ids = new ArrayList<ChunkId>();
+        ContentChunker chunker = new ContentChunker(new ByteArrayInputStream(data));
+        byte[] chunk;
+        while ((chunk = chunker.next()) != null) {
+            ids.add(ChunkId.of(chunk));
+        }
+        return ids;
+    }
+
+    private File write(byte[] data) throws IOException {
+        File file = File.createTempFile("content", ".bin");
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private static byte[] random(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] insert(byte[] data, int at, byte[] inserted) {
+        byte[] result = new byte[data.length + inserted.length];
+        System.arraycopy(data, 0, result, 0, at);
+        System.arraycopy(inserted, 0, result, at, inserted.length);
+        System.arraycopy(data, at, result, at + inserted.length, data.length - at);
+        return result;
+    }
+}
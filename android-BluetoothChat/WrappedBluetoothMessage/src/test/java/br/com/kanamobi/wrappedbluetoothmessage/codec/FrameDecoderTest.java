@@ -0,0 +1,73 @@
+package br.com.kanamobi.wrappedbluetoothmessage.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    @Test
+    public void framesSurviveAnySplit() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(FrameCodec.encode(FrameCodec.TYPE_TEXT, MessageCodec.encode("hello")));
+        stream.write(FrameCodec.encode(FrameCodec.TYPE_ATTACHMENT_CHUNK, new byte[3000]));
+        stream.write(FrameCodec.encode(FrameCodec.TYPE_TEXT, new byte[0]));
+        stream.write(FrameCodec.encode(FrameCodec.TYPE_TEXT, MessageCodec.encode("world")));
+        byte[] bytes = stream.toByteArray();
+
+        for (int readSize : new int[]{1, 2, 5, 7, 1024, bytes.length}) {
+            Collector collector = new Collector();
+            FrameDecoder decoder = new FrameDecoder();
+            byte[] buffer = new byte[readSize];
+            for (int offset = 0; offset < bytes.length; offset += readSize) {
+                int length = Math.min(readSize, bytes.length - offset);
+                System.arraycopy(bytes, offset, buffer, 0, length);
+                decoder.feed(buffer, length, collector);
+            }
+            assertEquals("read size " + readSize, 4, collector.mTypes.size());
+            assertEquals("hello", collector.mTexts.get(0));
+            assertEquals(3000, collector.mLengths.get(1).intValue());
+            assertEquals("", collector.mTexts.get(2));
+            assertEquals("world", collector.mTexts.get(3));
+        }
+    }
+
+    @Test
+    public void resetDropsThePartialFrame() throws Exception {
+        byte[] frame = FrameCodec.encode(FrameCodec.TYPE_TEXT, MessageCodec.encode("hello"));
+        Collector collector = new Collector();
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.feed(frame, 3, collector);
+        decoder.reset();
+        decoder.feed(frame, frame.length, collector);
+        assertEquals(1, collector.mTypes.size());
+        assertEquals("hello", collector.mTexts.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFramesLongerThanTheLimit() throws Exception {
+        byte[] header = new byte[FrameCodec.HEADER_LENGTH];
+        header[0] = FrameCodec.TYPE_TEXT;
+        FrameCodec.putInt(header, 1, FrameCodec.MAX_PAYLOAD + 1);
+        new FrameDecoder().feed(header, header.length, new Collector());
+    }
+
+    private static class Collector implements FrameDecoder.Callback {
+        final List<Integer> mTypes = new ArrayList<Integer>();
+        final List<Integer> mLengths = new ArrayList<Integer>();
+        final List<String> mTexts = new ArrayList<String>();
+
+        @Override
+        public void onFrame(int type, byte[] payload, int offset, int length) {
+            mTypes.add(type);
+            mLengths.add(length);
+            mTexts.add(type == FrameCodec.TYPE_TEXT
+                    ? MessageCodec.decode(payload, offset, length) : null);
+        }
+    }
+}
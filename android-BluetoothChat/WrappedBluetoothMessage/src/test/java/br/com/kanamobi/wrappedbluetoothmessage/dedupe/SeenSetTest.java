@@ -0,0 +1,74 @@
+package br.com.kanamobi.wrappedbluetoothmessage.dedupe;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SeenSetTest {
+
+    @Test
+    public void idsInTheWindowAreDuplicates() {
+        SeenSet seen = new SeenSet(1000);
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(seen.add(id));
+        }
+        for (long id = 1; id <= 1000; id++) {
+            assertFalse("id " + id, seen.add(id));
+        }
+        assertEquals(1000, seen.size());
+    }
+
+    @Test
+    public void newIdsAreNeverDuplicates() {
+        SeenSet seen = new SeenSet(1024);
+        long id = new Random(1).nextLong();
+        for (int i = 0; i < 1000000; i++) {
+            assertTrue(seen.add(++id));
+        }
+        assertEquals(1024, seen.size());
+        // The Bloom filter rules out nearly all of them without a lookup
+        assertTrue(seen.getBloomHits() < 1000000 / 20);
+    }
+
+    @Test
+    public void windowKeepsTheLatestIds() {
+        SeenSet seen = new SeenSet(100);
+        Random random = new Random(2);
+        long[] ids = new long[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextLong();
+            assertTrue(seen.add(ids[i]));
+        }
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("id " + i, i >= ids.length - 100, seen.contains(ids[i]));
+        }
+        assertTrue(seen.add(ids[0]));
+        assertFalse(seen.add(ids[ids.length - 1]));
+    }
+
+    @Test
+    public void zeroIsNoId() {
+        SeenSet seen = new SeenSet(16);
+        assertTrue(seen.add(0));
+        assertTrue(seen.add(0));
+        assertEquals(0, seen.size());
+    }
+
+    @Test
+    public void leastRecentPeerGivesUpItsSet() {
+        PeerSeenSets sets = new PeerSeenSets(2, 16);
+        SeenSet a = sets.get("a");
+        a.add(1);
+        sets.get("b").add(1);
+        sets.get("a");
+
+        SeenSet c = sets.get("c");
+        assertEquals(2, sets.size());
+        assertNotSame(a, c);
+        assertTrue(c.add(1));
+        assertSame(a, sets.get("a"));
+        assertFalse(a.add(1));
+    }
+}
@@ -0,0 +1,68 @@
+package br.com.kanamobi.wrappedbluetoothmessage.discovery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceDiscoveryCacheTest {
+
+    private static final String ADDRESS_A = "00:11:22:AA:BB:01";
+    private static final String ADDRESS_B = "00:11:22:AA:BB:02";
+    private static final String ADDRESS_C = "00:11:22:AA:BB:03";
+
+    private long mNow;
+    private DeviceDiscoveryCache mCache;
+
+    @Before
+    public void setUp() {
+        mNow = 1000;
+        mCache = new DeviceDiscoveryCache(60000) {
+            @Override
+            protected long now() {
+                return mNow;
+            }
+        };
+    }
+
+    @Test
+    public void sameAddressIsStoredOnce() {
+        mCache.update(ADDRESS_A, "Phone", (short) -70, DiscoveredDevice.DEVICE_CLASS_UNKNOWN);
+        mNow += 10;
+        mCache.update(ADDRESS_A, null, (short) -50, 0x020C);
+
+        assertEquals(1, mCache.size());
+        DiscoveredDevice device = mCache.get(ADDRESS_A);
+        assertEquals("Phone", device.getName());
+        assertEquals(-50, device.getRssi());
+        assertEquals(0x020C, device.getDeviceClass());
+        assertEquals(1010, device.getLastSeenMillis());
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() {
+        mCache.update(ADDRESS_A, "Old", (short) -40, DiscoveredDevice.DEVICE_CLASS_UNKNOWN);
+        mNow += 50000;
+        mCache.update(ADDRESS_B, "New", (short) -60, DiscoveredDevice.DEVICE_CLASS_UNKNOWN);
+        mNow += 20000;
+
+        assertNull(mCache.get(ADDRESS_A));
+        assertNotNull(mCache.get(ADDRESS_B));
+        assertEquals(1, mCache.getRankedDevices().size());
+    }
+
+    @Test
+    public void strongestSignalIsRankedFirst() {
+        mCache.update(ADDRESS_A, "Far", (short) -90, DiscoveredDevice.DEVICE_CLASS_UNKNOWN);
+        mCache.update(ADDRESS_B, "Unknown", DiscoveredDevice.RSSI_UNKNOWN,
+                DiscoveredDevice.DEVICE_CLASS_UNKNOWN);
+        mCache.update(ADDRESS_C, "Near", (short) -45, DiscoveredDevice.DEVICE_CLASS_UNKNOWN);
+
+        List<DiscoveredDevice> ranked = mCache.getRankedDevices();
+        assertEquals(ADDRESS_C, ranked.get(0).getAddress());
+        assertEquals(ADDRESS_A, ranked.get(1).getAddress());
+        assertEquals(ADDRESS_B, ranked.get(2).getAddress());
+    }
+}
@@ -0,0 +1,187 @@
+package br.com.kanamobi.wrappedbluetoothmessage.discovery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+
+import static org.junit.Assert.*;
+
+public class DiscoverySchedulerTest {
+
+    private static final long QUIET_MILLIS = 1000;
+    private static final Object PICKER = new Object();
+    private static final Object SERVICE = new Object();
+
+    private long mNow;
+    private int mStarts;
+    private int mCancels;
+    private final List<Runnable> mDelayed = new ArrayList<Runnable>();
+    private DiscoveryScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        Logger.setSink(null);
+        mNow = 10000;
+        // Runs on the test thread, the broadcasts are delivered by calling onDiscovery* directly
+        mScheduler = new DiscoveryScheduler(null, null) {
+            @Override
+            long now() {
+                return mNow;
+            }
+
+            @Override
+            boolean isAdapterDiscovering() {
+                return false;
+            }
+
+            @Override
+            boolean startDiscovery() {
+                mStarts++;
+                return true;
+            }
+
+            @Override
+            void cancelDiscovery() {
+                mCancels++;
+            }
+
+            @Override
+            void post(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            void postDelayed(Runnable runnable, long delayMillis) {
+                mDelayed.add(runnable);
+            }
+
+            @Override
+            void removeCallbacks(Runnable runnable) {
+                mDelayed.remove(runnable);
+            }
+        };
+        mScheduler.setQuietPeriod(QUIET_MILLIS);
+    }
+
+    @Test
+    public void preemptedScanRunsAgainOnceTheLinkIsQuiet() {
+        mScheduler.requestScan(PICKER);
+        assertEquals(1, mStarts);
+        mScheduler.onDiscoveryStarted();
+
+        // Traffic cancels the scan, the adapter reports it finished only later
+        mScheduler.onBytesRead(new byte[16], 16);
+        assertEquals(1, mCancels);
+        mScheduler.onDiscoveryFinished();
+        assertEquals(1, mStarts);
+        assertEquals(1, mDelayed.size());
+
+        mNow += QUIET_MILLIS;
+        mDelayed.remove(0).run();
+        assertEquals(2, mStarts);
+    }
+
+    @Test
+    public void otherAppsScansAreNotRequeued() {
+        mScheduler.onDiscoveryStarted();
+        mScheduler.onBytesRead(new byte[16], 16);
+        assertEquals(1, mCancels);
+        mScheduler.onDiscoveryFinished();
+
+        assertTrue(mDelayed.isEmpty());
+        assertEquals(0, mStarts);
+    }
+
+    @Test
+    public void cancelDropsTheRequeue() {
+        mScheduler.requestScan(PICKER);
+        mScheduler.onDiscoveryStarted();
+        mScheduler.onBytesRead(new byte[16], 16);
+        mScheduler.cancel(PICKER);
+        mScheduler.onDiscoveryFinished();
+
+        assertTrue(mDelayed.isEmpty());
+        assertEquals(1, mStarts);
+    }
+
+    @Test
+    public void overlappingRequestsShareOneScan() {
+        mScheduler.requestScan(PICKER);
+        mScheduler.onDiscoveryStarted();
+        mScheduler.requestScan(SERVICE);
+        assertEquals(1, mStarts);
+
+        // A request while the link is busy waits, and a second one joins it
+        mScheduler.onDiscoveryFinished();
+        mScheduler.onBytesRead(new byte[16], 16);
+        mScheduler.requestScan(PICKER);
+        mScheduler.requestScan(SERVICE);
+        assertEquals(1, mStarts);
+        assertEquals(1, mDelayed.size());
+
+        mNow += QUIET_MILLIS;
+        mDelayed.remove(0).run();
+        assertEquals(2, mStarts);
+        assertTrue(mDelayed.isEmpty());
+    }
+
+    @Test
+    public void scanOverBudgetWaitsForTheWindow() {
+        mScheduler.setScanBudget(1, 60000);
+        mScheduler.requestScan(PICKER);
+        mScheduler.onDiscoveryStarted();
+        mScheduler.onDiscoveryFinished();
+        assertEquals(1, mStarts);
+
+        mNow += 1000;
+        mScheduler.requestScan(PICKER);
+        assertEquals(1, mStarts);
+        assertEquals(1, mDelayed.size());
+
+        mNow += 59000;
+        mDelayed.remove(0).run();
+        assertEquals(2, mStarts);
+    }
+
+    @Test
+    public void cancelKeepsTheOtherCallersPendingScan() {
+        mScheduler.onBytesRead(new byte[16], 16);
+        mScheduler.requestScan(PICKER);
+        mScheduler.requestScan(SERVICE);
+        mScheduler.cancel(PICKER);
+        assertEquals(1, mDelayed.size());
+
+        mNow += QUIET_MILLIS;
+        mDelayed.remove(0).run();
+        assertEquals(1, mStarts);
+    }
+
+    @Test
+    public void runningScanStopsWhenTheLastCallerCancels() {
+        mScheduler.requestScan(PICKER);
+        mScheduler.requestScan(SERVICE);
+        mScheduler.onDiscoveryStarted();
+        assertEquals(1, mStarts);
+
+        mScheduler.cancel(PICKER);
+        assertEquals(0, mCancels);
+        mScheduler.cancel(SERVICE);
+        assertEquals(1, mCancels);
+    }
+
+    @Test
+    public void lastCancelDropsThePendingScan() {
+        mScheduler.onBytesRead(new byte[16], 16);
+        mScheduler.requestScan(PICKER);
+        mScheduler.requestScan(SERVICE);
+        mScheduler.cancel(SERVICE);
+        mScheduler.cancel(PICKER);
+
+        assertTrue(mDelayed.isEmpty());
+        assertEquals(0, mStarts);
+    }
+}
@@ -0,0 +1,88 @@
+package br.com.kanamobi.wrappedbluetoothmessage.log;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class LoggerTest {
+
+    private int mPreviousPriority;
+    private String mLastMessage;
+
+    @Before
+    public void setUp() {
+        mPreviousPriority = Logger.getMinPriority();
+        Logger.setSink(new LogSink() {
+            @Override
+            public void println(int priority, String tag, String message, Throwable tr) {
+                mLastMessage = message;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setMinPriority(mPreviousPriority);
+        Logger.setSink(new AndroidLogSink());
+    }
+
+    @Test
+    public void formatsOnlyEnabledLevels() {
+        Logger logger = Logger.get("LoggerTest");
+        Logger.setMinPriority(Log.INFO);
+
+        logger.d("state {} -> {}", 1, 3);
+        assertNull(mLastMessage);
+
+        logger.i("socket type: {}", "Secure");
+        assertEquals("socket type: Secure", mLastMessage);
+
+        Logger.setMinPriority(Log.DEBUG);
+        logger.d("state {} -> {}", 1, 3);
+        assertEquals("state 1 -> 3", mLastMessage);
+    }
+
+    @Test
+    public void tagsAreInterned() {
+        assertSame(Logger.get(new String("LoggerTest")), Logger.get("LoggerTest"));
+        assertSame("LoggerTest", Logger.get("LoggerTest").getTag());
+    }
+
+    @Test
+    public void disabledDebugDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Logger logger = Logger.get("LoggerTest");
+        Object device = new Object();
+        Logger.setMinPriority(Log.INFO);
+
+        // Warm up so class loading and the first measurement do not count
+        for (int i = 0; i < 10000; i++) {
+            log(logger, device, i);
+        }
+        threads.getThreadAllocatedBytes(threadId);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            log(logger, device, i);
+        }
+        long after = threads.getThreadAllocatedBytes(threadId);
+
+        assertEquals(0, after - before);
+        assertNull(mLastMessage);
+    }
+
+    private static void log(Logger logger, Object device, int i) {
+        logger.d("connect to: {}", device);
+        logger.d("read {} bytes", i);
+        logger.d("state {} -> {}", i, i + 1);
+        logger.d("Socket Type: {} BEGIN mAcceptThread {}", "Secure", device);
+    }
+}
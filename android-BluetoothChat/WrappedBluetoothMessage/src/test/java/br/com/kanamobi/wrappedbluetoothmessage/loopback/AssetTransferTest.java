@@ -0,0 +1,284 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import br.com.kanamobi.wrappedbluetoothmessage.asset.GlbReader;
+import br.com.kanamobi.wrappedbluetoothmessage.asset.GltfTranscoder;
+import br.com.kanamobi.wrappedbluetoothmessage.chunk.ChunkStore;
+import br.com.kanamobi.wrappedbluetoothmessage.chunk.ChunkTransfer;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageServerSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageSocket;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Sends a 3D model over an {@link ImpairedTransport} as the .gltf it was exported as and as the
+ * GLB {@link GltfTranscoder} makes of it, and compares the bytes on the wire and the time from
+ * the first byte sent until the receiver has the geometry. The sender transcodes inside the
+ * timed part; the receiver of the .gltf has to parse and decode all of it, the receiver of the
+ * GLB only reads the JSON chunk and drains the binary one. Then the GLB goes through
+ * {@link ChunkTransfer} to a peer with a {@link ChunkStore}, cold, again, and after an edit.
+ * The link is configured with system properties:
+ *
+ * <pre>
+ * ./gradlew :WrappedBluetoothMessage:testDebugUnitTest --tests '*AssetTransferTest' -i \
+ *     -Dasset.gltf=/path/to/model.gltf -Dasset.bandwidth=250000 -Dasset.latencyMillis=40
+ * </pre>
+ */
+public class AssetTransferTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+    private static final int WRITE_SIZE = 4096;
+
+    // The model from the repository root, relative to the module the tests run in
+    private final String mModelPath = System.getProperty("asset.gltf", "../../modelo2.gltf");
+    private final long mBandwidth = Long.getLong("asset.bandwidth", 2000000);
+    private final long mLatencyMillis = Long.getLong("asset.latencyMillis", 20);
+
+    @Test
+    public void glbTakesLessWireAndTime() throws Exception {
+        File model = new File(mModelPath);
+        assumeTrue(model.isFile());
+        byte[] gltf = readFile(model);
+
+        Result raw = transfer(gltf, false);
+        Result glb = transfer(gltf, true);
+        print("gltf", raw);
+        print("glb", glb);
+
+        assertTrue(glb.mWireBytes < raw.mWireBytes);
+        assertEquals(raw.mBinaryBytes, glb.mBinaryBytes);
+    }
+
+    @Test
+    public void chunkStoreSkipsKnownData() throws Exception {
+        File model = new File(mModelPath);
+        assumeTrue(model.isFile());
+        byte[] gltf = readFile(model);
+        // A renamed node, the kind of edit that comes back again and again
+        byte[] edited = new String(gltf, "UTF-8").replaceFirst("\"Armacao\"", "\"Armacao 2\"")
+                .getBytes("UTF-8");
+
+        File directory = File.createTempFile("chunks", "");
+        directory.delete();
+        File glb = File.createTempFile("model", ".glb");
+        File editedGlb = File.createTempFile("edited", ".glb");
+        try {
+            writeFile(glb, transcode(gltf));
+            writeFile(editedGlb, transcode(edited));
+            ChunkStore store = new ChunkStore(directory, 16 * 1024 * 1024);
+
+            Result cold = transferChunks(glb, store);
+            Result warm = transferChunks(glb, store);
+            Result edit = transferChunks(editedGlb, store);
+            print("glb, cold store", cold);
+            print("glb, warm store", warm);
+            print("edited glb", edit);
+
+            assertTrue(warm.mWireBytes < cold.mWireBytes / 50);
+            assertTrue(edit.mWireBytes < cold.mWireBytes / 10);
+            store.clear();
+        } finally {
+            glb.delete();
+            editedGlb.delete();
+            directory.delete();
+        }
+    }
+
+    private Result transfer(byte[] gltf, final boolean asGlb) throws Exception {
+        MemoryTransport.Network network = new MemoryTransport.Network();
+        ImpairedTransport sending =
+                new ImpairedTransport(new MemoryTransport(network, ADDRESS_A, "A"), 1);
+        ImpairedTransport receiving =
+                new ImpairedTransport(new MemoryTransport(network, ADDRESS_B, "B"), 2);
+        sending.setBandwidth(mBandwidth);
+        sending.setLatencyMillis(mLatencyMillis);
+
+        final MessageServerSocket server = receiving.listen(false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        MessageSocket socket = sending.createSocket(ADDRESS_B, false);
+        try {
+            Future<Long> received = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    MessageSocket accepted = server.accept();
+                    try {
+                        return receive(accepted.getInputStream(), asGlb);
+                    } finally {
+                        accepted.close();
+                    }
+                }
+            });
+            socket.connect();
+
+            long start = System.nanoTime();
+            byte[] payload = asGlb ? transcode(gltf) : gltf;
+            DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            output.writeLong(payload.length);
+            // A write at a time, each one is a chunk on the delay line
+            for (int offset = 0; offset < payload.length; offset += WRITE_SIZE) {
+                output.write(payload, offset, Math.min(WRITE_SIZE, payload.length - offset));
+            }
+            output.flush();
+            long binaryBytes = received.get(5, TimeUnit.MINUTES);
+
+            Result result = new Result();
+            result.mWireBytes = 8 + payload.length;
+            result.mBinaryBytes = binaryBytes;
+            result.mNanos = System.nanoTime() - start;
+            return result;
+        } finally {
+            socket.close();
+            server.close();
+            executor.shutdownNow();
+        }
+    }
+
+    private Result transferChunks(final File file, final ChunkStore store) throws Exception {
+        MemoryTransport.Network network = new MemoryTransport.Network();
+        ImpairedTransport sending =
+                new ImpairedTransport(new MemoryTransport(network, ADDRESS_A, "A"), 1);
+        ImpairedTransport receiving =
+                new ImpairedTransport(new MemoryTransport(network, ADDRESS_B, "B"), 2);
+        sending.setBandwidth(mBandwidth);
+        sending.setLatencyMillis(mLatencyMillis);
+        receiving.setLatencyMillis(mLatencyMillis);
+
+        final MessageServerSocket server = receiving.listen(false);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        MessageSocket socket = sending.createSocket(ADDRESS_B, false);
+        try {
+            Future<ChunkTransfer.Stats> received = executor.submit(
+                    new Callable<ChunkTransfer.Stats>() {
+                        @Override
+                        public ChunkTransfer.Stats call() throws Exception {
+                            MessageSocket accepted = server.accept();
+                            try {
+                                ChunkTransfer.Stats stats = ChunkTransfer.receive(store,
+                                        accepted.getInputStream(), accepted.getOutputStream(),
+                                        new ByteArrayOutputStream());
+                                // Closing now would drop the confirmation still on the line
+                                awaitClose(accepted.getInputStream());
+                                return stats;
+                            } finally {
+                                accepted.close();
+                            }
+                        }
+                    });
+            socket.connect();
+
+            long start = System.nanoTime();
+            ChunkTransfer.Stats stats =
+                    ChunkTransfer.send(file, socket.getInputStream(), socket.getOutputStream());
+            Result result = new Result();
+            result.mNanos = System.nanoTime() - start;
+            socket.close();
+            result.mWireBytes = stats.getWireBytes();
+            result.mBinaryBytes = received.get(5, TimeUnit.MINUTES).getLength();
+            return result;
+        } finally {
+            socket.close();
+            server.close();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read one asset like an app about to show it would.
+     *
+     * @return bytes of geometry and images received
+     */
+    private static long receive(InputStream input, boolean asGlb) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        long length = data.readLong();
+        if (asGlb) {
+            GlbReader reader = new GlbReader(data);
+            assertEquals(length, reader.getLength());
+            return drain(reader.getBinary());
+        }
+        byte[] gltf = new byte[(int) length];
+        data.readFully(gltf);
+        // Parsing and decoding every data URI is what a .gltf costs its receiver
+        ByteArrayOutputStream glb = new ByteArrayOutputStream();
+        GltfTranscoder.transcode(new ByteArrayInputStream(gltf), glb);
+        return drain(new GlbReader(new ByteArrayInputStream(glb.toByteArray())).getBinary());
+    }
+
+    private static void awaitClose(InputStream input) {
+        try {
+            while (input.read() != -1) {
+                // Nothing more is sent
+            }
+        } catch (IOException e) {
+            // Closed by the other side
+        }
+    }
+
+    private static long drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static byte[] transcode(byte[] gltf) throws IOException {
+        ByteArrayOutputStream glb = new ByteArrayOutputStream();
+        GltfTranscoder.transcode(new ByteArrayInputStream(gltf), glb);
+        return glb.toByteArray();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            new DataInputStream(input).readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    private void print(String format, Result result) {
+        double seconds = result.mNanos / 1e9;
+        System.out.println(String.format(Locale.US,
+                "%s: %d bytes on the wire in %.2fs at %d B/s, %d bytes delivered",
+                format, result.mWireBytes, seconds, mBandwidth, result.mBinaryBytes));
+    }
+
+    private static class Result {
+        long mWireBytes;
+        long mBinaryBytes;
+        long mNanos;
+    }
+}
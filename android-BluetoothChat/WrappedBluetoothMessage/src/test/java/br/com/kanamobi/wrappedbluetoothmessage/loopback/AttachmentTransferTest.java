@@ -0,0 +1,151 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import br.com.kanamobi.wrappedbluetoothmessage.attachment.Attachment;
+import br.com.kanamobi.wrappedbluetoothmessage.attachment.OutgoingAttachment;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothAttachmentListener;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends an image attachment over a slow {@link ImpairedTransport} while chat messages keep
+ * going the same way, and measures when the receiver has the thumbnail, when it has the whole
+ * image, and how late the messages written during the transfer arrive. The link is configured
+ * with system properties:
+ *
+ * <pre>
+ * ./gradlew :WrappedBluetoothMessage:testDebugUnitTest --tests '*AttachmentTransferTest' -i \
+ *     -Dattachment.size=2000000 -Dattachment.bandwidth=100000
+ * </pre>
+ */
+public class AttachmentTransferTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+    private static final int THUMBNAIL_SIZE = 3000;
+    private static final int MESSAGE_SIZE = 64;
+
+    private final int mSize = Integer.getInteger("attachment.size", 500000);
+    private final long mBandwidth = Long.getLong("attachment.bandwidth", 250000);
+    private final long mLatencyMillis = Long.getLong("attachment.latencyMillis", 20);
+    private final long mMessageIntervalMillis =
+            Long.getLong("attachment.messageIntervalMillis", 50);
+    // Writes the stack buffers before blocking, 4 chunks of the attachment
+    private final int mLineChunks = Integer.getInteger("attachment.lineChunks", 4);
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+
+    @Before
+    public void setUp() {
+        ImpairedTransport transportA =
+                new ImpairedTransport(mLoopback.transport(ADDRESS_A, "A"), 1);
+        ImpairedTransport transportB =
+                new ImpairedTransport(mLoopback.transport(ADDRESS_B, "B"), 2);
+        transportA.setBandwidth(mBandwidth);
+        transportA.setLatencyMillis(mLatencyMillis);
+        transportA.setLineChunks(mLineChunks);
+        transportB.setLatencyMillis(mLatencyMillis);
+        mA = mLoopback.endpoint(transportA, ADDRESS_A);
+        mB = mLoopback.endpoint(transportB, ADDRESS_B);
+    }
+
+    @Test
+    public void thumbnailAndMessagesDoNotWaitForTheImage() throws Exception {
+        LoopbackHarnessTest.connect(mB, mA);
+        Receiver receiver = new Receiver();
+        mB.getService().setBluetoothAttachmentListener(receiver);
+
+        byte[] data = new byte[mSize];
+        new Random(1).nextBytes(data);
+        byte[] thumbnail = Arrays.copyOf(data, THUMBNAIL_SIZE);
+        long start = System.nanoTime();
+        assertTrue(mA.getService().sendAttachment(
+                new OutgoingAttachment("image/jpeg", 1600, 1200, thumbnail, data)));
+
+        // Chat goes on while the image is on its way
+        long sequence = 0;
+        while (!receiver.mReceived.await(mMessageIntervalMillis, TimeUnit.MILLISECONDS)) {
+            mA.send(sequence++, System.nanoTime(), MESSAGE_SIZE);
+        }
+        assertTrue(mB.awaitReceived(sequence, 5000));
+
+        long thumbnailNanos = receiver.mThumbnailNanos - start;
+        long receivedNanos = receiver.mReceivedNanos - start;
+        long[] latencies = mB.getSortedLatencies();
+        System.out.println(String.format(Locale.US,
+                "%d bytes at %d B/s: thumbnail after %.1fms, image after %.1fms, %d messages "
+                        + "meanwhile, latency ms p50 %.1f p99 %.1f max %.1f, %d progress steps",
+                mSize, mBandwidth, thumbnailNanos / 1e6, receivedNanos / 1e6, sequence,
+                LoopbackEndpoint.percentile(latencies, 50) / 1e6,
+                LoopbackEndpoint.percentile(latencies, 99) / 1e6,
+                LoopbackEndpoint.percentile(latencies, 100) / 1e6, receiver.mProgress));
+
+        assertArrayEquals(thumbnail, receiver.mThumbnail);
+        assertArrayEquals(data, receiver.mData);
+        assertEquals(1600, receiver.mAttachment.getWidth());
+        assertTrue(thumbnailNanos < receivedNanos / 10);
+        // A message waits for the chunks already in the stack buffer, not for the image
+        assertTrue(LoopbackEndpoint.percentile(latencies, 100) < receivedNanos / 4);
+        assertEquals(0, mB.getLost());
+    }
+
+    private static class Receiver implements BluetoothAttachmentListener {
+        final CountDownLatch mReceived = new CountDownLatch(1);
+        volatile Attachment mAttachment;
+        volatile byte[] mThumbnail;
+        volatile byte[] mData;
+        volatile long mThumbnailNanos;
+        volatile long mReceivedNanos;
+        volatile int mProgress;
+
+        @Override
+        public void onAttachmentStarted(String address, String deviceName,
+                                        Attachment attachment) {
+            mAttachment = attachment;
+        }
+
+        @Override
+        public void onAttachmentThumbnail(String address, Attachment attachment,
+                                          byte[] thumbnail) {
+            mThumbnailNanos = System.nanoTime();
+            mThumbnail = thumbnail;
+        }
+
+        @Override
+        public void onAttachmentProgress(String address, Attachment attachment, int received) {
+            mProgress++;
+        }
+
+        @Override
+        public void onAttachmentReceived(String address, Attachment attachment, byte[] data) {
+            mReceivedNanos = System.nanoTime();
+            mData = data;
+            mReceived.countDown();
+        }
+
+        @Override
+        public void onAttachmentFailed(String address, Attachment attachment) {
+        }
+
+        @Override
+        public void onAttachmentSent(String address, Attachment attachment) {
+        }
+
+        @Override
+        public void onAttachmentSendFailed(String address, Attachment attachment) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothConnectListener;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageServerSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+import static org.junit.Assert.*;
+
+/**
+ * A connect to an address the transport rejects, like BluetoothAdapter.getRemoteDevice() does,
+ * while another connection is up.
+ */
+public class BadAddressTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+    private static final String BAD_ADDRESS = "not an address";
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+
+    @Before
+    public void setUp() {
+        final MemoryTransport transport = mLoopback.transport(ADDRESS_B, "B");
+        mA = mLoopback.endpoint(ADDRESS_A, "A");
+        mB = mLoopback.endpoint(new MessageTransport() {
+            @Override
+            public MessageServerSocket listen(boolean secure) throws IOException {
+                return transport.listen(secure);
+            }
+
+            @Override
+            public MessageSocket createSocket(String address, boolean secure) {
+                if (BAD_ADDRESS.equals(address)) {
+                    throw new IllegalArgumentException(address + " is not a valid address");
+                }
+                return transport.createSocket(address, secure);
+            }
+
+            @Override
+            public void cancelDiscovery() {
+            }
+        }, ADDRESS_B);
+    }
+
+    @Test
+    public void failsWithoutDroppingTheConnection() throws Exception {
+        LoopbackHarnessTest.connect(mA, mB);
+        BluetoothMessageService client = mB.getService();
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<String> failedAddress = new AtomicReference<String>();
+        client.connect(BAD_ADDRESS, true, new BluetoothConnectListener() {
+            @Override
+            public void onConnected(String deviceName, long latencyMillis) {
+            }
+
+            @Override
+            public void onConnectionFailed(String address, long latencyMillis) {
+                failedAddress.set(address);
+                failed.countDown();
+            }
+        });
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(BAD_ADDRESS, failedAddress.get());
+
+        assertEquals(BluetoothMessageService.STATE_CONNECTED, client.getState());
+        client.write(LoopbackEndpoint.format(0, System.nanoTime(), 32));
+        assertTrue(mA.awaitReceived(1, 5000));
+    }
+}
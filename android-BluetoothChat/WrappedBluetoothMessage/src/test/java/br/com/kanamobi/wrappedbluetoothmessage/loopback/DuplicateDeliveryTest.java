@@ -0,0 +1,63 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService;
+
+import static org.junit.Assert.*;
+
+/**
+ * A client that sends a message again after the connection dropped, because it cannot know
+ * whether the message got through, and a server that must show it once.
+ */
+public class DuplicateDeliveryTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+
+    private ImpairedTransport mTransportB;
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+
+    @Before
+    public void setUp() {
+        mTransportB = new ImpairedTransport(mLoopback.transport(ADDRESS_B, "B"), 2);
+        mA = mLoopback.endpoint(ADDRESS_A, "A");
+        mB = mLoopback.endpoint(mTransportB, ADDRESS_B);
+    }
+
+    @Test
+    public void messageSentAgainAfterReconnectIsShownOnce() throws Exception {
+        LoopbackHarnessTest.connect(mA, mB);
+        BluetoothMessageService client = mB.getService();
+        long id = client.write(LoopbackEndpoint.format(0, System.nanoTime(), 32));
+        assertTrue(mA.awaitReceived(1, 5000));
+
+        mB.setReconnectAddress(ADDRESS_A);
+        mTransportB.disconnectAll();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mA.getService().getMetrics().getConnections() < 2
+                || client.getState() != BluetoothMessageService.STATE_CONNECTED) {
+            assertTrue("not reconnected", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        client.write(LoopbackEndpoint.format(0, System.nanoTime(), 32), id);
+        client.write(LoopbackEndpoint.format(1, System.nanoTime(), 32));
+        assertTrue(mA.awaitReceived(2, 5000));
+        Thread.sleep(50);
+
+        assertEquals(2, mA.getReceived());
+        assertEquals(0, mA.getOutOfOrder());
+        assertEquals(1, mA.getService().getMetrics().getDuplicates());
+        // Messages, not reads or frames, and the duplicate is not one
+        assertEquals(2, mA.getService().getMetrics().getTotal().getMessagesIn());
+        assertEquals(3, client.getMetrics().getTotal().getMessagesOut());
+    }
+}
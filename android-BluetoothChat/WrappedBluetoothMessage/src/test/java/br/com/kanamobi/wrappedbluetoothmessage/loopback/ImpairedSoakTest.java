@@ -0,0 +1,183 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService;
+import br.com.kanamobi.wrappedbluetoothmessage.metrics.TimelineAnalyzer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Two services over an {@link ImpairedTransport}: how long recovery from a dropped connection
+ * takes, what gets through a slow, stalling link that hands over one byte per read, and whether
+ * memory and threads stay flat across many reconnects. The client reconnects on its own like an
+ * app would. Runs for seconds with the unit tests, soak runs are configured with system
+ * properties:
+ *
+ * <pre>
+ * ./gradlew :WrappedBluetoothMessage:testDebugUnitTest --tests '*ImpairedSoakTest' -i \
+ *     -Dsoak.durationSeconds=7200 -Dsoak.disconnectIntervalMillis=30000 -Dsoak.rate=200
+ * </pre>
+ */
+public class ImpairedSoakTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+
+    private final long mDurationSeconds = Long.getLong("soak.durationSeconds", 3);
+    private final int mRate = Integer.getInteger("soak.rate", 500);
+    private final int[] mSizes =
+            LoopbackSender.parseSizes(System.getProperty("soak.sizes", "16,128,512"));
+    private final int mDisconnects = Integer.getInteger("soak.disconnects", 5);
+    private final long mDisconnectIntervalMillis =
+            Long.getLong("soak.disconnectIntervalMillis", 500);
+    private final long mLatencyMillis = Long.getLong("soak.latencyMillis", 20);
+    private final long mBandwidth = Long.getLong("soak.bandwidth", 100000);
+    private final int mMaxReadSize = Integer.getInteger("soak.maxReadSize", 1);
+    private final long mStallIntervalMillis = Long.getLong("soak.stallIntervalMillis", 500);
+    private final long mStallMillis = Long.getLong("soak.stallMillis", 100);
+    private final long mMaxHeapGrowthMb = Long.getLong("soak.maxHeapGrowthMb", 16);
+
+    private ImpairedTransport mTransportA;
+    private ImpairedTransport mTransportB;
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+
+    @Before
+    public void setUp() {
+        mTransportA = new ImpairedTransport(mLoopback.transport(ADDRESS_A, "A"), 1);
+        mTransportB = new ImpairedTransport(mLoopback.transport(ADDRESS_B, "B"), 2);
+        mA = mLoopback.endpoint(mTransportA, ADDRESS_A);
+        mB = mLoopback.endpoint(mTransportB, ADDRESS_B);
+    }
+
+    @Test
+    public void recoversFromDisconnects() throws Exception {
+        mTransportB.setLatencyMillis(mLatencyMillis);
+        LoopbackHarnessTest.connect(mA, mB);
+        mB.setReconnectAddress(ADDRESS_A);
+
+        long sequence = 0;
+        long[] recoveries = new long[mDisconnects];
+        for (int i = 0; i < mDisconnects; i++) {
+            // Traffic flows before the drop
+            long beforeDrop = sequence;
+            mB.send(sequence++, System.nanoTime(), mSizes[0]);
+            assertTrue("no traffic before drop " + i, mA.awaitSequence(beforeDrop, 5000));
+
+            long dropped = System.nanoTime();
+            mTransportB.disconnectAll();
+
+            // Recovered once a message written after the drop arrives, the ones still in flight
+            // from before it do not count
+            long afterDrop = sequence;
+            long deadline = dropped + TimeUnit.SECONDS.toNanos(10);
+            while (mA.getLastSequence() < afterDrop) {
+                assertTrue("not recovered from drop " + i, System.nanoTime() < deadline);
+                if (mB.getService().getState() == BluetoothMessageService.STATE_CONNECTED) {
+                    mB.send(sequence++, System.nanoTime(), mSizes[0]);
+                }
+                Thread.sleep(1);
+            }
+            recoveries[i] = System.nanoTime() - dropped;
+        }
+
+        Arrays.sort(recoveries);
+        System.out.println(String.format(Locale.US,
+                "recovery over %d drops: ms p50 %.1f p90 %.1f max %.1f", mDisconnects,
+                LoopbackEndpoint.percentile(recoveries, 50) / 1e6,
+                LoopbackEndpoint.percentile(recoveries, 90) / 1e6,
+                LoopbackEndpoint.percentile(recoveries, 100) / 1e6));
+        System.out.print(TimelineAnalyzer.format(
+                TimelineAnalyzer.analyze(mB.getService().getTimeline().getEvents())));
+        assertEquals(0, mA.getOutOfOrder());
+    }
+
+    @Test
+    public void deliversEverythingOverAnImpairedLink() throws Exception {
+        for (ImpairedTransport transport : new ImpairedTransport[]{mTransportA, mTransportB}) {
+            transport.setLatencyMillis(mLatencyMillis);
+            transport.setBandwidth(mBandwidth);
+            transport.setMaxReadSize(mMaxReadSize);
+            transport.setStalls(mStallIntervalMillis, mStallMillis);
+        }
+        LoopbackHarnessTest.connect(mA, mB);
+
+        // Unthrottled, the link sets the pace
+        LoopbackSender sender = new LoopbackSender(mB,
+                TimeUnit.SECONDS.toMillis(mDurationSeconds), 0, mSizes);
+        sender.start();
+        sender.join();
+
+        assertTrue("messages still missing", mA.awaitReceived(sender.getSent(), 30000));
+        LoopbackHarnessTest.report("B -> A impaired", sender, mA);
+        assertEquals(0, mA.getOutOfOrder());
+        assertEquals(0, mA.getLost());
+    }
+
+    @Test
+    public void memoryStaysFlatAcrossReconnects() throws Exception {
+        mTransportB.setLatencyMillis(mLatencyMillis);
+        mTransportB.setDisconnects(mDisconnectIntervalMillis);
+        mA.setKeepLatencies(false);
+        LoopbackHarnessTest.connect(mA, mB);
+        mB.setReconnectAddress(ADDRESS_A);
+
+        long durationMillis = TimeUnit.SECONDS.toMillis(mDurationSeconds);
+        LoopbackSender sender = new LoopbackSender(mB, durationMillis, mRate, mSizes);
+        sender.start();
+
+        // Baseline once everything is warmed up, then a sample every tenth of the run
+        long sampleMillis = Math.max(100, durationMillis / 10);
+        Thread.sleep(sampleMillis);
+        long baselineHeap = usedHeapAfterGc();
+        int baselineThreads = Thread.activeCount();
+        long maxHeap = baselineHeap;
+        int maxThreads = baselineThreads;
+        while (sender.isAlive()) {
+            sender.join(sampleMillis);
+            long heap = usedHeapAfterGc();
+            int threads = Thread.activeCount();
+            maxHeap = Math.max(maxHeap, heap);
+            maxThreads = Math.max(maxThreads, threads);
+            System.out.println(String.format(Locale.US,
+                    "soak: heap %.1f MB threads %d received %d lost %d drops %d",
+                    heap / 1e6, threads, mA.getReceived(), mA.getLost(),
+                    mTransportB.getDisconnects()));
+        }
+        long endHeap = usedHeapAfterGc();
+
+        System.out.println(String.format(Locale.US,
+                "soak: %d msgs, %d drops, heap %.1f -> %.1f MB (max %.1f), threads %d -> max %d",
+                mA.getReceived(), mTransportB.getDisconnects(), baselineHeap / 1e6,
+                endHeap / 1e6, maxHeap / 1e6, baselineThreads, maxThreads));
+        assertTrue(mA.getReceived() > 0);
+        assertEquals(0, mA.getOutOfOrder());
+        assertTrue("heap grew from " + baselineHeap + " to " + endHeap,
+                endHeap - baselineHeap < mMaxHeapGrowthMb * 1024 * 1024);
+        // A connection has a handful of threads, a leak adds some with every reconnect
+        assertTrue("threads grew from " + baselineThreads + " to " + maxThreads,
+                maxThreads - baselineThreads <= 8);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 2; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
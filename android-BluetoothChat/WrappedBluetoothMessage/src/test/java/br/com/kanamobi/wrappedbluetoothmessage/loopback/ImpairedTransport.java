@@ -0,0 +1,334 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageServerSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+/**
+ * {@link MessageTransport} that makes the sockets of another one behave like a bad RFCOMM link.
+ * Writes go through a delay line that adds latency, caps the bandwidth and stalls now and then,
+ * reads return at most a few bytes, and connections drop at random. Everything is off until
+ * set, and settings apply to sockets opened afterwards.
+ *
+ * Writes return once the bytes are queued on the delay line, like they do once the Bluetooth
+ * stack has buffered them.
+ */
+class ImpairedTransport implements MessageTransport {
+
+    // Chunks on the delay line before writers block
+    private static final int LINE_CHUNKS = 64;
+
+    private final MessageTransport mTransport;
+    private final Random mRandom;
+
+    private volatile long mLatencyNanos;
+    private volatile long mBytesPerSecond;
+    private volatile int mMaxReadSize = Integer.MAX_VALUE;
+    private volatile long mStallIntervalNanos;
+    private volatile long mStallNanos;
+    private volatile long mDisconnectIntervalNanos;
+    private volatile int mLineChunks = LINE_CHUNKS;
+
+    // Guarded by this
+    private final List<Socket> mOpen = new ArrayList<Socket>();
+    private long mDisconnects;
+
+    ImpairedTransport(MessageTransport transport, long seed) {
+        mTransport = transport;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Time every written byte takes to reach the other side.
+     */
+    void setLatencyMillis(long millis) {
+        mLatencyNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Upper bound on the write rate, 0 for none.
+     */
+    void setBandwidth(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Most bytes a single read returns, 1 hands the service one byte at a time.
+     */
+    void setMaxReadSize(int bytes) {
+        mMaxReadSize = bytes;
+    }
+
+    /**
+     * Stop sending for durationMillis, on average every intervalMillis. 0 turns stalls off.
+     */
+    void setStalls(long intervalMillis, long durationMillis) {
+        mStallIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        mStallNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    }
+
+    /**
+     * Drop each connection after a random time, on average intervalMillis. 0 turns it off.
+     */
+    void setDisconnects(long intervalMillis) {
+        mDisconnectIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * Writes on the delay line before the next write blocks, the send buffer of the stack.
+     */
+    void setLineChunks(int chunks) {
+        mLineChunks = chunks;
+    }
+
+    /**
+     * Drop every open connection now.
+     */
+    void disconnectAll() {
+        List<Socket> open;
+        synchronized (this) {
+            open = new ArrayList<Socket>(mOpen);
+        }
+        for (Socket socket : open) {
+            socket.drop();
+        }
+    }
+
+    synchronized long getDisconnects() {
+        return mDisconnects;
+    }
+
+    @Override
+    public MessageServerSocket listen(boolean secure) throws IOException {
+        final MessageServerSocket server = mTransport.listen(secure);
+        return new MessageServerSocket() {
+            @Override
+            public MessageSocket accept() throws IOException {
+                MessageSocket socket = server.accept();
+                if (socket == null) {
+                    return null;
+                }
+                Socket impaired = new Socket(socket);
+                impaired.open();
+                return impaired;
+            }
+
+            @Override
+            public void close() throws IOException {
+                server.close();
+            }
+        };
+    }
+
+    @Override
+    public MessageSocket createSocket(String address, boolean secure) throws IOException {
+        return new Socket(mTransport.createSocket(address, secure));
+    }
+
+    @Override
+    public void cancelDiscovery() {
+        mTransport.cancelDiscovery();
+    }
+
+    /**
+     * Exponentially distributed delay with the given mean.
+     */
+    private synchronized long nextDelayNanos(long meanNanos) {
+        return (long) (-Math.log(1 - mRandom.nextDouble()) * meanNanos);
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long now;
+        while ((now = System.nanoTime()) < deadlineNanos) {
+            TimeUnit.NANOSECONDS.sleep(deadlineNanos - now);
+        }
+    }
+
+    private static class Chunk {
+        final byte[] bytes;
+        final long dueNanos;
+
+        Chunk(byte[] bytes, long dueNanos) {
+            this.bytes = bytes;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private class Socket implements MessageSocket, Runnable {
+        private final MessageSocket mSocket;
+        private final BlockingQueue<Chunk> mLine =
+                new ArrayBlockingQueue<Chunk>(ImpairedTransport.this.mLineChunks);
+        private final long mLatencyNanos = ImpairedTransport.this.mLatencyNanos;
+        private final long mBytesPerSecond = ImpairedTransport.this.mBytesPerSecond;
+        private final int mMaxReadSize = ImpairedTransport.this.mMaxReadSize;
+        private final long mStallIntervalNanos = ImpairedTransport.this.mStallIntervalNanos;
+        private final long mStallNanos = ImpairedTransport.this.mStallNanos;
+        private final long mDisconnectIntervalNanos =
+                ImpairedTransport.this.mDisconnectIntervalNanos;
+
+        private Thread mPump;
+        private volatile boolean mClosed;
+        private volatile IOException mWriteError;
+
+        private final OutputStream mOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                if (mClosed || mWriteError != null) {
+                    throw mWriteError != null ? mWriteError : new IOException("Socket closed");
+                }
+                Chunk chunk = new Chunk(Arrays.copyOfRange(buffer, offset, offset + length),
+                        System.nanoTime() + mLatencyNanos);
+                try {
+                    while (!mLine.offer(chunk, 10, TimeUnit.MILLISECONDS)) {
+                        if (mClosed) {
+                            throw new IOException("Socket closed");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException("write interrupted");
+                }
+            }
+        };
+
+        private InputStream mInput;
+
+        Socket(MessageSocket socket) {
+            mSocket = socket;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            mSocket.connect();
+            open();
+        }
+
+        /**
+         * Start the delay line once the underlying socket is connected.
+         */
+        void open() throws IOException {
+            final InputStream input = mSocket.getInputStream();
+            mInput = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    return input.read(buffer, offset, Math.min(length, mMaxReadSize));
+                }
+            };
+
+            synchronized (ImpairedTransport.this) {
+                mOpen.add(this);
+            }
+            mPump = new Thread(this, "impaired-" + mSocket.getRemoteAddress());
+            mPump.setDaemon(true);
+            mPump.start();
+        }
+
+        /**
+         * Moves chunks from the delay line to the real socket once they are due.
+         */
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            long nextStall = mStallIntervalNanos > 0
+                    ? now + nextDelayNanos(mStallIntervalNanos) : Long.MAX_VALUE;
+            long disconnectAt = mDisconnectIntervalNanos > 0
+                    ? now + nextDelayNanos(mDisconnectIntervalNanos) : Long.MAX_VALUE;
+            long sendAt = now;
+
+            try {
+                OutputStream output = mSocket.getOutputStream();
+                while (!mClosed) {
+                    Chunk chunk = mLine.poll(10, TimeUnit.MILLISECONDS);
+                    if (System.nanoTime() >= disconnectAt) {
+                        drop();
+                        return;
+                    }
+                    if (chunk == null) {
+                        continue;
+                    }
+
+                    sendAt = Math.max(sendAt, chunk.dueNanos);
+                    if (sendAt >= nextStall) {
+                        sendAt += mStallNanos;
+                        nextStall = sendAt + nextDelayNanos(mStallIntervalNanos);
+                    }
+                    sleepUntil(Math.min(sendAt, disconnectAt));
+                    if (System.nanoTime() >= disconnectAt) {
+                        drop();
+                        return;
+                    }
+                    output.write(chunk.bytes);
+                    if (mBytesPerSecond > 0) {
+                        sendAt += chunk.bytes.length * 1000000000L / mBytesPerSecond;
+                    }
+                }
+            } catch (IOException e) {
+                mWriteError = e;
+            } catch (InterruptedException e) {
+                // Closed
+            }
+        }
+
+        void drop() {
+            synchronized (ImpairedTransport.this) {
+                if (mOpen.contains(this)) {
+                    mDisconnects++;
+                }
+            }
+            close();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mInput;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOutput;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+            synchronized (ImpairedTransport.this) {
+                mOpen.remove(this);
+            }
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return mSocket.getRemoteAddress();
+        }
+
+        @Override
+        public String getRemoteName() {
+            return mSocket.getRemoteName();
+        }
+    }
+}
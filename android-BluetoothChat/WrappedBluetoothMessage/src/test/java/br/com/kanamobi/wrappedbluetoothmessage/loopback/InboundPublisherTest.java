@@ -0,0 +1,100 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Reactive Streams subscriber gets one decoded message per unit of demand, however the
+ * messages were split into reads.
+ */
+public class InboundPublisherTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+
+    @Before
+    public void setUp() {
+        mA = mLoopback.endpoint(ADDRESS_A, "A");
+        mB = mLoopback.endpoint(ADDRESS_B, "B");
+    }
+
+    @Test
+    public void deliversOneMessagePerRequest() throws Exception {
+        LoopbackHarnessTest.connect(mA, mB);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mA.getService().getInboundPublisher().subscribe(subscriber);
+        subscriber.mSubscription.request(1);
+
+        BluetoothMessageService client = mB.getService();
+        client.write("first");
+        client.write("second");
+        client.write("third");
+        subscriber.await(1);
+        // Whatever else was read waits for demand
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("first"), subscriber.getMessages());
+
+        subscriber.mSubscription.request(2);
+        subscriber.await(3);
+        assertEquals(Arrays.asList("first", "second", "third"), subscriber.getMessages());
+    }
+
+    private static class RecordingSubscriber implements Subscriber<byte[]> {
+        private final List<String> mMessages = new ArrayList<String>();
+        volatile Subscription mSubscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public synchronized void onNext(byte[] message) {
+            try {
+                mMessages.add(new String(message, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+            notifyAll();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        synchronized List<String> getMessages() {
+            return new ArrayList<String>(mMessages);
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mMessages.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("only " + mMessages, remaining > 0);
+                wait(remaining);
+            }
+        }
+    }
+}
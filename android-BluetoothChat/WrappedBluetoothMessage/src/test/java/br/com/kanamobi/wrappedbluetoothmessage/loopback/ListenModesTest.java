@@ -0,0 +1,113 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothConnectListener;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageServerSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+import static org.junit.Assert.*;
+
+/**
+ * A server that listens only for insecure connections, on its accept thread rather than on
+ * the thread that starts it.
+ */
+public class ListenModesTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+
+    private final List<Boolean> mListened = Collections.synchronizedList(new ArrayList<Boolean>());
+    private final CountDownLatch mOpen = new CountDownLatch(1);
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+
+    @Before
+    public void setUp() {
+        final MemoryTransport transport = mLoopback.transport(ADDRESS_A, "A");
+        // Holds every listen() until the test lets it through
+        mA = mLoopback.endpoint(new MessageTransport() {
+            @Override
+            public MessageServerSocket listen(boolean secure) throws IOException {
+                mListened.add(secure);
+                try {
+                    mOpen.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return transport.listen(secure);
+            }
+
+            @Override
+            public MessageSocket createSocket(String address, boolean secure) {
+                return transport.createSocket(address, secure);
+            }
+
+            @Override
+            public void cancelDiscovery() {
+            }
+        }, ADDRESS_A);
+        mB = mLoopback.endpoint(ADDRESS_B, "B");
+    }
+
+    @After
+    public void tearDown() {
+        // Before the rule closes the endpoints
+        mOpen.countDown();
+    }
+
+    @Test
+    public void listensOnlyInTheRequestedModes() throws Exception {
+        mA.getService().setListenModes(false, true);
+        // Returns while the socket is still being opened
+        mA.getService().start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mListened.isEmpty()) {
+            assertTrue("never listened", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        mOpen.countDown();
+
+        assertFalse(connectSecurely());
+        LoopbackHarnessTest.connect(mA, mB, false);
+        assertEquals(Collections.singletonList(false), new ArrayList<Boolean>(mListened));
+    }
+
+    /**
+     * @return whether B got a secure connection to A
+     */
+    private boolean connectSecurely() throws InterruptedException {
+        final AtomicBoolean connected = new AtomicBoolean();
+        final CountDownLatch attempted = new CountDownLatch(1);
+        mB.getService().connect(ADDRESS_A, true, new BluetoothConnectListener() {
+            @Override
+            public void onConnected(String deviceName, long latencyMillis) {
+                connected.set(true);
+                attempted.countDown();
+            }
+
+            @Override
+            public void onConnectionFailed(String address, long latencyMillis) {
+                attempted.countDown();
+            }
+        });
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+        return connected.get();
+    }
+}
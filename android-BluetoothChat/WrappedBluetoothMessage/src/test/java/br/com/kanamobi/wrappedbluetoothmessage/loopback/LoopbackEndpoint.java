@@ -0,0 +1,271 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import java.util.Arrays;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothDeviceListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothMessageListener;
+import br.com.kanamobi.wrappedbluetoothmessage.dispatch.ExecutorDispatcher;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+/**
+ * A {@link BluetoothMessageService} on its own callback thread, sending and checking numbered
+ * messages. Each message is one line, "sequence,send time,padding", so the receiver can put
+ * the reads back together however the transport split them. Sequence numbers only go up, a
+ * jump forward counts the messages lost with a dropped connection.
+ */
+class LoopbackEndpoint implements BluetoothMessageListener, BluetoothDeviceListener {
+
+    // Gives the other side time to listen again after a dropped connection
+    private static final long RECONNECT_DELAY_MS = 20;
+
+    private final String mAddress;
+    private final ExecutorDispatcher mDispatcher;
+    private final BluetoothMessageService mService;
+
+    // Guarded by this, written on the callback thread
+    private final StringBuilder mPending = new StringBuilder();
+    private long mExpectedSequence;
+    private long mOutOfOrder;
+    private long mLost;
+    private long mReceived;
+    private long mReceivedBytes;
+    private long mLastReceivedNanos;
+    private long[] mLatencies = new long[1024];
+    private boolean mKeepLatencies = true;
+
+    private volatile String mReconnectAddress;
+
+    LoopbackEndpoint(MessageTransport transport, String address) {
+        mAddress = address;
+        mDispatcher = new ExecutorDispatcher("callbacks-" + address);
+        mService = new BluetoothMessageService(transport, mDispatcher);
+        mService.setBluetoothMessageListener(this);
+        mService.setBluetoothDeviceListener(this);
+    }
+
+    String getAddress() {
+        return mAddress;
+    }
+
+    BluetoothMessageService getService() {
+        return mService;
+    }
+
+    /**
+     * Connect to address again whenever the connection drops or an attempt fails, null stops.
+     */
+    void setReconnectAddress(String address) {
+        mReconnectAddress = address;
+    }
+
+    /**
+     * Latencies are kept by default. Long runs that only count messages turn them off, so the
+     * harness itself does not grow.
+     */
+    synchronized void setKeepLatencies(boolean keep) {
+        mKeepLatencies = keep;
+    }
+
+    /**
+     * Send message number sequence of size bytes, stamped with timestampNanos.
+     */
+    void send(long sequence, long timestampNanos, int size) {
+        mService.write(format(sequence, timestampNanos, size));
+    }
+
+    static String format(long sequence, long timestampNanos, int size) {
+        StringBuilder line = new StringBuilder(size);
+        line.append(sequence).append(',').append(timestampNanos).append(',');
+        while (line.length() < size - 1) {
+            line.append('x');
+        }
+        return line.append('\n').toString();
+    }
+
+    @Override
+    public void onMessageWrite(String message) {
+    }
+
+    @Override
+    public synchronized void onMessageRead(String message) {
+        long now = System.nanoTime();
+        mPending.append(message);
+        int start = 0;
+        int end;
+        while ((end = mPending.indexOf("\n", start)) >= 0) {
+            int first = mPending.indexOf(",", start);
+            int second = mPending.indexOf(",", first + 1);
+            long sequence = Long.parseLong(mPending.substring(start, first));
+            long sent = Long.parseLong(mPending.substring(first + 1, second));
+
+            if (sequence < mExpectedSequence) {
+                mOutOfOrder++;
+            } else {
+                mLost += sequence - mExpectedSequence;
+                mExpectedSequence = sequence + 1;
+            }
+            if (mKeepLatencies) {
+                if (mReceived == mLatencies.length) {
+                    mLatencies = Arrays.copyOf(mLatencies, mLatencies.length * 2);
+                }
+                mLatencies[(int) mReceived] = now - sent;
+            }
+            mReceived++;
+            mReceivedBytes += end + 1 - start;
+            mLastReceivedNanos = now;
+            start = end + 1;
+        }
+        mPending.delete(0, start);
+    }
+
+    @Override
+    public void onDeviceStateConnected(String deviceName) {
+    }
+
+    @Override
+    public void onDeviceStateConnecting() {
+    }
+
+    @Override
+    public void onDeviceStateNotConnected() {
+    }
+
+    @Override
+    public void onDeviceStateDisconnected() {
+        // The last reads of the connection came before this, a cut off line never completes
+        synchronized (this) {
+            mPending.setLength(0);
+        }
+        reconnect();
+    }
+
+    @Override
+    public void onDeviceStateConnectionFailed() {
+        reconnect();
+    }
+
+    private void reconnect() {
+        if (mReconnectAddress == null) {
+            return;
+        }
+        mDispatcher.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                String address = mReconnectAddress;
+                if (address != null
+                        && mService.getState() != BluetoothMessageService.STATE_CONNECTED) {
+                    mService.connect(address, true, null);
+                }
+            }
+        }, RECONNECT_DELAY_MS);
+    }
+
+    synchronized long getReceived() {
+        return mReceived;
+    }
+
+    /**
+     * Highest sequence number received so far, -1 before the first message.
+     */
+    synchronized long getLastSequence() {
+        return mExpectedSequence - 1;
+    }
+
+    synchronized long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    synchronized long getOutOfOrder() {
+        return mOutOfOrder;
+    }
+
+    synchronized long getLost() {
+        return mLost;
+    }
+
+    synchronized long getLastReceivedNanos() {
+        return mLastReceivedNanos;
+    }
+
+    /**
+     * Latencies of the messages received so far, sorted.
+     */
+    synchronized long[] getSortedLatencies() {
+        long[] sorted = Arrays.copyOf(mLatencies, mKeepLatencies ? (int) mReceived : 0);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Forget what was received, for example after a reconnect started the sequence over.
+     */
+    synchronized void reset() {
+        mPending.setLength(0);
+        mExpectedSequence = 0;
+        mOutOfOrder = 0;
+        mLost = 0;
+        mReceived = 0;
+        mReceivedBytes = 0;
+        mLastReceivedNanos = 0;
+    }
+
+    /**
+     * Wait until the service is connected, false on timeout.
+     */
+    boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (mService.getState() != BluetoothMessageService.STATE_CONNECTED) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * Wait until count messages arrived, false on timeout.
+     */
+    boolean awaitReceived(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (getReceived() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * Wait until message number sequence, or a later one, has been received.
+     */
+    boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (getLastSequence() < sequence) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    void close() {
+        mReconnectAddress = null;
+        mService.stop();
+        mDispatcher.shutdown();
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,147 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothConnectListener;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput and latency of two services talking over {@link MemoryTransport}, through
+ * {@code write} and the message listener like an app would. Runs briefly with the unit tests,
+ * longer runs are configured with system properties:
+ *
+ * <pre>
+ * ./gradlew :WrappedBluetoothMessage:testDebugUnitTest --tests '*LoopbackHarnessTest' \
+ *     -Dloopback.durationSeconds=60 -Dloopback.rate=2000 -Dloopback.sizes=16,256,4096 \
+ *     -Dloopback.bidirectional=true
+ * </pre>
+ *
+ * A rate of 0 sends as fast as the transport takes it.
+ */
+public class LoopbackHarnessTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+
+    private final long mDurationSeconds = Long.getLong("loopback.durationSeconds", 2);
+    private final int mRate = Integer.getInteger("loopback.rate", 0);
+    private final int[] mSizes =
+            LoopbackSender.parseSizes(System.getProperty("loopback.sizes", "16,256,1024"));
+    private final boolean mBidirectional = Boolean.getBoolean("loopback.bidirectional");
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+
+    @Before
+    public void setUp() {
+        mA = mLoopback.endpoint(ADDRESS_A, "A");
+        mB = mLoopback.endpoint(ADDRESS_B, "B");
+    }
+
+    @After
+    public void tearDown() {
+        mA.getService().stop();
+        mB.getService().stop();
+    }
+
+    @Test
+    public void measureThroughputAndLatency() throws Exception {
+        connect(mA, mB);
+
+        long durationMillis = TimeUnit.SECONDS.toMillis(mDurationSeconds);
+        LoopbackSender forward = new LoopbackSender(mB, durationMillis, mRate, mSizes);
+        LoopbackSender backward =
+                mBidirectional ? new LoopbackSender(mA, durationMillis, mRate, mSizes) : null;
+        forward.start();
+        if (backward != null) {
+            backward.start();
+        }
+        forward.join();
+        if (backward != null) {
+            backward.join();
+        }
+
+        assertTrue("messages still missing", mA.awaitReceived(forward.getSent(), 30000));
+        report("B -> A", forward, mA);
+        assertEquals(0, mA.getOutOfOrder());
+        assertEquals(0, mA.getLost());
+        if (backward != null) {
+            assertTrue("messages still missing", mB.awaitReceived(backward.getSent(), 30000));
+            report("A -> B", backward, mB);
+            assertEquals(0, mB.getOutOfOrder());
+            assertEquals(0, mB.getLost());
+        }
+        System.out.println("A " + mA.getService().getMetrics());
+        System.out.println("B " + mB.getService().getMetrics());
+    }
+
+    /**
+     * Have client connect to the listening server and wait for both sides.
+     */
+    static void connect(LoopbackEndpoint server, LoopbackEndpoint client)
+            throws InterruptedException {
+        connect(server, client, true);
+    }
+
+    /**
+     * Have client connect to the listening server with the given socket security type.
+     */
+    static void connect(LoopbackEndpoint server, LoopbackEndpoint client, boolean secure)
+            throws InterruptedException {
+        server.getService().start();
+
+        // The server opens its sockets on its accept threads, the first attempts can be refused
+        final AtomicBoolean connected = new AtomicBoolean();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!connected.get()) {
+            assertTrue("not connected", System.currentTimeMillis() < deadline);
+            final CountDownLatch attempted = new CountDownLatch(1);
+            client.getService().connect(server.getAddress(), secure,
+                    new BluetoothConnectListener() {
+                        @Override
+                        public void onConnected(String deviceName, long latencyMillis) {
+                            connected.set(true);
+                            attempted.countDown();
+                        }
+
+                        @Override
+                        public void onConnectionFailed(String address, long latencyMillis) {
+                            attempted.countDown();
+                        }
+                    });
+            assertTrue("not connected", attempted.await(5, TimeUnit.SECONDS));
+            if (!connected.get()) {
+                Thread.sleep(5);
+            }
+        }
+        assertTrue(server.awaitConnected(5000));
+        assertTrue(client.awaitConnected(5000));
+    }
+
+    static void report(String direction, LoopbackSender sender, LoopbackEndpoint receiver) {
+        long[] latencies = receiver.getSortedLatencies();
+        double seconds = (receiver.getLastReceivedNanos() - sender.getStartNanos()) / 1e9;
+        System.out.println(String.format(Locale.US,
+                "%s: %d msgs in %.2fs, %.0f msgs/s, %.2f MB/s, latency ms p50 %.3f p90 %.3f "
+                        + "p99 %.3f p99.9 %.3f max %.3f",
+                direction, receiver.getReceived(), seconds, receiver.getReceived() / seconds,
+                receiver.getReceivedBytes() / seconds / 1e6,
+                LoopbackEndpoint.percentile(latencies, 50) / 1e6,
+                LoopbackEndpoint.percentile(latencies, 90) / 1e6,
+                LoopbackEndpoint.percentile(latencies, 99) / 1e6,
+                LoopbackEndpoint.percentile(latencies, 99.9) / 1e6,
+                LoopbackEndpoint.percentile(latencies, 100) / 1e6));
+    }
+}
@@ -0,0 +1,65 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.rules.ExternalResource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.com.kanamobi.wrappedbluetoothmessage.log.Logger;
+import br.com.kanamobi.wrappedbluetoothmessage.trace.Traces;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+/**
+ * A {@link MemoryTransport.Network} for each test, and the {@link LoopbackEndpoint}s on it,
+ * closed in the order they were made once the test and its {@code @After} methods are done.
+ *
+ * Logging and tracing are turned off, neither logcat nor systrace exist here. They are not
+ * restored afterwards, the service threads still log while they wind down.
+ */
+class LoopbackRule extends ExternalResource {
+
+    private final List<LoopbackEndpoint> mEndpoints = new ArrayList<LoopbackEndpoint>();
+    private MemoryTransport.Network mNetwork;
+
+    @Override
+    protected void before() {
+        Logger.setSink(null);
+        Traces.setTracer(null);
+        mNetwork = new MemoryTransport.Network();
+    }
+
+    @Override
+    protected void after() {
+        for (LoopbackEndpoint endpoint : mEndpoints) {
+            endpoint.close();
+        }
+        mEndpoints.clear();
+    }
+
+    MemoryTransport.Network getNetwork() {
+        return mNetwork;
+    }
+
+    /**
+     * A transport on the network of this test for the device with address and name.
+     */
+    MemoryTransport transport(String address, String name) {
+        return new MemoryTransport(mNetwork, address, name);
+    }
+
+    /**
+     * An endpoint of the device at address, talking over transport.
+     */
+    LoopbackEndpoint endpoint(MessageTransport transport, String address) {
+        LoopbackEndpoint endpoint = new LoopbackEndpoint(transport, address);
+        mEndpoints.add(endpoint);
+        return endpoint;
+    }
+
+    /**
+     * An endpoint of the device with address and name, straight on the network.
+     */
+    LoopbackEndpoint endpoint(String address, String name) {
+        return endpoint(transport(address, name), address);
+    }
+}
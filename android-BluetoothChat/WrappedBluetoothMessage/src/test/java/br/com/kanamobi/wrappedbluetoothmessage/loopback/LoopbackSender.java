@@ -0,0 +1,72 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes a workload through an endpoint from its own thread, cycling through the message
+ * sizes. A rate of 0 sends as fast as the transport takes it. With a fixed rate each message is
+ * stamped with the time it was due, so a stalled sender still shows up in the latencies.
+ */
+class LoopbackSender extends Thread {
+
+    private final LoopbackEndpoint mEndpoint;
+    private final long mDurationNanos;
+    private final int mRate;
+    private final int[] mSizes;
+    private final AtomicLong mSent = new AtomicLong();
+    private volatile long mStartNanos;
+
+    LoopbackSender(LoopbackEndpoint endpoint, long durationMillis, int rate, int[] sizes) {
+        super("sender-" + endpoint.getAddress());
+        mEndpoint = endpoint;
+        mDurationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        mRate = rate;
+        mSizes = sizes;
+    }
+
+    /**
+     * Message sizes from a comma separated list, at least big enough for the header.
+     */
+    static int[] parseSizes(String value) {
+        String[] parts = value.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            // Room for the sequence, the timestamp and the newline
+            sizes[i] = Math.max(48, Integer.parseInt(parts[i].trim()));
+        }
+        return sizes;
+    }
+
+    long getSent() {
+        return mSent.get();
+    }
+
+    long getStartNanos() {
+        return mStartNanos;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long end = start + mDurationNanos;
+        long interval = mRate > 0 ? TimeUnit.SECONDS.toNanos(1) / mRate : 0;
+        mStartNanos = start;
+
+        for (long sequence = 0; ; sequence++) {
+            long due = start + sequence * interval;
+            long now = System.nanoTime();
+            if (now >= end || due >= end) {
+                break;
+            }
+            while (due > now) {
+                LockSupport.parkNanos(due - now);
+                now = System.nanoTime();
+            }
+            mEndpoint.send(sequence, interval > 0 ? due : now,
+                    mSizes[(int) (sequence % mSizes.length)]);
+            mSent.incrementAndGet();
+        }
+    }
+}
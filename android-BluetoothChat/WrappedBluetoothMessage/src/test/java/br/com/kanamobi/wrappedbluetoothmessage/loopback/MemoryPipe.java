@@ -0,0 +1,122 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One direction of an in-memory connection: a bounded byte ring that the writer blocks on when
+ * full and the reader blocks on when empty. Like an RFCOMM socket, both sides throw once the
+ * pipe is closed.
+ */
+class MemoryPipe {
+
+    private final byte[] mRing;
+    // Guarded by this
+    private long mWritten;
+    private long mRead;
+    private boolean mClosed;
+
+    private final InputStream mInput = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return MemoryPipe.this.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() {
+            MemoryPipe.this.close();
+        }
+    };
+
+    private final OutputStream mOutput = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            MemoryPipe.this.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() {
+            MemoryPipe.this.close();
+        }
+    };
+
+    MemoryPipe(int capacity) {
+        mRing = new byte[capacity];
+    }
+
+    InputStream getInputStream() {
+        return mInput;
+    }
+
+    OutputStream getOutputStream() {
+        return mOutput;
+    }
+
+    synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (mWritten == mRead && !mClosed) {
+            waitUninterruptibly();
+        }
+        if (mClosed) {
+            throw new IOException("Pipe closed");
+        }
+
+        int count = (int) Math.min(length, mWritten - mRead);
+        for (int i = 0; i < count; i++) {
+            buffer[offset + i] = mRing[(int) ((mRead + i) % mRing.length)];
+        }
+        mRead += count;
+        notifyAll();
+        return count;
+    }
+
+    synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            while (mWritten - mRead == mRing.length && !mClosed) {
+                waitUninterruptibly();
+            }
+            if (mClosed) {
+                throw new IOException("Pipe closed");
+            }
+
+            int count = (int) Math.min(length, mRing.length - (mWritten - mRead));
+            for (int i = 0; i < count; i++) {
+                mRing[(int) ((mWritten + i) % mRing.length)] = buffer[offset + i];
+            }
+            mWritten += count;
+            offset += count;
+            length -= count;
+            notifyAll();
+        }
+    }
+
+    synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * The service threads are stopped by closing their sockets, not by interrupts.
+     */
+    private void waitUninterruptibly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
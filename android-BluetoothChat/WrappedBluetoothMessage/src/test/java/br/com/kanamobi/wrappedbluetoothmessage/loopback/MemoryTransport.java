@@ -0,0 +1,248 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageServerSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+/**
+ * {@link MessageTransport} between services in the same JVM. Every transport on the same
+ * {@link Network} is a device with its own address, connections go through a pair of
+ * {@link MemoryPipe}s.
+ */
+class MemoryTransport implements MessageTransport {
+
+    static final int DEFAULT_PIPE_CAPACITY = 64 * 1024;
+
+    private final Network mNetwork;
+    private final String mAddress;
+    private final String mName;
+
+    MemoryTransport(Network network, String address, String name) {
+        mNetwork = network;
+        mAddress = address;
+        mName = name;
+    }
+
+    String getAddress() {
+        return mAddress;
+    }
+
+    @Override
+    public MessageServerSocket listen(boolean secure) throws IOException {
+        Server server = new Server(mNetwork, mAddress, mName, secure);
+        mNetwork.register(server);
+        return server;
+    }
+
+    @Override
+    public MessageSocket createSocket(final String address, final boolean secure) {
+        return new MessageSocket() {
+            private volatile Socket mConnected;
+
+            @Override
+            public void connect() throws IOException {
+                mConnected = mNetwork.connect(address, secure, mAddress, mName);
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return connectedSocket().getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return connectedSocket().getOutputStream();
+            }
+
+            @Override
+            public void close() {
+                Socket socket = mConnected;
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+
+            @Override
+            public String getRemoteAddress() {
+                return address;
+            }
+
+            @Override
+            public String getRemoteName() {
+                return connectedSocket().getRemoteName();
+            }
+
+            private Socket connectedSocket() {
+                Socket socket = mConnected;
+                if (socket == null) {
+                    throw new IllegalStateException("Not connected");
+                }
+                return socket;
+            }
+        };
+    }
+
+    @Override
+    public void cancelDiscovery() {
+    }
+
+    /**
+     * The devices that can reach each other.
+     */
+    static class Network {
+        private final int mPipeCapacity;
+        // Guarded by this
+        private final HashMap<String, Server> mServers = new HashMap<String, Server>();
+
+        Network(int pipeCapacity) {
+            mPipeCapacity = pipeCapacity;
+        }
+
+        Network() {
+            this(DEFAULT_PIPE_CAPACITY);
+        }
+
+        synchronized void register(Server server) throws IOException {
+            String key = key(server.mAddress, server.mSecure);
+            if (mServers.containsKey(key)) {
+                throw new IOException("Already listening on " + key);
+            }
+            mServers.put(key, server);
+        }
+
+        synchronized void unregister(Server server) {
+            String key = key(server.mAddress, server.mSecure);
+            if (mServers.get(key) == server) {
+                mServers.remove(key);
+            }
+        }
+
+        /**
+         * Whether a server socket is open on address, for tests that must not be refused.
+         */
+        synchronized boolean isListening(String address, boolean secure) {
+            return mServers.containsKey(key(address, secure));
+        }
+
+        Socket connect(String address, boolean secure, String fromAddress, String fromName)
+                throws IOException {
+            Server server;
+            synchronized (this) {
+                server = mServers.get(key(address, secure));
+            }
+            if (server == null) {
+                throw new IOException("Connection refused: " + key(address, secure));
+            }
+
+            MemoryPipe toServer = new MemoryPipe(mPipeCapacity);
+            MemoryPipe toClient = new MemoryPipe(mPipeCapacity);
+            server.offer(new Socket(toServer, toClient, fromAddress, fromName));
+            return new Socket(toClient, toServer, address, server.mName);
+        }
+
+        private static String key(String address, boolean secure) {
+            return address + (secure ? "/secure" : "/insecure");
+        }
+    }
+
+    private static class Server implements MessageServerSocket {
+        private static final Socket CLOSED = new Socket(null, null, null, null);
+
+        private final Network mNetwork;
+        private final String mAddress;
+        private final String mName;
+        private final boolean mSecure;
+        private final BlockingQueue<Socket> mPending = new LinkedBlockingQueue<Socket>();
+        private volatile boolean mClosed;
+
+        Server(Network network, String address, String name, boolean secure) {
+            mNetwork = network;
+            mAddress = address;
+            mName = name;
+            mSecure = secure;
+        }
+
+        void offer(Socket socket) throws IOException {
+            if (mClosed) {
+                throw new IOException("Connection refused");
+            }
+            mPending.add(socket);
+        }
+
+        @Override
+        public MessageSocket accept() throws IOException {
+            Socket socket;
+            try {
+                socket = mPending.take();
+            } catch (InterruptedException e) {
+                throw new IOException("accept interrupted");
+            }
+            if (socket == CLOSED) {
+                mPending.add(CLOSED);
+                throw new IOException("Server socket closed");
+            }
+            return socket;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+            mNetwork.unregister(this);
+            mPending.add(CLOSED);
+        }
+    }
+
+    /**
+     * A connected end.
+     */
+    static class Socket implements MessageSocket {
+        private final MemoryPipe mIn;
+        private final MemoryPipe mOut;
+        private final String mRemoteAddress;
+        private final String mRemoteName;
+
+        Socket(MemoryPipe in, MemoryPipe out, String remoteAddress, String remoteName) {
+            mIn = in;
+            mOut = out;
+            mRemoteAddress = remoteAddress;
+            mRemoteName = remoteName;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mIn.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mOut.getOutputStream();
+        }
+
+        @Override
+        public void close() {
+            mIn.close();
+            mOut.close();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return mRemoteAddress;
+        }
+
+        @Override
+        public String getRemoteName() {
+            return mRemoteName;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package br.com.kanamobi.wrappedbluetoothmessage.loopback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import br.com.kanamobi.wrappedbluetoothmessage.BluetoothMessageService;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothConnectListener;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageServerSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageSocket;
+import br.com.kanamobi.wrappedbluetoothmessage.transport.MessageTransport;
+
+import static org.junit.Assert.*;
+
+/**
+ * A connect() while an earlier attempt is still waiting on a device that does not answer.
+ */
+public class ReplacedConnectTest {
+
+    private static final String ADDRESS_A = "00:00:00:00:00:0A";
+    private static final String ADDRESS_B = "00:00:00:00:00:0B";
+    private static final String SILENT_ADDRESS = "00:00:00:00:00:0C";
+
+    @Rule
+    public final LoopbackRule mLoopback = new LoopbackRule();
+
+    private LoopbackEndpoint mA;
+    private LoopbackEndpoint mB;
+    private final CountDownLatch mSilentConnecting = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        final MemoryTransport transport = mLoopback.transport(ADDRESS_B, "B");
+        mA = mLoopback.endpoint(ADDRESS_A, "A");
+        mB = mLoopback.endpoint(new MessageTransport() {
+            @Override
+            public MessageServerSocket listen(boolean secure) throws IOException {
+                return transport.listen(secure);
+            }
+
+            @Override
+            public MessageSocket createSocket(String address, boolean secure) {
+                if (SILENT_ADDRESS.equals(address)) {
+                    return new SilentSocket();
+                }
+                return transport.createSocket(address, secure);
+            }
+
+            @Override
+            public void cancelDiscovery() {
+            }
+        }, ADDRESS_B);
+    }
+
+    @Test
+    public void secondConnectReplacesThePendingOne() throws Exception {
+        mA.getService().start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!mLoopback.getNetwork().isListening(ADDRESS_A, true)) {
+            assertTrue("not listening", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        BluetoothMessageService client = mB.getService();
+
+        Result first = new Result();
+        client.connect(SILENT_ADDRESS, true, first);
+        assertTrue(mSilentConnecting.await(5, TimeUnit.SECONDS));
+        Result second = new Result();
+        client.connect(ADDRESS_A, true, second);
+
+        assertTrue(first.await());
+        assertFalse(first.mConnected.get());
+        assertTrue(second.await());
+        assertTrue(second.mConnected.get());
+        assertTrue(mA.awaitConnected(5000));
+        // Nothing the replaced attempt does later takes the new connection down
+        Thread.sleep(50);
+        assertEquals(BluetoothMessageService.STATE_CONNECTED, client.getState());
+        // Nor does cancelling it
+        client.cancelConnect(first);
+        assertEquals(BluetoothMessageService.STATE_CONNECTED, client.getState());
+    }
+
+    @Test
+    public void cancelledConnectGoesBackToListening() throws Exception {
+        BluetoothMessageService client = mB.getService();
+        Result attempt = new Result();
+        client.connect(SILENT_ADDRESS, true, attempt);
+        assertTrue(mSilentConnecting.await(5, TimeUnit.SECONDS));
+
+        client.cancelConnect(attempt);
+        assertTrue(attempt.await());
+        assertFalse(attempt.mConnected.get());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!mLoopback.getNetwork().isListening(ADDRESS_B, true)) {
+            assertTrue("not listening", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertNotEquals(BluetoothMessageService.STATE_CONNECTING, client.getState());
+    }
+
+    private static class Result implements BluetoothConnectListener {
+        final AtomicBoolean mConnected = new AtomicBoolean();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        @Override
+        public void onConnected(String deviceName, long latencyMillis) {
+            mConnected.set(true);
+            mDone.countDown();
+        }
+
+        @Override
+        public void onConnectionFailed(String address, long latencyMillis) {
+            mDone.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mDone.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Blocks in connect() until closed, like a device that is out of range.
+     */
+    private class SilentSocket implements MessageSocket {
+        private final CountDownLatch mClosed = new CountDownLatch(1);
+
+        @Override
+        public void connect() throws IOException {
+            mSilentConnecting.countDown();
+            try {
+                mClosed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Socket closed");
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            throw new IOException("Not connected");
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Not connected");
+        }
+
+        @Override
+        public void close() {
+            mClosed.countDown();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return SILENT_ADDRESS;
+        }
+
+        @Override
+        public String getRemoteName() {
+            return "C";
+        }
+    }
+}
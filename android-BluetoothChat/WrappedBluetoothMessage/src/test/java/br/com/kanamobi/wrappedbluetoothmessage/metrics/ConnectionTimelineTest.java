@@ -0,0 +1,98 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConnectionTimelineTest {
+
+    @Test
+    public void ringKeepsNewestEvents() {
+        ConnectionTimeline timeline = new ConnectionTimeline(3);
+        timeline.beginAttempt(ConnectionTimeline.CONNECT_REQUESTED);
+        timeline.record(ConnectionTimeline.DISCOVERY_CANCELLED);
+        timeline.record(ConnectionTimeline.CONNECT_ENTERED);
+        timeline.record(ConnectionTimeline.CONNECT_RETURNED);
+
+        List<ConnectionTimeline.Event> events = timeline.getEvents();
+        assertEquals(3, events.size());
+        assertEquals(ConnectionTimeline.DISCOVERY_CANCELLED, events.get(0).getEvent());
+        assertEquals(ConnectionTimeline.CONNECT_RETURNED, events.get(2).getEvent());
+        assertEquals(1, events.get(2).getAttempt());
+    }
+
+    @Test
+    public void dumpRoundTrips() {
+        ConnectionTimeline timeline = new ConnectionTimeline();
+        timeline.beginAttempt(ConnectionTimeline.LISTEN);
+        timeline.record(ConnectionTimeline.ACCEPT_STARTED);
+        timeline.beginAttempt(ConnectionTimeline.CONNECT_REQUESTED);
+
+        List<ConnectionTimeline.Event> parsed = ConnectionTimeline.parse(timeline.dump());
+        List<ConnectionTimeline.Event> events = timeline.getEvents();
+        assertEquals(events.size(), parsed.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(events.get(i).getTimeNanos(), parsed.get(i).getTimeNanos());
+            assertEquals(events.get(i).getEvent(), parsed.get(i).getEvent());
+            assertEquals(events.get(i).getAttempt(), parsed.get(i).getAttempt());
+        }
+    }
+
+    @Test
+    public void analyzerMeasuresPhasesAndReconnects() {
+        List<ConnectionTimeline.Event> events = Arrays.asList(
+                event(0, ConnectionTimeline.CONNECT_REQUESTED, 1),
+                event(10, ConnectionTimeline.CONNECT_ENTERED, 1),
+                event(2010, ConnectionTimeline.CONNECT_RETURNED, 1),
+                event(2011, ConnectionTimeline.CONNECTED, 1),
+                event(5000, ConnectionTimeline.CONNECTION_LOST, 1),
+                event(5001, ConnectionTimeline.LISTEN, 2),
+                event(5002, ConnectionTimeline.ACCEPT_STARTED, 2),
+                event(5002, ConnectionTimeline.ACCEPT_STARTED, 2),
+                event(25000, ConnectionTimeline.ACCEPT_RETURNED, 2),
+                event(25001, ConnectionTimeline.CONNECTED, 2));
+
+        Map<String, TimelineAnalyzer.PhaseStats> phases = TimelineAnalyzer.analyze(events);
+
+        assertEquals(millis(2000),
+                phases.get("connect entered -> connect returned").getMaxNanos());
+        assertEquals(millis(2011),
+                phases.get("attempt (connect requested -> connected)").getMaxNanos());
+        assertEquals(millis(20001), phases.get(TimelineAnalyzer.RECONNECT).getMaxNanos());
+        assertEquals(1, phases.get("accept started -> accept returned").getCount());
+        assertFalse(phases.containsKey("accept started -> accept started"));
+    }
+
+    @Test
+    public void dumpsAreAnalyzedSeparately() {
+        // The first process lost its connection, the second starts over from attempt 1
+        List<ConnectionTimeline.Event> first = Arrays.asList(
+                event(0, ConnectionTimeline.CONNECT_REQUESTED, 1),
+                event(100, ConnectionTimeline.CONNECTED, 1),
+                event(500, ConnectionTimeline.CONNECTION_LOST, 1));
+        List<ConnectionTimeline.Event> second = Arrays.asList(
+                event(0, ConnectionTimeline.LISTEN, 1),
+                event(300, ConnectionTimeline.CONNECTED, 1));
+
+        Map<String, TimelineAnalyzer.PhaseStats> phases =
+                TimelineAnalyzer.analyzeDumps(Arrays.asList(first, second));
+
+        assertFalse(phases.containsKey(TimelineAnalyzer.RECONNECT));
+        assertFalse(phases.containsKey("connection lost -> listen"));
+        assertEquals(millis(300),
+                phases.get("attempt (listen -> connected)").getMaxNanos());
+        assertEquals(1, phases.get("attempt (connect requested -> connected)").getCount());
+    }
+
+    private static ConnectionTimeline.Event event(long millis, int event, int attempt) {
+        return new ConnectionTimeline.Event(millis(millis), event, attempt);
+    }
+
+    private static long millis(long millis) {
+        return millis * 1000000L;
+    }
+}
@@ -0,0 +1,35 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesUseBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(800000L);      // 0.8 ms, lands in the 1 ms bucket
+        }
+        histogram.record(40000000L);        // 40 ms, lands in the 50 ms bucket
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(1000000L, snapshot.getPercentileNanos(50));
+        assertEquals(1000000L, snapshot.getPercentileNanos(99));
+        assertEquals(40000000L, snapshot.getPercentileNanos(100));
+        assertEquals(40000000L, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void valuesAboveTheLastBoundAreKept() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(60000000000L);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        long[] counts = snapshot.getBucketCounts();
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(60000000000L, snapshot.getPercentileNanos(99));
+    }
+}
@@ -0,0 +1,44 @@
+package br.com.kanamobi.wrappedbluetoothmessage.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void queueDepthStaysWithTheConnectionThatQueued() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.onConnected("00:00:00:00:00:0A");
+        ConnectionMetrics first = metrics.onEnqueued();
+        ConnectionMetrics.Snapshot old = first.snapshot();
+        assertEquals(1, old.getQueueDepth());
+
+        // Handled only after the link switched to another device
+        metrics.onConnected("00:00:00:00:00:0B");
+        ConnectionMetrics second = metrics.onEnqueued();
+        metrics.onDispatched(first, 1000);
+
+        assertEquals(0, first.snapshot().getQueueDepth());
+        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+        assertEquals("00:00:00:00:00:0B", snapshot.getConnection().getDeviceAddress());
+        assertEquals(1, snapshot.getConnection().getQueueDepth());
+        assertEquals(1, snapshot.getTotal().getQueueDepth());
+
+        metrics.onDispatched(second, 1000);
+        assertEquals(0, metrics.snapshot().getConnection().getQueueDepth());
+        assertEquals(0, metrics.snapshot().getTotal().getQueueDepth());
+    }
+
+    @Test
+    public void messagesQueuedBeforeAnyConnectionCountOnlyInTheTotal() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConnectionMetrics none = metrics.onEnqueued();
+        assertNull(none);
+
+        metrics.onConnected("00:00:00:00:00:0A");
+        metrics.onDispatched(none, 1000);
+        assertEquals(0, metrics.snapshot().getConnection().getQueueDepth());
+        assertEquals(0, metrics.snapshot().getTotal().getQueueDepth());
+    }
+}
@@ -0,0 +1,78 @@
+package br.com.kanamobi.wrappedbluetoothmessage.reactive;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InboundMessagePublisherTest {
+
+    @Test
+    public void completeWaitsForOnNextToReturn() throws Exception {
+        final InboundMessagePublisher publisher = new InboundMessagePublisher();
+        final CountDownLatch inOnNext = new CountDownLatch(1);
+        final CountDownLatch leaveOnNext = new CountDownLatch(1);
+        final List<String> signals = Collections.synchronizedList(new ArrayList<String>());
+
+        publisher.subscribe(new Subscriber<byte[]>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(byte[] message) {
+                signals.add("next begin");
+                inOnNext.countDown();
+                try {
+                    leaveOnNext.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                signals.add("next end");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add("error");
+            }
+
+            @Override
+            public void onComplete() {
+                signals.add("complete");
+            }
+        });
+
+        // The read thread
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                publisher.publish(new byte[] {'a'}, 0, 1);
+            }
+        };
+        reader.start();
+        assertTrue(inOnNext.await(5, TimeUnit.SECONDS));
+
+        // stop() on another thread, onComplete must not overlap onNext
+        publisher.complete();
+        assertEquals(Collections.singletonList("next begin"), new ArrayList<String>(signals));
+        leaveOnNext.countDown();
+        reader.join(5000);
+
+        assertEquals(3, signals.size());
+        assertEquals("next end", signals.get(1));
+        assertEquals("complete", signals.get(2));
+
+        // Nothing after the terminal signal
+        publisher.publish(new byte[] {'b'}, 0, 1);
+        publisher.complete();
+        assertEquals(3, signals.size());
+    }
+}
@@ -0,0 +1,36 @@
+package br.com.kanamobi.wrappedbluetoothmessage.trace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+
+import br.com.kanamobi.wrappedbluetoothmessage.metrics.LatencyHistogram;
+
+import static org.junit.Assert.*;
+
+public class SectionTimingTracerTest {
+
+    @After
+    public void tearDown() {
+        Traces.setTracer(null);
+    }
+
+    @Test
+    public void nestedSectionsAreTimedSeparately() throws InterruptedException {
+        SectionTimingTracer tracer = new SectionTimingTracer();
+        Traces.setTracer(tracer);
+
+        Traces.begin(Traces.DISPATCH);
+        Traces.begin(Traces.DECODE);
+        Traces.end();
+        Thread.sleep(5);
+        Traces.end();
+
+        Map<String, LatencyHistogram.Snapshot> timings = tracer.getTimings();
+        assertEquals(1, timings.get(Traces.DISPATCH).getCount());
+        assertEquals(1, timings.get(Traces.DECODE).getCount());
+        assertTrue(timings.get(Traces.DISPATCH).getMaxNanos() >= 5000000L);
+        assertTrue(timings.get(Traces.DECODE).getMaxNanos() < timings.get(Traces.DISPATCH).getMaxNanos());
+    }
+}
@@ -0,0 +1,59 @@
+package br.com.kanamobi.wrappedbluetoothmessage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import br.com.kanamobi.wrappedbluetoothmessage.chunk.ChunkId;
+import br.com.kanamobi.wrappedbluetoothmessage.chunk.ContentChunker;
+
+/**
+ * What making the manifest of a file costs the sender of a ChunkTransfer: splitting it with
+ * {@link ContentChunker}, and that plus hashing every chunk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class ContentChunkerBenchmark {
+
+    @Param({"65536", "1048576", "4194304"})
+    public int size;
+
+    private byte[] mData;
+
+    @Setup
+    public void setUp() {
+        mData = new byte[size];
+        new Random(size).nextBytes(mData);
+    }
+
+    @Benchmark
+    public int split(ByteCounter counter) throws IOException {
+        counter.bytes += mData.length;
+        ContentChunker chunker = new ContentChunker(new ByteArrayInputStream(mData));
+        int chunks = 0;
+        while (chunker.next() != null) {
+            chunks++;
+        }
+        return chunks;
+    }
+
+    @Benchmark
+    public ChunkId splitAndHash(ByteCounter counter) throws IOException {
+        counter.bytes += mData.length;
+        ContentChunker chunker = new ContentChunker(new ByteArrayInputStream(mData));
+        ChunkId last = null;
+        byte[] chunk;
+        while ((chunk = chunker.next()) != null) {
+            last = ChunkId.of(chunk);
+        }
+        return last;
+    }
+}
@@ -0,0 +1,98 @@
+package br.com.kanamobi.wrappedbluetoothmessage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import br.com.kanamobi.wrappedbluetoothmessage.asset.GlbReader;
+import br.com.kanamobi.wrappedbluetoothmessage.asset.GltfTranscoder;
+
+/**
+ * {@link GltfTranscoder} and {@link GlbReader} on a model with one embedded buffer of the given
+ * size, the shape Blender exports .gltf files in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class GltfTranscodeBenchmark {
+
+    @Param({"65536", "1048576", "4194304"})
+    public int size;
+
+    private byte[] mGltf;
+    private byte[] mGlb;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] buffer = new byte[size];
+        new Random(size).nextBytes(buffer);
+        ByteArrayOutputStream gltf = new ByteArrayOutputStream();
+        // Encoded by round-tripping through a GLB, which writes buffer 0 as a data URI
+        ByteArrayOutputStream glb = new ByteArrayOutputStream();
+        writeGlb(buffer, glb);
+        new GlbReader(new ByteArrayInputStream(glb.toByteArray())).writeGltf(gltf);
+        mGltf = gltf.toByteArray();
+        mGlb = glb.toByteArray();
+    }
+
+    @Benchmark
+    public long transcode(ByteCounter counter) throws IOException {
+        counter.bytes += mGltf.length;
+        return GltfTranscoder.transcode(new ByteArrayInputStream(mGltf), new Discard());
+    }
+
+    @Benchmark
+    public void writeGltf(ByteCounter counter) throws IOException {
+        counter.bytes += mGlb.length;
+        new GlbReader(new ByteArrayInputStream(mGlb)).writeGltf(new Discard());
+    }
+
+    /**
+     * A GLB with a JSON chunk describing the buffer and a binary chunk holding it.
+     */
+    private static void writeGlb(byte[] buffer, OutputStream output) throws IOException {
+        byte[] json = ("{\"asset\":{\"version\":\"2.0\"},\"buffers\":[{\"byteLength\":"
+                + buffer.length + "}],\"bufferViews\":[{\"buffer\":0,\"byteLength\":"
+                + buffer.length + "}]}").getBytes("UTF-8");
+        int jsonLength = (json.length + 3) & ~3;
+        int binaryLength = (buffer.length + 3) & ~3;
+        output.write(ints(0x46546c67, 2, 12 + 8 + jsonLength + 8 + binaryLength,
+                jsonLength, 0x4e4f534a));
+        output.write(json);
+        for (int i = json.length; i < jsonLength; i++) {
+            output.write(' ');
+        }
+        output.write(ints(binaryLength, 0x004e4942));
+        output.write(buffer);
+        output.write(new byte[binaryLength - buffer.length]);
+    }
+
+    private static byte[] ints(int... values) {
+        byte[] bytes = new byte[values.length * 4];
+        for (int i = 0; i < values.length; i++) {
+            for (int b = 0; b < 4; b++) {
+                bytes[i * 4 + b] = (byte) (values[i] >> (8 * b));
+            }
+        }
+        return bytes;
+    }
+
+    private static class Discard extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+    }
+}
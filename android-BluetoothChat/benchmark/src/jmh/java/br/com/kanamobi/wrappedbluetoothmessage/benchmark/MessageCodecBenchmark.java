@@ -0,0 +1,44 @@
+package br.com.kanamobi.wrappedbluetoothmessage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import br.com.kanamobi.wrappedbluetoothmessage.codec.MessageCodec;
+
+/**
+ * {@link MessageCodec} as used by BluetoothMessageService.write and the read dispatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MessageCodecBenchmark {
+
+    @Param({"16", "256", "4096", "65536"})
+    public int size;
+
+    private String mMessage;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() {
+        mMessage = Messages.text(size);
+        mEncoded = MessageCodec.encode(mMessage);
+    }
+
+    @Benchmark
+    public byte[] encode(ByteCounter counter) {
+        byte[] encoded = MessageCodec.encode(mMessage);
+        counter.bytes += encoded.length;
+        return encoded;
+    }
+
+    @Benchmark
+    public String decode(ByteCounter counter) {
+        counter.bytes += mEncoded.length;
+        return MessageCodec.decode(mEncoded, 0, mEncoded.length);
+    }
+}
@@ -0,0 +1,165 @@
+package br.com.kanamobi.wrappedbluetoothmessage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.BluetoothStreamListener;
+import br.com.kanamobi.wrappedbluetoothmessage.callbacks.StreamListenerList;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.FrameCodec;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.FrameDecoder;
+import br.com.kanamobi.wrappedbluetoothmessage.codec.MessageCodec;
+import br.com.kanamobi.wrappedbluetoothmessage.dedupe.SeenSet;
+import br.com.kanamobi.wrappedbluetoothmessage.metrics.MetricsRegistry;
+import br.com.kanamobi.wrappedbluetoothmessage.reactive.InboundMessagePublisher;
+
+/**
+ * What the service does around each read and write on the connected socket: metrics, the
+ * stream listener fan-out, framing, dropping duplicates, decoding or encoding the message, and
+ * the Reactive Streams copy of it. Only the socket and the main thread Handler are left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MessagePathBenchmark {
+
+    @Param({"16", "256", "4096", "65536"})
+    public int size;
+
+    private byte[] mReadBuffer;
+    private String mMessage;
+    private String mDecoded;
+    private long mMessageId;
+    private final FrameDecoder mDecoder = new FrameDecoder();
+    private final SeenSet mSeen = new SeenSet(1024);
+    private final FrameDecoder.Callback mOnFrame = new FrameDecoder.Callback() {
+        @Override
+        public void onFrame(int type, byte[] payload, int offset, int length) {
+            if (mSeen.add(FrameCodec.getLong(payload, offset))) {
+                mMetrics.onMessageIn();
+                int textOffset = offset + FrameCodec.MESSAGE_ID_LENGTH;
+                int textLength = length - FrameCodec.MESSAGE_ID_LENGTH;
+                mDecoded = MessageCodec.decode(payload, textOffset, textLength);
+                mPublisher.publish(payload, textOffset, textLength);
+            }
+        }
+    };
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final StreamListenerList mListeners = new StreamListenerList();
+    private final InboundMessagePublisher mPublisher = new InboundMessagePublisher();
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mMessage = Messages.text(size);
+        // A read that holds exactly one frame
+        mReadBuffer = FrameCodec.encodeText(0, MessageCodec.encode(mMessage));
+
+        mMetrics.onConnected("00:11:22:AA:BB:CC");
+
+        // Two listeners, like the discovery scheduler and a coroutine collector
+        for (int i = 0; i < 2; i++) {
+            mListeners.add(new BluetoothStreamListener() {
+                @Override
+                public void onStateChanged(int state) {
+                }
+
+                @Override
+                public void onConnectionFailed() {
+                }
+
+                @Override
+                public void onConnectionLost() {
+                }
+
+                @Override
+                public void onBytesRead(byte[] buffer, int length) {
+                    blackhole.consume(length);
+                }
+
+                @Override
+                public void onBytesWritten(byte[] buffer) {
+                    blackhole.consume(buffer);
+                }
+            });
+        }
+
+        mPublisher.subscribe(new Subscriber<byte[]>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(byte[] bytes) {
+                blackhole.consume(bytes);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    /**
+     * Listener fan-out alone.
+     */
+    @Benchmark
+    public void dispatch(ByteCounter counter) {
+        mListeners.onBytesRead(mReadBuffer, mReadBuffer.length);
+        counter.bytes += mReadBuffer.length;
+    }
+
+    /**
+     * Copy of the message handed to the Reactive Streams subscriber.
+     */
+    @Benchmark
+    public void publish(ByteCounter counter) {
+        int textOffset = FrameCodec.HEADER_LENGTH + FrameCodec.MESSAGE_ID_LENGTH;
+        int textLength = mReadBuffer.length - textOffset;
+        mPublisher.publish(mReadBuffer, textOffset, textLength);
+        counter.bytes += textLength;
+    }
+
+    /**
+     * Everything after mmInStream.read, up to the message the UI listener gets.
+     */
+    @Benchmark
+    public String read(ByteCounter counter) throws IOException {
+        int bytes = mReadBuffer.length;
+        // A new message every time, as the socket would read
+        FrameCodec.putLong(mReadBuffer, FrameCodec.HEADER_LENGTH, ++mMessageId);
+        mMetrics.onRead(bytes);
+        mListeners.onBytesRead(mReadBuffer, bytes);
+        mMetrics.onDispatched(mMetrics.onEnqueued(), 0);
+        counter.bytes += bytes;
+        mDecoder.feed(mReadBuffer, bytes, mOnFrame);
+        return mDecoded;
+    }
+
+    /**
+     * Everything in BluetoothMessageService.write except the socket.
+     */
+    @Benchmark
+    public void write(ByteCounter counter) {
+        long start = System.nanoTime();
+        byte[] out = FrameCodec.encodeText(++mMessageId, MessageCodec.encode(mMessage));
+        mMetrics.onWrite(out.length, System.nanoTime() - start);
+        mMetrics.onMessageOut();
+        mListeners.onBytesWritten(out);
+        // Queued for the main thread and handled there, as in read()
+        mMetrics.onDispatched(mMetrics.onEnqueued(), 0);
+        counter.bytes += out.length;
+    }
+}
@@ -0,0 +1,22 @@
+package br.com.kanamobi.wrappedbluetoothmessage.benchmark;
+
+/**
+ * Message payloads shared by the benchmarks.
+ */
+final class Messages {
+
+    private Messages() {
+    }
+
+    /**
+     * Chat-like text of exactly size characters, mostly ASCII with a few two byte characters.
+     */
+    static String text(int size) {
+        String words = "Olá, the quick brown fox jumps over the lazy dog. ";
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append(words, 0, Math.min(words.length(), size - builder.length()));
+        }
+        return builder.toString();
+    }
+}